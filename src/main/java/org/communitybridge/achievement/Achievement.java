@@ -10,6 +10,7 @@ import org.bukkit.configuration.file.YamlConfiguration;
 import org.bukkit.entity.Player;
 import org.bukkit.inventory.Inventory;
 import org.bukkit.inventory.ItemStack;
+import org.communitybridge.main.Admission;
 import org.communitybridge.main.BukkitWrapper;
 import org.communitybridge.main.Environment;
 
@@ -48,6 +49,19 @@ public abstract class Achievement
 		}
 	}
 
+	/**
+	 * Returns the snapshot taken when the player logged in, if it is still
+	 * fresh, or null.
+	 */
+	protected Admission getAdmission(Player player)
+	{
+		if (environment.getAdmissionCheck() == null)
+		{
+			return null;
+		}
+		return environment.getAdmissionCheck().getSnapshot(player.getUniqueId());
+	}
+
 	protected boolean canRewardAllItemRewards(Player player)
 	{
 		final Inventory testInventory = bukkit.getServer().createInventory(null, player.getInventory().getType());
@@ -1,6 +1,7 @@
 package org.communitybridge.achievement;
 
 import org.bukkit.entity.Player;
+import org.communitybridge.main.Admission;
 import org.communitybridge.main.Environment;
 
 public class AchievementAvatar extends Achievement
@@ -14,11 +15,21 @@ public class AchievementAvatar extends Achievement
 	public boolean playerQualifies(Player player, PlayerAchievementState state)
 	{
 		return environment.getConfiguration().avatarEnabled
-				&& environment.getWebApplication().playerHasAvatar(environment.getUserPlayerLinker().getUserID(player))
+				&& hasAvatar(player)
 				&& state.getAvatarAchievements() < limit
 				&& canRewardAllItemRewards(player);
 	}
 
+	private boolean hasAvatar(Player player)
+	{
+		Admission admission = getAdmission(player);
+		if (admission != null && admission.hasAvatar() != null)
+		{
+			return admission.hasAvatar();
+		}
+		return environment.getWebApplication().playerHasAvatar(environment.getUserPlayerLinker().getUserID(player));
+	}
+
 	@Override
 	public void rewardPlayer(Player player, PlayerAchievementState state)
 	{
@@ -1,6 +1,7 @@
 package org.communitybridge.achievement;
 
 import org.bukkit.entity.Player;
+import org.communitybridge.main.Admission;
 import org.communitybridge.main.Environment;
 
 public class AchievementPostCount extends Achievement
@@ -16,11 +17,21 @@ public class AchievementPostCount extends Achievement
 	public boolean playerQualifies(Player player, PlayerAchievementState state)
 	{
 		return environment.getConfiguration().postCountEnabled
-				&& environment.getWebApplication().getUserPostCount(environment.getUserPlayerLinker().getUserID(player)) >= postCount
+				&& getUserPostCount(player) >= postCount
 				&& state.getPostCountAchievements(Integer.toString(postCount))< limit
 				&& canRewardAllItemRewards(player);
 	}
 
+	private int getUserPostCount(Player player)
+	{
+		Admission admission = getAdmission(player);
+		if (admission != null && admission.getPostCount() != null)
+		{
+			return admission.getPostCount();
+		}
+		return environment.getWebApplication().getUserPostCount(environment.getUserPlayerLinker().getUserID(player));
+	}
+
 	@Override
 	public void rewardPlayer(Player player, PlayerAchievementState state)
 	{
@@ -0,0 +1,342 @@
+package org.communitybridge.linker;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Caches the user ID linked to each player identifier (a UUID or a player
+ * name).
+ *
+ * The cache holds at most maximumSize entries and evicts the least recently
+ * used one to make room, rather than emptying itself when full. Entries
+ * expire timeToLive milliseconds after they were loaded. Once an entry is
+ * within refreshAhead milliseconds of expiring, the next lookup of it is
+ * told to reload it in the background, so players who stay online keep a
+ * fresh entry without ever waiting on the database.
+ *
+ * Players who aren't linked are cached with an empty user ID. Those entries
+ * use the shorter unlinkedTimeToLive and are never refreshed ahead, so that
+ * a player who registers on the web application is picked up soon after.
+ *
+ * Expired entries are kept until evicted, so that their last known value can
+ * still be used while the database is down.
+ *
+ * A reverse index from user ID to identifiers is kept alongside the entries
+ * and updated under the same lock, so that finding the player linked to a
+ * user ID doesn't mean looking through every entry. A user can be cached
+ * under both their UUID and their name.
+ */
+public class LinkCache
+{
+	private int maximumSize;
+	private long timeToLive;
+	private long unlinkedTimeToLive;
+	private long refreshAhead;
+
+	private final LinkedHashMap<String, Entry> entries;
+	private final Map<String, Set<String>> identifiersByUserID = new HashMap<String, Set<String>>();
+
+	private long hitCount;
+	private long unlinkedHitCount;
+	private long missCount;
+	private long expiredCount;
+	private long evictionCount;
+	private long refreshCount;
+
+	/**
+	 * @param timeToLive         Milliseconds an entry is used for; 0 or less
+	 *                           for entries that never expire.
+	 * @param unlinkedTimeToLive The same, for entries of unlinked players.
+	 * @param refreshAhead       Milliseconds before expiry from which a lookup
+	 *                           asks for the entry to be reloaded; 0 to turn
+	 *                           off.
+	 */
+	public LinkCache(int maximumSize, long timeToLive, long unlinkedTimeToLive, long refreshAhead)
+	{
+		this.maximumSize = Math.max(1, maximumSize);
+		this.timeToLive = timeToLive;
+		this.unlinkedTimeToLive = unlinkedTimeToLive;
+		this.refreshAhead = timeToLive > 0 ? Math.min(Math.max(0, refreshAhead), timeToLive) : 0;
+		this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	}
+
+	/**
+	 * Returns the cached user ID, or null if there is none or it has expired.
+	 */
+	public synchronized String get(String identifier)
+	{
+		Entry entry = entries.get(identifier);
+		if (entry == null)
+		{
+			missCount++;
+			return null;
+		}
+		if (isExpired(entry, System.currentTimeMillis()))
+		{
+			expiredCount++;
+			missCount++;
+			return null;
+		}
+		hitCount++;
+		if (entry.userID.isEmpty())
+		{
+			unlinkedHitCount++;
+		}
+		return entry.userID;
+	}
+
+	/**
+	 * Returns the cached user ID even if it has expired, or null if there is
+	 * none. Lookups made this way are not counted.
+	 */
+	public synchronized String getStale(String identifier)
+	{
+		Entry entry = entries.get(identifier);
+		return entry == null ? null : entry.userID;
+	}
+
+	/**
+	 * True if the entry is due to be reloaded and no reload is under way. The
+	 * entry is marked as reloading, and stays that way until it is replaced
+	 * by put or the caller calls endRefresh.
+	 */
+	public synchronized boolean startRefresh(String identifier)
+	{
+		if (refreshAhead <= 0)
+		{
+			return false;
+		}
+		Entry entry = entries.get(identifier);
+		if (entry == null || entry.refreshing || entry.userID.isEmpty())
+		{
+			return false;
+		}
+		long now = System.currentTimeMillis();
+		if (isExpired(entry, now) || now < entry.expires - refreshAhead)
+		{
+			return false;
+		}
+		entry.refreshing = true;
+		refreshCount++;
+		return true;
+	}
+
+	public synchronized void endRefresh(String identifier)
+	{
+		Entry entry = entries.get(identifier);
+		if (entry != null)
+		{
+			entry.refreshing = false;
+		}
+	}
+
+	public synchronized void put(String identifier, String userID)
+	{
+		long lifetime = userID.isEmpty() ? unlinkedTimeToLive : timeToLive;
+		Entry previous = entries.put(identifier, new Entry(userID, lifetime > 0 ? System.currentTimeMillis() + lifetime : 0));
+		if (previous != null)
+		{
+			unindex(identifier, previous.userID);
+		}
+		index(identifier, userID);
+		evict();
+	}
+
+	/**
+	 * Adds an entry that was saved earlier, with the expiry time it was saved
+	 * with, unless the identifier has been cached since. Each restored entry
+	 * becomes the most recently used, so entries should be restored least
+	 * recently used first.
+	 */
+	public synchronized void restore(Link link)
+	{
+		if (entries.containsKey(link.getIdentifier()))
+		{
+			return;
+		}
+		entries.put(link.getIdentifier(), new Entry(link.getUserID(), link.getExpires()));
+		index(link.getIdentifier(), link.getUserID());
+		evict();
+	}
+
+	/**
+	 * Returns a copy of the entries, least recently used first, for saving.
+	 * Expired entries are included.
+	 */
+	public synchronized List<Link> getLinks()
+	{
+		List<Link> links = new ArrayList<Link>(entries.size());
+		for (Map.Entry<String, Entry> entry : entries.entrySet())
+		{
+			links.add(new Link(entry.getKey(), entry.getValue().userID, entry.getValue().expires));
+		}
+		return links;
+	}
+
+	public synchronized void remove(String identifier)
+	{
+		Entry entry = entries.remove(identifier);
+		if (entry != null)
+		{
+			unindex(identifier, entry.userID);
+		}
+	}
+
+	/**
+	 * True if there is an entry that hasn't expired. Lookups made this way are
+	 * not counted.
+	 */
+	public synchronized boolean isCached(String identifier)
+	{
+		Entry entry = entries.get(identifier);
+		return entry != null && !isExpired(entry, System.currentTimeMillis());
+	}
+
+	public synchronized boolean containsKey(String identifier)
+	{
+		return entries.containsKey(identifier);
+	}
+
+	public synchronized int size()
+	{
+		return entries.size();
+	}
+
+	/**
+	 * Returns the first identifier cached with the given user ID that hasn't
+	 * expired, or null if there is none.
+	 */
+	public synchronized String findIdentifier(String userID)
+	{
+		Set<String> identifiers = identifiersByUserID.get(userID);
+		if (identifiers == null)
+		{
+			return null;
+		}
+		long now = System.currentTimeMillis();
+		for (String identifier : identifiers)
+		{
+			if (!isExpired(entries.get(identifier), now))
+			{
+				return identifier;
+			}
+		}
+		return null;
+	}
+
+	public synchronized String getStatistics()
+	{
+		long lookups = hitCount + missCount;
+		return "size=" + entries.size() + "/" + maximumSize
+				 + " hits=" + hitCount
+				 + " unlinked-hits=" + unlinkedHitCount
+				 + " misses=" + missCount
+				 + " hit-rate=" + (lookups == 0 ? 0 : Math.round(hitCount * 1000.0 / lookups) / 10.0) + "%"
+				 + " expired=" + expiredCount
+				 + " evictions=" + evictionCount
+				 + " refreshes=" + refreshCount;
+	}
+
+	private void evict()
+	{
+		Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+		while (entries.size() > maximumSize && iterator.hasNext())
+		{
+			Map.Entry<String, Entry> eldest = iterator.next();
+			iterator.remove();
+			unindex(eldest.getKey(), eldest.getValue().userID);
+			evictionCount++;
+		}
+	}
+
+	private boolean isExpired(Entry entry, long now)
+	{
+		return entry.expires > 0 && now >= entry.expires;
+	}
+
+	/**
+	 * Unlinked players are cached with an empty user ID, which isn't worth
+	 * indexing.
+	 */
+	private void index(String identifier, String userID)
+	{
+		if (userID.isEmpty())
+		{
+			return;
+		}
+		Set<String> identifiers = identifiersByUserID.get(userID);
+		if (identifiers == null)
+		{
+			identifiers = new LinkedHashSet<String>();
+			identifiersByUserID.put(userID, identifiers);
+		}
+		identifiers.add(identifier);
+	}
+
+	private void unindex(String identifier, String userID)
+	{
+		Set<String> identifiers = identifiersByUserID.get(userID);
+		if (identifiers != null)
+		{
+			identifiers.remove(identifier);
+			if (identifiers.isEmpty())
+			{
+				identifiersByUserID.remove(userID);
+			}
+		}
+	}
+
+	private static class Entry
+	{
+		private String userID;
+		private long expires;
+		private boolean refreshing;
+
+		/**
+		 * @param expires Time the entry expires at, or 0 if it never does.
+		 */
+		Entry(String userID, long expires)
+		{
+			this.userID = userID;
+			this.expires = expires;
+		}
+	}
+
+	public static class Link
+	{
+		private String identifier;
+		private String userID;
+		private long expires;
+
+		/**
+		 * @param expires Time the entry expires at, or 0 if it never does.
+		 */
+		public Link(String identifier, String userID, long expires)
+		{
+			this.identifier = identifier;
+			this.userID = userID;
+			this.expires = expires;
+		}
+
+		public String getIdentifier()
+		{
+			return identifier;
+		}
+
+		public String getUserID()
+		{
+			return userID;
+		}
+
+		public long getExpires()
+		{
+			return expires;
+		}
+	}
+}
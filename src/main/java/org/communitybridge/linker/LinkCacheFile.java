@@ -0,0 +1,118 @@
+package org.communitybridge.linker;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Saves the link cache to a file and loads it back, so that a restart or a
+ * reload doesn't begin with an empty cache.
+ *
+ * The file starts with a marker, a format version and a fingerprint of the
+ * database and linking settings the links were read with, followed by each
+ * entry's identifier, user ID and expiry time, least recently used first.
+ * A file written for other settings is ignored. Saving writes a temporary
+ * file that then replaces the old one, so a crash part way through leaves
+ * the previous snapshot in place.
+ */
+public class LinkCacheFile
+{
+	private static final int MARKER = 0x43424C43;
+	private static final int VERSION = 1;
+
+	private File file;
+	private String fingerprint;
+
+	public LinkCacheFile(File file, String fingerprint)
+	{
+		this.file = file;
+		this.fingerprint = fingerprint;
+	}
+
+	public File getFile()
+	{
+		return file;
+	}
+
+	/**
+	 * Returns the number of entries saved.
+	 */
+	public int save(LinkCache cache) throws IOException
+	{
+		List<LinkCache.Link> links = cache.getLinks();
+		File temporary = new File(file.getPath() + ".tmp");
+		DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)));
+		try
+		{
+			output.writeInt(MARKER);
+			output.writeInt(VERSION);
+			output.writeUTF(fingerprint);
+			output.writeInt(links.size());
+			for (LinkCache.Link link : links)
+			{
+				output.writeUTF(link.getIdentifier());
+				output.writeUTF(link.getUserID());
+				output.writeLong(link.getExpires());
+			}
+		}
+		finally
+		{
+			output.close();
+		}
+		Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		return links.size();
+	}
+
+	/**
+	 * Restores the saved entries into the cache and returns their
+	 * identifiers. Returns an empty list if there is no file or it was saved
+	 * for other settings.
+	 */
+	public List<String> load(LinkCache cache) throws IOException
+	{
+		if (!file.exists())
+		{
+			return Collections.emptyList();
+		}
+
+		// Everything is read before anything is restored, so a damaged file
+		// restores nothing.
+		List<LinkCache.Link> links;
+		DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try
+		{
+			if (input.readInt() != MARKER || input.readInt() != VERSION || !input.readUTF().equals(fingerprint))
+			{
+				return Collections.emptyList();
+			}
+			int count = input.readInt();
+			links = new ArrayList<LinkCache.Link>(Math.max(0, Math.min(count, 100000)));
+			for (int index = 0; index < count; index++)
+			{
+				links.add(new LinkCache.Link(input.readUTF(), input.readUTF(), input.readLong()));
+			}
+		}
+		finally
+		{
+			input.close();
+		}
+
+		List<String> identifiers = new ArrayList<String>(links.size());
+		for (LinkCache.Link link : links)
+		{
+			cache.restore(link);
+			identifiers.add(link.getIdentifier());
+		}
+		return identifiers;
+	}
+}
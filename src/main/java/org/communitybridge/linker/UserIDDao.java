@@ -1,113 +1,288 @@
 package org.communitybridge.linker;
 
-import java.net.MalformedURLException;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import org.communitybridge.main.Configuration;
 import org.communitybridge.main.Environment;
+import org.communitybridge.main.RowMapper;
+import org.communitybridge.main.StringColumnMapper;
+import org.communitybridge.utility.UserIDChunks;
 
 public class UserIDDao
 {
 	protected	static final String EXCEPTION_MESSAGE_GETUSERID = "Exception during UserIDDao.getUserID: ";
 	protected	static final String EXCEPTION_MESSAGE_GETUUID = "Exception during UserIDDao.getUUID: ";
+	protected	static final String EXCEPTION_MESSAGE_GETUSERIDS = "Exception during UserIDDao.getUserIDs: ";
 
 	private Environment environment;
-	private Configuration configuration;
-	private ResultSet result;
+	private volatile Configuration configuration;
+	private String userIDQuery;
+	private String exactUserIDQuery;
+	private String uuidQuery;
+	private RowMapper<String> userIDMapper;
+	private RowMapper<String> uuidMapper;
+	private RowMapper<String[]> linkMapper;
+	private Map<String, String> userIDsQueries;
 
 	public UserIDDao(Environment environment)
 	{
 		this.environment = environment;
-		this.configuration = environment.getConfiguration();
 	}
 
 	public String getUserID(String identifier)
 	{
-		String query = "SELECT `" + configuration.linkingTableName + "`.`" + configuration.linkingUserIDColumn + "` " + "FROM `" + configuration.linkingTableName + "` ";
-		if (configuration.linkingUsesKey)
-		{
-			query = query + "WHERE `" + configuration.linkingKeyColumn + "` = '" + configuration.linkingKeyName + "' " + "AND `" + configuration.linkingValueColumn + "` = '" + identifier + "' ";
-		}
-		else
-		{
-			query = query + "WHERE LOWER(`" + configuration.linkingIdentifierColumn + "`) = LOWER('" + identifier + "') ";
-		}
-		query = query + "ORDER BY `" + configuration.linkingUserIDColumn + "` DESC";
+		buildQueries();
 		try
 		{
-			result = environment.getSql().sqlQuery(query);
-			if (result != null && result.next())
+			String userID;
+			if (configuration.linkingUsesKey)
+			{
+				userID = environment.getSql().querySingle(userIDQuery, userIDMapper, configuration.linkingKeyName, identifier);
+			}
+			else
 			{
-				return result.getString(configuration.linkingUserIDColumn);
+				userID = environment.getSql().querySingle(comparesExactly(identifier) ? exactUserIDQuery : userIDQuery, userIDMapper, identifier);
+			}
+			if (userID != null)
+			{
+				return userID;
 			}
 		}
-		catch (IllegalAccessException exception)
+		catch (SQLException exception)
 		{
 			environment.getLog().severe(EXCEPTION_MESSAGE_GETUSERID + exception.getMessage());
 		}
-		catch (InstantiationException exception)
+		return "";
+	}
+
+	/**
+	 * Looks up the user IDs linked to several identifiers at once, with one
+	 * query per chunk of up to 100 identifiers. Identifiers match the way
+	 * they do in getUserID, and when one is linked to more than one user the
+	 * highest user ID wins. Identifiers that aren't linked are left out of
+	 * the map. Returns null if a query fails.
+	 */
+	public Map<String, String> getUserIDs(Collection<String> identifiers)
+	{
+		buildQueries();
+
+		// Identifiers compared with LOWER() are sent in lower case. Either way
+		// results are matched back to what was asked for by lower case.
+		Set<String> exact = new LinkedHashSet<String>();
+		Set<String> lowerCase = new LinkedHashSet<String>();
+		for (String identifier : identifiers)
 		{
-			environment.getLog().severe(EXCEPTION_MESSAGE_GETUSERID + exception.getMessage());
+			if (comparesExactly(identifier))
+			{
+				exact.add(identifier);
+			}
+			else
+			{
+				lowerCase.add(identifier.toLowerCase());
+			}
 		}
-		catch (MalformedURLException exception)
+
+		Map<String, String> found = new HashMap<String, String>();
+		try
 		{
-			environment.getLog().severe(EXCEPTION_MESSAGE_GETUSERID + exception.getMessage());
+			findUserIDs(exact, true, found);
+			findUserIDs(lowerCase, false, found);
 		}
 		catch (SQLException exception)
 		{
-			environment.getLog().severe(EXCEPTION_MESSAGE_GETUSERID + exception.getMessage());
+			environment.getLog().severe(EXCEPTION_MESSAGE_GETUSERIDS + exception.getMessage());
+			return null;
 		}
-		return "";
-	}
 
-	public String getUUID(String userID)
-	{
-		String query;
-		String uuid = "";
-		if (configuration.linkingUsesKey)
+		Map<String, String> userIDs = new HashMap<String, String>();
+		for (String identifier : identifiers)
 		{
-			query = "SELECT `" + configuration.linkingValueColumn + "` "
-						+ "FROM `" + configuration.linkingTableName + "` "
-						+ "WHERE `" + configuration.linkingKeyColumn + "` = '" + configuration.linkingKeyName + "' "
-						+ "AND `" + configuration.linkingUserIDColumn + "` = '" + userID + "'";
+			String userID = found.get(identifier.toLowerCase());
+			if (userID != null)
+			{
+				userIDs.put(identifier, userID);
+			}
 		}
-		else
+		return userIDs;
+	}
+
+	private void findUserIDs(Collection<String> identifiers, boolean exact, Map<String, String> found) throws SQLException
+	{
+		for (List<String> chunk : UserIDChunks.split(identifiers))
 		{
-			query = "SELECT `" + configuration.linkingIdentifierColumn + "` "
-						+ "FROM `" + configuration.linkingTableName + "` "
-						+ "WHERE `" + configuration.linkingUserIDColumn + "` = '" + userID + "'";
+			List<Object> parameters = new ArrayList<Object>();
+			if (configuration.linkingUsesKey)
+			{
+				parameters.add(configuration.linkingKeyName);
+			}
+			parameters.addAll(chunk);
+
+			// Rows come highest user ID first, so the first row for an
+			// identifier is the one getUserID would pick.
+			for (String[] link : environment.getSql().query(getUserIDsQuery(chunk.size(), exact), linkMapper, parameters.toArray()))
+			{
+				if (link[0] != null && link[1] != null && !found.containsKey(link[1].toLowerCase()))
+				{
+					found.put(link[1].toLowerCase(), link[0]);
+				}
+			}
 		}
-		try
+	}
+
+	/**
+	 * Wrapping the identifier column in LOWER() keeps MySQL from using an
+	 * index on it, so identifiers are compared as they are whenever that
+	 * gives the same answer: always for key/value tables, which have never
+	 * used LOWER(), when the column's collation ignores case, and for UUIDs
+	 * when the column is known to hold them in their usual lower case form.
+	 */
+	private boolean comparesExactly(String identifier)
+	{
+		return configuration.linkingUsesKey
+				|| configuration.linkingIdentifierCaseInsensitive
+				|| (configuration.linkingIdentifierExactUUIDs && isUUID(identifier));
+	}
+
+	protected static boolean isUUID(String identifier)
+	{
+		return identifier != null
+				&& identifier.length() == 36
+				&& identifier.charAt(8) == '-'
+				&& identifier.charAt(13) == '-'
+				&& identifier.charAt(18) == '-'
+				&& identifier.charAt(23) == '-';
+	}
+
+	private String getUserIDsQuery(int size, boolean exact)
+	{
+		return userIDsQueries.get(getUserIDsQueryKey(size, exact));
+	}
+
+	private static String getUserIDsQueryKey(int size, boolean exact)
+	{
+		return (exact ? "exact:" : "lower:") + size;
+	}
+
+	// There is one query for each chunk size and way of comparing, so all of
+	// them are built up front and the map is never changed afterwards.
+	private static Map<String, String> buildUserIDsQueries(Configuration configuration, String identifierColumn)
+	{
+		Map<String, String> queries = new HashMap<String, String>();
+		for (int size : UserIDChunks.SIZES)
 		{
-			result = environment.getSql().sqlQuery(query);
-			if (result != null && result.next())
+			for (boolean exact : new boolean[] { true, false })
 			{
+				String placeholders = UserIDChunks.placeholders(size);
+				String query = "/* cb:link-user-ids */ SELECT `" + configuration.linkingUserIDColumn + "`, `" + identifierColumn + "` "
+										 + "FROM `" + configuration.linkingTableName + "` ";
 				if (configuration.linkingUsesKey)
 				{
-					uuid = result.getString(configuration.linkingValueColumn);
+					query = query + "WHERE `" + configuration.linkingKeyColumn + "` = ? "
+								+ "AND `" + identifierColumn + "` IN (" + placeholders + ") ";
+				}
+				else if (exact)
+				{
+					query = query + "WHERE `" + identifierColumn + "` IN (" + placeholders + ") ";
 				}
 				else
 				{
-					uuid = result.getString(configuration.linkingIdentifierColumn);
+					query = query + "WHERE LOWER(`" + identifierColumn + "`) IN (" + placeholders + ") ";
 				}
+				query = query + "ORDER BY `" + configuration.linkingUserIDColumn + "` DESC";
+				queries.put(getUserIDsQueryKey(size, exact), query);
 			}
 		}
-		catch (MalformedURLException exception)
+		return Collections.unmodifiableMap(queries);
+	}
+
+	public String getUUID(String userID)
+	{
+		buildQueries();
+		try
 		{
-			environment.getLog().severe(EXCEPTION_MESSAGE_GETUUID + exception.getMessage());
+			String uuid;
+			if (configuration.linkingUsesKey)
+			{
+				uuid = environment.getSql().querySingle(uuidQuery, uuidMapper, configuration.linkingKeyName, userID);
+			}
+			else
+			{
+				uuid = environment.getSql().querySingle(uuidQuery, uuidMapper, userID);
+			}
+			if (uuid != null)
+			{
+				return uuid;
+			}
 		}
-		catch (InstantiationException exception)
+		catch (SQLException exception)
 		{
 			environment.getLog().severe(EXCEPTION_MESSAGE_GETUUID + exception.getMessage());
 		}
-		catch (IllegalAccessException exception)
+		return "";
+	}
+
+	// Built on first use rather than in the constructor, so that the DAO can
+	// be created before the environment has a configuration. Lookups run on
+	// several threads at once, so the queries are built under the lock and
+	// configuration, which every lookup checks first, is assigned last.
+	private void buildQueries()
+	{
+		if (configuration != null)
 		{
-			environment.getLog().severe(EXCEPTION_MESSAGE_GETUUID + exception.getMessage());
+			return;
 		}
-		catch (SQLException exception)
+
+		synchronized (this)
 		{
-			environment.getLog().severe(EXCEPTION_MESSAGE_GETUUID + exception.getMessage());
+			if (configuration != null)
+			{
+				return;
+			}
+
+			final Configuration configuration = environment.getConfiguration();
+			String userIDQuery = "/* cb:link-user-id */ SELECT `" + configuration.linkingTableName + "`.`" + configuration.linkingUserIDColumn + "` " + "FROM `" + configuration.linkingTableName + "` ";
+			if (configuration.linkingUsesKey)
+			{
+				uuidMapper = new StringColumnMapper(configuration.linkingValueColumn);
+				userIDQuery = userIDQuery + "WHERE `" + configuration.linkingKeyColumn + "` = ? " + "AND `" + configuration.linkingValueColumn + "` = ? ";
+				uuidQuery = "/* cb:link-identifier */ SELECT `" + configuration.linkingValueColumn + "` "
+									+ "FROM `" + configuration.linkingTableName + "` "
+									+ "WHERE `" + configuration.linkingKeyColumn + "` = ? "
+									+ "AND `" + configuration.linkingUserIDColumn + "` = ?";
+			}
+			else
+			{
+				uuidMapper = new StringColumnMapper(configuration.linkingIdentifierColumn);
+				exactUserIDQuery = userIDQuery + "WHERE `" + configuration.linkingIdentifierColumn + "` = ? "
+												 + "ORDER BY `" + configuration.linkingUserIDColumn + "` DESC";
+				userIDQuery = userIDQuery + "WHERE LOWER(`" + configuration.linkingIdentifierColumn + "`) = LOWER(?) ";
+				uuidQuery = "/* cb:link-identifier */ SELECT `" + configuration.linkingIdentifierColumn + "` "
+									+ "FROM `" + configuration.linkingTableName + "` "
+									+ "WHERE `" + configuration.linkingUserIDColumn + "` = ?";
+			}
+			this.userIDQuery = userIDQuery + "ORDER BY `" + configuration.linkingUserIDColumn + "` DESC";
+			userIDMapper = new StringColumnMapper(configuration.linkingUserIDColumn);
+
+			final String identifierColumn = configuration.linkingUsesKey ? configuration.linkingValueColumn : configuration.linkingIdentifierColumn;
+			userIDsQueries = buildUserIDsQueries(configuration, identifierColumn);
+			linkMapper = new RowMapper<String[]>()
+			{
+				@Override
+				public String[] mapRow(ResultSet result) throws SQLException
+				{
+					return new String[] { result.getString(configuration.linkingUserIDColumn), result.getString(identifierColumn) };
+				}
+			};
+
+			this.configuration = configuration;
 		}
-		return uuid;
 	}
 }
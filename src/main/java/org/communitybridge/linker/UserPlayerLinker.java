@@ -1,23 +1,47 @@
 package org.communitybridge.linker;
 
 import org.communitybridge.main.BukkitWrapper;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
 import org.bukkit.entity.Player;
+import org.communitybridge.main.Configuration;
 import org.communitybridge.main.Environment;
 
 public class UserPlayerLinker
 {
-	private ConcurrentHashMap<String, String> userIDCache = new ConcurrentHashMap<String, String>();
+	private LinkCache userIDCache;
+	private final ConcurrentHashMap<String, FutureTask<String>> lookups = new ConcurrentHashMap<String, FutureTask<String>>();
+	private final AtomicLong sharedLookupCount = new AtomicLong();
 	private Environment environment;
 	private UserIDDao userIDDao;
 	private BukkitWrapper bukkit;
-	private int cacheLimit;
 
 	public UserPlayerLinker(Environment environment, int cacheLimit)
 	{
-		this.cacheLimit = cacheLimit;
+		this(environment, cacheLimit, 0L, 0L, 0L);
+	}
+
+	/**
+	 * @param timeToLive         Milliseconds a cached link is used for.
+	 * @param unlinkedTimeToLive Milliseconds an unlinked player is remembered
+	 *                           as unlinked.
+	 * @param refreshAhead       Milliseconds before a link expires from which
+	 *                           looking it up reloads it in the background.
+	 */
+	public UserPlayerLinker(Environment environment, int cacheLimit, long timeToLive, long unlinkedTimeToLive, long refreshAhead)
+	{
+		this.userIDCache = new LinkCache(cacheLimit, timeToLive, unlinkedTimeToLive, refreshAhead);
 		this.environment = environment;
 		this.userIDDao = new UserIDDao(environment);
 		this.bukkit = new BukkitWrapper();
@@ -29,6 +53,15 @@ public class UserPlayerLinker
 		userIDCache.remove(name);
 	}
 
+	/**
+	 * Caches a link looked up elsewhere. An empty user ID records the
+	 * identifier as unlinked.
+	 */
+	public void cacheUserID(String identifier, String userID)
+	{
+		userIDCache.put(identifier, userID);
+	}
+
 	public String getPlayerName(String userID)
 	{
 		String identifier = getIdentifier(userID);
@@ -47,12 +80,10 @@ public class UserPlayerLinker
 
 	private String getIdentifier(String userID)
 	{
-		for (Map.Entry<String, String> entry : userIDCache.entrySet())
+		String identifier = userIDCache.findIdentifier(userID);
+		if (identifier != null)
 		{
-			if (userID.equals(entry.getValue()))
-			{
-				return entry.getKey();
-			}
+			return identifier;
 		}
 		return userIDDao.getUUID(userID);
 	}
@@ -89,6 +120,81 @@ public class UserPlayerLinker
 		return userID;
 	}
 
+	/**
+	 * Looks up the user IDs of several players at once. Links that aren't
+	 * cached are loaded with a few bulk queries, rather than one query per
+	 * player, and cached for the lookups that follow. Players that aren't
+	 * linked map to an empty user ID.
+	 */
+	public Map<Player, String> getUserIDs(Collection<? extends Player> players)
+	{
+		preload(players);
+		Map<Player, String> userIDs = new HashMap<Player, String>();
+		for (Player player : players)
+		{
+			userIDs.put(player, getUserID(player));
+		}
+		return userIDs;
+	}
+
+	private void preload(Collection<? extends Player> players)
+	{
+		if (!environment.getSql().isAvailable())
+		{
+			return;
+		}
+		String linkingMethod = environment.getConfiguration().linkingMethod;
+		boolean byUUID = isValidMethod(linkingMethod, "uui");
+
+		if (byUUID)
+		{
+			List<String> uuids = new ArrayList<String>();
+			for (Player player : players)
+			{
+				String uuid = player.getUniqueId().toString();
+				if (!userIDCache.isCached(uuid))
+				{
+					uuids.add(uuid);
+				}
+			}
+			preload(uuids);
+		}
+
+		if (isValidMethod(linkingMethod, "nam"))
+		{
+			// Names are only needed for players whose UUID isn't linked.
+			List<String> names = new ArrayList<String>();
+			for (Player player : players)
+			{
+				String userID = byUUID ? userIDCache.getStale(player.getUniqueId().toString()) : null;
+				if ((userID == null || userID.isEmpty()) && !userIDCache.isCached(player.getName()))
+				{
+					names.add(player.getName());
+				}
+			}
+			preload(names);
+		}
+	}
+
+	private void preload(List<String> identifiers)
+	{
+		if (identifiers.isEmpty())
+		{
+			return;
+		}
+		Map<String, String> userIDs = userIDDao.getUserIDs(identifiers);
+		// If the bulk lookup failed, the players are looked up one by one.
+		if (userIDs == null)
+		{
+			return;
+		}
+		for (String identifier : identifiers)
+		{
+			String userID = userIDs.get(identifier);
+			userIDCache.put(identifier, userID == null ? "" : userID);
+		}
+	}
+
 	private boolean isValidMethod(String linkingMethod, String valid)
 	{
 		return linkingMethod.startsWith(valid) || linkingMethod.startsWith("bot");
@@ -97,19 +203,210 @@ public class UserPlayerLinker
 	private String getUserIDFromCacheOrDatabase(String identifier)
 	{
 		String userID = userIDCache.get(identifier);
-		if (userID == null)
+		if (userID != null)
 		{
-			userID = userIDDao.getUserID(identifier);
-			if (userIDCache.size() == cacheLimit)
+			if (userIDCache.startRefresh(identifier))
 			{
-				userIDCache.clear();
+				refresh(identifier);
 			}
-			userIDCache.put(identifier, userID);
+			return userID;
 		}
-		return userID;
+
+		// While the database is unavailable only cached links are used, even
+		// expired ones.
+		if (!environment.getSql().isAvailable())
+		{
+			userID = userIDCache.getStale(identifier);
+			return userID == null ? "" : userID;
+		}
+		return lookUp(identifier);
+	}
+
+	/**
+	 * Looks a link up in the database and caches it. Concurrent lookups of
+	 * the same identifier share one query: the first caller runs it and the
+	 * others wait for its result.
+	 */
+	private String lookUp(final String identifier)
+	{
+		FutureTask<String> lookup = new FutureTask<String>(new Callable<String>()
+		{
+			@Override
+			public String call()
+			{
+				String userID = userIDDao.getUserID(identifier);
+				// A lookup that came back empty because of an outage isn't cached.
+				if (!userID.isEmpty() || environment.getSql().isAvailable())
+				{
+					userIDCache.put(identifier, userID);
+				}
+				return userID;
+			}
+		});
+
+		FutureTask<String> running = lookups.putIfAbsent(identifier, lookup);
+		if (running == null)
+		{
+			try
+			{
+				lookup.run();
+			}
+			finally
+			{
+				lookups.remove(identifier, lookup);
+			}
+			running = lookup;
+		}
+		else
+		{
+			sharedLookupCount.incrementAndGet();
+		}
+
+		try
+		{
+			return running.get();
+		}
+		catch (InterruptedException exception)
+		{
+			Thread.currentThread().interrupt();
+			return "";
+		}
+		catch (ExecutionException exception)
+		{
+			Throwable cause = exception.getCause();
+			if (cause instanceof RuntimeException)
+			{
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error)
+			{
+				throw (Error) cause;
+			}
+			throw new IllegalStateException(cause);
+		}
+	}
+
+	/**
+	 * Reloads a link on the database executor, so that the player it belongs
+	 * to keeps using the cached one in the meantime.
+	 */
+	private void refresh(final String identifier)
+	{
+		try
+		{
+			environment.getSql().submit(new Callable<Void>()
+			{
+				@Override
+				public Void call()
+				{
+					try
+					{
+						lookUp(identifier);
+					}
+					finally
+					{
+						userIDCache.endRefresh(identifier);
+					}
+					return null;
+				}
+			});
+		}
+		catch (RuntimeException exception)
+		{
+			userIDCache.endRefresh(identifier);
+		}
+	}
+
+	/**
+	 * Saves the cached links, so that they can be loaded again after a
+	 * restart or reload.
+	 */
+	public void saveCache(File file)
+	{
+		try
+		{
+			int saved = new LinkCacheFile(file, getCacheFingerprint()).save(userIDCache);
+			environment.getLog().finest("Saved " + saved + " cached links to " + file.getName() + ".");
+		}
+		catch (IOException exception)
+		{
+			environment.getLog().warning("Unable to save the link cache to " + file.getPath() + ": " + exception.getMessage());
+		}
+	}
+
+	/**
+	 * Loads links saved by saveCache and then checks them against the
+	 * database in the background. Until that is done the loaded links are
+	 * used as they are, so the first logins and synchronization after a
+	 * restart don't each have to look their player up.
+	 */
+	public void loadCache(File file)
+	{
+		List<String> identifiers;
+		try
+		{
+			identifiers = new LinkCacheFile(file, getCacheFingerprint()).load(userIDCache);
+		}
+		catch (IOException exception)
+		{
+			environment.getLog().warning("Unable to load the link cache from " + file.getPath() + ": " + exception.getMessage());
+			return;
+		}
+		if (identifiers.isEmpty())
+		{
+			return;
+		}
+		environment.getLog().fine("Loaded " + identifiers.size() + " cached links from " + file.getName() + ".");
+		revalidate(identifiers);
+	}
+
+	/**
+	 * Reloads the links with bulk queries on the database executor.
+	 */
+	private void revalidate(final List<String> identifiers)
+	{
+		try
+		{
+			environment.getSql().submit(new Callable<Void>()
+			{
+				@Override
+				public Void call()
+				{
+					if (environment.getSql().isAvailable())
+					{
+						preload(identifiers);
+					}
+					return null;
+				}
+			});
+		}
+		catch (RuntimeException exception)
+		{
+			environment.getLog().fine("Unable to check the loaded links against the database: " + exception.getMessage());
+		}
+	}
+
+	/**
+	 * Links saved for another database or linking table mustn't be loaded.
+	 */
+	private String getCacheFingerprint()
+	{
+		Configuration configuration = environment.getConfiguration();
+		String fingerprint = configuration.databaseHost + ":" + configuration.databasePort + "/" + configuration.databaseName
+											 + "|" + configuration.linkingTableName + "|" + configuration.linkingUserIDColumn;
+		if (configuration.linkingUsesKey)
+		{
+			return fingerprint + "|" + configuration.linkingKeyColumn + "=" + configuration.linkingKeyName + "|" + configuration.linkingValueColumn;
+		}
+		return fingerprint + "|" + configuration.linkingIdentifierColumn;
+	}
+
+	public String getCacheStatistics()
+	{
+		return userIDCache.getStatistics() + " shared-lookups=" + sharedLookupCount.get();
 	}
 
-	protected ConcurrentHashMap<String, String> getUserIDCache()
+	protected LinkCache getUserIDCache()
 	{
 		return userIDCache;
 	}
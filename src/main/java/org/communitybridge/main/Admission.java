@@ -0,0 +1,61 @@
+package org.communitybridge.main;
+
+/**
+ * What the admission check found out about a player as they logged in: the
+ * user ID they are linked to and, if the features are enabled, whether they
+ * have an avatar and how many posts they have made.
+ */
+public class Admission
+{
+	private String userID;
+	private String identifier;
+	private Boolean avatar;
+	private Integer postCount;
+	private long created = System.currentTimeMillis();
+
+	public Admission(String userID, String identifier, Boolean avatar, Integer postCount)
+	{
+		this.userID = userID == null ? "" : userID;
+		this.identifier = identifier;
+		this.avatar = avatar;
+		this.postCount = postCount;
+	}
+
+	/**
+	 * The user ID the player is linked to, or an empty string if they are
+	 * not linked.
+	 */
+	public String getUserID()
+	{
+		return userID;
+	}
+
+	/**
+	 * The UUID or name the link was found by, or null if there is no link.
+	 */
+	public String getIdentifier()
+	{
+		return identifier;
+	}
+
+	/**
+	 * Null if avatars weren't checked.
+	 */
+	public Boolean hasAvatar()
+	{
+		return avatar;
+	}
+
+	/**
+	 * Null if post counts weren't checked.
+	 */
+	public Integer getPostCount()
+	{
+		return postCount;
+	}
+
+	public long getCreated()
+	{
+		return created;
+	}
+}
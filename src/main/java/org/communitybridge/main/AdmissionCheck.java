@@ -0,0 +1,221 @@
+package org.communitybridge.main;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Looks up everything the pre-login checks need with one query: the user ID
+ * the player is linked to and, when those features are enabled, whether the
+ * user has an avatar and how many posts they have made.
+ *
+ * The result is kept for a short time as a snapshot of the login, so that
+ * joining and the first synchronization don't have to read the same things
+ * again.
+ */
+public class AdmissionCheck
+{
+	protected static final String EXCEPTION_MESSAGE_CHECK = "Exception during AdmissionCheck.check(): ";
+	protected static final long SNAPSHOT_LIFETIME = 60000L;
+
+	private final Environment environment;
+	private final Configuration configuration;
+	private final String query;
+	private final boolean byUUID;
+	private final boolean byName;
+	private final RowMapper<Admission> admissionMapper;
+	private final ConcurrentHashMap<UUID, Admission> snapshots = new ConcurrentHashMap<UUID, Admission>();
+
+	/**
+	 * The query is built here, from the configuration as it is now. A reload
+	 * loads into the same Configuration and then runs activate(), which
+	 * creates a new AdmissionCheck. Checks run on several pre-login threads
+	 * at once, and only read what is built here.
+	 */
+	public AdmissionCheck(Environment environment)
+	{
+		this.environment = environment;
+		this.configuration = environment.getConfiguration();
+		byUUID = isValidMethod(configuration.linkingMethod, "uui");
+		byName = isValidMethod(configuration.linkingMethod, "nam");
+		query = buildQuery(configuration, byUUID, byName);
+
+		final boolean avatarEnabled = configuration.avatarEnabled;
+		final boolean postCountEnabled = configuration.postCountEnabled;
+		admissionMapper = new RowMapper<Admission>()
+		{
+			@Override
+			public Admission mapRow(ResultSet result) throws SQLException
+			{
+				Boolean avatar = null;
+				Integer postCount = null;
+				if (avatarEnabled)
+				{
+					String value = result.getString("avatar");
+					avatar = value != null && !value.isEmpty();
+				}
+				if (postCountEnabled)
+				{
+					postCount = result.getInt("post_count");
+				}
+				return new Admission(result.getString("user_id"), result.getString("identifier"), avatar, postCount);
+			}
+		};
+	}
+
+	/**
+	 * Runs the admission query and caches the link it finds, or doesn't find,
+	 * in the user player linker. Returns null if the query fails.
+	 */
+	public Admission check(String uuid, String name)
+	{
+		if (!byUUID && !byName)
+		{
+			return new Admission("", null, null, null);
+		}
+
+		Admission admission;
+		try
+		{
+			admission = environment.getSql().querySingle(query, admissionMapper, getParameters(uuid, name));
+		}
+		catch (SQLException exception)
+		{
+			environment.getLog().severe(EXCEPTION_MESSAGE_CHECK + exception.getMessage());
+			return null;
+		}
+		if (admission == null)
+		{
+			admission = new Admission("", null, null, null);
+		}
+
+		boolean linkedByUUID = byUUID && uuid.equalsIgnoreCase(admission.getIdentifier());
+		if (byUUID)
+		{
+			environment.getUserPlayerLinker().cacheUserID(uuid, linkedByUUID ? admission.getUserID() : "");
+		}
+		if (byName && !linkedByUUID)
+		{
+			environment.getUserPlayerLinker().cacheUserID(name, admission.getUserID());
+		}
+		return admission;
+	}
+
+	/**
+	 * Keeps the admission as the snapshot of the player's login.
+	 */
+	public void keep(UUID uuid, Admission admission)
+	{
+		long now = System.currentTimeMillis();
+		// Players turned away after this check never join, so their snapshots
+		// are cleared out here.
+		for (Iterator<Map.Entry<UUID, Admission>> iterator = snapshots.entrySet().iterator(); iterator.hasNext();)
+		{
+			if (isExpired(iterator.next().getValue(), now))
+			{
+				iterator.remove();
+			}
+		}
+		snapshots.put(uuid, admission);
+	}
+
+	/**
+	 * Returns the snapshot of the player's login, or null if there is none or
+	 * it is too old to be trusted.
+	 */
+	public Admission getSnapshot(UUID uuid)
+	{
+		Admission admission = snapshots.get(uuid);
+		if (admission != null && isExpired(admission, System.currentTimeMillis()))
+		{
+			snapshots.remove(uuid, admission);
+			return null;
+		}
+		return admission;
+	}
+
+	public void forget(UUID uuid)
+	{
+		snapshots.remove(uuid);
+	}
+
+	private boolean isExpired(Admission admission, long now)
+	{
+		return now - admission.getCreated() >= SNAPSHOT_LIFETIME;
+	}
+
+	private Object[] getParameters(String uuid, String name)
+	{
+		Object[] identifiers;
+		if (byUUID && byName)
+		{
+			identifiers = new Object[] { uuid, name, uuid };
+		}
+		else
+		{
+			identifiers = new Object[] { byUUID ? uuid : name };
+		}
+
+		if (!configuration.linkingUsesKey)
+		{
+			return identifiers;
+		}
+		Object[] parameters = new Object[identifiers.length + 1];
+		parameters[0] = configuration.linkingKeyName;
+		System.arraycopy(identifiers, 0, parameters, 1, identifiers.length);
+		return parameters;
+	}
+
+	private static String buildQuery(Configuration configuration, boolean byUUID, boolean byName)
+	{
+		// Identifiers are compared the way UserIDDao compares them.
+		String identifierColumn = configuration.linkingUsesKey ? configuration.linkingValueColumn : configuration.linkingIdentifierColumn;
+		String exactMatch = "`" + identifierColumn + "` = ?";
+		String lowerCaseMatch = "LOWER(`" + identifierColumn + "`) = LOWER(?)";
+		boolean exactNames = configuration.linkingUsesKey || configuration.linkingIdentifierCaseInsensitive;
+		String uuidMatch = exactNames || configuration.linkingIdentifierExactUUIDs ? exactMatch : lowerCaseMatch;
+		String nameMatch = exactNames ? exactMatch : lowerCaseMatch;
+
+		// When both UUIDs and names are linked, a link by UUID wins over one by
+		// name, as it does in UserPlayerLinker.
+		String link = "SELECT `" + configuration.linkingUserIDColumn + "` AS `user_id`, `" + identifierColumn + "` AS `identifier` "
+								+ "FROM `" + configuration.linkingTableName + "` "
+								+ "WHERE ";
+		if (configuration.linkingUsesKey)
+		{
+			link = link + "`" + configuration.linkingKeyColumn + "` = ? AND ";
+		}
+		if (byUUID && byName)
+		{
+			link = link + "(" + uuidMatch + " OR " + nameMatch + ") ORDER BY " + uuidMatch + " DESC, ";
+		}
+		else
+		{
+			link = link + (byUUID ? uuidMatch : nameMatch) + " ORDER BY ";
+		}
+		link = link + "`" + configuration.linkingUserIDColumn + "` DESC LIMIT 1";
+
+		String newQuery = "/* cb:admission-check */ SELECT `link`.`user_id`, `link`.`identifier`";
+		if (configuration.avatarEnabled)
+		{
+			newQuery = newQuery + ", (SELECT `" + configuration.avatarAvatarColumn + "` "
+							 + "FROM `" + configuration.avatarTableName + "` "
+							 + "WHERE `" + configuration.avatarUserIDColumn + "` = `link`.`user_id` LIMIT 1) AS `avatar`";
+		}
+		if (configuration.postCountEnabled)
+		{
+			newQuery = newQuery + ", (SELECT `" + configuration.postCountPostCountColumn + "` "
+							 + "FROM `" + configuration.postCountTableName + "` "
+							 + "WHERE `" + configuration.postCountUserIDColumn + "` = `link`.`user_id` LIMIT 1) AS `post_count`";
+		}
+		return newQuery + " FROM (" + link + ") AS `link`";
+	}
+
+	private static boolean isValidMethod(String linkingMethod, String valid)
+	{
+		return linkingMethod.startsWith(valid) || linkingMethod.startsWith("bot");
+	}
+}
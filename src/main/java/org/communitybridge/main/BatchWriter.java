@@ -0,0 +1,380 @@
+package org.communitybridge.main;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import org.communitybridge.utility.Log;
+
+/**
+ * Holds web application writes for a short while and sends them to the
+ * database together, as JDBC batches inside a single transaction.
+ *
+ * Each write belongs to an owner, normally the web application user ID it
+ * changes, and may carry a key. A write with the same key as one that is
+ * still pending replaces it and moves to the back of the queue, so repeated
+ * writes to the same row only reach the database once. Writes without a key
+ * are never merged.
+ *
+ * Pending writes are flushed when batchSize of them have built up, every
+ * flushInterval, and when the writer is closed; once closed, writes go out
+ * straight away. Code that is about to read rows it may have just written
+ * should call flush(owner) first. While the database is unavailable pending
+ * writes are kept rather than sent, and go out with the first flush after
+ * it comes back; beyond pendingLimit of them, the oldest are dropped. Writes
+ * from a flush that loses its connection are put back the same way, ahead
+ * of anything written since.
+ *
+ * If a flush fails for any reason other than a lost connection, its writes
+ * are sent again one at a time, so that one bad write only loses itself.
+ */
+public class BatchWriter
+{
+	private Log log;
+	private DatabaseHandler database;
+	private int batchSize;
+	private int pendingLimit;
+	private long flushInterval;
+
+	private final Object lock = new Object();
+	private final Object flushLock = new Object();
+	private LinkedHashMap<String, PendingWrite> pending = new LinkedHashMap<String, PendingWrite>();
+	private Map<String, Integer> pendingByOwner = new HashMap<String, Integer>();
+	private long unkeyedCount;
+	private final AtomicBoolean flushRequested = new AtomicBoolean();
+	private ScheduledExecutorService flusher;
+	private volatile boolean closed;
+
+	private final AtomicLong writeCount = new AtomicLong();
+	private final AtomicLong coalescedCount = new AtomicLong();
+	private final AtomicLong flushCount = new AtomicLong();
+	private final AtomicLong flushedWriteCount = new AtomicLong();
+	private final AtomicLong failedWriteCount = new AtomicLong();
+	private final AtomicLong requeuedWriteCount = new AtomicLong();
+	private final AtomicLong droppedWriteCount = new AtomicLong();
+	private final AtomicBoolean dropping = new AtomicBoolean();
+
+	public BatchWriter(Log log, DatabaseHandler database, int batchSize, int pendingLimit, long flushInterval)
+	{
+		this.log = log;
+		this.database = database;
+		this.batchSize = Math.max(1, batchSize);
+		this.pendingLimit = Math.max(this.batchSize, pendingLimit);
+		this.flushInterval = flushInterval;
+	}
+
+	public void start()
+	{
+		flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+		{
+			@Override
+			public Thread newThread(Runnable runnable)
+			{
+				Thread thread = new Thread(runnable, "CommunityBridge-BatchWriter");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		flusher.scheduleWithFixedDelay(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				flush();
+			}
+		}, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+	}
+
+	public void write(String owner, String key, String query, Object... parameters)
+	{
+		int size;
+		synchronized (lock)
+		{
+			if (key == null)
+			{
+				key = "\u0000" + unkeyedCount++;
+			}
+			PendingWrite previous = pending.remove(key);
+			if (previous == null)
+			{
+				Integer count = pendingByOwner.get(owner);
+				pendingByOwner.put(owner, count == null ? 1 : count + 1);
+			}
+			else
+			{
+				coalescedCount.incrementAndGet();
+			}
+			pending.put(key, new PendingWrite(key, owner, query, parameters));
+			size = pending.size();
+		}
+		writeCount.incrementAndGet();
+
+		if (size > pendingLimit && !database.isAvailable())
+		{
+			dropOldest();
+		}
+
+		if (closed)
+		{
+			flush();
+		}
+		else if (size >= batchSize && flusher != null && flushRequested.compareAndSet(false, true))
+		{
+			flusher.execute(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					flushRequested.set(false);
+					flush();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Flushes everything if any of the pending writes belong to the owner.
+	 * Also waits for a flush that is already under way, since it may hold the
+	 * owner's writes.
+	 */
+	public void flush(String owner)
+	{
+		synchronized (flushLock)
+		{
+			synchronized (lock)
+			{
+				if (!pendingByOwner.containsKey(owner))
+				{
+					return;
+				}
+			}
+			flush();
+		}
+	}
+
+	public void flush()
+	{
+		// Flushes are serialized so that a later batch can't overtake an earlier
+		// one on another connection.
+		synchronized (flushLock)
+		{
+			List<PendingWrite> writes;
+			synchronized (lock)
+			{
+				if (pending.isEmpty() || (!closed && !database.isAvailable()))
+				{
+					return;
+				}
+				writes = new ArrayList<PendingWrite>(pending.values());
+				pending.clear();
+				pendingByOwner.clear();
+			}
+
+			try
+			{
+				database.batch(writes);
+				flushCount.incrementAndGet();
+				flushedWriteCount.addAndGet(writes.size());
+				dropping.set(false);
+			}
+			catch (SQLException exception)
+			{
+				if (DatabaseHandler.isConnectionFailure(exception))
+				{
+					requeue(writes, exception);
+				}
+				else if (writes.size() == 1)
+				{
+					failedWriteCount.incrementAndGet();
+					log.severe("Exception while writing " + writes.size() + " batched updates: " + exception.getMessage());
+				}
+				else
+				{
+					replay(writes);
+				}
+			}
+		}
+	}
+
+	/**
+	 * The failed batch was rolled back as a whole, so each write is sent again
+	 * on its own and only the ones that fail again are lost. If the connection
+	 * goes, the rest are put back as the whole batch would have been.
+	 */
+	private void replay(List<PendingWrite> writes)
+	{
+		flushCount.incrementAndGet();
+		for (int index = 0; index < writes.size(); index++)
+		{
+			PendingWrite write = writes.get(index);
+			try
+			{
+				database.batch(Collections.singletonList(write));
+				flushedWriteCount.incrementAndGet();
+			}
+			catch (SQLException exception)
+			{
+				if (DatabaseHandler.isConnectionFailure(exception))
+				{
+					requeue(writes.subList(index, writes.size()), exception);
+					return;
+				}
+				failedWriteCount.incrementAndGet();
+				log.severe("Exception while writing batched update for " + write.getOwner() + " (" + write.getQuery() + "): " + exception.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Puts writes that never reached the database back at the front of the
+	 * queue. A write made since with the same key is newer, so it stays and
+	 * the old one is dropped. Once closed there won't be another flush, so the
+	 * writes are given up instead.
+	 */
+	private void requeue(List<PendingWrite> unsent, SQLException exception)
+	{
+		if (closed)
+		{
+			failedWriteCount.addAndGet(unsent.size());
+			log.severe("Exception while writing " + unsent.size() + " batched updates: " + exception.getMessage());
+			return;
+		}
+
+		int size;
+		synchronized (lock)
+		{
+			LinkedHashMap<String, PendingWrite> requeued = new LinkedHashMap<String, PendingWrite>();
+			for (PendingWrite write : unsent)
+			{
+				if (pending.containsKey(write.key))
+				{
+					coalescedCount.incrementAndGet();
+					continue;
+				}
+				requeued.put(write.key, write);
+				Integer count = pendingByOwner.get(write.owner);
+				pendingByOwner.put(write.owner, count == null ? 1 : count + 1);
+			}
+			requeuedWriteCount.addAndGet(requeued.size());
+			requeued.putAll(pending);
+			pending = requeued;
+			size = pending.size();
+		}
+		log.warning("Lost the connection while writing " + unsent.size() + " batched updates; they will be written once it is back: " + exception.getMessage());
+
+		if (size > pendingLimit && !database.isAvailable())
+		{
+			dropOldest();
+		}
+	}
+
+	private void dropOldest()
+	{
+		int dropped = 0;
+		synchronized (lock)
+		{
+			Iterator<PendingWrite> iterator = pending.values().iterator();
+			while (pending.size() > pendingLimit && iterator.hasNext())
+			{
+				String owner = iterator.next().owner;
+				iterator.remove();
+				Integer count = pendingByOwner.get(owner);
+				if (count == null || count <= 1)
+				{
+					pendingByOwner.remove(owner);
+				}
+				else
+				{
+					pendingByOwner.put(owner, count - 1);
+				}
+				dropped++;
+			}
+		}
+		droppedWriteCount.addAndGet(dropped);
+		if (dropped > 0 && dropping.compareAndSet(false, true))
+		{
+			log.warning("The database is unavailable and " + pendingLimit + " updates are already waiting for it; dropping the oldest.");
+		}
+	}
+
+	/**
+	 * Stops the background flushes and writes out whatever is still pending
+	 * on the calling thread.
+	 */
+	public void close()
+	{
+		closed = true;
+		if (flusher != null)
+		{
+			flusher.shutdown();
+			try
+			{
+				flusher.awaitTermination(flushInterval, TimeUnit.MILLISECONDS);
+			}
+			catch (InterruptedException exception)
+			{
+				Thread.currentThread().interrupt();
+			}
+			flusher = null;
+		}
+		flush();
+	}
+
+	public String getStatistics()
+	{
+		int size;
+		synchronized (lock)
+		{
+			size = pending.size();
+		}
+		return "pending=" + size
+				 + " writes=" + writeCount.get()
+				 + " coalesced=" + coalescedCount.get()
+				 + " flushes=" + flushCount.get()
+				 + " flushed=" + flushedWriteCount.get()
+				 + " failed=" + failedWriteCount.get()
+				 + " requeued=" + requeuedWriteCount.get()
+				 + " dropped=" + droppedWriteCount.get();
+	}
+
+	public static class PendingWrite
+	{
+		private String key;
+		private String owner;
+		private String query;
+		private Object[] parameters;
+
+		PendingWrite(String key, String owner, String query, Object[] parameters)
+		{
+			this.key = key;
+			this.owner = owner;
+			this.query = query;
+			this.parameters = parameters;
+		}
+
+		public String getOwner()
+		{
+			return owner;
+		}
+
+		public String getQuery()
+		{
+			return query;
+		}
+
+		public Object[] getParameters()
+		{
+			return parameters;
+		}
+	}
+}
@@ -1,5 +1,8 @@
 package org.communitybridge.main;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
 import org.bukkit.ChatColor;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandExecutor;
@@ -53,6 +56,12 @@ public class CBCommandExecutor implements CommandExecutor
 			return true;
 		}
 
+		if (label.equals("cbstats"))
+		{
+			commandStats(sender, arguments);
+			return true;
+		}
+
 		return true;
 	}
 
@@ -142,6 +151,87 @@ public class CBCommandExecutor implements CommandExecutor
 		environment.getWebApplication().runSynchronizeAll();
 	}
 
+	private void commandStats(CommandSender sender, String[] arguments)
+	{
+		List<QueryMetrics> metricsList = environment.getSql().getMetrics();
+		if (arguments.length == 0)
+		{
+			commandStatsShow(sender, metricsList);
+		}
+		else if (arguments.length == 1 && arguments[0].equalsIgnoreCase("reset"))
+		{
+			for (QueryMetrics metrics : metricsList)
+			{
+				metrics.reset();
+			}
+			sendAndLog(sender, environment.getConfiguration().messages.get("cbstats-reset"), ChatColor.GREEN, true);
+		}
+		else if (arguments.length == 1 && arguments[0].equalsIgnoreCase("export"))
+		{
+			File file = new File(environment.getPlugin().getDataFolder(), "query-metrics.csv");
+			try
+			{
+				QueryMetrics.export(file, metricsList);
+				sendOrLog(sender, environment.getConfiguration().messages.get("cbstats-export").replace("~FILENAME~", file.getPath()), ChatColor.GREEN, false);
+			}
+			catch (IOException exception)
+			{
+				sendOrLog(sender, environment.getConfiguration().messages.get("cbstats-export-failed").replace("~ERROR~", exception.getMessage()), ChatColor.RED, false);
+			}
+		}
+		else
+		{
+			sendOrLog(sender, environment.getConfiguration().messages.get("cbstats-usage"), ChatColor.RED, false);
+		}
+	}
+
+	private void commandStatsShow(CommandSender sender, List<QueryMetrics> metricsList)
+	{
+		Messages messages = environment.getConfiguration().messages;
+		boolean empty = true;
+		for (QueryMetrics metrics : metricsList)
+		{
+			for (QueryMetrics.Operation operation : metrics.getOperations())
+			{
+				empty = false;
+				String message = messages.get("cbstats-operation")
+								.replace("~DATABASE~", metrics.getName())
+								.replace("~OPERATION~", operation.getName())
+								.replace("~CALLS~", Long.toString(operation.getCount()))
+								.replace("~ERRORS~", Long.toString(operation.getErrors()))
+								.replace("~MEAN~", Double.toString(QueryMetrics.millis(operation.getMeanNanos())))
+								.replace("~P95~", Double.toString(operation.getPercentile(0.95)))
+								.replace("~MAXIMUM~", Double.toString(QueryMetrics.millis(operation.getMaximumNanos())))
+								.replace("~WAIT~", Double.toString(QueryMetrics.millis(operation.getMeanWaitNanos())))
+								.replace("~ROWS~", Long.toString(operation.getRows()));
+				sendOrLog(sender, message, ChatColor.YELLOW, false);
+			}
+		}
+		if (empty)
+		{
+			sendOrLog(sender, messages.get("cbstats-empty"), ChatColor.YELLOW, false);
+		}
+		sendStatistics(sender, "cbstats-pool", environment.getSql().getPool().getStatistics());
+		if (environment.getSql().getReplicaPool() != null)
+		{
+			sendStatistics(sender, "cbstats-replica-pool", environment.getSql().getReplicaPool().getStatistics());
+		}
+		sendStatistics(sender, "cbstats-circuit-breaker", environment.getSql().getCircuitBreaker().getStatistics());
+		sendStatistics(sender, "cbstats-executor", environment.getSql().getExecutor().getStatistics());
+		if (environment.getSql().getWriter() != null)
+		{
+			sendStatistics(sender, "cbstats-writer", environment.getSql().getWriter().getStatistics());
+		}
+		sendStatistics(sender, "cbstats-synchronization-queue", environment.getWebApplication().getSynchronizationStatistics());
+		sendStatistics(sender, "cbstats-link-cache", environment.getUserPlayerLinker().getCacheStatistics());
+	}
+
+	private void sendStatistics(CommandSender sender, String messageKey, String statistics)
+	{
+		String message = environment.getConfiguration().messages.get(messageKey).replace("~STATISTICS~", statistics);
+		sendOrLog(sender, message, ChatColor.YELLOW, false);
+	}
+
 	private void commandSyncTarget(CommandSender sender, String playerName)
 	{
 		Player player  = bukkit.getServer().getPlayerExact(playerName);
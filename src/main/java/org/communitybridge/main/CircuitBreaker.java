@@ -0,0 +1,153 @@
+package org.communitybridge.main;
+
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicLong;
+import org.communitybridge.utility.Log;
+
+/**
+ * Stops database calls from piling up behind connection attempts while the
+ * database is down.
+ *
+ * The breaker starts out closed and lets every call through. After
+ * failureThreshold connection failures in a row it opens, and calls fail
+ * straight away with an SQLException instead of waiting out driver timeouts.
+ * Once the backoff has passed it goes half-open and lets a single call
+ * through to probe the database: if that call succeeds the breaker closes
+ * again, otherwise it reopens with the backoff doubled, up to
+ * maximumBackoff.
+ */
+public class CircuitBreaker
+{
+	/**
+	 * SQLSTATE given to the exceptions thrown while the breaker is open. It is
+	 * in the connection exception class, so callers treat it like any other
+	 * lost connection.
+	 */
+	public static final String UNAVAILABLE_STATE = "08000";
+
+	public enum State
+	{
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	private Log log;
+	private String name;
+	private int failureThreshold;
+	private long initialBackoff;
+	private long maximumBackoff;
+
+	private State state = State.CLOSED;
+	private int consecutiveFailures;
+	private long backoff;
+	private long retryAt;
+
+	private final AtomicLong openCount = new AtomicLong();
+	private final AtomicLong rejectedCount = new AtomicLong();
+
+	public CircuitBreaker(Log log, String name, int failureThreshold, long initialBackoff, long maximumBackoff)
+	{
+		this.log = log;
+		this.name = name;
+		this.failureThreshold = failureThreshold;
+		this.initialBackoff = Math.max(1, initialBackoff);
+		this.maximumBackoff = Math.max(this.initialBackoff, maximumBackoff);
+	}
+
+	/**
+	 * Called before each call to the database. Throws if the breaker is open,
+	 * or half-open with its probe already under way.
+	 */
+	public void acquire() throws SQLException
+	{
+		long remaining;
+		synchronized (this)
+		{
+			if (state == State.CLOSED)
+			{
+				return;
+			}
+			remaining = retryAt - System.currentTimeMillis();
+			if (state == State.OPEN && remaining <= 0)
+			{
+				state = State.HALF_OPEN;
+				log.fine("Trying the " + name + " database again.");
+				return;
+			}
+		}
+		rejectedCount.incrementAndGet();
+		throw new SQLException("The " + name + " database is unavailable; trying again in " + Math.max(0, remaining) + "ms.", UNAVAILABLE_STATE);
+	}
+
+	/**
+	 * Records a call that reached the database, whether or not the statement
+	 * itself succeeded.
+	 */
+	public synchronized void recordSuccess()
+	{
+		consecutiveFailures = 0;
+		if (state != State.CLOSED)
+		{
+			state = State.CLOSED;
+			backoff = 0;
+			log.info("Connection to the " + name + " database has been restored.");
+		}
+	}
+
+	/**
+	 * Records a call that never reached the database for some other reason,
+	 * such as a busy connection pool. It says nothing about the database, so
+	 * if it was the half-open probe the next call probes instead.
+	 */
+	public synchronized void cancel()
+	{
+		if (state == State.HALF_OPEN)
+		{
+			state = State.OPEN;
+			retryAt = System.currentTimeMillis();
+		}
+	}
+
+	public synchronized void recordFailure()
+	{
+		consecutiveFailures++;
+		if (state == State.HALF_OPEN)
+		{
+			open(Math.min(backoff * 2, maximumBackoff));
+		}
+		else if (state == State.CLOSED && failureThreshold > 0 && consecutiveFailures >= failureThreshold)
+		{
+			open(initialBackoff);
+		}
+	}
+
+	/**
+	 * True unless the breaker would reject a call made now.
+	 */
+	public synchronized boolean isAvailable()
+	{
+		return state == State.CLOSED || (state == State.OPEN && System.currentTimeMillis() >= retryAt);
+	}
+
+	public synchronized State getState()
+	{
+		return state;
+	}
+
+	public synchronized String getStatistics()
+	{
+		return "state=" + state.name().toLowerCase()
+				 + " failures=" + consecutiveFailures
+				 + " backoff=" + backoff + "ms"
+				 + " opened=" + openCount.get()
+				 + " rejected=" + rejectedCount.get();
+	}
+
+	private void open(long delay)
+	{
+		state = State.OPEN;
+		backoff = delay;
+		retryAt = System.currentTimeMillis() + delay;
+		openCount.incrementAndGet();
+		log.warning("Lost connection to the " + name + " database; suspending database calls for " + delay + "ms.");
+	}
+}
@@ -1,6 +1,10 @@
 package org.communitybridge.main;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 
 import net.milkbowl.vault.economy.Economy;
@@ -57,6 +61,7 @@ public class CommunityBridge extends JavaPlugin
 		getCommand("cbreload").setExecutor(command);
 		getCommand("cbsync").setExecutor(command);
 		getCommand("cbsyncall").setExecutor(command);
+		getCommand("cbstats").setExecutor(command);
 
 //		getCommand("cbban").setExecutor(new CBCommandExecutor(config, log));
 //		getCommand("cbunban").setExecutor(new CBCommandExecutor(config, log));
@@ -78,8 +83,6 @@ public class CommunityBridge extends JavaPlugin
 		environment.setConfiguration(new Configuration(environment));
 
 		// PermissionHandler set by Configuration initialization.
-
-		environment.setUserPlayerLinker(new UserPlayerLinker(environment, Bukkit.getMaxPlayers() * 4));
 	}
 
 	public void activate()
@@ -92,7 +95,17 @@ public class CommunityBridge extends JavaPlugin
 			return;
 		}
 
+		// The linker's queries are built from the configuration, so it is
+		// recreated whenever the configuration is (re)loaded.
+		Configuration configuration = environment.getConfiguration();
+		int linkCacheSize = configuration.linkingCacheSize > 0 ? configuration.linkingCacheSize : Bukkit.getMaxPlayers() * 4;
+		environment.setUserPlayerLinker(new UserPlayerLinker(environment, linkCacheSize, configuration.linkingCacheTimeToLive * 1000L, configuration.linkingCacheUnlinkedTimeToLive * 1000L, configuration.linkingCacheRefreshAhead * 1000L));
+		if (configuration.linkingCachePersist)
+		{
+			environment.getUserPlayerLinker().loadCache(getLinkCacheFile());
+		}
 		environment.setWebApplication(new WebApplication(environment));
+		environment.setAdmissionCheck(new AdmissionCheck(environment));
 
 		getServer().getPluginManager().registerEvents(new PlayerListener(environment), this);
 
@@ -135,6 +148,11 @@ public class CommunityBridge extends JavaPlugin
 			autosyncStart();
 		}
 
+		if (environment.getConfiguration().linkingCachePersist && environment.getConfiguration().linkingCacheSaveEvery > 0)
+		{
+			linkCacheSaveStart();
+		}
+
 		active = true;
 		environment.getLog().finest("CommunityBridge activated.");
 	}
@@ -153,6 +171,7 @@ public class CommunityBridge extends JavaPlugin
 		getCommand("cbreload").setExecutor(null);
 		getCommand("cbsync").setExecutor(null);
 		getCommand("cbsyncall").setExecutor(null);
+		getCommand("cbstats").setExecutor(null);
 
 		environment.getLog().config("Disabled...");
 		environment = null;
@@ -184,6 +203,23 @@ public class CommunityBridge extends JavaPlugin
 			metrics = null;
 		}
 
+		// Quits synchronized as players are kicked on shutdown are still queued,
+		// and they need the database.
+		if (environment.getWebApplication() != null)
+		{
+			environment.getWebApplication().shutdownSynchronization(environment.getConfiguration().databasePoolBorrowTimeout * 1000L);
+			environment.getLog().fine("Synchronization queue statistics: " + environment.getWebApplication().getSynchronizationStatistics());
+		}
+
+		if (environment.getUserPlayerLinker() != null)
+		{
+			environment.getLog().fine("Link cache statistics: " + environment.getUserPlayerLinker().getCacheStatistics());
+			if (environment.getConfiguration().linkingCachePersist)
+			{
+				environment.getUserPlayerLinker().saveCache(getLinkCacheFile());
+			}
+		}
+
 		if (environment.getSql() != null)
     {
 			environment.getSql().close();
@@ -220,32 +256,62 @@ public class CommunityBridge extends JavaPlugin
 
 	/**
 	 * Called by activate() if the auto sync is turned on, this starts up the
-	 * auto synchronization task runner.
+	 * auto synchronization task runner. With more than one slot the task runs
+	 * that many times per interval, synchronizing one slot each time.
 	 */
 	private void autosyncStart()
   {
+		final int slots = Math.max(1, environment.getConfiguration().autoSyncSlots);
+		final AtomicInteger nextSlot = new AtomicInteger();
 		MinecraftUtilities.startTaskTimer(this,
-				calculateTaskTicks(environment.getConfiguration().autoSyncEvery),
+				Math.max(1, calculateTaskTicks(environment.getConfiguration().autoSyncEvery) / slots),
 				new Runnable()
 				{
 					@Override
 					public void run()
 					{
-						environment.getWebApplication().synchronizeAll();
+						int slot = (nextSlot.getAndIncrement() & Integer.MAX_VALUE) % slots;
+						environment.getWebApplication().synchronizeSlot(slot, slots);
 					}
 				}
 			 );
 		environment.getLog().fine("Auto synchronization started.");
   }
 
+	/**
+	 * Saves the link cache every so often, so that a crash doesn't lose all
+	 * of it.
+	 */
+	private void linkCacheSaveStart()
+	{
+		final UserPlayerLinker linker = environment.getUserPlayerLinker();
+		final File file = getLinkCacheFile();
+		long every = environment.getConfiguration().linkingCacheSaveEvery * 20; // 20 ticks per second.
+		MinecraftUtilities.startTaskTimer(this, every,
+				new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						linker.saveCache(file);
+					}
+				}
+			 );
+		environment.getLog().fine("Link cache saving started.");
+	}
+
+	private File getLinkCacheFile()
+	{
+		return new File(getDataFolder(), "link-cache.dat");
+	}
+
 	/**
 	 * Reminds a single player to register if they are not registered.
 	 * If linking-kick-unregistered is turned on, an unregistered player will
 	 * be kicked.
 	 */
-  private void remindPlayer(Player player)
+  private void remindPlayer(Player player, String userID)
   {
-		String userID = environment.getUserPlayerLinker().getUserID(player);
     if (userID == null || userID.isEmpty())
     {
 			String playerName = player.getName();
@@ -268,11 +334,20 @@ public class CommunityBridge extends JavaPlugin
 	 */
   private void remindUnregisteredPlayers()
   {
+    // Every lookup would come back empty, and unregistered players may be
+    // kicked, so don't remind anyone while the database is down.
+    if (!environment.getSql().isAvailable())
+    {
+      environment.getLog().fine("Skipping unregistered auto reminder while the database is unavailable.");
+      return;
+    }
     environment.getLog().finest("Running unregistered auto reminder.");
 
-    for (Player player : Bukkit.getOnlinePlayers())
+    Collection<? extends Player> players = Bukkit.getOnlinePlayers();
+    Map<Player, String> userIDs = environment.getUserPlayerLinker().getUserIDs(players);
+    for (Player player : players)
     {
-      remindPlayer(player);
+      remindPlayer(player, userIDs.get(player));
     }
     environment.getLog().finest("Unregistered auto reminder complete.");
   }
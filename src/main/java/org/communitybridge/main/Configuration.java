@@ -32,11 +32,15 @@ import org.communitybridge.permissionhandlers.PermissionHandlerZPermissions;
 public class Configuration
 {
 	private static final String DATABASE_CONFIGURATION_PROBLEM = "Database configuration problem. Reload canceled.";
+	private static final int INDEX_PREFIX_LENGTH = 64;
 
 	private Environment environment;
 	private CommunityBridge plugin;
 	private Log log;
 	private SQL sql;
+	private DatabaseSchema schema;
+	private String schemaError;
+	private List<String[]> keyChecks = new ArrayList<String[]>();
 
 	// Internationalization
 	public String locale;
@@ -54,9 +58,12 @@ public class Configuration
 	public String autoEveryUnit;
 	public boolean autoSync;
 	public long autoSyncEvery;
+	public int autoSyncSlots;
 
 	public boolean syncDuringJoin;
 	public boolean syncDuringQuit;
+	public int synchronizationThreads;
+	public boolean synchronizationSkipUnchanged;
 
 	public String applicationURL;
 	private String dateFormatString;
@@ -69,6 +76,30 @@ public class Configuration
 	public String databaseUsername;
 	public String databasePassword;
 	public String databaseBindingAddress;
+	public String databaseReplicaHost;
+	public String databaseReplicaPort;
+	public int databasePoolMinimumSize;
+	public int databasePoolMaximumSize;
+	public long databasePoolIdleTimeout;
+	public long databasePoolMaximumLifetime;
+	public long databasePoolBorrowTimeout;
+	public long databasePoolValidationThreshold;
+	public long databasePoolKeepaliveInterval;
+	public int databaseStatementCacheSize;
+	public int databaseExecutorThreads;
+	public int databaseExecutorQueueLimit;
+	public String databaseExecutorRejectionPolicy;
+	public int databaseWriteBehindBatchSize;
+	public int databaseWriteBehindPendingLimit;
+	public long databaseWriteBehindFlushInterval;
+	public int databaseBreakerFailureThreshold;
+	public long databaseBreakerInitialBackoff;
+	public long databaseBreakerMaximumBackoff;
+	public long databaseSlowQueryThreshold;
+	public File databaseSlowQueryFile;
+	public int databaseSlowQueryFileSize;
+	public int databaseSlowQueryFileCount;
+	public boolean databaseSlowQueryExplain;
 
 	// Linking Section
 	public long linkingAutoEvery;
@@ -91,6 +122,16 @@ public class Configuration
 	public String linkingKeyName;
 	public String linkingKeyColumn;
 	public String linkingValueColumn;
+	// Worked out by analyze() from the identifier column's collation.
+	public boolean linkingIdentifierCaseInsensitive;
+	public boolean linkingIdentifierExactUUIDs;
+
+	public int linkingCacheSize;
+	public long linkingCacheTimeToLive;
+	public long linkingCacheUnlinkedTimeToLive;
+	public long linkingCacheRefreshAhead;
+	public boolean linkingCachePersist;
+	public long linkingCacheSaveEvery;
 
 	// Avatar config
 	public boolean avatarEnabled;
@@ -248,6 +289,8 @@ public class Configuration
 		boolean status = true;
 		boolean temp;
 
+		loadSchema();
+
 		// Linking table section.
 		if (!linkingMethod.startsWith("bot") && !linkingMethod.startsWith("uui") && !linkingMethod.startsWith("nam"))
 		{
@@ -275,6 +318,7 @@ public class Configuration
 				status = status & checkColumn("player-user-linking.identifier-column", linkingTableName, linkingIdentifierColumn);
 			}
 		}
+		checkIdentifierComparison();
 
 		if (avatarEnabled)
 		{
@@ -611,6 +655,9 @@ public class Configuration
 			}
 		}
 
+		checkKeys();
+		checkIndexes();
+
 		if (playerDataRequired)
 		{
 			File playerData = new File(plugin.getDataFolder(), "Players");
@@ -652,10 +699,31 @@ public class Configuration
 		return checkColumn(keyName, tableName, columnName);
 	}
 
+	/**
+	 * Reads the database's tables and columns in one go, for checkTable and
+	 * checkColumn to check against. If that fails, they report the error for
+	 * each setting they check.
+	 */
+	private void loadSchema()
+	{
+		schema = null;
+		schemaError = null;
+		keyChecks.clear();
+		try
+		{
+			long started = System.nanoTime();
+			schema = DatabaseSchema.load(sql);
+			log.finest("Read " + schema.getTableCount() + " tables from the database schema in " + QueryMetrics.millis(System.nanoTime() - started) + "ms.");
+		}
+		catch (SQLException e)
+		{
+			schemaError = e.getMessage();
+		}
+	}
+
 	/**
 	 * Check to see if a given column exists on a specific table.
 	 *
-	 * @param SQL SQL query object.
 	 * @param keyName
 	 * @param String containing the name of the table.
 	 * @param String containing the name of the column.
@@ -663,7 +731,6 @@ public class Configuration
 	 */
 	private boolean checkColumn(String keyName, String tableName, String columnName)
 	{
-		ResultSet result;
 		String errorBase;
 		errorBase = "Error while checking '" + keyName
 							+ "' set to '" + columnName + "': ";
@@ -674,133 +741,246 @@ public class Configuration
 			return false;
 		}
 
-		try
+		if (schema == null)
+		{
+			log.severe(errorBase + schemaError);
+			return false;
+		}
+
+		if (schema.hasColumn(tableName, columnName))
+		{
+			return true;
+		}
+		log.severe(errorBase + "Column does not exist.");
+		return false;
+	}
+
+	/**
+	 * Queues a check that at least one row has the given key. The checks are
+	 * run together by checkKeys once the rest of the configuration has been
+	 * checked.
+	 */
+	private void checkKeyColumnForKey(String yamlKeyName, String tableName,	String keyColumn,	String keyName)
+	{
+		// A missing key column has already been reported, and would make the
+		// combined query fail for every other key.
+		if (schema != null && schema.hasColumn(tableName, keyColumn))
+		{
+			keyChecks.add(new String[] { yamlKeyName, tableName, keyColumn, keyName });
+		}
+	}
+
+	/**
+	 * Runs the queued key checks as a single query with one EXISTS column per
+	 * key, and warns about each key that no row has.
+	 */
+	private void checkKeys()
+	{
+		if (keyChecks.isEmpty())
 		{
-			result = sql.sqlQuery("SHOW COLUMNS FROM `" + tableName	+ "` LIKE '" + columnName + "'");
+			return;
+		}
 
-			if (result != null && result.next())
+		StringBuilder query = new StringBuilder("/* cb:schema-keys */ SELECT ");
+		Object[] parameters = new Object[keyChecks.size()];
+		for (int index = 0; index < keyChecks.size(); index++)
+		{
+			String[] check = keyChecks.get(index);
+			if (index > 0)
 			{
-				return true;
+				query.append(", ");
 			}
-			else
+			query.append("EXISTS(SELECT 1 FROM `").append(check[1]).append("` WHERE `").append(check[2]).append("` = ?)");
+			parameters[index] = check[3];
+		}
+
+		try
+		{
+			boolean[] found = sql.querySinglePrimary(query.toString(), new RowMapper<boolean[]>()
 			{
-				log.severe(errorBase + "Column does not exist.");
-				return false;
+				@Override
+				public boolean[] mapRow(ResultSet result) throws SQLException
+				{
+					boolean[] exists = new boolean[keyChecks.size()];
+					for (int index = 0; index < exists.length; index++)
+					{
+						exists[index] = result.getBoolean(index + 1);
+					}
+					return exists;
+				}
+			}, parameters);
+
+			for (int index = 0; index < keyChecks.size(); index++)
+			{
+				String[] check = keyChecks.get(index);
+				if (found == null)
+				{
+					log.warning("Empty result set while checking: " + check[0]);
+				}
+				else if (!found[index])
+				{
+					log.warning("There are no rows containing " + check[3]
+												 + " in the " + check[2] + " column, on the "
+												 + check[1] + " table.");
+				}
 			}
 		}
 		catch (SQLException e)
 		{
-			log.severe(errorBase + e.getMessage());
-			return false;
+			log.severe("Error while checking configured keys: " + e.getMessage());
 		}
-		catch (MalformedURLException e)
+		keyChecks.clear();
+	}
+
+	/**
+	 * Works out how linking identifiers can be compared without wrapping the
+	 * column in LOWER(), which keeps MySQL from using an index on it. A
+	 * case insensitive collation does the job by itself. Otherwise UUIDs,
+	 * which are always stored in lower case, are compared exactly and only
+	 * names still need LOWER(). If the schema couldn't be read, everything
+	 * uses LOWER() as before.
+	 */
+	private void checkIdentifierComparison()
+	{
+		linkingIdentifierCaseInsensitive = false;
+		linkingIdentifierExactUUIDs = false;
+		if (linkingUsesKey || schema == null || !schema.hasColumn(linkingTableName, linkingIdentifierColumn))
 		{
-			log.severe(errorBase + e.getMessage());
-			return false;
+			return;
 		}
-		catch (InstantiationException e)
+
+		String collation = schema.getColumnCollation(linkingTableName, linkingIdentifierColumn);
+		if (schema.isCaseInsensitive(linkingTableName, linkingIdentifierColumn))
 		{
-			log.severe(errorBase + e.getMessage());
-			return false;
+			linkingIdentifierCaseInsensitive = true;
+			log.config(  "Linking identifier comparison        : by collation (" + collation + ")");
 		}
-		catch (IllegalAccessException e)
+		else
 		{
-			log.severe(errorBase + e.getMessage());
-			return false;
+			linkingIdentifierExactUUIDs = true;
+			log.config(  "Linking identifier comparison        : exact for UUIDs, LOWER() for names (" + collation + ")");
 		}
 	}
 
-	private void checkKeyColumnForKey(String yamlKeyName, String tableName,	String keyColumn,	String keyName)
+	/**
+	 * Warns about each lookup that no index supports, since MySQL has to read
+	 * the whole table for those, and logs the DDL that would add one. Tables
+	 * and columns that don't exist have already been reported and are
+	 * skipped.
+	 */
+	private void checkIndexes()
 	{
-		String errorBase = "Error while checking " + yamlKeyName + ": ";
-		String query = "SELECT COUNT(*) FROM `" + tableName + "` "
-								 + "WHERE `" + keyColumn + "` = '" + keyName + "'";
+		if (schema == null)
+		{
+			return;
+		}
 
-		try
+		if (linkingUsesKey)
 		{
-			ResultSet result = sql.sqlQuery(query);
+			checkIndex("player-user-linking", linkingTableName, linkingValueColumn, linkingKeyColumn);
+			checkIndex("player-user-linking", linkingTableName, linkingUserIDColumn, linkingKeyColumn);
+		}
+		else
+		{
+			checkIndex("player-user-linking", linkingTableName, linkingIdentifierColumn, null);
+			checkIndex("player-user-linking", linkingTableName, linkingUserIDColumn, null);
+		}
 
-			if (result.next())
-			{
-				if (result.getInt(1) == 0)
-				{
-					log.warning("There are no rows containing " + keyName
-												 + " in the " + keyColumn + " column, on the "
-												 + tableName + " table.");
-				}
-			}
-			else
-			{
-					log.warning("Empty result set while checking: " + yamlKeyName);
-			}
+		if (webappPrimaryGroupEnabled)
+		{
+			checkIndex("app-group-config.primary", webappPrimaryGroupTable, webappPrimaryGroupUserIDColumn, webappPrimaryGroupUsesKey ? webappPrimaryGroupKeyColumn : null);
 		}
-		catch (SQLException e)
+
+		if (webappSecondaryGroupEnabled)
+		{
+			boolean usesKey = webappSecondaryGroupStorageMethod.startsWith("mul") || webappSecondaryGroupStorageMethod.startsWith("key");
+			checkIndex("app-group-config.secondary", webappSecondaryGroupTable, webappSecondaryGroupUserIDColumn, usesKey ? webappSecondaryGroupKeyColumn : null);
+		}
+
+		if (statisticsEnabled)
 		{
-			log.severe(errorBase + e.getMessage());
+			checkIndex("statistics", statisticsTableName, statisticsUserIDColumn, statisticsUsesKey ? statisticsKeyColumn : null);
 		}
-		catch (MalformedURLException e)
+
+		if (walletEnabled)
 		{
-			log.severe(errorBase + e.getMessage());
+			checkIndex("app-wallet-config", walletTableName, walletUserIDColumn, walletUsesKey ? walletKeyColumn : null);
 		}
-		catch (InstantiationException e)
+
+		if (banSynchronizationEnabled)
 		{
-			log.severe(errorBase + e.getMessage());
+			checkIndex("ban-synchronization", banSynchronizationTableName, banSynchronizationUserIDColumn, null);
 		}
-		catch (IllegalAccessException e)
+	}
+
+	/**
+	 * Looks for an index starting with the lookup column. The suggested index
+	 * adds the key column after it for key/value tables, where the lookup
+	 * matches both.
+	 */
+	private void checkIndex(String section, String tableName, String columnName, String keyColumn)
+	{
+		if (!schema.hasColumn(tableName, columnName) || (keyColumn != null && !schema.hasColumn(tableName, keyColumn)))
+		{
+			return;
+		}
+		if (schema.hasIndexStartingWith(tableName, columnName))
+		{
+			return;
+		}
+
+		String indexName = "cb_" + columnName;
+		if (indexName.length() > 64)
+		{
+			indexName = indexName.substring(0, 64);
+		}
+		String columns = indexColumn(tableName, columnName);
+		if (keyColumn != null)
+		{
+			columns = columns + ", " + indexColumn(tableName, keyColumn);
+		}
+		log.warning("Lookups by " + columnName + " on the " + tableName + " table (" + section + ") are not indexed and will scan the whole table. "
+							+ "To add an index: ALTER TABLE `" + tableName + "` ADD INDEX `" + indexName + "` (" + columns + ");");
+	}
+
+	/**
+	 * TEXT and BLOB columns can only be indexed on a prefix.
+	 */
+	private String indexColumn(String tableName, String columnName)
+	{
+		String type = schema.getColumnType(tableName, columnName);
+		if (type != null && (type.endsWith("text") || type.endsWith("blob")))
 		{
-			log.severe(errorBase + e.getMessage());
+			return "`" + columnName + "`(" + INDEX_PREFIX_LENGTH + ")";
 		}
+		return "`" + columnName + "`";
 	}
 
 	/**
 	 * Check to see if a table exists.
 	 *
-	 * @param SQL An SQL query object.
 	 * @param String containing the category label.
 	 * @param String containing the name of the table to check.
 	 * @return boolean True if the table exists.
 	 */
 	private boolean checkTable(String keyName, String tableName)
 	{
-		ResultSet result;
 		String errorBase;
 		errorBase = "Error while checking '" + keyName
 							+ "' set to '" + tableName + "': ";
 
-		try
-		{
-			result = sql.sqlQuery("SHOW TABLES LIKE '" + tableName + "'");
-
-			if (result != null)
-			{
-				if (result.next())
-				{
-					return true;
-				}
-				log.severe(errorBase + "Table does not exist.");
-			}
-			return false;
-		}
-		catch (SQLException e)
-		{
-			log.severe(errorBase + e.getMessage());
-			return false;
-		}
-		catch (MalformedURLException e)
+		if (schema == null)
 		{
-			log.severe(errorBase + e.getMessage());
+			log.severe(errorBase + schemaError);
 			return false;
 		}
-		catch (InstantiationException e)
-		{
-			log.severe(errorBase + e.getMessage());
-			return false;
-		}
-		catch (IllegalAccessException e)
+
+		if (schema.hasTable(tableName))
 		{
-			log.severe(errorBase + e.getMessage());
-			return false;
+			return true;
 		}
+		log.severe(errorBase + "Table does not exist.");
+		return false;
 	}
 
 	public String getGroupNameByGroupID(String groupID)
@@ -855,8 +1035,11 @@ public class Configuration
 		autoEveryUnit = config.getString("general.auto-every-unit", "ticks").toLowerCase();
 		autoSync = config.getBoolean("general.auto-sync", false);
 		autoSyncEvery = config.getLong("general.auto-sync-every", 24000L);
+		autoSyncSlots = config.getInt("general.auto-sync-slots", 1);
 		syncDuringJoin = config.getBoolean("general.sync-during-join", true);
 		syncDuringQuit = config.getBoolean("general.sync-during-quit", true);
+		synchronizationThreads = config.getInt("general.synchronization-threads", 0);
+		synchronizationSkipUnchanged = config.getBoolean("general.synchronization-skip-unchanged", true);
 
 		applicationURL = config.getString("general.application-url", "http://www.example.org/");
 
@@ -875,6 +1058,31 @@ public class Configuration
 			databaseBindingAddress = Bukkit.getIp();
 		}
 
+		databaseReplicaHost = config.getString("database.read-replica.hostname", "");
+		databaseReplicaPort = config.getString("database.read-replica.port", databasePort);
+		databasePoolMinimumSize = config.getInt("database.pool.minimum-size", 1);
+		databasePoolMaximumSize = config.getInt("database.pool.maximum-size", 4);
+		databasePoolIdleTimeout = config.getLong("database.pool.idle-timeout", 600L);
+		databasePoolMaximumLifetime = config.getLong("database.pool.maximum-lifetime", 1800L);
+		databasePoolBorrowTimeout = config.getLong("database.pool.borrow-timeout", 5L);
+		databasePoolValidationThreshold = config.getLong("database.pool.validation-threshold", 30L);
+		databasePoolKeepaliveInterval = config.getLong("database.pool.keepalive-interval", 120L);
+		databaseStatementCacheSize = Math.max(1, config.getInt("database.statement-cache-size", 64));
+		databaseExecutorThreads = config.getInt("database.executor.threads", 2);
+		databaseExecutorQueueLimit = config.getInt("database.executor.queue-limit", 100);
+		databaseExecutorRejectionPolicy = config.getString("database.executor.rejection-policy", "caller-runs");
+		databaseWriteBehindBatchSize = config.getInt("database.write-behind.batch-size", 100);
+		databaseWriteBehindPendingLimit = config.getInt("database.write-behind.pending-limit", 10000);
+		databaseWriteBehindFlushInterval = config.getLong("database.write-behind.flush-interval", 2L);
+		databaseBreakerFailureThreshold = config.getInt("database.circuit-breaker.failure-threshold", 3);
+		databaseBreakerInitialBackoff = config.getLong("database.circuit-breaker.initial-backoff", 1L);
+		databaseBreakerMaximumBackoff = config.getLong("database.circuit-breaker.maximum-backoff", 60L);
+		databaseSlowQueryThreshold = config.getLong("database.slow-query.threshold", 500L);
+		databaseSlowQueryFile = new File(plugin.getDataFolder(), config.getString("database.slow-query.log-file", "slow-queries.log"));
+		databaseSlowQueryFileSize = config.getInt("database.slow-query.file-size", 1024);
+		databaseSlowQueryFileCount = config.getInt("database.slow-query.file-count", 3);
+		databaseSlowQueryExplain = config.getBoolean("database.slow-query.explain", true);
+
 		// Linking Section
 		linkingMethod = config.getString("player-user-linking.linking-method", "both");
 		linkingKickUnregistered = config.getBoolean("player-user-linking.kick-unregistered", false);
@@ -907,6 +1115,13 @@ public class Configuration
 		linkingKeyColumn = config.getString("player-user-linking.key-column", "");
 		linkingValueColumn = config.getString("player-user-linking.value-column", "");
 
+		linkingCacheSize = config.getInt("player-user-linking.cache.size", 0);
+		linkingCacheTimeToLive = config.getLong("player-user-linking.cache.time-to-live", 900L);
+		linkingCacheUnlinkedTimeToLive = config.getLong("player-user-linking.cache.unlinked-time-to-live", 60L);
+		linkingCacheRefreshAhead = config.getLong("player-user-linking.cache.refresh-ahead", 120L);
+		linkingCachePersist = config.getBoolean("player-user-linking.cache.persist", true);
+		linkingCacheSaveEvery = config.getLong("player-user-linking.cache.save-every", 300L);
+
 		avatarEnabled = config.getBoolean("app-avatar-config.enabled", false);
 		if (avatarEnabled)
 		{
@@ -1352,10 +1567,13 @@ public class Configuration
 		if (autoSync)
 		{
 			log.config(  "Autosync every                       : " + autoSyncEvery + " " + autoEveryUnit);
+			log.config(  "Autosync slots                       : " + autoSyncSlots);
 		}
 
 		log.config(    "Synchronize during join event        : " + syncDuringJoin);
 		log.config(    "Synchronize during quit event        : " + syncDuringQuit);
+		log.config(    "Synchronization threads              : " + (synchronizationThreads > 0 ? synchronizationThreads : "one per core, up to the pool size"));
+		log.config(    "Skip unchanged players on auto sync  : " + synchronizationSkipUnchanged);
 
 		log.config(    "Application url                      : " + applicationURL);
 		log.config(    "Date Format                          : " + dateFormatString);
@@ -1369,6 +1587,49 @@ public class Configuration
 		log.config(    "Database port                        : " + databasePort);
 		log.config(    "Database name                        : " + databaseName);
 		log.config(    "Database username                    : " + databaseUsername);
+		if (!databaseReplicaHost.isEmpty())
+		{
+			log.config(    "Database read replica                : " + databaseReplicaHost + ":" + databaseReplicaPort);
+		}
+		log.config(    "Database pool size                   : " + databasePoolMinimumSize + " to " + databasePoolMaximumSize);
+		log.config(    "Database pool idle timeout           : " + databasePoolIdleTimeout + " seconds");
+		log.config(    "Database pool maximum lifetime       : " + databasePoolMaximumLifetime + " seconds");
+		log.config(    "Database pool borrow timeout         : " + databasePoolBorrowTimeout + " seconds");
+		log.config(    "Database pool validation threshold   : " + databasePoolValidationThreshold + " seconds");
+		log.config(    "Database pool keepalive interval     : " + databasePoolKeepaliveInterval + " seconds");
+		log.config(    "Database statement cache size        : " + databaseStatementCacheSize);
+		log.config(    "Database executor threads            : " + databaseExecutorThreads);
+		log.config(    "Database executor queue limit        : " + databaseExecutorQueueLimit);
+		log.config(    "Database executor rejection policy   : " + databaseExecutorRejectionPolicy);
+		if (databaseWriteBehindFlushInterval > 0)
+		{
+			log.config(    "Database write-behind batch size     : " + databaseWriteBehindBatchSize);
+			log.config(    "Database write-behind pending limit  : " + databaseWriteBehindPendingLimit);
+			log.config(    "Database write-behind flush interval : " + databaseWriteBehindFlushInterval + " seconds");
+		}
+		else
+		{
+			log.config(    "Database write-behind                : disabled");
+		}
+		if (databaseBreakerFailureThreshold > 0)
+		{
+			log.config(    "Database circuit breaker threshold   : " + databaseBreakerFailureThreshold + " failures");
+			log.config(    "Database circuit breaker backoff     : " + databaseBreakerInitialBackoff + " to " + databaseBreakerMaximumBackoff + " seconds");
+		}
+		else
+		{
+			log.config(    "Database circuit breaker             : disabled");
+		}
+		if (databaseSlowQueryThreshold > 0)
+		{
+			log.config(    "Database slow query threshold        : " + databaseSlowQueryThreshold + " milliseconds");
+			log.config(    "Database slow query log              : " + databaseSlowQueryFile.getPath() + " (" + databaseSlowQueryFileCount + " files of " + databaseSlowQueryFileSize + " KB)");
+			log.config(    "Database slow query explain          : " + databaseSlowQueryExplain);
+		}
+		else
+		{
+			log.config(    "Database slow query log              : disabled");
+		}
 
 		// Linking Section
 		log.config(    "Linking method                       : " + linkingMethod);
@@ -1399,6 +1660,15 @@ public class Configuration
 		{
 			log.config(  "Linking identifier column            : " + linkingIdentifierColumn);
 		}
+		log.config(    "Linking cache size                   : " + (linkingCacheSize > 0 ? linkingCacheSize : "4 per player slot"));
+		log.config(    "Linking cache time to live           : " + linkingCacheTimeToLive + " seconds");
+		log.config(    "Linking cache unlinked time to live  : " + linkingCacheUnlinkedTimeToLive + " seconds");
+		log.config(    "Linking cache refresh ahead          : " + linkingCacheRefreshAhead + " seconds");
+		log.config(    "Linking cache saved to disk          : " + linkingCachePersist);
+		if (linkingCachePersist)
+		{
+			log.config(  "Linking cache save every             : " + (linkingCacheSaveEvery > 0 ? linkingCacheSaveEvery + " seconds" : "only when deactivated"));
+		}
 
 		log.config(    "Avatars config enabled               : " + avatarEnabled);
 		if (avatarEnabled)
@@ -1662,12 +1932,7 @@ public class Configuration
 			environment.getSql().close();
 		}
 
-		environment.setSql(new SQL(environment.getLog(),
-						databaseHost + ":" + databasePort,
-						databaseName + "",
-						databaseUsername + "",
-						databasePassword + "",
-						databaseBindingAddress));
+		environment.setSql(new SQL(environment.getLog(), this));
 
 		environment.getSql().initialize();
 		if (environment.getSql().checkConnection() == false)
@@ -0,0 +1,462 @@
+package org.communitybridge.main;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.communitybridge.utility.Log;
+
+/**
+ * A small bounded pool of JDBC connections.
+ *
+ * Connections are handed out most recently used first, so that surplus
+ * connections sit idle long enough to be evicted. The number of connections
+ * in use is capped by maximumSize; a borrower waits up to borrowTimeout for
+ * one to come free before giving up.
+ *
+ * Connections are not pinged on every borrow. A connection is only validated
+ * when it has gone unchecked for longer than validationThreshold, and a
+ * background housekeeping thread pings idle connections every
+ * keepaliveInterval, evicts stale ones and tops the pool back up to its
+ * minimum size.
+ */
+public class ConnectionPool
+{
+	private Log log;
+	private String url;
+	private Properties properties;
+	private int minimumSize;
+	private int maximumSize;
+	private long idleTimeout;
+	private long maximumLifetime;
+	private long borrowTimeout;
+	private long validationThreshold;
+	private long keepaliveInterval;
+	private int statementCacheSize;
+	private static final int VALIDATION_TIMEOUT = 5;
+
+	private final LinkedBlockingDeque<PooledConnection> idleConnections = new LinkedBlockingDeque<PooledConnection>();
+	private final Semaphore permits;
+	private volatile boolean closed;
+	private volatile boolean healthy = true;
+	private ScheduledExecutorService housekeeper;
+
+	private final AtomicInteger openConnections = new AtomicInteger();
+	private final AtomicInteger activeConnections = new AtomicInteger();
+	private final AtomicInteger peakActiveConnections = new AtomicInteger();
+	private final AtomicLong borrowCount = new AtomicLong();
+	private final AtomicLong waitCount = new AtomicLong();
+	private final AtomicLong timeoutCount = new AtomicLong();
+	private final AtomicLong createdCount = new AtomicLong();
+	private final AtomicLong evictedCount = new AtomicLong();
+	private final AtomicLong validationFailureCount = new AtomicLong();
+
+	public ConnectionPool(Log log, String url, Properties properties, int minimumSize, int maximumSize, long idleTimeout, long maximumLifetime, long borrowTimeout, long validationThreshold, long keepaliveInterval, int statementCacheSize)
+	{
+		this.log = log;
+		this.url = url;
+		this.properties = properties;
+		this.maximumSize = Math.max(1, maximumSize);
+		this.minimumSize = Math.max(0, Math.min(minimumSize, this.maximumSize));
+		this.idleTimeout = idleTimeout;
+		this.maximumLifetime = maximumLifetime;
+		this.borrowTimeout = borrowTimeout;
+		this.validationThreshold = validationThreshold;
+		this.keepaliveInterval = keepaliveInterval;
+		this.statementCacheSize = statementCacheSize;
+		this.permits = new Semaphore(this.maximumSize, true);
+	}
+
+	/**
+	 * Opens the minimum number of connections and starts the housekeeping
+	 * thread. Fails if even one connection cannot be opened, so that a bad
+	 * configuration is noticed at startup.
+	 */
+	public void start() throws SQLException
+	{
+		for (int count = Math.max(1, minimumSize); openConnections.get() < count;)
+		{
+			idleConnections.offerLast(openConnection());
+		}
+
+		if (keepaliveInterval > 0)
+		{
+			housekeeper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+			{
+				@Override
+				public Thread newThread(Runnable runnable)
+				{
+					Thread thread = new Thread(runnable, "CommunityBridge-ConnectionPool");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			housekeeper.scheduleWithFixedDelay(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					housekeep();
+				}
+			}, keepaliveInterval, keepaliveInterval, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	public PooledConnection borrow() throws SQLException
+	{
+		if (closed)
+		{
+			throw new SQLException("The connection pool is closed.");
+		}
+
+		borrowCount.incrementAndGet();
+		if (!permits.tryAcquire())
+		{
+			waitCount.incrementAndGet();
+			try
+			{
+				if (!permits.tryAcquire(borrowTimeout, TimeUnit.MILLISECONDS))
+				{
+					timeoutCount.incrementAndGet();
+					throw new SQLException("Timed out after " + borrowTimeout + "ms waiting for a database connection.");
+				}
+			}
+			catch (InterruptedException exception)
+			{
+				Thread.currentThread().interrupt();
+				throw new SQLException("Interrupted while waiting for a database connection.");
+			}
+		}
+
+		try
+		{
+			PooledConnection pooled = takeIdleConnection();
+			if (pooled == null)
+			{
+				pooled = openConnection();
+			}
+			recordActive();
+			return pooled;
+		}
+		catch (SQLException exception)
+		{
+			permits.release();
+			throw exception;
+		}
+	}
+
+	/**
+	 * Returns a connection to the pool. A connection that failed in a way
+	 * that leaves it unusable should be released with broken set to true so
+	 * that it is closed instead of being handed out again.
+	 */
+	public void release(PooledConnection pooled, boolean broken)
+	{
+		activeConnections.decrementAndGet();
+		if (broken)
+		{
+			scheduleHealthCheck();
+		}
+
+		try
+		{
+			if (broken || closed || pooled.isExpired(maximumLifetime) || pooled.getConnection().isClosed())
+			{
+				closeConnection(pooled);
+			}
+			else
+			{
+				pooled.touch();
+				idleConnections.offerFirst(pooled);
+			}
+		}
+		catch (SQLException exception)
+		{
+			closeConnection(pooled);
+		}
+		finally
+		{
+			permits.release();
+		}
+		evictIdleConnections();
+	}
+
+	/**
+	 * Closes idle connections that have outlived either the idle timeout or
+	 * the maximum lifetime, keeping at least the minimum number open.
+	 */
+	public void evictIdleConnections()
+	{
+		Iterator<PooledConnection> iterator = idleConnections.descendingIterator();
+		while (iterator.hasNext())
+		{
+			PooledConnection pooled = iterator.next();
+			boolean stale = pooled.isIdleLongerThan(idleTimeout) && openConnections.get() > minimumSize;
+			if ((stale || pooled.isExpired(maximumLifetime)) && idleConnections.remove(pooled))
+			{
+				evictedCount.incrementAndGet();
+				closeConnection(pooled);
+			}
+		}
+	}
+
+	/**
+	 * Pings idle connections that have gone unchecked for a keepalive
+	 * interval, drops the ones that fail, evicts stale ones and reopens
+	 * connections up to the minimum size.
+	 */
+	public void housekeep()
+	{
+		if (closed)
+		{
+			return;
+		}
+
+		for (PooledConnection pooled : idleConnections.toArray(new PooledConnection[0]))
+		{
+			if (!pooled.isUncheckedLongerThan(keepaliveInterval) || !permits.tryAcquire())
+			{
+				continue;
+			}
+			try
+			{
+				if (idleConnections.remove(pooled))
+				{
+					if (validate(pooled))
+					{
+						idleConnections.offerLast(pooled);
+					}
+					else
+					{
+						closeConnection(pooled);
+					}
+				}
+			}
+			finally
+			{
+				permits.release();
+			}
+		}
+
+		evictIdleConnections();
+
+		try
+		{
+			while (!closed && openConnections.get() < minimumSize)
+			{
+				idleConnections.offerLast(openConnection());
+			}
+			if (!healthy)
+			{
+				healthy = true;
+				log.info("Connection to the database has been restored.");
+			}
+		}
+		catch (SQLException exception)
+		{
+			if (healthy)
+			{
+				healthy = false;
+				log.warning("Unable to reopen database connections: " + exception.getMessage());
+			}
+		}
+	}
+
+	public void close()
+	{
+		closed = true;
+		if (housekeeper != null)
+		{
+			housekeeper.shutdownNow();
+		}
+		PooledConnection pooled;
+		while ((pooled = idleConnections.pollFirst()) != null)
+		{
+			closeConnection(pooled);
+		}
+	}
+
+	public int getOpenConnections()
+	{
+		return openConnections.get();
+	}
+
+	public int getActiveConnections()
+	{
+		return activeConnections.get();
+	}
+
+	public int getPeakActiveConnections()
+	{
+		return peakActiveConnections.get();
+	}
+
+	public int getMaximumSize()
+	{
+		return maximumSize;
+	}
+
+	public long getBorrowCount()
+	{
+		return borrowCount.get();
+	}
+
+	public long getWaitCount()
+	{
+		return waitCount.get();
+	}
+
+	public long getTimeoutCount()
+	{
+		return timeoutCount.get();
+	}
+
+	public long getCreatedCount()
+	{
+		return createdCount.get();
+	}
+
+	public long getEvictedCount()
+	{
+		return evictedCount.get();
+	}
+
+	public long getValidationFailureCount()
+	{
+		return validationFailureCount.get();
+	}
+
+	public boolean isHealthy()
+	{
+		return healthy;
+	}
+
+	public String getStatistics()
+	{
+		return "open=" + openConnections.get()
+				 + " active=" + activeConnections.get()
+				 + " peak=" + peakActiveConnections.get() + "/" + maximumSize
+				 + " borrows=" + borrowCount.get()
+				 + " waits=" + waitCount.get()
+				 + " timeouts=" + timeoutCount.get()
+				 + " created=" + createdCount.get()
+				 + " evicted=" + evictedCount.get()
+				 + " validation failures=" + validationFailureCount.get();
+	}
+
+	private PooledConnection takeIdleConnection()
+	{
+		PooledConnection pooled;
+		while ((pooled = idleConnections.pollFirst()) != null)
+		{
+			// As in evictIdleConnections, idle connections are kept once the pool
+			// is down to its minimum, so that the minimum stays warm.
+			boolean stale = pooled.isIdleLongerThan(idleTimeout) && openConnections.get() > minimumSize;
+			if (pooled.isExpired(maximumLifetime) || stale)
+			{
+				evictedCount.incrementAndGet();
+				closeConnection(pooled);
+				continue;
+			}
+			if (pooled.isUncheckedLongerThan(validationThreshold) && !validate(pooled))
+			{
+				closeConnection(pooled);
+				continue;
+			}
+			return pooled;
+		}
+		return null;
+	}
+
+	private boolean validate(PooledConnection pooled)
+	{
+		try
+		{
+			if (pooled.getConnection().isValid(VALIDATION_TIMEOUT))
+			{
+				pooled.markValidated();
+				return true;
+			}
+		}
+		catch (SQLException exception)
+		{
+			log.finest("Pooled connection failed validation: " + exception.getMessage());
+		}
+		validationFailureCount.incrementAndGet();
+		return false;
+	}
+
+	/**
+	 * A connection that just failed usually means the others have been cut
+	 * off too, so check the idle ones now rather than at the next interval.
+	 */
+	private void scheduleHealthCheck()
+	{
+		if (housekeeper == null || closed)
+		{
+			return;
+		}
+
+		for (PooledConnection pooled : idleConnections)
+		{
+			pooled.markUnchecked();
+		}
+		try
+		{
+			housekeeper.execute(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					housekeep();
+				}
+			});
+		}
+		catch (RejectedExecutionException exception)
+		{
+			log.finest("Connection pool health check skipped: " + exception.getMessage());
+		}
+	}
+
+	private PooledConnection openConnection() throws SQLException
+	{
+		Connection connection = DriverManager.getConnection(url, properties);
+		openConnections.incrementAndGet();
+		createdCount.incrementAndGet();
+		return new PooledConnection(connection, statementCacheSize);
+	}
+
+	private void closeConnection(PooledConnection pooled)
+	{
+		openConnections.decrementAndGet();
+		try
+		{
+			pooled.close();
+		}
+		catch (SQLException exception)
+		{
+			log.finest("Failed to close pooled connection: " + exception.getMessage());
+		}
+	}
+
+	private void recordActive()
+	{
+		int active = activeConnections.incrementAndGet();
+		int peak;
+		do
+		{
+			peak = peakActiveConnections.get();
+		}
+		while (active > peak && !peakActiveConnections.compareAndSet(peak, active));
+	}
+}
@@ -0,0 +1,31 @@
+package org.communitybridge.main;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Counts the rows passed on to another handler, so that a failed stream can
+ * tell whether the handler has already seen part of the results.
+ */
+class CountingRowHandler implements RowHandler
+{
+	private RowHandler handler;
+	private int rows;
+
+	CountingRowHandler(RowHandler handler)
+	{
+		this.handler = handler;
+	}
+
+	@Override
+	public void handleRow(ResultSet result) throws SQLException
+	{
+		handler.handleRow(result);
+		rows++;
+	}
+
+	int getRows()
+	{
+		return rows;
+	}
+}
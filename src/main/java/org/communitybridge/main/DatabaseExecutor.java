@@ -0,0 +1,168 @@
+package org.communitybridge.main;
+
+import java.sql.SQLException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.communitybridge.utility.Log;
+
+/**
+ * Runs database work on a few dedicated threads, so that a slow web
+ * application database holds up these threads rather than the server
+ * scheduler's workers.
+ *
+ * Work waits in a bounded queue. When the queue is full the rejection policy
+ * decides what happens: "caller-runs" runs the task on the thread that
+ * submitted it, which slows that thread down to the database's pace, while
+ * "abort" fails the task's future straight away. Once the executor has been
+ * shut down, tasks always run on the caller so that work done while the
+ * plugin is disabling still reaches the database.
+ */
+public class DatabaseExecutor
+{
+	private static final long KEEP_ALIVE_SECONDS = 60;
+
+	private Log log;
+	private ThreadPoolExecutor executor;
+	private boolean callerRuns;
+
+	private final AtomicLong submittedCount = new AtomicLong();
+	private final AtomicLong rejectedCount = new AtomicLong();
+	private final AtomicLong callerRunCount = new AtomicLong();
+
+	public DatabaseExecutor(Log log, int threads, int queueLimit, String rejectionPolicy)
+	{
+		this.log = log;
+		this.callerRuns = !rejectionPolicy.toLowerCase().startsWith("abort");
+
+		final AtomicInteger threadNumber = new AtomicInteger();
+		threads = Math.max(1, threads);
+		executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+																			new ArrayBlockingQueue<Runnable>(Math.max(1, queueLimit)),
+																			new ThreadFactory()
+																			{
+																				@Override
+																				public Thread newThread(Runnable runnable)
+																				{
+																					Thread thread = new Thread(runnable, "CommunityBridge-Database-" + threadNumber.incrementAndGet());
+																					thread.setDaemon(true);
+																					return thread;
+																				}
+																			},
+																			new RejectionHandler());
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	public <T> Future<T> submit(Callable<T> task)
+	{
+		DatabaseTask<T> future = new DatabaseTask<T>(task);
+		submittedCount.incrementAndGet();
+		executor.execute(future);
+		return future;
+	}
+
+	/**
+	 * Waits for a future returned by submit and hands back its result. An
+	 * SQLException thrown by the task is rethrown as is, so callers can keep
+	 * their existing error handling.
+	 */
+	public static <T> T await(Future<T> future) throws SQLException
+	{
+		try
+		{
+			return future.get();
+		}
+		catch (InterruptedException exception)
+		{
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for the database.", exception);
+		}
+		catch (ExecutionException exception)
+		{
+			Throwable cause = exception.getCause();
+			if (cause instanceof SQLException)
+			{
+				throw (SQLException) cause;
+			}
+			if (cause instanceof RuntimeException)
+			{
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error)
+			{
+				throw (Error) cause;
+			}
+			throw new SQLException(cause);
+		}
+	}
+
+	/**
+	 * Stops taking new work and waits up to timeout milliseconds for queued
+	 * work to finish.
+	 */
+	public void shutdown(long timeout)
+	{
+		executor.shutdown();
+		try
+		{
+			if (!executor.awaitTermination(timeout, TimeUnit.MILLISECONDS))
+			{
+				log.warning("Database executor did not finish " + executor.getQueue().size() + " queued tasks before shutting down.");
+				executor.shutdownNow();
+			}
+		}
+		catch (InterruptedException exception)
+		{
+			Thread.currentThread().interrupt();
+			executor.shutdownNow();
+		}
+	}
+
+	public String getStatistics()
+	{
+		return "threads=" + executor.getPoolSize() + "/" + executor.getMaximumPoolSize()
+				 + " active=" + executor.getActiveCount()
+				 + " queued=" + executor.getQueue().size()
+				 + " submitted=" + submittedCount.get()
+				 + " completed=" + executor.getCompletedTaskCount()
+				 + " rejected=" + rejectedCount.get()
+				 + " caller runs=" + callerRunCount.get();
+	}
+
+	private static class DatabaseTask<T> extends FutureTask<T>
+	{
+		DatabaseTask(Callable<T> callable)
+		{
+			super(callable);
+		}
+
+		void fail(Throwable throwable)
+		{
+			setException(throwable);
+		}
+	}
+
+	private class RejectionHandler implements RejectedExecutionHandler
+	{
+		@Override
+		public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor)
+		{
+			if (callerRuns || executor.isShutdown())
+			{
+				callerRunCount.incrementAndGet();
+				runnable.run();
+				return;
+			}
+			rejectedCount.incrementAndGet();
+			((DatabaseTask<?>) runnable).fail(new SQLException("The database executor queue is full."));
+		}
+	}
+}
@@ -1,281 +1,656 @@
-package org.communitybridge.main;
-
-import java.net.MalformedURLException;
-import java.sql.Connection;
-import java.sql.DriverManager;
-import java.sql.ResultSet;
-import java.sql.SQLException;
-import java.sql.Statement;
-import java.util.Properties;
-import org.communitybridge.utility.Log;
-
-public class DatabaseHandler
-{
-	private Log log;
-	private Connection connection;
-	private String dblocation;
-	private String username;
-	private String password;
-	private String database;
-	private String localAddress;
-
-	public DatabaseHandler(Log log, String dbLocation, String database, String username, String password, String localAddress)
-	{
-		this.log = log;
-		this.dblocation = dbLocation;
-		this.database = database;
-		this.username = username;
-		this.password = password;
-		this.localAddress = localAddress;
-	}
-
-	private void openConnection() throws MalformedURLException, InstantiationException, IllegalAccessException
-	{
-		try
-		{
-			Class.forName("com.mysql.jdbc.Driver");
-			Properties properties = new Properties();
-			properties.setProperty("user", username);
-			properties.setProperty("password", password);
-			if (!localAddress.isEmpty())
-			{
-				properties.setProperty("localSocketAddress", localAddress);
-			}
-			connection = DriverManager.getConnection("jdbc:mysql://" + dblocation + "/" + database, properties);
-		}
-		catch (ClassNotFoundException exception)
-		{
-			log.severe("No MySQL Driver Found:" + exception.getMessage());
-			connection = null;
-		}
-		catch (SQLException exception)
-		{
-			log.severe("Could not connect to MySQL Server:" + exception.getMessage());
-			connection = null;
-		}
-	}
-
-	public boolean checkConnection()
-	{
-		if (this.connection == null)
-		{
-			try
-			{
-				openConnection();
-				if (this.connection == null)
-				{
-					return false;
-				}
-				return true;
-			}
-			catch (MalformedURLException exception)
-			{
-				log.severe("MalformedURLException! " + exception.getMessage());
-			}
-			catch (InstantiationException exception)
-			{
-				log.severe("InstantiationExceptioon! " + exception.getMessage());
-			}
-			catch (IllegalAccessException exception)
-			{
-				log.severe("IllegalAccessException! " + exception.getMessage());
-			}
-			return false;
-		}
-
-		try
-		{
-			return !connection.isClosed();
-		}
-		catch (SQLException e)
-		{
-			return false;
-		}
-	}
-
-	public void closeConnection() {
-		try
-		{
-			if (this.connection != null)
-			{
-				this.connection.close();
-			}
-		}
-		catch (Exception e)
-		{
-			log.warning("Failed to close database connection! " + e.getMessage());
-		}
-	}
-
-	public Connection getConnection() throws MalformedURLException, InstantiationException, IllegalAccessException
-	{
-		if (this.connection == null)
-		{
-			openConnection();
-			return this.connection;
-		}
-		else
-		{
-			try
-			{
-				if (this.connection.isClosed())
-				{
-					openConnection();
-				}
-
-				Statement statement = connection.createStatement();
-				statement.setQueryTimeout(5);
-				ResultSet result = statement.executeQuery("SELECT 1");
-
-				if (result.next())
-				{
-					return this.connection;
-				}
-				openConnection();
-				return this.connection;
-			}
-			catch (SQLException exception)
-			{
-				try
-				{
-					openConnection();
-
-					Statement statement = connection.createStatement();
-					statement.setQueryTimeout(5);
-					ResultSet result = statement.executeQuery("SELECT 1");
-					if (result.next())
-					{
-						return this.connection;
-					}
-				}
-				catch (SQLException exception2)
-				{
-					log.warning("Database Connection Exception: " + exception2.getMessage());
-				}
-			}
-		}
-		return null;
-	}
-
-	public ResultSet sqlQuery(String query) throws MalformedURLException, InstantiationException, IllegalAccessException, SQLException
-	{
-		Connection connectionLocal = getConnection();
-
-		if (connectionLocal == null)
-		{
-			return null;
-		}
-
-		Statement statement = connectionLocal.createStatement();
-
-		statement.setQueryTimeout(10);
-
-		return statement.executeQuery(query);
-	}
-
-	public void insertQuery(String query) throws MalformedURLException, InstantiationException, IllegalAccessException, SQLException
-	{
-		try
-		{
-			Connection connectionLocal = getConnection();
-
-			if (connectionLocal != null)
-			{
-				Statement statement = connectionLocal.createStatement();
-				statement.executeUpdate(query);
-			}
-		}
-		catch (SQLException exception)
-		{
-			if (!exception.toString().contains("not return ResultSet"))
-			{
-				throw exception;
-			}
-		}
-	}
-
-	public void updateQuery(String query) throws MalformedURLException, InstantiationException, IllegalAccessException
-	{
-		try
-		{
-			Connection connectionLocal = getConnection();
-
-			if (connectionLocal != null)
-			{
-				Statement statement = connectionLocal.createStatement();
-				statement.executeUpdate(query);
-			}
-		}
-		catch (SQLException exception)
-		{
-			if (!exception.toString().contains("not return ResultSet"))
-			{
-				log.warning("Exception at SQL UPDATE Query: " + exception);
-			}
-		}
-	}
-
-	public void deleteQuery(String query) throws MalformedURLException, InstantiationException, IllegalAccessException
-	{
-		try
-		{
-			Connection connectionLocal = getConnection();
-
-			if (connectionLocal != null)
-			{
-				Statement statement = connectionLocal.createStatement();
-				statement.executeUpdate(query);
-			}
-		}
-		catch (SQLException exception)
-		{
-			if (!exception.toString().contains("not return ResultSet"))
-			{
-				log.warning("Exception at SQL DELETE Query: " + exception);
-			}
-		}
-	}
-
-	public boolean checkTable(String table) throws MalformedURLException, InstantiationException, IllegalAccessException
-	{
-		try
-		{
-			Connection connectionLocal = getConnection();
-
-			if (connectionLocal == null)
-			{
-				return false;
-			}
-			Statement statement = connectionLocal.createStatement();
-
-			ResultSet result = statement.executeQuery("SELECT * FROM " + table);
-
-			if (result == null)
-			{
-				return false;
-			}
-			return true;
-		}
-		catch (SQLException exception)
-		{
-			if (exception.getMessage().contains("exist"))
-			{
-				return false;
-			}
-
-			log.warning("Exception at SQL Query: " + exception.getMessage());
-		}
-		try
-		{
-			if (sqlQuery("SELECT * FROM " + table) == null)
-			{
-				return true;
-			}
-		}
-		catch (SQLException exception)
-		{
-			log.warning("Exception at SQL Query: " + exception.getMessage());
-		}
-		return false;
-	}
-}
+package org.communitybridge.main;
+
+import java.net.MalformedURLException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import javax.sql.rowset.CachedRowSet;
+import javax.sql.rowset.RowSetFactory;
+import javax.sql.rowset.RowSetProvider;
+import org.communitybridge.utility.Log;
+
+public class DatabaseHandler
+{
+	/**
+	 * Seconds a streamed query may take in all. It is longer than the
+	 * statement cache's timeout because it covers reading every row.
+	 */
+	private static final int STREAM_QUERY_TIMEOUT = 120;
+
+	private Log log;
+	private ConnectionPool pool;
+	private CircuitBreaker breaker;
+	private QueryMetrics metrics;
+	private SlowQueryLog slowQueryLog;
+	private RowSetFactory rowSetFactory;
+
+	public DatabaseHandler(Log log, String dbLocation, String database, String username, String password, String localAddress, int minimumPoolSize, int maximumPoolSize, long idleTimeout, long maximumLifetime, long borrowTimeout, long validationThreshold, long keepaliveInterval, int statementCacheSize, CircuitBreaker breaker, QueryMetrics metrics, SlowQueryLog slowQueryLog)
+	{
+		this.log = log;
+		this.breaker = breaker;
+		this.metrics = metrics;
+		this.slowQueryLog = slowQueryLog;
+
+		Properties properties = new Properties();
+		properties.setProperty("user", username);
+		properties.setProperty("password", password);
+		if (!localAddress.isEmpty())
+		{
+			properties.setProperty("localSocketAddress", localAddress);
+		}
+		properties.setProperty("useServerPrepStmts", "true");
+		this.pool = new ConnectionPool(log, "jdbc:mysql://" + dbLocation + "/" + database, properties, minimumPoolSize, maximumPoolSize, idleTimeout, maximumLifetime, borrowTimeout, validationThreshold, keepaliveInterval, statementCacheSize);
+	}
+
+	public boolean checkConnection()
+	{
+		try
+		{
+			Class.forName("com.mysql.jdbc.Driver");
+			rowSetFactory = RowSetProvider.newFactory();
+			pool.start();
+			return true;
+		}
+		catch (ClassNotFoundException exception)
+		{
+			log.severe("No MySQL Driver Found:" + exception.getMessage());
+		}
+		catch (SQLException exception)
+		{
+			log.severe("Could not connect to MySQL Server:" + exception.getMessage());
+		}
+		return false;
+	}
+
+	public void closeConnection()
+	{
+		pool.close();
+		log.fine("Connection pool statistics: " + pool.getStatistics());
+	}
+
+	public ConnectionPool getPool()
+	{
+		return pool;
+	}
+
+	public CircuitBreaker getCircuitBreaker()
+	{
+		return breaker;
+	}
+
+	public boolean isAvailable()
+	{
+		return breaker.isAvailable();
+	}
+
+	public QueryMetrics getMetrics()
+	{
+		return metrics;
+	}
+
+	/**
+	 * Runs a query and returns a disconnected copy of its results, so that the
+	 * connection goes back to the pool before the caller reads the rows. If
+	 * the connection turns out to have been dropped, the query is retried once
+	 * on another connection.
+	 */
+	public ResultSet sqlQuery(String query) throws MalformedURLException, InstantiationException, IllegalAccessException, SQLException
+	{
+		try
+		{
+			return executeStatement(query);
+		}
+		catch (SQLException exception)
+		{
+			if (!isRetryable(exception))
+			{
+				throw exception;
+			}
+			log.finest("Retrying query after connection failure: " + exception.getMessage());
+			return executeStatement(query);
+		}
+	}
+
+	/**
+	 * Runs a parameterized query through the connection's prepared statement
+	 * cache and maps each row as it is read. The result set is closed and the
+	 * connection released before this returns, and a dropped connection gets
+	 * a single retry.
+	 */
+	public <T> List<T> query(String query, RowMapper<T> mapper, Object... parameters) throws SQLException
+	{
+		try
+		{
+			return executeQuery(query, mapper, 0, parameters);
+		}
+		catch (SQLException exception)
+		{
+			if (!isRetryable(exception))
+			{
+				throw exception;
+			}
+			log.finest("Retrying query after connection failure: " + exception.getMessage());
+			return executeQuery(query, mapper, 0, parameters);
+		}
+	}
+
+	/**
+	 * Like query, but only reads the first row. Returns null when there is no
+	 * row.
+	 */
+	public <T> T querySingle(String query, RowMapper<T> mapper, Object... parameters) throws SQLException
+	{
+		List<T> rows;
+		try
+		{
+			rows = executeQuery(query, mapper, 1, parameters);
+		}
+		catch (SQLException exception)
+		{
+			if (!isRetryable(exception))
+			{
+				throw exception;
+			}
+			log.finest("Retrying query after connection failure: " + exception.getMessage());
+			rows = executeQuery(query, mapper, 1, parameters);
+		}
+		return rows.isEmpty() ? null : rows.get(0);
+	}
+
+	/**
+	 * Runs a query over what may be a whole table and hands each row to the
+	 * handler as the driver reads it, instead of building a list of every
+	 * row first. Returns the number of rows handled.
+	 *
+	 * A dropped connection is only retried if no rows had been handled yet;
+	 * after that the handler has seen part of the results, and the caller
+	 * should throw away whatever it collected.
+	 */
+	public int stream(String query, RowHandler handler, Object... parameters) throws SQLException
+	{
+		CountingRowHandler counter = new CountingRowHandler(handler);
+		try
+		{
+			return executeStream(query, counter, parameters);
+		}
+		catch (SQLException exception)
+		{
+			if (!isRetryable(exception) || counter.getRows() > 0)
+			{
+				throw exception;
+			}
+			log.finest("Retrying query after connection failure: " + exception.getMessage());
+			return executeStream(query, counter, parameters);
+		}
+	}
+
+	/**
+	 * Runs a parameterized INSERT, UPDATE or DELETE and returns the number of
+	 * rows affected. Writes are never retried.
+	 */
+	public int update(String query, Object... parameters) throws SQLException
+	{
+		QueryMetrics.Timer timer = metrics.start(query);
+		PooledConnection pooled = borrow(timer);
+		boolean broken = false;
+		try
+		{
+			PreparedStatement statement = pooled.prepareStatement(query);
+			bind(statement, parameters);
+			int count = statement.executeUpdate();
+			timer.addRows(count);
+			return count;
+		}
+		catch (SQLException exception)
+		{
+			timer.fail();
+			broken = isConnectionFailure(exception);
+			throw exception;
+		}
+		finally
+		{
+			release(pooled, broken);
+			stop(timer, query, parameters);
+		}
+	}
+
+	/**
+	 * Runs the writes in order inside a single transaction. Neighbouring
+	 * writes that share a query go out as one JDBC batch. If the connection
+	 * drops, nothing has been committed, so the whole set is retried once on
+	 * another connection.
+	 */
+	public void batch(List<BatchWriter.PendingWrite> writes) throws SQLException
+	{
+		if (writes.isEmpty())
+		{
+			return;
+		}
+		try
+		{
+			executeBatch(writes);
+		}
+		catch (SQLException exception)
+		{
+			if (!isRetryable(exception))
+			{
+				throw exception;
+			}
+			log.finest("Retrying batch after connection failure: " + exception.getMessage());
+			executeBatch(writes);
+		}
+	}
+
+	/**
+	 * Each run of writes that share a query is timed as one call to that
+	 * query's operation.
+	 */
+	private void executeBatch(List<BatchWriter.PendingWrite> writes) throws SQLException
+	{
+		QueryMetrics.Timer timer = metrics.start(writes.get(0).getQuery());
+		PooledConnection pooled = borrow(timer);
+		boolean broken = false;
+		try
+		{
+			pooled.getConnection().setAutoCommit(false);
+			PreparedStatement statement = null;
+			String batchQuery = null;
+			Object[] batchParameters = null;
+			for (BatchWriter.PendingWrite write : writes)
+			{
+				if (!write.getQuery().equals(batchQuery))
+				{
+					if (statement != null)
+					{
+						runBatch(statement, timer, batchQuery, batchParameters);
+						timer = metrics.start(write.getQuery());
+						timer.connected();
+					}
+					batchQuery = write.getQuery();
+					batchParameters = write.getParameters();
+					log.finest(batchQuery);
+					statement = pooled.prepareStatement(batchQuery);
+				}
+				bind(statement, write.getParameters());
+				statement.addBatch();
+			}
+			if (statement != null)
+			{
+				runBatch(statement, timer, batchQuery, batchParameters);
+				timer = null;
+			}
+			pooled.getConnection().commit();
+		}
+		catch (SQLException exception)
+		{
+			if (timer != null)
+			{
+				timer.fail();
+				timer.stop();
+			}
+			broken = isConnectionFailure(exception);
+			if (!broken)
+			{
+				rollback(pooled);
+			}
+			throw exception;
+		}
+		finally
+		{
+			boolean discard = broken;
+			if (!broken)
+			{
+				try
+				{
+					pooled.getConnection().setAutoCommit(true);
+				}
+				catch (SQLException exception)
+				{
+					// A connection left outside autocommit can't go back to the pool.
+					discard = true;
+					broken = isConnectionFailure(exception);
+				}
+			}
+			release(pooled, discard, broken);
+		}
+	}
+
+	/**
+	 * The slow query log shows the parameters of the run's first write.
+	 */
+	private void runBatch(PreparedStatement statement, QueryMetrics.Timer timer, String query, Object[] parameters) throws SQLException
+	{
+		for (int count : statement.executeBatch())
+		{
+			if (count > 0)
+			{
+				timer.addRows(count);
+			}
+		}
+		stop(timer, query, parameters);
+	}
+
+	private void rollback(PooledConnection pooled)
+	{
+		try
+		{
+			pooled.getConnection().rollback();
+		}
+		catch (SQLException exception)
+		{
+			log.finest("Failed to roll back batch: " + exception.getMessage());
+		}
+	}
+
+	private <T> List<T> executeQuery(String query, RowMapper<T> mapper, int maximumRows, Object... parameters) throws SQLException
+	{
+		QueryMetrics.Timer timer = metrics.start(query);
+		PooledConnection pooled = borrow(timer);
+		boolean broken = false;
+		ResultSet result = null;
+		try
+		{
+			PreparedStatement statement = pooled.prepareStatement(query);
+			statement.setMaxRows(maximumRows);
+			bind(statement, parameters);
+			result = statement.executeQuery();
+			List<T> rows = new ArrayList<T>();
+			while (result.next())
+			{
+				rows.add(mapper.mapRow(result));
+			}
+			timer.addRows(rows.size());
+			return rows;
+		}
+		catch (SQLException exception)
+		{
+			timer.fail();
+			broken = isConnectionFailure(exception);
+			throw exception;
+		}
+		finally
+		{
+			closeResult(result);
+			release(pooled, broken);
+			stop(timer, query, parameters);
+		}
+	}
+
+	/**
+	 * Streamed statements are prepared outside the statement cache: they run
+	 * rarely, and a forward-only, read-only statement with a fetch size of
+	 * Integer.MIN_VALUE is what makes Connector/J read rows from the socket
+	 * one at a time rather than buffering the whole result. The connection
+	 * can't run anything else until that result is closed, which happens
+	 * before it goes back to the pool.
+	 */
+	private int executeStream(String query, CountingRowHandler handler, Object... parameters) throws SQLException
+	{
+		QueryMetrics.Timer timer = metrics.start(query);
+		PooledConnection pooled = borrow(timer);
+		boolean broken = false;
+		PreparedStatement statement = null;
+		ResultSet result = null;
+		try
+		{
+			statement = pooled.getConnection().prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+			statement.setFetchSize(Integer.MIN_VALUE);
+			statement.setQueryTimeout(STREAM_QUERY_TIMEOUT);
+			bind(statement, parameters);
+			result = statement.executeQuery();
+			int rows = 0;
+			while (result.next())
+			{
+				handler.handleRow(result);
+				rows++;
+			}
+			timer.addRows(rows);
+			return rows;
+		}
+		catch (SQLException exception)
+		{
+			timer.fail();
+			broken = isConnectionFailure(exception);
+			throw exception;
+		}
+		finally
+		{
+			closeResult(result);
+			closeStatement(statement);
+			release(pooled, broken);
+			stop(timer, query, parameters);
+		}
+	}
+
+	/**
+	 * Runs EXPLAIN on a statement with the parameters it was run with. This is
+	 * for the slow query log, so it is neither timed nor counted by the
+	 * circuit breaker, and it is skipped while the database is unavailable.
+	 */
+	public <T> List<T> explain(String query, RowMapper<T> mapper, Object... parameters) throws SQLException
+	{
+		if (!breaker.isAvailable())
+		{
+			throw new SQLException("The database is unavailable.", CircuitBreaker.UNAVAILABLE_STATE);
+		}
+		PooledConnection pooled = pool.borrow();
+		boolean broken = false;
+		PreparedStatement statement = null;
+		ResultSet result = null;
+		try
+		{
+			// Prepared outside the statement cache, since it only runs once.
+			statement = pooled.getConnection().prepareStatement("EXPLAIN " + query);
+			bind(statement, parameters);
+			result = statement.executeQuery();
+			List<T> rows = new ArrayList<T>();
+			while (result.next())
+			{
+				rows.add(mapper.mapRow(result));
+			}
+			return rows;
+		}
+		catch (SQLException exception)
+		{
+			broken = isConnectionFailure(exception);
+			throw exception;
+		}
+		finally
+		{
+			closeResult(result);
+			closeStatement(statement);
+			pool.release(pooled, broken);
+		}
+	}
+
+	private void stop(QueryMetrics.Timer timer, String query, Object... parameters)
+	{
+		long elapsed = timer.stop();
+		if (slowQueryLog.isSlow(elapsed))
+		{
+			slowQueryLog.record(this, query, parameters, elapsed, timer.getWaited(), timer.getRows());
+		}
+	}
+
+	/**
+	 * Every call to the database goes through here, so the circuit breaker
+	 * sees each connection attempt and each connection failure. Only failing
+	 * to open a connection counts as a failure; timing out waiting for one
+	 * means the pool is busy, not that the database is gone. The timer is
+	 * stopped here if no connection is handed out.
+	 */
+	private PooledConnection borrow(QueryMetrics.Timer timer) throws SQLException
+	{
+		try
+		{
+			breaker.acquire();
+		}
+		catch (SQLException exception)
+		{
+			timer.fail();
+			timer.stop();
+			throw exception;
+		}
+		try
+		{
+			PooledConnection pooled = pool.borrow();
+			timer.connected();
+			return pooled;
+		}
+		catch (SQLException exception)
+		{
+			if (isConnectionFailure(exception))
+			{
+				breaker.recordFailure();
+			}
+			else
+			{
+				breaker.cancel();
+			}
+			timer.fail();
+			timer.stop();
+			throw exception;
+		}
+	}
+
+	private void release(PooledConnection pooled, boolean broken)
+	{
+		release(pooled, broken, broken);
+	}
+
+	/**
+	 * A connection can be unfit to reuse without the database being gone, so
+	 * only a connection failure counts against the circuit breaker.
+	 */
+	private void release(PooledConnection pooled, boolean discard, boolean connectionFailure)
+	{
+		pool.release(pooled, discard);
+		if (connectionFailure)
+		{
+			breaker.recordFailure();
+		}
+		else
+		{
+			breaker.recordSuccess();
+		}
+	}
+
+	private void bind(PreparedStatement statement, Object... parameters) throws SQLException
+	{
+		for (int index = 0; index < parameters.length; index++)
+		{
+			Object parameter = parameters[index];
+			if (parameter == null)
+			{
+				statement.setNull(index + 1, Types.VARCHAR);
+			}
+			else if (parameter instanceof String)
+			{
+				statement.setString(index + 1, (String) parameter);
+			}
+			else if (parameter instanceof Integer)
+			{
+				statement.setInt(index + 1, (Integer) parameter);
+			}
+			else if (parameter instanceof Long)
+			{
+				statement.setLong(index + 1, (Long) parameter);
+			}
+			else if (parameter instanceof Double)
+			{
+				statement.setDouble(index + 1, (Double) parameter);
+			}
+			else
+			{
+				statement.setObject(index + 1, parameter);
+			}
+		}
+	}
+
+	private ResultSet executeStatement(String query) throws SQLException
+	{
+		QueryMetrics.Timer timer = metrics.start(query);
+		PooledConnection pooled = borrow(timer);
+		boolean broken = false;
+		Statement statement = null;
+		try
+		{
+			statement = pooled.getConnection().createStatement();
+			statement.setQueryTimeout(10);
+			ResultSet result = statement.executeQuery(query);
+			CachedRowSet rows = rowSetFactory.createCachedRowSet();
+			rows.populate(result);
+			result.close();
+			timer.addRows(rows.size());
+			return rows;
+		}
+		catch (SQLException exception)
+		{
+			timer.fail();
+			broken = isConnectionFailure(exception);
+			throw exception;
+		}
+		finally
+		{
+			closeStatement(statement);
+			release(pooled, broken);
+			stop(timer, query);
+		}
+	}
+
+	private void closeResult(ResultSet result)
+	{
+		if (result == null)
+		{
+			return;
+		}
+		try
+		{
+			result.close();
+		}
+		catch (SQLException exception)
+		{
+			log.finest("Failed to close result set: " + exception.getMessage());
+		}
+	}
+
+	private void closeStatement(Statement statement)
+	{
+		if (statement == null)
+		{
+			return;
+		}
+		try
+		{
+			statement.close();
+		}
+		catch (SQLException exception)
+		{
+			log.finest("Failed to close statement: " + exception.getMessage());
+		}
+	}
+
+	/**
+	 * A dropped connection is worth one more try on another connection, but
+	 * there is no point retrying a call the circuit breaker turned away.
+	 */
+	private boolean isRetryable(SQLException exception)
+	{
+		return isConnectionFailure(exception) && !CircuitBreaker.UNAVAILABLE_STATE.equals(exception.getSQLState());
+	}
+
+	/**
+	 * SQLSTATE class 08 covers connection exceptions; a connection that threw
+	 * one should not be reused.
+	 */
+	static boolean isConnectionFailure(SQLException exception)
+	{
+		String state = exception.getSQLState();
+		return state != null && state.startsWith("08");
+	}
+}
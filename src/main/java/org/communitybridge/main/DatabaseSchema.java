@@ -0,0 +1,189 @@
+package org.communitybridge.main;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The tables, columns and indexes of the web application's database, read
+ * from INFORMATION_SCHEMA in two queries so that the configuration can be
+ * checked against it without a round trip per table and column.
+ *
+ * Column names are compared without regard to case, as MySQL does. Table
+ * names are compared exactly unless the server's lower_case_table_names
+ * setting makes them case insensitive.
+ */
+public class DatabaseSchema
+{
+	private static final String SCHEMA_QUERY = "/* cb:schema-read */ SELECT `TABLE_NAME`, `COLUMN_NAME`, `DATA_TYPE`, `COLLATION_NAME`, @@lower_case_table_names AS `case_insensitive` "
+																					 + "FROM `INFORMATION_SCHEMA`.`COLUMNS` "
+																					 + "WHERE `TABLE_SCHEMA` = DATABASE()";
+	private static final String INDEX_QUERY = "/* cb:schema-indexes */ SELECT `TABLE_NAME`, `COLUMN_NAME` "
+																					+ "FROM `INFORMATION_SCHEMA`.`STATISTICS` "
+																					+ "WHERE `TABLE_SCHEMA` = DATABASE() AND `SEQ_IN_INDEX` = 1";
+
+	// Column names are kept in lower case, mapped to their data type.
+	private Map<String, Map<String, String>> columnsByTable = new HashMap<String, Map<String, String>>();
+	private Map<String, Map<String, String>> collationsByTable = new HashMap<String, Map<String, String>>();
+	private Map<String, String> tablesByLowerCaseName = new HashMap<String, String>();
+	private Map<String, Set<String>> leadingIndexColumnsByTable = new HashMap<String, Set<String>>();
+	private boolean caseInsensitiveTables;
+
+	public static DatabaseSchema load(SQL sql) throws SQLException
+	{
+		final DatabaseSchema schema = new DatabaseSchema();
+		List<String[]> columns = sql.queryPrimary(SCHEMA_QUERY, new RowMapper<String[]>()
+		{
+			@Override
+			public String[] mapRow(ResultSet result) throws SQLException
+			{
+				schema.caseInsensitiveTables = result.getInt("case_insensitive") != 0;
+				return new String[] { result.getString("TABLE_NAME"), result.getString("COLUMN_NAME"), result.getString("DATA_TYPE"), result.getString("COLLATION_NAME") };
+			}
+		});
+		for (String[] column : columns)
+		{
+			schema.addColumn(column[0], column[1], column[2], column[3]);
+		}
+
+		List<String[]> indexColumns = sql.queryPrimary(INDEX_QUERY, new RowMapper<String[]>()
+		{
+			@Override
+			public String[] mapRow(ResultSet result) throws SQLException
+			{
+				return new String[] { result.getString("TABLE_NAME"), result.getString("COLUMN_NAME") };
+			}
+		});
+		for (String[] indexColumn : indexColumns)
+		{
+			schema.addIndex(indexColumn[0], indexColumn[1]);
+		}
+		return schema;
+	}
+
+	void addColumn(String tableName, String columnName, String dataType)
+	{
+		addColumn(tableName, columnName, dataType, null);
+	}
+
+	void addColumn(String tableName, String columnName, String dataType, String collation)
+	{
+		Map<String, String> columns = columnsByTable.get(tableName);
+		if (columns == null)
+		{
+			columns = new HashMap<String, String>();
+			columnsByTable.put(tableName, columns);
+			collationsByTable.put(tableName, new HashMap<String, String>());
+			tablesByLowerCaseName.put(tableName.toLowerCase(), tableName);
+		}
+		columns.put(columnName.toLowerCase(), dataType == null ? "" : dataType.toLowerCase());
+		if (collation != null)
+		{
+			collationsByTable.get(tableName).put(columnName.toLowerCase(), collation.toLowerCase());
+		}
+	}
+
+	/**
+	 * Records an index by its first column, which is the only one that lets
+	 * MySQL use the index for a lookup on its own.
+	 */
+	void addIndex(String tableName, String leadingColumnName)
+	{
+		Set<String> leadingColumns = leadingIndexColumnsByTable.get(tableName);
+		if (leadingColumns == null)
+		{
+			leadingColumns = new HashSet<String>();
+			leadingIndexColumnsByTable.put(tableName, leadingColumns);
+		}
+		leadingColumns.add(leadingColumnName.toLowerCase());
+	}
+
+	void setCaseInsensitiveTables(boolean caseInsensitiveTables)
+	{
+		this.caseInsensitiveTables = caseInsensitiveTables;
+	}
+
+	public boolean hasTable(String tableName)
+	{
+		return getColumns(tableName) != null;
+	}
+
+	public boolean hasColumn(String tableName, String columnName)
+	{
+		Map<String, String> columns = getColumns(tableName);
+		return columns != null && columnName != null && columns.containsKey(columnName.toLowerCase());
+	}
+
+	/**
+	 * Returns the column's data type in lower case, or null if there is no
+	 * such column.
+	 */
+	public String getColumnType(String tableName, String columnName)
+	{
+		Map<String, String> columns = getColumns(tableName);
+		return columns == null || columnName == null ? null : columns.get(columnName.toLowerCase());
+	}
+
+	/**
+	 * Returns the column's collation in lower case, or null if there is no
+	 * such column or it doesn't hold text.
+	 */
+	public String getColumnCollation(String tableName, String columnName)
+	{
+		String storedName = getStoredTableName(tableName);
+		return storedName == null || columnName == null ? null : collationsByTable.get(storedName).get(columnName.toLowerCase());
+	}
+
+	/**
+	 * True if comparisons on the column ignore case, as they do for the
+	 * collations whose names end in _ci.
+	 */
+	public boolean isCaseInsensitive(String tableName, String columnName)
+	{
+		String collation = getColumnCollation(tableName, columnName);
+		return collation != null && collation.endsWith("_ci");
+	}
+
+	/**
+	 * True if some index on the table starts with the column, so that an
+	 * equality lookup on it doesn't have to scan the table.
+	 */
+	public boolean hasIndexStartingWith(String tableName, String columnName)
+	{
+		String storedName = getStoredTableName(tableName);
+		if (storedName == null || columnName == null)
+		{
+			return false;
+		}
+		Set<String> leadingColumns = leadingIndexColumnsByTable.get(storedName);
+		return leadingColumns != null && leadingColumns.contains(columnName.toLowerCase());
+	}
+
+	public int getTableCount()
+	{
+		return columnsByTable.size();
+	}
+
+	private Map<String, String> getColumns(String tableName)
+	{
+		String storedName = getStoredTableName(tableName);
+		return storedName == null ? null : columnsByTable.get(storedName);
+	}
+
+	private String getStoredTableName(String tableName)
+	{
+		if (tableName == null)
+		{
+			return null;
+		}
+		if (columnsByTable.containsKey(tableName))
+		{
+			return tableName;
+		}
+		return caseInsensitiveTables ? tablesByLowerCaseName.get(tableName.toLowerCase()) : null;
+	}
+}
@@ -7,6 +7,7 @@ import org.communitybridge.utility.Log;
 
 public class Environment
 {
+	private AdmissionCheck admissionCheck;
 	private BukkitWrapper bukkit;
 	private CommunityBridge plugin;
 	private Configuration configuration;
@@ -17,6 +18,16 @@ public class Environment
 	private UserPlayerLinker userPlayerLinker;
 	private WebApplication webApplication;
 
+	public AdmissionCheck getAdmissionCheck()
+	{
+		return admissionCheck;
+	}
+
+	public void setAdmissionCheck(AdmissionCheck admissionCheck)
+	{
+		this.admissionCheck = admissionCheck;
+	}
+
 	public Configuration getConfiguration()
 	{
 		return configuration;
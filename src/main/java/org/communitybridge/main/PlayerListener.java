@@ -1,5 +1,8 @@
 package org.communitybridge.main;
 
+import java.sql.SQLException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 import org.bukkit.ChatColor;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
@@ -11,6 +14,8 @@ import org.bukkit.event.player.PlayerQuitEvent;
 
 public class PlayerListener implements Listener
 {
+	protected static final String EXCEPTION_MESSAGE_PRELOGIN = "Exception during PlayerListener.onPlayerPreLogin(): ";
+
 	private Environment environment;
 
 	public PlayerListener(Environment environment)
@@ -21,17 +26,35 @@ public class PlayerListener implements Listener
 	/**
 	 * This method is called by CraftBukkit as the player connects to the server.
 	 * We perform the initial linking here so that we can reject the login if
-	 * linking-kick-unregistered is turned on.
+	 * linking-kick-unregistered is turned on. The link and the requirement
+	 * checks are read with one admission query, whose result is kept for
+	 * the join. While the database is unavailable, players are let in on
+	 * whatever link is already cached.
 	 */
 	@EventHandler(priority = EventPriority.HIGH)
 	public void onPlayerPreLogin(AsyncPlayerPreLoginEvent event)
 	{
 		String uuid = event.getUniqueId().toString();
 		String name = event.getName();
-		environment.getUserPlayerLinker().removeUserIDFromCache(uuid, name);
+		if (environment.getSql().isAvailable())
+		{
+			environment.getUserPlayerLinker().removeUserIDFromCache(uuid, name);
+			Admission admission = environment.getAdmissionCheck().check(uuid, name);
+			if (admission != null)
+			{
+				preLoginAdmission(admission, event);
+				return;
+			}
+		}
+
+		// The admission query failed, so each check is made on its own.
 
 		String userID = environment.getUserPlayerLinker().getUserID(uuid, name);
-		if (userID.isEmpty())
+		if (!environment.getSql().isAvailable())
+		{
+			preLoginDatabaseUnavailable(userID, event);
+		}
+		else if (userID.isEmpty())
 		{
 			preLoginUnregisteredPlayer(event);
 		}
@@ -45,8 +68,10 @@ public class PlayerListener implements Listener
 	public void onPlayerJoin(PlayerJoinEvent event)
 	{
 		Player player = event.getPlayer();
+		Admission admission = environment.getAdmissionCheck().getSnapshot(player.getUniqueId());
+		String userID = admission == null ? environment.getUserPlayerLinker().getUserID(player) : admission.getUserID();
 
-		if (environment.getUserPlayerLinker().getUserID(player).isEmpty())
+		if (userID.isEmpty())
 		{
 			joinUnregistered(player);
 		}
@@ -59,24 +84,101 @@ public class PlayerListener implements Listener
 	@EventHandler(priority = EventPriority.MONITOR)
 	public void onPlayerQuit(PlayerQuitEvent event)
 	{
+		environment.getAdmissionCheck().forget(event.getPlayer().getUniqueId());
 		if (environment.getConfiguration().syncDuringQuit)
 		{
 			environment.getWebApplication().runSynchronizePlayer(environment, event.getPlayer(), false);
 		}
+		else
+		{
+			environment.getWebApplication().forgetPlayer(event.getPlayer());
+		}
 	} // onPlayerQuit
 
-	private void preLoginRegisteredPlayer(String userID, AsyncPlayerPreLoginEvent event)
+	private void preLoginAdmission(Admission admission, AsyncPlayerPreLoginEvent event)
+	{
+		Configuration configuration = environment.getConfiguration();
+		if (admission.getUserID().isEmpty())
+		{
+			preLoginUnregisteredPlayer(event);
+		}
+		else
+		{
+			environment.getLog().fine(event.getName() + " linked to web application user ID #" + admission.getUserID() + ".");
+			if (configuration.avatarEnabled && configuration.requireAvatar && !admission.hasAvatar())
+			{
+				kickPlayer(event, "require-avatar-message");
+			}
+
+			if (configuration.postCountEnabled && configuration.requireMinimumPosts && admission.getPostCount() < configuration.requirePostsPostCount)
+			{
+				kickPlayer(event, "require-minimum-posts-message");
+			}
+		}
+
+		if (event.getLoginResult() == AsyncPlayerPreLoginEvent.Result.ALLOWED)
+		{
+			environment.getAdmissionCheck().keep(event.getUniqueId(), admission);
+		}
+	}
+
+	private void preLoginRegisteredPlayer(final String userID, AsyncPlayerPreLoginEvent event)
 	{
 		environment.getLog().fine(event.getName() + " linked to web application user ID #" + userID + ".");
 
-		if (environment.getConfiguration().avatarEnabled && environment.getConfiguration().requireAvatar && environment.getWebApplication().playerHasAvatar(userID) == false)
+		// Both requirement checks are started before waiting on either.
+		Future<Boolean> hasAvatar = null;
+		Future<Integer> postCount = null;
+		if (environment.getConfiguration().avatarEnabled && environment.getConfiguration().requireAvatar)
 		{
-			kickPlayer(event, "require-avatar-message");
+			hasAvatar = environment.getSql().submit(new Callable<Boolean>()
+			{
+				@Override
+				public Boolean call()
+				{
+					return environment.getWebApplication().playerHasAvatar(userID);
+				}
+			});
+		}
+		if (environment.getConfiguration().postCountEnabled && environment.getConfiguration().requireMinimumPosts)
+		{
+			postCount = environment.getSql().submit(new Callable<Integer>()
+			{
+				@Override
+				public Integer call()
+				{
+					return environment.getWebApplication().getUserPostCount(userID);
+				}
+			});
 		}
 
-		if (environment.getConfiguration().postCountEnabled && environment.getConfiguration().requireMinimumPosts && environment.getWebApplication().getUserPostCount(userID) < environment.getConfiguration().requirePostsPostCount)
+		try
 		{
-			kickPlayer(event, "require-minimum-posts-message");
+			if (hasAvatar != null && DatabaseExecutor.await(hasAvatar) == false)
+			{
+				kickPlayer(event, "require-avatar-message");
+			}
+
+			if (postCount != null && DatabaseExecutor.await(postCount) < environment.getConfiguration().requirePostsPostCount)
+			{
+				kickPlayer(event, "require-minimum-posts-message");
+			}
+		}
+		catch (SQLException exception)
+		{
+			environment.getLog().severe(EXCEPTION_MESSAGE_PRELOGIN + exception.getMessage());
+		}
+	}
+
+	private void preLoginDatabaseUnavailable(String userID, AsyncPlayerPreLoginEvent event)
+	{
+		if (userID.isEmpty())
+		{
+			environment.getLog().warning(event.getName() + " was let in without a registration check because the database is unavailable.");
+		}
+		else
+		{
+			environment.getLog().fine(event.getName() + " linked to cached web application user ID #" + userID + "; requirement checks skipped because the database is unavailable.");
 		}
 	}
 
@@ -48,7 +48,12 @@ public class PlayerStatistics
 
 	public String getLastOnlineTimeFormatted()
 	{
-		return dateFormat.format(lastOnlineTime);
+		// The format comes from the configuration and is shared by every
+		// synchronization thread, and SimpleDateFormat isn't thread safe.
+		synchronized (dateFormat)
+		{
+			return dateFormat.format(lastOnlineTime);
+		}
 	}
 
 	public void setLastOnlineTime(long lastonlineTime)
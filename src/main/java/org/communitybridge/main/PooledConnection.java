@@ -0,0 +1,156 @@
+package org.communitybridge.main;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A connection held by the ConnectionPool along with the bookkeeping needed to
+ * retire it, and the prepared statements that have been created on it.
+ *
+ * Only one thread holds a pooled connection at a time, so the statement cache
+ * needs no locking of its own.
+ */
+public class PooledConnection
+{
+	private static final int QUERY_TIMEOUT = 10;
+
+	private Connection connection;
+	private StatementCache statements;
+	private long createdAt;
+	private volatile long lastUsedAt;
+	private volatile long lastValidatedAt;
+	private volatile boolean suspect;
+
+	public PooledConnection(Connection connection, int statementCacheSize)
+	{
+		this.connection = connection;
+		this.statements = new StatementCache(statementCacheSize);
+		this.createdAt = System.currentTimeMillis();
+		this.lastUsedAt = createdAt;
+		this.lastValidatedAt = createdAt;
+	}
+
+	public Connection getConnection()
+	{
+		return connection;
+	}
+
+	/**
+	 * Returns the prepared statement for the given SQL text, preparing it on
+	 * first use. The statement stays open for reuse and must not be closed by
+	 * the caller.
+	 */
+	public PreparedStatement prepareStatement(String query) throws SQLException
+	{
+		PreparedStatement statement = statements.get(query);
+		if (statement == null)
+		{
+			statement = connection.prepareStatement(query);
+			statement.setQueryTimeout(QUERY_TIMEOUT);
+			statements.put(query, statement);
+		}
+		else
+		{
+			statement.clearParameters();
+		}
+		return statement;
+	}
+
+	public int getCachedStatementCount()
+	{
+		return statements.size();
+	}
+
+	public void close() throws SQLException
+	{
+		for (PreparedStatement statement : statements.values())
+		{
+			closeQuietly(statement);
+		}
+		statements.clear();
+		connection.close();
+	}
+
+	public long getLastUsedAt()
+	{
+		return lastUsedAt;
+	}
+
+	public void touch()
+	{
+		lastUsedAt = System.currentTimeMillis();
+	}
+
+	public void markValidated()
+	{
+		lastValidatedAt = System.currentTimeMillis();
+		suspect = false;
+	}
+
+	/**
+	 * Forces the next borrow or keepalive pass to validate this connection.
+	 */
+	public void markUnchecked()
+	{
+		suspect = true;
+	}
+
+	/**
+	 * True if the connection has not been used or validated for longer than
+	 * the given time, meaning it may have been dropped by the server or by
+	 * something in between.
+	 */
+	public boolean isUncheckedLongerThan(long milliseconds)
+	{
+		return suspect || System.currentTimeMillis() - Math.max(lastUsedAt, lastValidatedAt) > milliseconds;
+	}
+
+	public boolean isExpired(long maximumLifetime)
+	{
+		return maximumLifetime > 0 && System.currentTimeMillis() - createdAt > maximumLifetime;
+	}
+
+	public boolean isIdleLongerThan(long milliseconds)
+	{
+		return milliseconds > 0 && System.currentTimeMillis() - lastUsedAt > milliseconds;
+	}
+
+	private static void closeQuietly(PreparedStatement statement)
+	{
+		try
+		{
+			statement.close();
+		}
+		catch (SQLException exception)
+		{
+			// The statement is being discarded either way.
+		}
+	}
+
+	private static class StatementCache extends LinkedHashMap<String, PreparedStatement>
+	{
+		private static final long serialVersionUID = 1L;
+		private int limit;
+
+		StatementCache(int limit)
+		{
+			super(16, 0.75f, true);
+			// With no room at all, each statement would be closed as it is put.
+			this.limit = Math.max(1, limit);
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest)
+		{
+			if (size() > limit)
+			{
+				closeQuietly(eldest.getValue());
+				return true;
+			}
+			return false;
+		}
+	}
+}
@@ -0,0 +1,363 @@
+package org.communitybridge.main;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Times each database call and groups the timings by logical operation.
+ *
+ * Queries name their operation with a leading SQL comment made of
+ * TAG_PREFIX, the operation name and a closing comment marker. The comment
+ * also shows up in the MySQL process list and slow query log, which makes it
+ * easy to match what the database sees with what CommunityBridge reports.
+ * Queries without a tag are grouped by their first keyword.
+ *
+ * For each operation this keeps the number of calls, errors, rows returned
+ * or changed, time spent waiting for a connection and a histogram of call
+ * times.
+ */
+public class QueryMetrics
+{
+	public static final String TAG_PREFIX = "/* cb:";
+	private static final String TAG_SUFFIX = " */";
+
+	/**
+	 * Upper bounds, in milliseconds, of the histogram buckets. Calls slower
+	 * than the last bound go into one more bucket.
+	 */
+	public static final long[] BUCKET_BOUNDS = { 1, 2, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000 };
+
+	private String name;
+	private final ConcurrentHashMap<String, Operation> operations = new ConcurrentHashMap<String, Operation>();
+	private final ConcurrentHashMap<String, Operation> operationsByQuery = new ConcurrentHashMap<String, Operation>();
+
+	public QueryMetrics(String name)
+	{
+		this.name = name;
+	}
+
+	public String getName()
+	{
+		return name;
+	}
+
+	public static String getOperationName(String query)
+	{
+		if (query.startsWith(TAG_PREFIX))
+		{
+			int end = query.indexOf(TAG_SUFFIX, TAG_PREFIX.length());
+			if (end > 0)
+			{
+				return query.substring(TAG_PREFIX.length(), end);
+			}
+		}
+		int space = query.indexOf(' ');
+		return "untagged-" + (space > 0 ? query.substring(0, space) : query).toLowerCase();
+	}
+
+	/**
+	 * Starts timing a call. The caller must call stop() on the returned timer
+	 * once the call is over, whether or not it succeeded.
+	 */
+	public Timer start(String query)
+	{
+		return new Timer(getOperation(query));
+	}
+
+	public List<Operation> getOperations()
+	{
+		List<Operation> list = new ArrayList<Operation>(operations.values());
+		Collections.sort(list, new Comparator<Operation>()
+		{
+			@Override
+			public int compare(Operation first, Operation second)
+			{
+				long difference = second.getTotalNanos() - first.getTotalNanos();
+				return difference > 0 ? 1 : difference < 0 ? -1 : first.getName().compareTo(second.getName());
+			}
+		});
+		return list;
+	}
+
+	public void reset()
+	{
+		operationsByQuery.clear();
+		operations.clear();
+	}
+
+	/**
+	 * Writes one CSV line per operation, slowest in total first, with the
+	 * histogram counts in the trailing columns.
+	 */
+	public void export(PrintWriter writer)
+	{
+		for (Operation operation : getOperations())
+		{
+			StringBuilder line = new StringBuilder();
+			line.append(name).append(',')
+					.append(operation.getName()).append(',')
+					.append(operation.getCount()).append(',')
+					.append(operation.getErrors()).append(',')
+					.append(operation.getRows()).append(',')
+					.append(millis(operation.getTotalNanos())).append(',')
+					.append(millis(operation.getMeanNanos())).append(',')
+					.append(operation.getPercentile(0.50)).append(',')
+					.append(operation.getPercentile(0.95)).append(',')
+					.append(operation.getPercentile(0.99)).append(',')
+					.append(millis(operation.getMaximumNanos())).append(',')
+					.append(millis(operation.getWaitNanos()));
+			for (int bucket = 0; bucket <= BUCKET_BOUNDS.length; bucket++)
+			{
+				line.append(',').append(operation.getBucketCount(bucket));
+			}
+			writer.println(line);
+		}
+	}
+
+	public static void exportHeader(PrintWriter writer)
+	{
+		StringBuilder line = new StringBuilder("database,operation,calls,errors,rows,total_ms,mean_ms,p50_ms,p95_ms,p99_ms,max_ms,wait_ms");
+		for (long bound : BUCKET_BOUNDS)
+		{
+			line.append(",le_").append(bound).append("ms");
+		}
+		line.append(",gt_").append(BUCKET_BOUNDS[BUCKET_BOUNDS.length - 1]).append("ms");
+		writer.println(line);
+	}
+
+	/**
+	 * Writes the metrics of each of the given sets to one CSV file.
+	 */
+	public static void export(File file, List<QueryMetrics> metricsList) throws IOException
+	{
+		PrintWriter writer = new PrintWriter(new FileWriter(file));
+		try
+		{
+			exportHeader(writer);
+			for (QueryMetrics metrics : metricsList)
+			{
+				metrics.export(writer);
+			}
+			if (writer.checkError())
+			{
+				throw new IOException("Error writing " + file.getPath());
+			}
+		}
+		finally
+		{
+			writer.close();
+		}
+	}
+
+	public static double millis(long nanos)
+	{
+		return Math.round(nanos / 100000.0) / 10.0;
+	}
+
+	private Operation getOperation(String query)
+	{
+		Operation operation = operationsByQuery.get(query);
+		if (operation == null)
+		{
+			String operationName = getOperationName(query);
+			operation = operations.get(operationName);
+			if (operation == null)
+			{
+				Operation created = new Operation(operationName);
+				operation = operations.putIfAbsent(operationName, created);
+				if (operation == null)
+				{
+					operation = created;
+				}
+			}
+			operationsByQuery.put(query, operation);
+		}
+		return operation;
+	}
+
+	public static class Operation
+	{
+		private String name;
+		private final AtomicLong count = new AtomicLong();
+		private final AtomicLong errors = new AtomicLong();
+		private final AtomicLong rows = new AtomicLong();
+		private final AtomicLong totalNanos = new AtomicLong();
+		private final AtomicLong maximumNanos = new AtomicLong();
+		private final AtomicLong waitNanos = new AtomicLong();
+		private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_BOUNDS.length + 1);
+
+		Operation(String name)
+		{
+			this.name = name;
+		}
+
+		void record(long elapsed, long waited, long rowCount, boolean failed)
+		{
+			count.incrementAndGet();
+			if (failed)
+			{
+				errors.incrementAndGet();
+			}
+			rows.addAndGet(rowCount);
+			totalNanos.addAndGet(elapsed);
+			waitNanos.addAndGet(waited);
+			buckets.incrementAndGet(bucketFor(elapsed / 1000000));
+
+			long maximum;
+			do
+			{
+				maximum = maximumNanos.get();
+			}
+			while (elapsed > maximum && !maximumNanos.compareAndSet(maximum, elapsed));
+		}
+
+		public String getName()
+		{
+			return name;
+		}
+
+		public long getCount()
+		{
+			return count.get();
+		}
+
+		public long getErrors()
+		{
+			return errors.get();
+		}
+
+		public long getRows()
+		{
+			return rows.get();
+		}
+
+		public long getTotalNanos()
+		{
+			return totalNanos.get();
+		}
+
+		public long getMeanNanos()
+		{
+			long calls = count.get();
+			return calls == 0 ? 0 : totalNanos.get() / calls;
+		}
+
+		public long getMaximumNanos()
+		{
+			return maximumNanos.get();
+		}
+
+		public long getWaitNanos()
+		{
+			return waitNanos.get();
+		}
+
+		public long getMeanWaitNanos()
+		{
+			long calls = count.get();
+			return calls == 0 ? 0 : waitNanos.get() / calls;
+		}
+
+		public long getBucketCount(int bucket)
+		{
+			return buckets.get(bucket);
+		}
+
+		/**
+		 * Estimates a percentile from the histogram, as the upper bound of the
+		 * bucket it falls in. Calls past the last bound are reported as the
+		 * slowest call seen.
+		 */
+		public double getPercentile(double fraction)
+		{
+			long calls = count.get();
+			if (calls == 0)
+			{
+				return 0;
+			}
+			long target = (long) Math.ceil(calls * fraction);
+			long seen = 0;
+			for (int bucket = 0; bucket < BUCKET_BOUNDS.length; bucket++)
+			{
+				seen += buckets.get(bucket);
+				if (seen >= target)
+				{
+					return BUCKET_BOUNDS[bucket];
+				}
+			}
+			return millis(maximumNanos.get());
+		}
+
+		static int bucketFor(long elapsedMillis)
+		{
+			for (int bucket = 0; bucket < BUCKET_BOUNDS.length; bucket++)
+			{
+				if (elapsedMillis <= BUCKET_BOUNDS[bucket])
+				{
+					return bucket;
+				}
+			}
+			return BUCKET_BOUNDS.length;
+		}
+	}
+
+	public static class Timer
+	{
+		private Operation operation;
+		private long started = System.nanoTime();
+		private long connected;
+		private long rows;
+		private boolean failed;
+		private long waited;
+
+		Timer(Operation operation)
+		{
+			this.operation = operation;
+		}
+
+		public void connected()
+		{
+			connected = System.nanoTime();
+		}
+
+		public void addRows(long count)
+		{
+			rows += count;
+		}
+
+		public void fail()
+		{
+			failed = true;
+		}
+
+		/**
+		 * Records the call and returns how long it took, in nanoseconds.
+		 */
+		public long stop()
+		{
+			long now = System.nanoTime();
+			waited = (connected == 0 ? now : connected) - started;
+			operation.record(now - started, waited, rows, failed);
+			return now - started;
+		}
+
+		public long getWaited()
+		{
+			return waited;
+		}
+
+		public long getRows()
+		{
+			return rows;
+		}
+	}
+}
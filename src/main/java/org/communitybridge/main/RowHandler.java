@@ -0,0 +1,14 @@
+package org.communitybridge.main;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Receives the rows of a streamed query one at a time. Only the current row
+ * is held in memory, so handlers should keep just what they need from it and
+ * must not keep the result set or move its cursor.
+ */
+public interface RowHandler
+{
+	void handleRow(ResultSet result) throws SQLException;
+}
@@ -0,0 +1,14 @@
+package org.communitybridge.main;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Turns the current row of a result set into an object. Mappers are called
+ * while the statement is still open, and must not keep the result set or
+ * move its cursor.
+ */
+public interface RowMapper<T>
+{
+	T mapRow(ResultSet result) throws SQLException;
+}
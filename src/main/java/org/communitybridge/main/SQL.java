@@ -1,78 +1,390 @@
-package org.communitybridge.main;
-
-import java.net.MalformedURLException;
-import java.sql.Connection;
-import java.sql.ResultSet;
-import java.sql.SQLException;
-import org.communitybridge.utility.Log;
-
-public class SQL
-{
-	private Log log;
-	private String host;
-	private DatabaseHandler manageDB;
-	private String username;
-	private String password;
-	private String database;
-	private String localAddress;
-
-	public SQL(Log log, String host, String database, String username, String password, String localAddress)
-	{
-		this.log = log;
-		this.database = database;
-		this.host = host;
-		this.username = username;
-		this.password = password;
-		this.localAddress = localAddress;
-	}
-
-	public boolean initialize()
-	{
-		this.manageDB = new DatabaseHandler(log, host, database, username, password, localAddress);
-		return false;
-	}
-
-	public ResultSet sqlQuery(String query) throws MalformedURLException, InstantiationException, IllegalAccessException, SQLException
-	{
-		log.finest(query);
-		return this.manageDB.sqlQuery(query);
-	}
-
-	public void insertQuery(String query) throws MalformedURLException, InstantiationException, IllegalAccessException, SQLException
-	{
-		log.finest(query);
-		this.manageDB.insertQuery(query);
-	}
-
-	public void updateQuery(String query) throws MalformedURLException, InstantiationException, IllegalAccessException
-	{
-		log.finest(query);
-		this.manageDB.updateQuery(query);
-	}
-
-	public void deleteQuery(String query) throws MalformedURLException, InstantiationException, IllegalAccessException
-	{
-		log.finest(query);
-		this.manageDB.deleteQuery(query);
-	}
-
-	public Boolean checkTable(String table) throws MalformedURLException, InstantiationException, IllegalAccessException
-	{
-		return this.manageDB.checkTable(table);
-	}
-
-	public Connection getConnection() throws MalformedURLException, InstantiationException, IllegalAccessException
-	{
-		return this.manageDB.getConnection();
-	}
-
-	public void close()
-	{
-		this.manageDB.closeConnection();
-	}
-
-	public boolean checkConnection()
-	{
-		return this.manageDB.checkConnection();
-	}
-}
\ No newline at end of file
+package org.communitybridge.main;
+
+import java.net.MalformedURLException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import org.communitybridge.utility.Log;
+
+public class SQL
+{
+	private Log log;
+	private Configuration configuration;
+	private DatabaseHandler manageDB;
+	private DatabaseHandler replicaDB;
+	private DatabaseExecutor executor;
+	private BatchWriter writer;
+	private SlowQueryLog slowQueryLog;
+
+	public SQL(Log log, Configuration configuration)
+	{
+		this.log = log;
+		this.configuration = configuration;
+	}
+
+	public boolean initialize()
+	{
+		this.slowQueryLog = new SlowQueryLog(log,
+				configuration.databaseSlowQueryFile,
+				configuration.databaseSlowQueryThreshold,
+				configuration.databaseSlowQueryFileSize * 1024,
+				configuration.databaseSlowQueryFileCount,
+				configuration.databaseSlowQueryExplain);
+		this.manageDB = new DatabaseHandler(log,
+				configuration.databaseHost + ":" + configuration.databasePort,
+				configuration.databaseName,
+				configuration.databaseUsername,
+				configuration.databasePassword,
+				configuration.databaseBindingAddress,
+				configuration.databasePoolMinimumSize,
+				configuration.databasePoolMaximumSize,
+				configuration.databasePoolIdleTimeout * 1000L,
+				configuration.databasePoolMaximumLifetime * 1000L,
+				configuration.databasePoolBorrowTimeout * 1000L,
+				configuration.databasePoolValidationThreshold * 1000L,
+				configuration.databasePoolKeepaliveInterval * 1000L,
+				configuration.databaseStatementCacheSize,
+				newCircuitBreaker("primary"),
+				new QueryMetrics("primary"),
+				slowQueryLog);
+		if (!configuration.databaseReplicaHost.isEmpty())
+		{
+			this.replicaDB = new DatabaseHandler(log,
+					configuration.databaseReplicaHost + ":" + configuration.databaseReplicaPort,
+					configuration.databaseName,
+					configuration.databaseUsername,
+					configuration.databasePassword,
+					configuration.databaseBindingAddress,
+					configuration.databasePoolMinimumSize,
+					configuration.databasePoolMaximumSize,
+					configuration.databasePoolIdleTimeout * 1000L,
+					configuration.databasePoolMaximumLifetime * 1000L,
+					configuration.databasePoolBorrowTimeout * 1000L,
+					configuration.databasePoolValidationThreshold * 1000L,
+					configuration.databasePoolKeepaliveInterval * 1000L,
+					configuration.databaseStatementCacheSize,
+					newCircuitBreaker("read replica"),
+					new QueryMetrics("read replica"),
+					slowQueryLog);
+		}
+		this.executor = new DatabaseExecutor(log,
+				configuration.databaseExecutorThreads,
+				configuration.databaseExecutorQueueLimit,
+				configuration.databaseExecutorRejectionPolicy);
+		if (configuration.databaseWriteBehindFlushInterval > 0)
+		{
+			this.writer = new BatchWriter(log, manageDB, configuration.databaseWriteBehindBatchSize, configuration.databaseWriteBehindPendingLimit, configuration.databaseWriteBehindFlushInterval * 1000L);
+		}
+		return false;
+	}
+
+	public ResultSet sqlQuery(String query) throws MalformedURLException, InstantiationException, IllegalAccessException, SQLException
+	{
+		log.finest(query);
+		return this.manageDB.sqlQuery(query);
+	}
+
+	/**
+	 * Runs a query with its values bound as parameters and returns its rows as
+	 * built by the mapper. The query text should be built once, when the
+	 * configuration is loaded, so that the prepared statement can be reused
+	 * from the connection's statement cache.
+	 *
+	 * When a read replica is configured the query goes to the replica, and
+	 * falls back to the primary if the replica can't be reached. Replicas
+	 * lag behind, so reads whose results are written back should use
+	 * queryPrimary instead.
+	 */
+	public <T> List<T> query(String query, RowMapper<T> mapper, Object... parameters) throws SQLException
+	{
+		log.finest(query);
+		if (replicaDB != null)
+		{
+			try
+			{
+				return this.replicaDB.query(query, mapper, parameters);
+			}
+			catch (SQLException exception)
+			{
+				if (!isUnavailable(exception))
+				{
+					throw exception;
+				}
+				log.finest("Read replica unavailable, using primary: " + exception.getMessage());
+			}
+		}
+		return this.manageDB.query(query, mapper, parameters);
+	}
+
+	public <T> T querySingle(String query, RowMapper<T> mapper, Object... parameters) throws SQLException
+	{
+		log.finest(query);
+		if (replicaDB != null)
+		{
+			try
+			{
+				return this.replicaDB.querySingle(query, mapper, parameters);
+			}
+			catch (SQLException exception)
+			{
+				if (!isUnavailable(exception))
+				{
+					throw exception;
+				}
+				log.finest("Read replica unavailable, using primary: " + exception.getMessage());
+			}
+		}
+		return this.manageDB.querySingle(query, mapper, parameters);
+	}
+
+	/**
+	 * Like query, but hands each row to the handler as it is read instead of
+	 * returning them all, for reads that scan a whole table. Queries run
+	 * this way should select only the columns the handler uses.
+	 *
+	 * Reads go to the read replica when there is one. They fall back to the
+	 * primary only if the replica failed before handing over any rows;
+	 * otherwise the exception is passed on and the caller should discard
+	 * what it collected.
+	 */
+	public int stream(String query, RowHandler handler, Object... parameters) throws SQLException
+	{
+		log.finest(query);
+		if (replicaDB != null)
+		{
+			CountingRowHandler counter = new CountingRowHandler(handler);
+			try
+			{
+				return this.replicaDB.stream(query, counter, parameters);
+			}
+			catch (SQLException exception)
+			{
+				if (!isUnavailable(exception) || counter.getRows() > 0)
+				{
+					throw exception;
+				}
+				log.finest("Read replica unavailable, using primary: " + exception.getMessage());
+			}
+		}
+		return this.manageDB.stream(query, handler, parameters);
+	}
+
+	/**
+	 * Like query, but always reads from the primary, so that writes that have
+	 * just been flushed are seen.
+	 */
+	public <T> List<T> queryPrimary(String query, RowMapper<T> mapper, Object... parameters) throws SQLException
+	{
+		log.finest(query);
+		return this.manageDB.query(query, mapper, parameters);
+	}
+
+	public <T> T querySinglePrimary(String query, RowMapper<T> mapper, Object... parameters) throws SQLException
+	{
+		log.finest(query);
+		return this.manageDB.querySingle(query, mapper, parameters);
+	}
+
+	public int update(String query, Object... parameters) throws SQLException
+	{
+		log.finest(query);
+		return this.manageDB.update(query, parameters);
+	}
+
+	/**
+	 * Queues a write to go out with the next batch. Writes with the same key
+	 * replace each other while they wait, so the key should name the row
+	 * being set; use null for writes that must not be merged. When
+	 * write-behind is turned off the write runs straight away.
+	 */
+	public void write(String owner, String key, String query, Object... parameters) throws SQLException
+	{
+		if (writer == null)
+		{
+			update(query, parameters);
+			return;
+		}
+		writer.write(owner, key, query, parameters);
+	}
+
+	/**
+	 * Makes sure any queued writes for the owner have reached the database,
+	 * so that a read that follows sees them.
+	 */
+	public void flushWrites(String owner)
+	{
+		if (writer != null)
+		{
+			writer.flush(owner);
+		}
+	}
+
+	public void flushWrites()
+	{
+		if (writer != null)
+		{
+			writer.flush();
+		}
+	}
+
+	public BatchWriter getWriter()
+	{
+		return writer;
+	}
+
+	/**
+	 * Runs the task on the database executor. Use this to start several
+	 * independent queries at once and then collect their results with
+	 * DatabaseExecutor.await.
+	 */
+	public <T> Future<T> submit(Callable<T> task)
+	{
+		return executor.submit(task);
+	}
+
+	public <T> Future<List<T>> queryAsync(final String query, final RowMapper<T> mapper, final Object... parameters)
+	{
+		return submit(new Callable<List<T>>()
+		{
+			@Override
+			public List<T> call() throws SQLException
+			{
+				return query(query, mapper, parameters);
+			}
+		});
+	}
+
+	public <T> Future<T> querySingleAsync(final String query, final RowMapper<T> mapper, final Object... parameters)
+	{
+		return submit(new Callable<T>()
+		{
+			@Override
+			public T call() throws SQLException
+			{
+				return querySingle(query, mapper, parameters);
+			}
+		});
+	}
+
+	public Future<Integer> updateAsync(final String query, final Object... parameters)
+	{
+		return submit(new Callable<Integer>()
+		{
+			@Override
+			public Integer call() throws SQLException
+			{
+				return update(query, parameters);
+			}
+		});
+	}
+
+	public DatabaseExecutor getExecutor()
+	{
+		return executor;
+	}
+
+	public ConnectionPool getPool()
+	{
+		return this.manageDB.getPool();
+	}
+
+	/**
+	 * False while the primary database's circuit breaker is turning calls
+	 * away. Work that would only fail, or that would act on reads it couldn't
+	 * make, should be skipped until it is true again.
+	 */
+	public boolean isAvailable()
+	{
+		return this.manageDB.isAvailable();
+	}
+
+	public CircuitBreaker getCircuitBreaker()
+	{
+		return this.manageDB.getCircuitBreaker();
+	}
+
+	/**
+	 * Returns the query metrics of the primary database and, if there is
+	 * one, the read replica.
+	 */
+	public List<QueryMetrics> getMetrics()
+	{
+		List<QueryMetrics> metrics = new ArrayList<QueryMetrics>();
+		metrics.add(manageDB.getMetrics());
+		if (replicaDB != null)
+		{
+			metrics.add(replicaDB.getMetrics());
+		}
+		return metrics;
+	}
+
+	public ConnectionPool getReplicaPool()
+	{
+		return replicaDB == null ? null : replicaDB.getPool();
+	}
+
+	public void close()
+	{
+		// Queued tasks may still add writes, so the executor has to finish
+		// before the writer's last flush.
+		this.executor.shutdown(configuration.databasePoolBorrowTimeout * 1000L);
+		log.fine("Database executor statistics: " + executor.getStatistics());
+		if (writer != null)
+		{
+			writer.close();
+			log.fine("Batch writer statistics: " + writer.getStatistics());
+		}
+		this.manageDB.closeConnection();
+		log.fine("Circuit breaker statistics: " + manageDB.getCircuitBreaker().getStatistics());
+		if (replicaDB != null)
+		{
+			replicaDB.closeConnection();
+		}
+		slowQueryLog.close();
+		log.fine("Slow query log statistics: " + slowQueryLog.getStatistics());
+	}
+
+	public boolean checkConnection()
+	{
+		if (this.manageDB.checkConnection())
+		{
+			if (replicaDB != null && !replicaDB.checkConnection())
+			{
+				log.warning("Could not connect to the read replica; all queries will use the primary database.");
+				replicaDB.closeConnection();
+				replicaDB = null;
+			}
+			if (writer != null)
+			{
+				writer.start();
+			}
+			if (configuration.databaseSlowQueryThreshold > 0)
+			{
+				slowQueryLog.start();
+			}
+			return true;
+		}
+		return false;
+	}
+
+	private CircuitBreaker newCircuitBreaker(String name)
+	{
+		return new CircuitBreaker(log, name,
+				configuration.databaseBreakerFailureThreshold,
+				configuration.databaseBreakerInitialBackoff * 1000L,
+				configuration.databaseBreakerMaximumBackoff * 1000L);
+	}
+
+	/**
+	 * Connection failures (SQLSTATE class 08) and pool errors, which carry no
+	 * SQLSTATE, mean the replica couldn't run the query at all.
+	 */
+	private boolean isUnavailable(SQLException exception)
+	{
+		String state = exception.getSQLState();
+		return state == null || state.startsWith("08");
+	}
+}
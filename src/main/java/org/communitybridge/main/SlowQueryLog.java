@@ -0,0 +1,241 @@
+package org.communitybridge.main;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.FileHandler;
+import java.util.logging.Formatter;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import org.communitybridge.utility.Log;
+
+/**
+ * Writes statements that took longer than the threshold to their own rolling
+ * log file, along with their parameters, timings and the code that ran
+ * them.
+ *
+ * The first time a statement is logged it is also run through EXPLAIN, with
+ * the same parameters, and the plan is written with it. Entries are written
+ * and EXPLAINs run on a background thread so that the slow statement's
+ * caller isn't held up any further; if that thread falls behind, entries are
+ * dropped rather than queued without limit.
+ */
+public class SlowQueryLog
+{
+	private static final int QUEUE_LIMIT = 100;
+	private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
+	private Log log;
+	private File file;
+	private long threshold;
+	private int fileLimit;
+	private int fileCount;
+	private boolean explain;
+
+	private FileHandler handler;
+	// Statements finishing on other threads may still be logged while the log
+	// is closed, so each call reads the writer once and drops the entry if it
+	// is gone.
+	private volatile ThreadPoolExecutor writer;
+	private final Set<String> explained = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	private final AtomicLong loggedCount = new AtomicLong();
+	private final AtomicLong droppedCount = new AtomicLong();
+
+	/**
+	 * @param threshold Statements taking at least this many milliseconds are
+	 *                  logged.
+	 * @param fileLimit Size in bytes at which the log rolls over to a new file.
+	 * @param fileCount Number of files kept.
+	 */
+	public SlowQueryLog(Log log, File file, long threshold, int fileLimit, int fileCount, boolean explain)
+	{
+		this.log = log;
+		this.file = file;
+		this.threshold = threshold * 1000000L;
+		this.fileLimit = Math.max(0, fileLimit);
+		this.fileCount = Math.max(1, fileCount);
+		this.explain = explain;
+	}
+
+	public void start()
+	{
+		try
+		{
+			handler = new FileHandler(file.getPath().replace("%", "%%"), fileLimit, fileCount, true);
+			handler.setFormatter(new Formatter()
+			{
+				private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+
+				@Override
+				public String format(LogRecord record)
+				{
+					return dateFormat.format(new Date(record.getMillis())) + " " + record.getMessage() + LINE_SEPARATOR;
+				}
+			});
+		}
+		catch (IOException exception)
+		{
+			log.warning("Unable to open the slow query log " + file.getPath() + ": " + exception.getMessage());
+			return;
+		}
+
+		writer = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(QUEUE_LIMIT), new ThreadFactory()
+		{
+			@Override
+			public Thread newThread(Runnable runnable)
+			{
+				Thread thread = new Thread(runnable, "CommunityBridge-SlowQueryLog");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	public boolean isSlow(long elapsed)
+	{
+		ThreadPoolExecutor writer = this.writer;
+		return writer != null && elapsed >= threshold;
+	}
+
+	/**
+	 * Queues an entry for a slow statement. The caller is worked out here, on
+	 * the thread that ran the statement.
+	 */
+	public void record(final DatabaseHandler database, final String query, final Object[] parameters, long elapsed, long waited, long rows)
+	{
+		ThreadPoolExecutor writer = this.writer;
+		if (writer == null)
+		{
+			droppedCount.incrementAndGet();
+			return;
+		}
+		final String entry = database.getMetrics().getName() + " "
+											 + QueryMetrics.getOperationName(query) + " "
+											 + QueryMetrics.millis(elapsed) + "ms"
+											 + " (wait " + QueryMetrics.millis(waited) + "ms, " + rows + " rows)"
+											 + " caller " + findCaller() + LINE_SEPARATOR
+											 + "  query: " + query + LINE_SEPARATOR
+											 + "  parameters: " + Arrays.toString(parameters);
+		final boolean first = explain && explained.add(query);
+		try
+		{
+			writer.execute(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					String message = entry;
+					if (first)
+					{
+						message = message + LINE_SEPARATOR + explain(database, query, parameters);
+					}
+					handler.publish(new LogRecord(Level.WARNING, message));
+					loggedCount.incrementAndGet();
+				}
+			});
+		}
+		catch (RejectedExecutionException exception)
+		{
+			if (first)
+			{
+				explained.remove(query);
+			}
+			droppedCount.incrementAndGet();
+		}
+	}
+
+	public synchronized void close()
+	{
+		ThreadPoolExecutor writer = this.writer;
+		if (writer == null)
+		{
+			return;
+		}
+		this.writer = null;
+		writer.shutdown();
+		try
+		{
+			writer.awaitTermination(5, TimeUnit.SECONDS);
+		}
+		catch (InterruptedException exception)
+		{
+			Thread.currentThread().interrupt();
+		}
+		handler.close();
+	}
+
+	public String getStatistics()
+	{
+		return "logged=" + loggedCount.get()
+				 + " dropped=" + droppedCount.get()
+				 + " explained=" + explained.size();
+	}
+
+	private String explain(DatabaseHandler database, String query, Object[] parameters)
+	{
+		StringBuilder plan = new StringBuilder("  explain:");
+		try
+		{
+			List<String> rows = database.explain(query, new RowMapper<String>()
+			{
+				@Override
+				public String mapRow(ResultSet result) throws SQLException
+				{
+					ResultSetMetaData metaData = result.getMetaData();
+					StringBuilder row = new StringBuilder();
+					for (int column = 1; column <= metaData.getColumnCount(); column++)
+					{
+						row.append(column == 1 ? "" : " ").append(metaData.getColumnLabel(column)).append('=').append(result.getString(column));
+					}
+					return row.toString();
+				}
+			}, parameters);
+			for (String row : rows)
+			{
+				plan.append(LINE_SEPARATOR).append("    ").append(row);
+			}
+		}
+		catch (SQLException exception)
+		{
+			plan.append(" failed: ").append(exception.getMessage());
+		}
+		return plan.toString();
+	}
+
+	/**
+	 * Finds the first method on the stack outside the database plumbing,
+	 * which is normally the DAO method that ran the statement.
+	 */
+	private String findCaller()
+	{
+		for (StackTraceElement element : new Throwable().getStackTrace())
+		{
+			String className = element.getClassName();
+			if (className.startsWith("java.")
+			 || className.equals(SlowQueryLog.class.getName())
+			 || className.equals(DatabaseHandler.class.getName())
+			 || className.startsWith(SQL.class.getName())
+			 || className.startsWith(QueryMetrics.class.getName()))
+			{
+				continue;
+			}
+			return className + "." + element.getMethodName() + ":" + element.getLineNumber();
+		}
+		return "unknown";
+	}
+}
@@ -0,0 +1,20 @@
+package org.communitybridge.main;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+public class StringColumnMapper implements RowMapper<String>
+{
+	private String column;
+
+	public StringColumnMapper(String column)
+	{
+		this.column = column;
+	}
+
+	@Override
+	public String mapRow(ResultSet result) throws SQLException
+	{
+		return result.getString(column);
+	}
+}
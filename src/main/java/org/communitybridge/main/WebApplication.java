@@ -5,12 +5,16 @@ import org.communitybridge.synchronization.PlayerState;
 
 import java.io.File;
 import java.io.IOException;
-import java.net.MalformedURLException;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
 
 import org.bukkit.ChatColor;
 import org.bukkit.entity.Player;
@@ -33,6 +37,8 @@ public class WebApplication extends Synchronizer
 	protected static final String EXCEPTION_MESSAGE_ADDGROUP = "Exception during WebApplication.addGroup(): ";
 	protected static final String EXCEPTION_MESSAGE_GETPRIMARY = "Exception during WebApplication.getPrimaryGroupID(): ";
 	protected static final String EXCEPTION_MESSAGE_GETSECONDARY = "Exception during WebApplication.getUserSecondaryGroupIDs(): ";
+	protected static final String EXCEPTION_MESSAGE_GETPRIMARIES = "Exception during WebApplication.getUsersPrimaryGroupIDs(): ";
+	protected static final String EXCEPTION_MESSAGE_GETSECONDARIES = "Exception during WebApplication.getUsersSecondaryGroupIDs(): ";
 	protected	static final String EXCEPTION_MESSAGE_REMOVEGROUP = "Exception during WebApplication.addGroup(): ";
 	protected	static final String EXCEPTION_MESSAGE_GETUSERID = "Exception during WebApplication.getUserIDfromDatabase(): ";
 
@@ -43,12 +49,25 @@ public class WebApplication extends Synchronizer
 	private PlayerSynchronizationDispatcher playerSynchronizer;
 	private WebGroupDao webGroupDao;
 
+	private String avatarQuery;
+	private String postCountQuery;
+	private String primaryGroupUpdateQuery;
+	private String statisticsReadQuery;
+	private String statisticsKeysQuery;
+	private String statisticsUpdateQuery;
+	private RowMapper<String> avatarMapper;
+	private RowMapper<Integer> postCountMapper;
+	private RowMapper<String> statisticsKeyMapper;
+	private RowMapper<Map.Entry<String, Integer>> statisticsEntryMapper;
+	private RowMapper<int[]> statisticsTimesMapper;
+
 	public WebApplication(Environment environment, WebGroupDao webGroupDao)
 	{
 		super(environment);
 		this.configuration = environment.getConfiguration();
 		this.log = environment.getLog();
 		this.webGroupDao = webGroupDao;
+		buildQueries();
 	}
 
 	public WebApplication(Environment environment)
@@ -58,6 +77,7 @@ public class WebApplication extends Synchronizer
 		this.log = environment.getLog();
 		this.plugin = environment.getPlugin();
 		configureDao();
+		buildQueries();
 
 		if (environment.getConfiguration().playerSynchronizerRequired)
 		{
@@ -73,21 +93,10 @@ public class WebApplication extends Synchronizer
 	public boolean playerHasAvatar(String userID)
 	{
 		final String exceptionBase = "Exception during WebApplication.playerHasAvatar(): ";
-		String query;
-
-		query = "SELECT `" + configuration.avatarTableName + "`.`" + configuration.avatarAvatarColumn + "` "
-					+ "FROM `" + configuration.avatarTableName + "` "
-					+ "WHERE `" + configuration.avatarUserIDColumn + "` = '" + userID + "'";
 
 		try
 		{
-			String avatar = null;
-			ResultSet result = environment.getSql().sqlQuery(query);
-
-			if (result.next())
-			{
-				avatar = result.getString(configuration.avatarAvatarColumn);
-			}
+			String avatar = environment.getSql().querySingle(avatarQuery, avatarMapper, userID);
 
 			if (avatar == null || avatar.isEmpty())
 			{
@@ -103,65 +112,27 @@ public class WebApplication extends Synchronizer
 			log.severe(exceptionBase + exception.getMessage());
 			return false;
 		}
-		catch (MalformedURLException exception)
-		{
-			log.severe(exceptionBase + exception.getMessage());
-			return false;
-		}
-		catch (InstantiationException exception)
-		{
-			log.severe(exceptionBase + exception.getMessage());
-			return false;
-		}
-		catch (IllegalAccessException exception)
-		{
-			log.severe(exceptionBase + exception.getMessage());
-			return false;
-		}
 	}
 
 	public int getUserPostCount(String userID)
 	{
 		final String exceptionBase = "Exception during WebApplication.getUserPostCount(): ";
-		String query;
-
-		query = "SELECT `" + configuration.postCountTableName + "`.`" + configuration.postCountPostCountColumn + "` "
-					+ "FROM `" + configuration.postCountTableName + "` "
-					+ "WHERE `" + configuration.postCountUserIDColumn + "` = '" + userID + "'";
 
 		try
 		{
-			ResultSet result = environment.getSql().sqlQuery(query);
+			Integer postCount = environment.getSql().querySingle(postCountQuery, postCountMapper, userID);
 
-			if (result.next())
-			{
-				return result.getInt(configuration.postCountPostCountColumn);
-			}
-			else
+			if (postCount == null)
 			{
 				return 0;
 			}
+			return postCount;
 		}
 		catch (SQLException exception)
 		{
 			log.severe(exceptionBase + exception.getMessage());
 			return 0;
 		}
-		catch (MalformedURLException exception)
-		{
-			log.severe(exceptionBase + exception.getMessage());
-			return 0;
-		}
-		catch (InstantiationException exception)
-		{
-			log.severe(exceptionBase + exception.getMessage());
-			return 0;
-		}
-		catch (IllegalAccessException exception)
-		{
-			log.severe(exceptionBase + exception.getMessage());
-			return 0;
-		}
 	}
 
 	public String getUserPrimaryGroupID(String userID)
@@ -175,21 +146,6 @@ public class WebApplication extends Synchronizer
 			log.severe(EXCEPTION_MESSAGE_GETPRIMARY + exception.getMessage());
 			return "";
 		}
-		catch (MalformedURLException exception)
-		{
-			log.severe(EXCEPTION_MESSAGE_GETPRIMARY + exception.getMessage());
-			return "";
-		}
-		catch (InstantiationException exception)
-		{
-			log.severe(EXCEPTION_MESSAGE_GETPRIMARY + exception.getMessage());
-			return "";
-		}
-		catch (IllegalAccessException exception)
-		{
-			log.severe(EXCEPTION_MESSAGE_GETPRIMARY + exception.getMessage());
-			return "";
-		}
 	}
 
 	public List<String> getUserSecondaryGroupIDs(String userID)
@@ -203,35 +159,75 @@ public class WebApplication extends Synchronizer
 			log.severe(EXCEPTION_MESSAGE_GETSECONDARY + exception.getMessage());
 			return EMPTY_LIST;
 		}
-		catch (MalformedURLException exception)
+	}
+
+	/**
+	 * Reads the primary group IDs of several users at once. Returns null if
+	 * they couldn't be read.
+	 */
+	public Map<String, String> getUsersPrimaryGroupIDs(Collection<String> userIDs)
+	{
+		try
 		{
-			log.severe(EXCEPTION_MESSAGE_GETSECONDARY + exception.getMessage());
-			return EMPTY_LIST;
+			return webGroupDao.getPrimaryGroupIDs(userIDs);
 		}
-		catch (InstantiationException exception)
+		catch (SQLException exception)
 		{
-			log.severe(EXCEPTION_MESSAGE_GETSECONDARY + exception.getMessage());
-			return EMPTY_LIST;
+			log.severe(EXCEPTION_MESSAGE_GETPRIMARIES + exception.getMessage());
+			return null;
 		}
-		catch (IllegalAccessException exception)
+	}
+
+	/**
+	 * Reads the secondary group IDs of several users at once. Returns null if
+	 * they couldn't be read.
+	 */
+	public Map<String, List<String>> getUsersSecondaryGroupIDs(Collection<String> userIDs)
+	{
+		try
 		{
-			log.severe(EXCEPTION_MESSAGE_GETSECONDARY + exception.getMessage());
-			return EMPTY_LIST;
+			return webGroupDao.getSecondaryGroupIDs(userIDs);
+		}
+		catch (SQLException exception)
+		{
+			log.severe(EXCEPTION_MESSAGE_GETSECONDARIES + exception.getMessage());
+			return null;
 		}
 	}
 
-	public void runSynchronizePlayer(final Environment environment, final Player player, final boolean online)
+	/**
+	 * Queues the player's synchronization ahead of the auto synchronization.
+	 */
+	public void runSynchronizePlayer(Environment environment, Player player, boolean online)
 	{
-		MinecraftUtilities.startTask(plugin,
-																	new Runnable()
-																	{
-																		@Override
-																		public void run()
-																		{
-																			playerSynchronizer.synchronizePlayer(environment, player, online);
-																		}
-																	}
-																);
+		if (playerSynchronizer != null)
+		{
+			playerSynchronizer.requestSynchronization(environment, player, online);
+		}
+	}
+
+	public void forgetPlayer(Player player)
+	{
+		if (playerSynchronizer != null)
+		{
+			playerSynchronizer.forget(player.getUniqueId());
+		}
+	}
+
+	public String getSynchronizationStatistics()
+	{
+		return playerSynchronizer == null ? "disabled" : playerSynchronizer.getStatistics();
+	}
+
+	/**
+	 * Waits up to timeout milliseconds for queued synchronizations to finish.
+	 */
+	public void shutdownSynchronization(long timeout)
+	{
+		if (playerSynchronizer != null)
+		{
+			playerSynchronizer.shutdown(timeout);
+		}
 	}
 
 	public void runSynchronizeAll()
@@ -250,6 +246,12 @@ public class WebApplication extends Synchronizer
 
 	public void synchronizeAll()
 	{
+		if (!environment.getSql().isAvailable())
+		{
+			environment.getLog().fine("Skipping synchronization while the database is unavailable.");
+			return;
+		}
+
 		if (configuration.playerSynchronizerRequired)
 		{
 			playerSynchronizer.synchronize(environment);
@@ -257,12 +259,69 @@ public class WebApplication extends Synchronizer
 
 		if (configuration.banSynchronizationEnabled)
 		{
-			environment.getLog().finest("Running ban synchronization.");
-			banSynchronizer.synchronize();
-			environment.getLog().finest("Ban synchronization complete.");
+			synchronizeBans();
+		}
+	}
+
+	/**
+	 * Runs one slot of an auto synchronization split into several. Online
+	 * players are spread over the slots by UUID, so each of them is
+	 * synchronized once every time all of the slots have run. When bans are
+	 * synchronized they have slot 0 to themselves.
+	 */
+	public void synchronizeSlot(int slot, int slots)
+	{
+		if (slots <= 1)
+		{
+			synchronizeAll();
+			return;
+		}
+
+		if (!environment.getSql().isAvailable())
+		{
+			environment.getLog().fine("Skipping synchronization while the database is unavailable.");
+			return;
+		}
+
+		int playerSlots = slots;
+		int playerSlot = slot;
+		if (configuration.banSynchronizationEnabled)
+		{
+			if (slot == 0)
+			{
+				synchronizeBans();
+				return;
+			}
+			playerSlots = slots - 1;
+			playerSlot = slot - 1;
+		}
+
+		if (configuration.playerSynchronizerRequired)
+		{
+			List<Player> players = new ArrayList<Player>();
+			for (Player player : environment.getBukkit().getOnlinePlayers())
+			{
+				if (getSlot(player.getUniqueId(), playerSlots) == playerSlot)
+				{
+					players.add(player);
+				}
+			}
+			playerSynchronizer.synchronize(environment, players);
 		}
 	}
 
+	protected static int getSlot(UUID uuid, int slots)
+	{
+		return (uuid.hashCode() & Integer.MAX_VALUE) % slots;
+	}
+
+	private void synchronizeBans()
+	{
+		environment.getLog().finest("Running ban synchronization.");
+		banSynchronizer.synchronize();
+		environment.getLog().finest("Ban synchronization complete.");
+	}
+
 	private void setPrimaryGroup(String userID, String groupID)
 	{
 		String exceptionBase = "Exception during setPrimaryGroup(): ";
@@ -271,29 +330,14 @@ public class WebApplication extends Synchronizer
 		{
 			if (configuration.webappPrimaryGroupUsesKey)
 			{
-				String query = "UPDATE `" + configuration.webappPrimaryGroupTable + "` "
-										 + "SET `" + configuration.webappPrimaryGroupGroupIDColumn + "` = '" + groupID + "' "
-										 + "WHERE `" + configuration.webappPrimaryGroupKeyColumn + "` = '" + configuration.webappPrimaryGroupKeyName + "' "
-										 + "AND `" + configuration.webappPrimaryGroupUserIDColumn + "` = '" + userID + "'";
-				environment.getSql().updateQuery(query);
+				environment.getSql().write(userID, "primary-group:" + userID, primaryGroupUpdateQuery, groupID, configuration.webappPrimaryGroupKeyName, userID);
 			}
 			else
 			{
-				String query = "UPDATE `" + configuration.webappPrimaryGroupTable + "` "
-										 + "SET `" + configuration.webappPrimaryGroupGroupIDColumn + "` = '" + groupID + "' "
-										 + "WHERE `" + configuration.webappPrimaryGroupUserIDColumn + "` = '" + userID + "' ";
-				environment.getSql().updateQuery(query);
+				environment.getSql().write(userID, "primary-group:" + userID, primaryGroupUpdateQuery, groupID, userID);
 			}
 		}
-		catch (MalformedURLException exception)
-		{
-			log.severe(exceptionBase + exception.getMessage());
-		}
-		catch (InstantiationException exception)
-		{
-			log.severe(exceptionBase + exception.getMessage());
-		}
-		catch (IllegalAccessException exception)
+		catch (SQLException exception)
 		{
 			log.severe(exceptionBase + exception.getMessage());
 		}
@@ -363,18 +407,6 @@ public class WebApplication extends Synchronizer
 		{
 				webGroupDao.addUserToGroup(userID, groupID, currentGroupCount);
 		}
-		catch (MalformedURLException exception)
-		{
-			log.severe(EXCEPTION_MESSAGE_ADDGROUP + exception.getMessage());
-		}
-		catch (InstantiationException exception)
-		{
-			log.severe(EXCEPTION_MESSAGE_ADDGROUP + exception.getMessage());
-		}
-		catch (IllegalAccessException exception)
-		{
-			log.severe(EXCEPTION_MESSAGE_ADDGROUP + exception.getMessage());
-		}
 		catch (SQLException exception)
 		{
 			log.severe(EXCEPTION_MESSAGE_ADDGROUP + exception.getMessage());
@@ -391,27 +423,12 @@ public class WebApplication extends Synchronizer
 		{
 			log.severe(EXCEPTION_MESSAGE_REMOVEGROUP + exception.getMessage());
 		}
-		catch (MalformedURLException exception)
-		{
-			log.severe(EXCEPTION_MESSAGE_REMOVEGROUP + exception.getMessage());
-		}
-		catch (InstantiationException exception)
-		{
-			log.severe(EXCEPTION_MESSAGE_REMOVEGROUP + exception.getMessage());
-		}
-		catch (IllegalAccessException exception)
-		{
-			log.severe(EXCEPTION_MESSAGE_REMOVEGROUP + exception.getMessage());
-		}
 	}
 
 	public void updateStatistics(Player player, boolean online)
 	{
 		PlayerStatistics playerStatistics = new PlayerStatistics(configuration.dateFormat);
 
-		String query;
-		ResultSet result;
-
 		int previousLastOnline = 0;
 		int previousGameTime = 0;
 
@@ -421,80 +438,45 @@ public class WebApplication extends Synchronizer
 			return;
 		}
 
+		// Both the previous times and the list of existing keys are read back
+		// below, so earlier queued statistics writes have to land first.
+		environment.getSql().flushWrites(playerStatistics.getUserID());
+
 		// If gametime is enabled, it depends on lastonline. Also, we need to
 		// retrieve previously recorded lastonline time and the previously
 		// recorded gametime to compute the new gametime.
 		if (configuration.gametimeEnabled)
 		{
-			if (configuration.statisticsUsesKey)
+			try
 			{
-				query = "SELECT `" + configuration.statisticsKeyColumn +  "`, `" + configuration.statisticsValueColumn + "` "
-							+ "FROM `" + configuration.statisticsTableName + "` "
-							+ "WHERE `" + configuration.statisticsUserIDColumn + "` = '" + playerStatistics.getUserID() + "'";
-				try
+				if (configuration.statisticsUsesKey)
 				{
-					result = environment.getSql().sqlQuery(query);
-					while (result.next())
+					for (Map.Entry<String, Integer> entry : environment.getSql().queryPrimary(statisticsReadQuery, statisticsEntryMapper, playerStatistics.getUserID()))
 					{
-						String key = result.getString(configuration.statisticsKeyColumn);
+						String key = entry.getKey();
 						if (key.equalsIgnoreCase(configuration.lastonlineColumnOrKey))
 						{
-							previousLastOnline = result.getInt(configuration.statisticsValueColumn);
+							previousLastOnline = entry.getValue();
 						}
 						else if (key.equalsIgnoreCase(configuration.gametimeColumnOrKey))
 						{
-							previousGameTime = result.getInt(configuration.statisticsValueColumn);
+							previousGameTime = entry.getValue();
 						}
 					}
 				}
-				catch (SQLException exception)
-				{
-					log.severe("Error in UpdateStatistics() during retrieval: " + exception.getMessage());
-				}
-				catch (MalformedURLException exception)
-				{
-					log.severe("Error in UpdateStatistics() during retrieval: " + exception.getMessage());
-				}
-				catch (InstantiationException exception)
-				{
-					log.severe("Error in UpdateStatistics() during retrieval: " + exception.getMessage());
-				}
-				catch (IllegalAccessException exception)
-				{
-					log.severe("Error in UpdateStatistics() during retrieval: " + exception.getMessage());
-				}
-			}
-			else
-			{
-				query = "SELECT `" + configuration.lastonlineColumnOrKey + "`, `" + configuration.gametimeColumnOrKey + "`"
-							+ " FROM `" + configuration.statisticsTableName + "`"
-							+ " WHERE `" + configuration.statisticsUserIDColumn + "` = '" + playerStatistics.getUserID() + "'";
-				try
+				else
 				{
-					result = environment.getSql().sqlQuery(query);
-
-					if (result.next())
+					int[] previous = environment.getSql().querySinglePrimary(statisticsReadQuery, statisticsTimesMapper, playerStatistics.getUserID());
+					if (previous != null)
 					{
-						previousLastOnline = result.getInt(configuration.lastonlineColumnOrKey);
-						previousGameTime = result.getInt(configuration.gametimeColumnOrKey);
+						previousLastOnline = previous[0];
+						previousGameTime = previous[1];
 					}
 				}
-				catch (SQLException exception)
-				{
-					log.severe("Error in UpdateStatistics() during retrieval: " + exception.getMessage());
-				}
-				catch (MalformedURLException exception)
-				{
-					log.severe("Error in UpdateStatistics() during retrieval: " + exception.getMessage());
-				}
-				catch (InstantiationException exception)
-				{
-					log.severe("Error in UpdateStatistics() during retrieval: " + exception.getMessage());
-				}
-				catch (IllegalAccessException exception)
-				{
-					log.severe("Error in UpdateStatistics() during retrieval: " + exception.getMessage());
-				}
+			}
+			catch (SQLException exception)
+			{
+				log.severe("Error in UpdateStatistics() during retrieval: " + exception.getMessage());
 			}
 		}
 
@@ -566,132 +548,173 @@ public class WebApplication extends Synchronizer
 		 *                   WHEN keyname THEN keyvalue
 		 *                   WHEN keyname THEN keyvalue
 		 *                   END
-		 * WHERE useridcolumn = userid;
+		 * WHERE useridcolumn = userid AND keycolumn IN (keyname, keyname);
 		 *
 		 * insert prototype:
 		 * INSERT INTO tableName (user_idcolumn,theme_idcolumn,keycolumn,valuecolumn) VALUES (user_id,theme_id,keyname1,keyvalue1),(user_id,theme_id,keyname2,keyvalue2)
 		 */
 
-		List<String> foundFields = new ArrayList<String>();
 		String exceptionBase = "Exception during updateStatisticsKeyStyle(): ";
-		String insertQuery = "INSERT INTO `" + configuration.statisticsTableName + "` ("
-											 + configuration.statisticsUserIDColumn + ", "
-											 + (configuration.statisticsUsesInsert && configuration.statisticsInsertMethod.startsWith("smf") ? configuration.statisticsThemeIDColumn + ", " : "")
-											 + configuration.statisticsKeyColumn + ", "
-											 + configuration.statisticsValueColumn + ") VALUES ";
-		String updateQuery = "UPDATE `" + configuration.statisticsTableName + "` "
-											 + "SET " + "`" + configuration.statisticsValueColumn
-											 + "` = CASE " + "`" + configuration.statisticsKeyColumn + "` ";
+		Map<String, String> fields = getStatisticsFields(playerStatistics, true);
+		if (fields.isEmpty())
+		{
+			return;
+		}
+
+		boolean smf = configuration.statisticsUsesInsert && configuration.statisticsInsertMethod.startsWith("smf");
 		try
 		{
+			List<String> insertKeys = new ArrayList<String>();
 			if (configuration.statisticsUsesInsert)
 			{
-				String selectQuery = "SELECT `" + configuration.statisticsKeyColumn + "` "
-													 + " FROM `" + configuration.statisticsTableName + "` "
-													 + " WHERE `" + configuration.statisticsUserIDColumn + "` = '"
-													 + playerStatistics.getUserID() + "'"
-													 + (configuration.statisticsInsertMethod.startsWith("smf") ? " AND `" + configuration.statisticsThemeIDColumn + "` = '" + configuration.statisticsThemeID + "'" : "");
-
-				ResultSet result = environment.getSql().sqlQuery(selectQuery);
-				while (result.next())
+				List<String> foundFields;
+				if (smf)
 				{
-					foundFields.add(result.getString(configuration.statisticsKeyColumn));
+					foundFields = environment.getSql().queryPrimary(statisticsKeysQuery, statisticsKeyMapper, playerStatistics.getUserID(), configuration.statisticsThemeID);
 				}
-			}
-
-			FieldBuilder builder = new FieldBuilder(foundFields);
-
-			if (configuration.onlineStatusEnabled)
-			{
-				builder.add(playerStatistics.getUserID(), configuration.onlineStatusColumnOrKey, playerStatistics.getOnlineStatus());
-			}
-
-			if (configuration.lastonlineEnabled)
-			{
-				builder.add(playerStatistics.getUserID(), configuration.lastonlineColumnOrKey, playerStatistics.getLastOnlineTimeInSeconds());
-				if (!configuration.lastonlineFormattedColumnOrKey.isEmpty())
+				else
 				{
-					builder.add(playerStatistics.getUserID(), configuration.lastonlineFormattedColumnOrKey, playerStatistics.getLastOnlineTimeFormatted());
+					foundFields = environment.getSql().queryPrimary(statisticsKeysQuery, statisticsKeyMapper, playerStatistics.getUserID());
 				}
-			}
 
-			// Gametime actually relies on the prior lastonlineTime...
-			if (configuration.gametimeEnabled && configuration.lastonlineEnabled)
-			{
-				builder.add(playerStatistics.getUserID(), configuration.gametimeColumnOrKey, playerStatistics.getGameTime());
-				if (!configuration.gametimeFormattedColumnOrKey.isEmpty())
+				for (String key : fields.keySet())
 				{
-					builder.add(playerStatistics.getUserID(), configuration.gametimeFormattedColumnOrKey, playerStatistics.getGameTimeFormatted());
+					if (!foundFields.contains(key))
+					{
+						insertKeys.add(key);
+					}
 				}
 			}
 
-			if (configuration.levelEnabled)
-			{
-				builder.add(playerStatistics.getUserID(), configuration.levelColumnOrKey, playerStatistics.getLevel());
-			}
-
-			if (configuration.totalxpEnabled)
-			{
-				builder.add(playerStatistics.getUserID(), configuration.totalxpColumnOrKey, playerStatistics.getTotalXP());
-			}
-
-			if (configuration.currentxpEnabled)
+			if (insertKeys.size() > 0)
 			{
-				builder.add(playerStatistics.getUserID(), configuration.currentxpColumnOrKey, playerStatistics.getCurrentXP());
-				if (!configuration.currentxpFormattedColumnOrKey.isEmpty())
+				List<String> rows = new ArrayList<String>();
+				List<Object> parameters = new ArrayList<Object>();
+				for (String key : insertKeys)
 				{
-					builder.add(playerStatistics.getUserID(), configuration.currentxpFormattedColumnOrKey, playerStatistics.getCurrentXPFormatted());
+					rows.add(smf ? "(?, ?, ?, ?)" : "(?, ?, ?)");
+					parameters.add(playerStatistics.getUserID());
+					if (smf)
+					{
+						parameters.add(configuration.statisticsThemeID);
+					}
+					parameters.add(key);
+					parameters.add(fields.get(key));
 				}
+				String insertQuery = "/* cb:statistics-insert */ INSERT INTO `" + configuration.statisticsTableName + "` ("
+													 + "`" + configuration.statisticsUserIDColumn + "`, "
+													 + (smf ? "`" + configuration.statisticsThemeIDColumn + "`, " : "")
+													 + "`" + configuration.statisticsKeyColumn + "`, "
+													 + "`" + configuration.statisticsValueColumn + "`) VALUES "
+													 + StringUtilities.joinStrings(rows, ", ");
+				environment.getSql().write(playerStatistics.getUserID(), null, insertQuery, parameters.toArray());
 			}
 
-			if (configuration.healthEnabled)
+			// Rows that were just inserted are also matched by the update, which
+			// lets the update keep a single shape for every call.
+			if (insertKeys.size() < fields.size())
 			{
-				builder.add(playerStatistics.getUserID(), configuration.healthColumnOrKey, (int)playerStatistics.getHealth());
-			}
+				if (statisticsUpdateQuery == null)
+				{
+					List<String> cases = new ArrayList<String>();
+					List<String> placeholders = new ArrayList<String>();
+					for (int count = 0; count < fields.size(); count++)
+					{
+						cases.add("WHEN ? THEN ?");
+						placeholders.add("?");
+					}
+					statisticsUpdateQuery = "/* cb:statistics-update */ UPDATE `" + configuration.statisticsTableName + "` "
+																+ "SET `" + configuration.statisticsValueColumn + "` = CASE `" + configuration.statisticsKeyColumn + "` "
+																+ StringUtilities.joinStrings(cases, " ")
+																+ " END"
+																+ " WHERE `" + configuration.statisticsUserIDColumn + "` = ?"
+																+ " AND `" + configuration.statisticsKeyColumn + "` IN (" + StringUtilities.joinStrings(placeholders, ", ") + ")";
+				}
 
-			if (configuration.lifeticksEnabled)
-			{
-				builder.add(playerStatistics.getUserID(), configuration.lifeticksColumnOrKey, playerStatistics.getLifeTicks());
-				if (!configuration.lifeticksFormattedColumnOrKey.isEmpty())
+				List<Object> parameters = new ArrayList<Object>();
+				for (Map.Entry<String, String> field : fields.entrySet())
 				{
-					builder.add(playerStatistics.getUserID(), configuration.lifeticksFormattedColumnOrKey, playerStatistics.getLifeTicksFormatted());
+					parameters.add(field.getKey());
+					parameters.add(field.getValue());
 				}
+				parameters.add(playerStatistics.getUserID());
+				parameters.addAll(fields.keySet());
+				environment.getSql().write(playerStatistics.getUserID(), "statistics:" + playerStatistics.getUserID(), statisticsUpdateQuery, parameters.toArray());
 			}
+		}
+		catch (SQLException exception)
+		{
+			log.severe(exceptionBase + exception.getMessage());
+		}
+	}
+
+	/**
+	 * Collects the enabled statistics as column (or key) name to value, in the
+	 * same order on every call so that the update query only needs to be
+	 * built once.
+	 */
+	private Map<String, String> getStatisticsFields(PlayerStatistics playerStatistics, boolean keyStyle)
+	{
+		Map<String, String> fields = new LinkedHashMap<String, String>();
+
+		if (configuration.onlineStatusEnabled)
+		{
+			fields.put(configuration.onlineStatusColumnOrKey, playerStatistics.getOnlineStatus());
+		}
 
-			if (builder.insertFields.size() > 0)
+		if (configuration.lastonlineEnabled)
+		{
+			fields.put(configuration.lastonlineColumnOrKey, String.valueOf(playerStatistics.getLastOnlineTimeInSeconds()));
+			if (!configuration.lastonlineFormattedColumnOrKey.isEmpty())
 			{
-				insertQuery = insertQuery + StringUtilities.joinStrings(builder.insertFields, ", ") + ";";
-				environment.getSql().insertQuery(insertQuery);
+				fields.put(configuration.lastonlineFormattedColumnOrKey, playerStatistics.getLastOnlineTimeFormatted());
 			}
+		}
 
-			if (builder.updateFields.size() > 0)
+		// With keys, gametime actually relies on the prior lastonlineTime...
+		if (configuration.gametimeEnabled && (!keyStyle || configuration.lastonlineEnabled))
+		{
+			fields.put(configuration.gametimeColumnOrKey, String.valueOf(playerStatistics.getGameTime()));
+			if (!configuration.gametimeFormattedColumnOrKey.isEmpty())
 			{
-				updateQuery = updateQuery + StringUtilities.joinStrings(builder.updateFields, " ")
-										+ " END"
-										+ " WHERE `" + configuration.statisticsUserIDColumn + "` = '"
-										+ playerStatistics.getUserID() + "'"
-										+ " AND `" + configuration.statisticsKeyColumn + "`"
-										+ " IN (" + StringUtilities.joinStrings(builder.inFields, ", ") + ");";
-
-				environment.getSql().updateQuery(updateQuery);
+				fields.put(configuration.gametimeFormattedColumnOrKey, playerStatistics.getGameTimeFormatted());
 			}
 		}
-		catch (SQLException exception)
+
+		if (configuration.levelEnabled)
 		{
-			log.severe(exceptionBase + exception.getMessage());
+			fields.put(configuration.levelColumnOrKey, String.valueOf(playerStatistics.getLevel()));
 		}
-		catch (MalformedURLException exception)
+
+		if (configuration.totalxpEnabled)
 		{
-			log.severe(exceptionBase + exception.getMessage());
+			fields.put(configuration.totalxpColumnOrKey, String.valueOf(playerStatistics.getTotalXP()));
 		}
-		catch (InstantiationException exception)
+
+		if (configuration.currentxpEnabled)
 		{
-			log.severe(exceptionBase + exception.getMessage());
+			fields.put(configuration.currentxpColumnOrKey, String.valueOf(playerStatistics.getCurrentXP()));
+			if (!configuration.currentxpFormattedColumnOrKey.isEmpty())
+			{
+				fields.put(configuration.currentxpFormattedColumnOrKey, playerStatistics.getCurrentXPFormatted());
+			}
 		}
-		catch (IllegalAccessException exception)
+
+		if (configuration.healthEnabled)
 		{
-			log.severe(exceptionBase + exception.getMessage());
+			fields.put(configuration.healthColumnOrKey, String.valueOf((int)playerStatistics.getHealth()));
 		}
+
+		if (configuration.lifeticksEnabled)
+		{
+			fields.put(configuration.lifeticksColumnOrKey, String.valueOf(playerStatistics.getLifeTicks()));
+			if (!configuration.lifeticksFormattedColumnOrKey.isEmpty())
+			{
+				fields.put(configuration.lifeticksFormattedColumnOrKey, playerStatistics.getLifeTicksFormatted());
+			}
+		}
+
+		return fields;
 	}
 
 	private void synchronizeGroupsPrimary(String direction, PlayerState previous, PlayerState current, PlayerState result, String playerName, Player player, String userID)
@@ -925,151 +948,109 @@ public class WebApplication extends Synchronizer
 		throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
 	}
 
-	private class FieldBuilder
+	private void updateStatisticsKeylessStyle(PlayerStatistics playerStatistics)
 	{
-		public List<String> insertFields;
-		public List<String> updateFields;
-		public List<String> inFields;
-		List<String> foundFields;
-
-		FieldBuilder(List<String> foundFields)
+		String exceptionBase = "Exception during updateStatisticsKeylessStyle(): ";
+		Map<String, String> fields = getStatisticsFields(playerStatistics, false);
+		if (fields.isEmpty())
 		{
-			this.foundFields = foundFields;
-			this.insertFields = new ArrayList<String>();
-			this.updateFields = new ArrayList<String>();
-			this.inFields = new ArrayList<String>();
+			return;
 		}
 
-		/**
-		 * Adds field data to the appropriate list depending on whether it needs inserted or updated.
-		 *
-		 * @param userID
-		 * @param data
-		 */
-		private void add(String userID, String key, String data)
+		if (statisticsUpdateQuery == null)
 		{
-			if (configuration.statisticsUsesInsert && !foundFields.contains(key))
-			{
-				if (configuration.statisticsInsertMethod.startsWith("gen"))
-				{
-					insertFields.add("('" + userID + "', '" + key + "', '" + data + "')");
-				}
-				else if (configuration.statisticsInsertMethod.startsWith("smf"))
-				{
-					insertFields.add("('" + userID + "', '" + configuration.statisticsThemeID + "', '" + key + "', '" + data + "')");
-				}
-			}
-			else
+			List<String> assignments = new ArrayList<String>();
+			for (String column : fields.keySet())
 			{
-				updateFields.add("WHEN '" + key + "' THEN '" + data + "'");
-				inFields.add("'" + key + "'");
+				assignments.add("`" + column + "` = ?");
 			}
+			statisticsUpdateQuery = "/* cb:statistics-update */ UPDATE `" + configuration.statisticsTableName + "` "
+														+ "SET " + StringUtilities.joinStrings(assignments, ", ")
+														+ " WHERE `" + configuration.statisticsUserIDColumn + "` = ?";
 		}
 
-		private void add(String userID, String key, int data)
-		{
-			add(userID, key, Integer.toString(data));
-		}
+		List<Object> parameters = new ArrayList<Object>(fields.values());
+		parameters.add(playerStatistics.getUserID());
 
-		@SuppressWarnings("unused")
-		private void add(String userID, String key, double data)
+		try
 		{
-			add(userID, key, Double.toString(data));
+			environment.getSql().write(playerStatistics.getUserID(), "statistics:" + playerStatistics.getUserID(), statisticsUpdateQuery, parameters.toArray());
 		}
-
-		private void add(String userID, String key, float data)
+		catch (SQLException exception)
 		{
-			add(userID, key, Float.toString(data));
+			log.severe(exceptionBase + exception.getMessage());
 		}
 	}
 
-	private void updateStatisticsKeylessStyle(PlayerStatistics playerStatistics)
+	public WebGroupDao getWebGroupDao()
 	{
-		String query;
-		List<String> fields = new ArrayList<String>();
-		query = "UPDATE `" + configuration.statisticsTableName + "` "
-					+ "SET ";
+		return webGroupDao;
+	}
 
-		if (configuration.onlineStatusEnabled)
-		{
-			fields.add("`" + configuration.onlineStatusColumnOrKey + "` = '" + playerStatistics.getOnlineStatus() +  "'");
-		}
+	private void buildQueries()
+	{
+		avatarQuery = "/* cb:avatar-read */ SELECT `" + configuration.avatarTableName + "`.`" + configuration.avatarAvatarColumn + "` "
+								+ "FROM `" + configuration.avatarTableName + "` "
+								+ "WHERE `" + configuration.avatarUserIDColumn + "` = ?";
+		postCountQuery = "/* cb:post-count-read */ SELECT `" + configuration.postCountTableName + "`.`" + configuration.postCountPostCountColumn + "` "
+									 + "FROM `" + configuration.postCountTableName + "` "
+									 + "WHERE `" + configuration.postCountUserIDColumn + "` = ?";
 
-		if (configuration.lastonlineEnabled)
+		primaryGroupUpdateQuery = "/* cb:primary-group-update */ UPDATE `" + configuration.webappPrimaryGroupTable + "` "
+														+ "SET `" + configuration.webappPrimaryGroupGroupIDColumn + "` = ? "
+														+ "WHERE ";
+		if (configuration.webappPrimaryGroupUsesKey)
 		{
-			fields.add("`" + configuration.lastonlineColumnOrKey + "` = '" + playerStatistics.getLastOnlineTimeInSeconds() + "'");
-			if (!configuration.lastonlineFormattedColumnOrKey.isEmpty())
-			{
-				fields.add("`" + configuration.lastonlineFormattedColumnOrKey + "` = '" + playerStatistics.getLastOnlineTimeFormatted() + "'");
-			}
+			primaryGroupUpdateQuery = primaryGroupUpdateQuery + "`" + configuration.webappPrimaryGroupKeyColumn + "` = ? AND ";
 		}
+		primaryGroupUpdateQuery = primaryGroupUpdateQuery + "`" + configuration.webappPrimaryGroupUserIDColumn + "` = ?";
 
-		if (configuration.gametimeEnabled)
+		if (configuration.statisticsUsesKey)
 		{
-			fields.add("`" + configuration.gametimeColumnOrKey + "` = '" + playerStatistics.getGameTime() + "'");
-			if (!configuration.gametimeFormattedColumnOrKey.isEmpty())
-			{
-				fields.add("`" + configuration.gametimeFormattedColumnOrKey + "` = '" + playerStatistics.getGameTimeFormatted() + "'");
-			}
+			statisticsReadQuery = "/* cb:statistics-read */ SELECT `" + configuration.statisticsKeyColumn +  "`, `" + configuration.statisticsValueColumn + "` "
+													+ "FROM `" + configuration.statisticsTableName + "` "
+													+ "WHERE `" + configuration.statisticsUserIDColumn + "` = ?";
 		}
-
-		if (configuration.levelEnabled)
+		else
 		{
-			fields.add("`" + configuration.levelColumnOrKey + "` = '" + playerStatistics.getLevel() + "'");
+			statisticsReadQuery = "/* cb:statistics-read */ SELECT `" + configuration.lastonlineColumnOrKey + "`, `" + configuration.gametimeColumnOrKey + "` "
+													+ "FROM `" + configuration.statisticsTableName + "` "
+													+ "WHERE `" + configuration.statisticsUserIDColumn + "` = ?";
 		}
 
-		if (configuration.totalxpEnabled)
+		statisticsKeysQuery = "/* cb:statistics-keys */ SELECT `" + configuration.statisticsKeyColumn + "` "
+												+ "FROM `" + configuration.statisticsTableName + "` "
+												+ "WHERE `" + configuration.statisticsUserIDColumn + "` = ?";
+		if (configuration.statisticsInsertMethod != null && configuration.statisticsInsertMethod.startsWith("smf"))
 		{
-			fields.add("`" + configuration.totalxpColumnOrKey + "` = '" + playerStatistics.getTotalXP() + "'");
+			statisticsKeysQuery = statisticsKeysQuery + " AND `" + configuration.statisticsThemeIDColumn + "` = ?";
 		}
 
-		if (configuration.currentxpEnabled)
+		avatarMapper = new StringColumnMapper(configuration.avatarAvatarColumn);
+		postCountMapper = new RowMapper<Integer>()
 		{
-			fields.add("`" + configuration.currentxpColumnOrKey + "` = '" + playerStatistics.getCurrentXP() + "'");
-			if (!configuration.currentxpFormattedColumnOrKey.isEmpty())
+			@Override
+			public Integer mapRow(ResultSet result) throws SQLException
 			{
-				fields.add("`" + configuration.currentxpFormattedColumnOrKey + "` = '" + playerStatistics.getCurrentXPFormatted() + "'");
+				return result.getInt(configuration.postCountPostCountColumn);
 			}
-		}
-
-		if (configuration.healthEnabled)
-		{
-			fields.add("`" + configuration.healthColumnOrKey + "` = '" + (int)playerStatistics.getHealth() + "'");
-		}
-
-		if (configuration.lifeticksEnabled)
+		};
+		statisticsKeyMapper = new StringColumnMapper(configuration.statisticsKeyColumn);
+		statisticsEntryMapper = new RowMapper<Map.Entry<String, Integer>>()
 		{
-			fields.add("`" + configuration.lifeticksColumnOrKey + "` = '" + playerStatistics.getLifeTicks() + "'");
-			if (!configuration.lifeticksFormattedColumnOrKey.isEmpty())
+			@Override
+			public Map.Entry<String, Integer> mapRow(ResultSet result) throws SQLException
 			{
-				fields.add("`" + configuration.lifeticksFormattedColumnOrKey + "` = '" + playerStatistics.getLifeTicksFormatted() + "'");
+				return new AbstractMap.SimpleEntry<String, Integer>(result.getString(configuration.statisticsKeyColumn), result.getInt(configuration.statisticsValueColumn));
 			}
-		}
-
-		query = query + StringUtilities.joinStrings(fields, ", ") + " WHERE `" + configuration.statisticsUserIDColumn + "` = '" + playerStatistics.getUserID() + "'";
-
-		String exceptionBase = "Exception during updateStatisticsKeylessStyle(): ";
-
-		try
-		{
-			environment.getSql().updateQuery(query);
-		}
-		catch (MalformedURLException exception)
-		{
-			log.severe(exceptionBase + exception.getMessage());
-		}
-		catch (InstantiationException exception)
-		{
-			log.severe(exceptionBase + exception.getMessage());
-		}
-		catch (IllegalAccessException exception)
+		};
+		statisticsTimesMapper = new RowMapper<int[]>()
 		{
-			log.severe(exceptionBase + exception.getMessage());
-		}
-	}
-
-	public WebGroupDao getWebGroupDao()
-	{
-		return webGroupDao;
+			@Override
+			public int[] mapRow(ResultSet result) throws SQLException
+			{
+				return new int[] { result.getInt(configuration.lastonlineColumnOrKey), result.getInt(configuration.gametimeColumnOrKey) };
+			}
+		};
 	}
 } // WebApplication class
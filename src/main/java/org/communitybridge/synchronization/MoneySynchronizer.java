@@ -1,6 +1,6 @@
 package org.communitybridge.synchronization;
 
-import java.net.MalformedURLException;
+import java.sql.SQLException;
 import net.milkbowl.vault.economy.Economy;
 import org.bukkit.entity.Player;
 import org.communitybridge.main.Environment;
@@ -39,15 +39,7 @@ public class MoneySynchronizer extends Synchronizer implements PlayerSynchronize
 			{
 				money.setBalance(environment, userId, amount);
 			}
-			catch (IllegalAccessException exception)
-			{
-				environment.getLog().severe("Exception updating web application money" + exception.getMessage());
-			}
-			catch (InstantiationException exception)
-			{
-				environment.getLog().severe("Exception updating web application money" + exception.getMessage());
-			}
-			catch (MalformedURLException exception)
+			catch (SQLException exception)
 			{
 				environment.getLog().severe("Exception updating web application money" + exception.getMessage());
 			}
@@ -5,10 +5,15 @@ import java.io.IOException;
 import java.net.MalformedURLException;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 import org.bukkit.configuration.file.FileConfiguration;
 import org.bukkit.configuration.file.YamlConfiguration;
 import org.bukkit.entity.Player;
+import org.communitybridge.main.Configuration;
+import org.communitybridge.main.DatabaseExecutor;
 import org.communitybridge.main.Environment;
 import org.communitybridge.synchronization.dao.MoneyDao;
 import org.communitybridge.utility.Log;
@@ -31,24 +36,99 @@ public class PlayerState
 
 	public void generate(Environment environment, Player player, String userId) throws IllegalAccessException, InstantiationException, MalformedURLException, SQLException
 	{
-		if (environment.getConfiguration().economyEnabled && environment.getConfiguration().walletEnabled)
+		generate(environment, player, userId, null);
+	}
+
+	/**
+	 * Whatever the snapshot has for the user is taken from it rather than read.
+	 */
+	public void generate(final Environment environment, Player player, final String userId, WebSnapshot snapshot) throws IllegalAccessException, InstantiationException, MalformedURLException, SQLException
+	{
+		String snapshotPrimaryGroupID = snapshot == null ? null : snapshot.getPrimaryGroupID(userId);
+		List<String> snapshotGroupIDs = snapshot == null ? null : snapshot.getSecondaryGroupIDs(userId);
+		Double snapshotWallet = snapshot == null ? null : snapshot.getBalance(userId);
+
+		// Writes from this user's last synchronization may still be queued.
+		environment.getSql().flushWrites(userId);
+
+		// The web application reads are independent of each other, so they are
+		// all started before waiting on any of them.
+		Future<Double> webWallet = null;
+		Future<List<String>> webGroupIDs = null;
+		Future<String> webPrimaryGroupID = null;
+
+		boolean walletActive = environment.getConfiguration().economyEnabled && environment.getConfiguration().walletEnabled;
+		if (walletActive && snapshotWallet == null)
 		{
-			minecraftWallet = environment.getEconomy().getBalance(player);
-			webApplicationWallet = money.getBalance(environment, userId);
+			webWallet = environment.getSql().submit(new Callable<Double>()
+			{
+				@Override
+				public Double call() throws SQLException
+				{
+					return money.getBalance(environment, userId);
+				}
+			});
 		}
 		if (environment.getConfiguration().groupSynchronizationActive)
 		{
-			permissionsSystemGroupNames = environment.getPermissionHandler().getGroups(player);
-			permissionsSystemPrimaryGroupName = getPrimaryGroupName(player, environment);
-			if (environment.getConfiguration().webappSecondaryGroupEnabled)
+			if (environment.getConfiguration().webappSecondaryGroupEnabled && snapshotGroupIDs == null)
 			{
-				webappGroupIDs = environment.getWebApplication().getUserSecondaryGroupIDs(userId);
+				webGroupIDs = environment.getSql().submit(new Callable<List<String>>()
+				{
+					@Override
+					public List<String> call()
+					{
+						return environment.getWebApplication().getUserSecondaryGroupIDs(userId);
+					}
+				});
 			}
-			if (environment.getConfiguration().webappPrimaryGroupEnabled)
+			if (environment.getConfiguration().webappPrimaryGroupEnabled && snapshotPrimaryGroupID == null)
 			{
-				webappPrimaryGroupID = environment.getWebApplication().getUserPrimaryGroupID(userId);
+				webPrimaryGroupID = environment.getSql().submit(new Callable<String>()
+				{
+					@Override
+					public String call()
+					{
+						return environment.getWebApplication().getUserPrimaryGroupID(userId);
+					}
+				});
 			}
 		}
+
+		if (walletActive)
+		{
+			minecraftWallet = environment.getEconomy().getBalance(player);
+		}
+		if (environment.getConfiguration().groupSynchronizationActive)
+		{
+			permissionsSystemGroupNames = environment.getPermissionHandler().getGroups(player);
+			permissionsSystemPrimaryGroupName = getPrimaryGroupName(player, environment);
+		}
+
+		if (webWallet != null)
+		{
+			webApplicationWallet = DatabaseExecutor.await(webWallet);
+		}
+		else if (walletActive)
+		{
+			webApplicationWallet = snapshotWallet;
+		}
+		if (webGroupIDs != null)
+		{
+			webappGroupIDs = DatabaseExecutor.await(webGroupIDs);
+		}
+		else if (snapshotGroupIDs != null)
+		{
+			webappGroupIDs = snapshotGroupIDs;
+		}
+		if (webPrimaryGroupID != null)
+		{
+			webappPrimaryGroupID = DatabaseExecutor.await(webPrimaryGroupID);
+		}
+		else if (snapshotPrimaryGroupID != null)
+		{
+			webappPrimaryGroupID = snapshotPrimaryGroupID;
+		}
 	}
 
 	public void load(File file, double def)
@@ -96,6 +176,36 @@ public class PlayerState
 		}
 	}
 
+	/**
+	 * Sums up both sides of the parts of the state that are synchronized, so
+	 * that two states with the same groups and wallets have the same
+	 * fingerprint. Group order is ignored.
+	 */
+	public String getFingerprint(Configuration configuration)
+	{
+		StringBuilder fingerprint = new StringBuilder();
+		if (configuration.groupSynchronizationActive && configuration.webappPrimaryGroupEnabled)
+		{
+			fingerprint.append(webappPrimaryGroupID).append('|').append(permissionsSystemPrimaryGroupName).append('|');
+		}
+		if (configuration.groupSynchronizationActive && configuration.webappSecondaryGroupEnabled)
+		{
+			fingerprint.append(sorted(webappGroupIDs)).append('|').append(sorted(permissionsSystemGroupNames)).append('|');
+		}
+		if (configuration.economyEnabled && configuration.walletEnabled)
+		{
+			fingerprint.append(webApplicationWallet).append('|').append(minecraftWallet);
+		}
+		return fingerprint.toString();
+	}
+
+	private List<String> sorted(List<String> values)
+	{
+		List<String> sorted = new ArrayList<String>(values);
+		Collections.sort(sorted);
+		return sorted;
+	}
+
 	public PlayerState copy()
 	{
 		PlayerState copy = new PlayerState();
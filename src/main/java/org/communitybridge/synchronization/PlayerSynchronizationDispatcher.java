@@ -4,41 +4,181 @@ import java.io.File;
 import java.net.MalformedURLException;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
 import org.bukkit.entity.Player;
 import org.communitybridge.main.Environment;
 
+/**
+ * Synchronizes players' groups, wallets, statistics and achievements with
+ * the web application.
+ *
+ * Each synchronization works on its own player states, so synchronizations
+ * of different players can run at the same time. Synchronizations go through
+ * a SynchronizationQueue, which runs them on a small pool of worker threads,
+ * merges repeated requests for a player and runs requests made for players
+ * ahead of the auto synchronization's. The auto synchronization reads the
+ * web application's side of all the players it synchronizes up front, with
+ * a WebSnapshot, rather than with a few queries per player.
+ *
+ * The fingerprint of the state each online player was left in by their last
+ * synchronization is kept. When an auto synchronization finds both sides of a
+ * player's state unchanged since then, there is nothing to synchronize and
+ * the rest of it is skipped.
+ */
 public class PlayerSynchronizationDispatcher
 {
 	private static final String SYNCHRONIZATION_EXCEPTION = "Exception occurred during synchronization: ";
-	private final Boolean synchronizationLock = true;
-	private List<Player> playerLocks = new ArrayList<Player>();
-	private PlayerState previous = new PlayerState();
-	private PlayerState current = new PlayerState();
-	private PlayerState result = new PlayerState();
+
 	private MoneySynchronizer moneySynchronizer = new MoneySynchronizer(null);
+	private SynchronizationQueue queue;
+	private volatile WebSnapshot snapshot;
+	private final ConcurrentHashMap<UUID, String> fingerprints = new ConcurrentHashMap<UUID, String>();
+	private final AtomicLong unchangedCount = new AtomicLong();
 
+	/**
+	 * Synchronizes every online player and returns once all of them are done.
+	 */
 	public void synchronize(Environment environment)
+	{
+		synchronize(environment, environment.getBukkit().getOnlinePlayers());
+	}
+
+	/**
+	 * Synchronizes the players and returns once all of them are done.
+	 */
+	public void synchronize(Environment environment, Collection<? extends Player> players)
 	{
 		environment.getLog().finest("Running player synchronization.");
-		for (Player player : environment.getBukkit().getOnlinePlayers())
+		Map<Player, String> userIDs = environment.getUserPlayerLinker().getUserIDs(players);
+
+		// The snapshot is published before it is loaded, so that it forgets
+		// players whose synchronizations finish while it is loading.
+		Set<String> linkedUserIDs = new HashSet<String>();
+		for (String userID : userIDs.values())
+		{
+			if (userID != null && !userID.isEmpty())
+			{
+				linkedUserIDs.add(userID);
+			}
+		}
+		WebSnapshot loading = new WebSnapshot();
+		snapshot = loading;
+		loading.load(environment, linkedUserIDs);
+
+		List<CountDownLatch> requests = new ArrayList<CountDownLatch>();
+		SynchronizationQueue synchronizationQueue = getQueue(environment);
+		for (Player player : players)
+		{
+			requests.add(synchronizationQueue.request(player, userIDs.get(player), true, SynchronizationQueue.PRIORITY_BACKGROUND));
+		}
+		for (CountDownLatch request : requests)
 		{
-			synchronizePlayer(environment, player, true);
+			if (!await(request))
+			{
+				break;
+			}
+		}
+		if (snapshot == loading)
+		{
+			snapshot = null;
 		}
 		environment.getLog().finest("Player synchronization complete.");
 	}
 
+	/**
+	 * Synchronizes the player ahead of the auto synchronization and returns
+	 * once they are done.
+	 */
 	public void synchronizePlayer(Environment environment, Player player, boolean online)
 	{
-		if (!playerLocks.contains(player))
+		await(requestSynchronization(environment, player, online));
+	}
+
+	/**
+	 * Queues a synchronization of the player ahead of the auto synchronization
+	 * and returns straight away.
+	 */
+	public CountDownLatch requestSynchronization(Environment environment, Player player, boolean online)
+	{
+		return getQueue(environment).request(player, null, online, SynchronizationQueue.PRIORITY_PLAYER);
+	}
+
+	/**
+	 * Drops the fingerprint kept for a player who has left without a quit
+	 * synchronization, which would otherwise have dropped it.
+	 */
+	public void forget(UUID uuid)
+	{
+		fingerprints.remove(uuid);
+	}
+
+	public synchronized String getStatistics()
+	{
+		return (queue == null ? "idle" : queue.getStatistics()) + " unchanged=" + unchangedCount.get();
+	}
+
+	/**
+	 * Waits up to timeout milliseconds for queued synchronizations to finish.
+	 */
+	public synchronized void shutdown(long timeout)
+	{
+		if (queue != null)
 		{
-			String userID = environment.getUserPlayerLinker().getUserID(player);
-			if (userID == null)
-			{
-				return;
-			}
-			synchronized (synchronizationLock) { playerLocks.add(player);}
-			playerStateBaseSynchronization(environment, player, userID);
+			queue.shutdown(timeout);
+		}
+	}
+
+	private boolean await(CountDownLatch request)
+	{
+		try
+		{
+			request.await();
+			return true;
+		}
+		catch (InterruptedException exception)
+		{
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	/**
+	 * The user ID is looked up here if it is null. Only requests from the auto
+	 * synchronization come with a user ID, and only they use its snapshot;
+	 * a player's own request reads their state as it is now.
+	 */
+	private void synchronizePlayer(Environment environment, Player player, String userID, boolean online)
+	{
+		// Reads that fail look like empty groups and wallets, which would be
+		// synchronized back as removals, so nothing is done while the database
+		// is down.
+		if (!environment.getSql().isAvailable())
+		{
+			environment.getLog().fine("Skipping synchronization of " + player.getName() + " while the database is unavailable.");
+			return;
+		}
+
+		WebSnapshot current = userID == null ? null : snapshot;
+		if (userID == null)
+		{
+			userID = environment.getUserPlayerLinker().getUserID(player);
+		}
+		if (userID == null)
+		{
+			return;
+		}
+
+		try
+		{
+			playerStateBaseSynchronization(environment, player, userID, current, online);
 			if (environment.getConfiguration().statisticsEnabled)
 			{
 				environment.getWebApplication().updateStatistics(player, online);
@@ -47,20 +187,68 @@ public class PlayerSynchronizationDispatcher
 			{
 				environment.getWebApplication().rewardAchievements(player);
 			}
-			synchronized (synchronizationLock) { playerLocks.remove(player); }
+		}
+		finally
+		{
+			current = snapshot;
+			if (current != null)
+			{
+				current.forget(userID);
+			}
 		}
 	}
 
-	private void playerStateBaseSynchronization(Environment environment, Player player, String userID)
+	/**
+	 * The workers are sized to the number of cores, but no more than the
+	 * database pool can serve at once, unless the configuration says
+	 * otherwise.
+	 */
+	private synchronized SynchronizationQueue getQueue(final Environment environment)
 	{
+		if (queue == null)
+		{
+			int threads = environment.getConfiguration().synchronizationThreads;
+			if (threads <= 0)
+			{
+				threads = Math.min(Runtime.getRuntime().availableProcessors(), environment.getConfiguration().databasePoolMaximumSize);
+			}
+			queue = new SynchronizationQueue(environment.getLog(), threads,
+																			 new SynchronizationQueue.Task()
+																			 {
+																				 @Override
+																				 public void synchronize(Player player, String userID, boolean online)
+																				 {
+																					 synchronizePlayer(environment, player, userID, online);
+																				 }
+																			 });
+		}
+		return queue;
+	}
+
+	private void playerStateBaseSynchronization(Environment environment, Player player, String userID, WebSnapshot snapshot, boolean online)
+	{
+		UUID uuid = player.getUniqueId();
 		try
 		{
 			PlayerFileFetcher fetcher = new PlayerFileFetcher();
 			File playerFile = fetcher.getPlayerFile(environment.getPlugin().getDataFolder(), player, true);
 			
-			current.generate(environment, player, userID);
+			PlayerState current = new PlayerState();
+			PlayerState previous = new PlayerState();
+			current.generate(environment, player, userID, snapshot);
+
+			// The previous state on file is the one the fingerprint was taken
+			// of, so an unchanged current state would synchronize nothing.
+			String fingerprint = fingerprints.remove(uuid);
+			if (snapshot != null && environment.getConfiguration().synchronizationSkipUnchanged && current.getFingerprint(environment.getConfiguration()).equals(fingerprint))
+			{
+				fingerprints.put(uuid, fingerprint);
+				unchangedCount.incrementAndGet();
+				return;
+			}
+
 			previous.load(playerFile, current.getMinecraftWallet());
-			result = current.copy();
+			PlayerState result = current.copy();
 
 			if (environment.getConfiguration().groupSynchronizationActive)
 			{
@@ -75,6 +263,10 @@ public class PlayerSynchronizationDispatcher
 				playerFile = fetcher.getPlayerFile(environment.getPlugin().getDataFolder(), player, false);
 				result.save(player, playerFile, environment.getLog());
 			}
+			if (online)
+			{
+				fingerprints.put(uuid, result.getFingerprint(environment.getConfiguration()));
+			}
 		}
 		catch (InstantiationException exception)
 		{
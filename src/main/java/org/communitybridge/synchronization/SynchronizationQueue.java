@@ -0,0 +1,301 @@
+package org.communitybridge.synchronization;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.bukkit.entity.Player;
+import org.communitybridge.utility.Log;
+
+/**
+ * Queues player synchronizations and runs them on a few worker threads.
+ *
+ * Requests are keyed by player UUID. A request for a player who is already
+ * queued is merged into the queued request, which takes the higher of the two
+ * priorities and the newer online flag. A request for a player who is being
+ * synchronized marks them dirty, and they are queued once more when the
+ * running synchronization finishes. So a player is never synchronized by two
+ * threads at once, and their latest state is always synchronized in the end.
+ *
+ * Player requests, made when a player joins, quits or uses /cbsync, are run
+ * ahead of background requests from the auto synchronization.
+ */
+public class SynchronizationQueue
+{
+	public static final int PRIORITY_PLAYER = 0;
+	public static final int PRIORITY_BACKGROUND = 1;
+
+	private static final String SYNCHRONIZATION_EXCEPTION = "Exception occurred during synchronization: ";
+	private static final long KEEP_ALIVE_SECONDS = 60;
+
+	public interface Task
+	{
+		void synchronize(Player player, String userID, boolean online);
+	}
+
+	private Log log;
+	private Task task;
+	private ThreadPoolExecutor executor;
+
+	// Everything below is guarded by this.
+	private final Map<UUID, Request> requests = new HashMap<UUID, Request>();
+	private long sequence;
+	private long requestedCount;
+	private long coalescedCount;
+	private long completedCount;
+	private long waitCount;
+	private long totalWait;
+	private long maximumWait;
+
+	public SynchronizationQueue(Log log, int threads, Task task)
+	{
+		this.log = log;
+		this.task = task;
+
+		final AtomicInteger threadNumber = new AtomicInteger();
+		threads = Math.max(1, threads);
+		executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+																			new PriorityBlockingQueue<Runnable>(),
+																			new ThreadFactory()
+																			{
+																				@Override
+																				public Thread newThread(Runnable runnable)
+																				{
+																					Thread thread = new Thread(runnable, "CommunityBridge-Synchronization-" + threadNumber.incrementAndGet());
+																					thread.setDaemon(true);
+																					return thread;
+																				}
+																			},
+																			new RejectionHandler());
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Queues a synchronization of the player, or merges it into the one
+	 * already queued or running for them. The user ID is looked up when the
+	 * synchronization runs if it is null. The returned latch is released once
+	 * the player has been synchronized with everything requested so far.
+	 */
+	public CountDownLatch request(Player player, String userID, boolean online, int priority)
+	{
+		Request request;
+		boolean execute = false;
+		synchronized (this)
+		{
+			requestedCount++;
+			request = requests.get(player.getUniqueId());
+			if (request == null)
+			{
+				request = new Request(player.getUniqueId());
+				requests.put(request.uuid, request);
+				request.update(player, userID, online, priority);
+				queue(request);
+				execute = true;
+			}
+			else if (request.running)
+			{
+				coalescedCount++;
+				if (!request.dirty)
+				{
+					request.dirty = true;
+					request.priority = priority;
+				}
+				request.update(player, userID, online, Math.min(request.priority, priority));
+			}
+			else
+			{
+				coalescedCount++;
+				// The request's place in the queue depends on its priority, so a
+				// request that moves up is taken out and put back in.
+				if (priority < request.priority && executor.getQueue().remove(request))
+				{
+					request.update(player, userID, online, priority);
+					execute = true;
+				}
+				else
+				{
+					request.update(player, userID, online, request.priority);
+				}
+			}
+		}
+		if (execute)
+		{
+			executor.execute(request);
+		}
+		return request.done;
+	}
+
+	/**
+	 * Stops taking new work and waits up to timeout milliseconds for queued
+	 * synchronizations to finish. Requests made afterwards run on the caller.
+	 */
+	public void shutdown(long timeout)
+	{
+		executor.shutdown();
+		try
+		{
+			if (!executor.awaitTermination(timeout, TimeUnit.MILLISECONDS))
+			{
+				log.warning("Synchronization queue did not finish " + executor.getQueue().size() + " queued synchronizations before shutting down.");
+				abandon(executor.shutdownNow());
+			}
+		}
+		catch (InterruptedException exception)
+		{
+			Thread.currentThread().interrupt();
+			abandon(executor.shutdownNow());
+		}
+	}
+
+	// Releases anyone waiting on synchronizations that will now never run.
+	private synchronized void abandon(List<Runnable> abandoned)
+	{
+		for (Runnable runnable : abandoned)
+		{
+			Request request = (Request) runnable;
+			requests.remove(request.uuid);
+			request.done.countDown();
+		}
+	}
+
+	public synchronized int getDepth()
+	{
+		return executor.getQueue().size();
+	}
+
+	public synchronized long getCoalescedCount()
+	{
+		return coalescedCount;
+	}
+
+	public synchronized String getStatistics()
+	{
+		return "threads=" + executor.getPoolSize() + "/" + executor.getMaximumPoolSize()
+				 + " depth=" + executor.getQueue().size()
+				 + " running=" + executor.getActiveCount()
+				 + " requested=" + requestedCount
+				 + " coalesced=" + coalescedCount
+				 + " completed=" + completedCount
+				 + " average wait=" + (waitCount == 0 ? 0 : totalWait / waitCount) + "ms"
+				 + " maximum wait=" + maximumWait + "ms";
+	}
+
+	private void queue(Request request)
+	{
+		request.sequence = sequence++;
+		request.queued = System.currentTimeMillis();
+	}
+
+	private void run(Request request)
+	{
+		Player player;
+		String userID;
+		boolean online;
+		synchronized (this)
+		{
+			long wait = System.currentTimeMillis() - request.queued;
+			waitCount++;
+			totalWait = totalWait + wait;
+			maximumWait = Math.max(maximumWait, wait);
+			request.running = true;
+			player = request.player;
+			userID = request.userID;
+			online = request.online;
+		}
+
+		try
+		{
+			task.synchronize(player, userID, online);
+		}
+		catch (RuntimeException exception)
+		{
+			log.severe(SYNCHRONIZATION_EXCEPTION + exception.getMessage());
+		}
+		finally
+		{
+			boolean execute = false;
+			synchronized (this)
+			{
+				completedCount++;
+				request.running = false;
+				if (request.dirty)
+				{
+					request.dirty = false;
+					queue(request);
+					execute = true;
+				}
+				else
+				{
+					requests.remove(request.uuid);
+					request.done.countDown();
+				}
+			}
+			if (execute)
+			{
+				executor.execute(request);
+			}
+		}
+	}
+
+	private class Request implements Runnable, Comparable<Request>
+	{
+		private final UUID uuid;
+		private final CountDownLatch done = new CountDownLatch(1);
+		private Player player;
+		private String userID;
+		private boolean online;
+		private int priority;
+		private long sequence;
+		private long queued;
+		private boolean running;
+		private boolean dirty;
+
+		Request(UUID uuid)
+		{
+			this.uuid = uuid;
+		}
+
+		void update(Player player, String userID, boolean online, int priority)
+		{
+			this.player = player;
+			this.userID = userID;
+			this.online = online;
+			this.priority = priority;
+		}
+
+		@Override
+		public void run()
+		{
+			SynchronizationQueue.this.run(this);
+		}
+
+		@Override
+		public int compareTo(Request other)
+		{
+			if (priority != other.priority)
+			{
+				return priority < other.priority ? -1 : 1;
+			}
+			return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+		}
+	}
+
+	// The queue is unbounded, so requests are only rejected once the queue has
+	// been shut down. They run on the caller then, so that quits while the
+	// plugin is disabling are still synchronized.
+	private static class RejectionHandler implements RejectedExecutionHandler
+	{
+		@Override
+		public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor)
+		{
+			runnable.run();
+		}
+	}
+}
@@ -0,0 +1,107 @@
+package org.communitybridge.synchronization;
+
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.communitybridge.main.Configuration;
+import org.communitybridge.main.Environment;
+import org.communitybridge.synchronization.dao.MoneyDao;
+
+/**
+ * The web application's side of many players' states, read for all of them
+ * with a few chunked queries per table instead of a few queries per player.
+ *
+ * A snapshot stands in for a user's own reads only until one of their
+ * synchronizations finishes. That synchronization may have changed what was
+ * read, so the user is forgotten and read on their own from then on.
+ */
+public class WebSnapshot
+{
+	private static final String EXCEPTION_MESSAGE_LOAD = "Exception during WebSnapshot.load(): ";
+
+	private final Set<String> forgotten = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	private volatile Map<String, String> primaryGroupIDs;
+	private volatile Map<String, List<String>> secondaryGroupIDs;
+	private volatile Map<String, Double> balances;
+
+	/**
+	 * Reads whatever the enabled features need for the users. Anything that
+	 * can't be read is left out, and is then read for each user on their own.
+	 */
+	public void load(Environment environment, Collection<String> userIDs)
+	{
+		if (userIDs.isEmpty())
+		{
+			return;
+		}
+
+		// Writes from earlier synchronizations may still be queued.
+		environment.getSql().flushWrites();
+
+		Configuration configuration = environment.getConfiguration();
+		if (configuration.economyEnabled && configuration.walletEnabled)
+		{
+			try
+			{
+				balances = new MoneyDao().getBalances(environment, userIDs);
+			}
+			catch (SQLException exception)
+			{
+				environment.getLog().severe(EXCEPTION_MESSAGE_LOAD + exception.getMessage());
+			}
+		}
+		if (configuration.groupSynchronizationActive)
+		{
+			if (configuration.webappSecondaryGroupEnabled)
+			{
+				secondaryGroupIDs = environment.getWebApplication().getUsersSecondaryGroupIDs(userIDs);
+			}
+			if (configuration.webappPrimaryGroupEnabled)
+			{
+				primaryGroupIDs = environment.getWebApplication().getUsersPrimaryGroupIDs(userIDs);
+			}
+		}
+	}
+
+	public void forget(String userID)
+	{
+		forgotten.add(userID);
+	}
+
+	/**
+	 * Returns null if the snapshot doesn't have the user's primary group ID.
+	 */
+	public String getPrimaryGroupID(String userID)
+	{
+		return get(primaryGroupIDs, userID);
+	}
+
+	/**
+	 * Returns null if the snapshot doesn't have the user's secondary group IDs.
+	 */
+	public List<String> getSecondaryGroupIDs(String userID)
+	{
+		return get(secondaryGroupIDs, userID);
+	}
+
+	/**
+	 * Returns null if the snapshot doesn't have the user's balance.
+	 */
+	public Double getBalance(String userID)
+	{
+		return get(balances, userID);
+	}
+
+	private <T> T get(Map<String, T> values, String userID)
+	{
+		if (values == null || forgotten.contains(userID))
+		{
+			return null;
+		}
+		return values.get(userID);
+	}
+}
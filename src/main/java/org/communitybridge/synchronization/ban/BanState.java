@@ -2,7 +2,6 @@ package org.communitybridge.synchronization.ban;
 
 import java.io.File;
 import java.io.IOException;
-import java.net.MalformedURLException;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
@@ -12,6 +11,7 @@ import org.bukkit.configuration.file.FileConfiguration;
 import org.bukkit.configuration.file.YamlConfiguration;
 import org.communitybridge.main.BukkitWrapper;
 import org.communitybridge.main.Environment;
+import org.communitybridge.main.RowHandler;
 
 public class BanState
 {
@@ -86,27 +86,12 @@ public class BanState
 	private void collectWebBansTableMethod()
 	{
 		String exceptionBase = "Exception in collectWebBans: ";
-		String query = "SELECT * FROM `" + environment.getConfiguration().banSynchronizationTableName + "`";
+		String query = "/* cb:ban-scan */ SELECT `" + environment.getConfiguration().banSynchronizationUserIDColumn + "` "
+								 + "FROM `" + environment.getConfiguration().banSynchronizationTableName + "`";
 
 		try
 		{
-			ResultSet result = environment.getSql().sqlQuery(query);
-			while(result.next())
-			{
-				bannedUserIDs.add(result.getString(environment.getConfiguration().banSynchronizationUserIDColumn));
-			}
-		}
-		catch (MalformedURLException exception)
-		{
-			environment.getLog().severe(exceptionBase + exception.getMessage());
-		}
-		catch (InstantiationException exception)
-		{
-			environment.getLog().severe(exceptionBase + exception.getMessage());
-		}
-		catch (IllegalAccessException exception)
-		{
-			environment.getLog().severe(exceptionBase + exception.getMessage());
+			bannedUserIDs.addAll(streamUserIDs(query));
 		}
 		catch (SQLException exception)
 		{
@@ -142,29 +127,13 @@ public class BanState
 	private void collectWebBansUserMethod()
 	{
 		String exceptionBase = "Exception in collectWebBansUser: ";
-		String query = "SELECT * FROM `" + environment.getConfiguration().banSynchronizationTableName + "` "
-								 + "WHERE `" + environment.getConfiguration().banSynchronizationBanColumn + "` = '" + environment.getConfiguration().banSynchronizationValueBanned + "'";
+		String query = "/* cb:ban-scan */ SELECT `" + environment.getConfiguration().banSynchronizationUserIDColumn + "` "
+								 + "FROM `" + environment.getConfiguration().banSynchronizationTableName + "` "
+								 + "WHERE `" + environment.getConfiguration().banSynchronizationBanColumn + "` = ?";
 
 		try
 		{
-			ResultSet result = environment.getSql().sqlQuery(query);
-
-			while(result.next())
-			{
-				bannedUserIDs.add(result.getString(environment.getConfiguration().banSynchronizationUserIDColumn));
-			}
-		}
-		catch (MalformedURLException exception)
-		{
-			environment.getLog().severe(exceptionBase + exception.getMessage());
-		}
-		catch (InstantiationException exception)
-		{
-			environment.getLog().severe(exceptionBase + exception.getMessage());
-		}
-		catch (IllegalAccessException exception)
-		{
-			environment.getLog().severe(exceptionBase + exception.getMessage());
+			bannedUserIDs.addAll(streamUserIDs(query, environment.getConfiguration().banSynchronizationValueBanned));
 		}
 		catch (SQLException exception)
 		{
@@ -172,6 +141,27 @@ public class BanState
 		}
 	}
 
+	/**
+	 * Ban tables can be large, so the user IDs are streamed rather than read
+	 * in one go. They are collected separately and only added once the whole
+	 * table has been read, so a scan that fails part way leaves no partial
+	 * list behind.
+	 */
+	private List<String> streamUserIDs(String query, Object... parameters) throws SQLException
+	{
+		final String userIDColumn = environment.getConfiguration().banSynchronizationUserIDColumn;
+		final List<String> userIDs = new ArrayList<String>();
+		environment.getSql().stream(query, new RowHandler()
+		{
+			@Override
+			public void handleRow(ResultSet result) throws SQLException
+			{
+				userIDs.add(result.getString(userIDColumn));
+			}
+		}, parameters);
+		return userIDs;
+	}
+
 	private void convertNamesIfNeeded(FileConfiguration banData)
 	{
 		String version = banData.getString("ban-file-version", "");
@@ -1,14 +1,19 @@
 package org.communitybridge.synchronization.ban;
 
 import java.io.IOException;
-import java.net.MalformedURLException;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.Future;
 import org.bukkit.BanList;
 import org.bukkit.OfflinePlayer;
 import org.bukkit.entity.Player;
 import org.communitybridge.main.BukkitWrapper;
 import org.communitybridge.main.Configuration;
+import org.communitybridge.main.DatabaseExecutor;
 import org.communitybridge.main.Environment;
 import org.communitybridge.synchronization.Synchronizer;
 import org.communitybridge.utility.Log;
@@ -20,6 +25,10 @@ public class BanSynchronizer extends Synchronizer
 
 	private BukkitWrapper bukkit;
 
+	// Web application ban updates don't depend on each other, so they are all
+	// queued on the database executor and waited for together.
+	private Map<Future<Integer>, String> pendingWrites = new LinkedHashMap<Future<Integer>, String>();
+
 	public BanSynchronizer(Environment environment)
 	{
 		super(environment);
@@ -44,6 +53,7 @@ public class BanSynchronizer extends Synchronizer
 		if (isValidDirection(configuration.banSynchronizationDirection, "min"))
 		{
 			synchronizeGameToWeb(previous, current);
+			awaitPendingWrites();
 		}
 
 		current.generate();
@@ -58,6 +68,22 @@ public class BanSynchronizer extends Synchronizer
 		}
 	}
 
+	private void awaitPendingWrites()
+	{
+		for (Map.Entry<Future<Integer>, String> entry : pendingWrites.entrySet())
+		{
+			try
+			{
+				DatabaseExecutor.await(entry.getKey());
+			}
+			catch (SQLException exception)
+			{
+				log.severe(entry.getValue() + exception.getMessage());
+			}
+		}
+		pendingWrites.clear();
+	}
+
 	private void unbanPlayerGame(String uuid)
 	{
 		OfflinePlayer playerOffline = bukkit.getOfflinePlayer(UUID.fromString(uuid));
@@ -105,128 +131,70 @@ public class BanSynchronizer extends Synchronizer
 	private void banPlayerWebUser(String userID)
 	{
 		String errorBase = "Error during banPlayerWebUser: ";
-		String query = "UPDATE `" + configuration.banSynchronizationTableName + "` "
-						     + "SET `" + configuration.banSynchronizationBanColumn + "` = '" + configuration.banSynchronizationValueBanned + "' "
-								 + "WHERE `" + configuration.banSynchronizationUserIDColumn + "` = '" + userID + "'";
+		String query = "/* cb:ban-user-update */ UPDATE `" + configuration.banSynchronizationTableName + "` "
+						     + "SET `" + configuration.banSynchronizationBanColumn + "` = ? "
+								 + "WHERE `" + configuration.banSynchronizationUserIDColumn + "` = ?";
 
-		try
-		{
-			environment.getSql().updateQuery(query);
-		}
-		catch (MalformedURLException exception)
-		{
-			log.severe(errorBase + exception.getMessage());
-		}
-		catch (InstantiationException exception)
-		{
-			log.severe(errorBase + exception.getMessage());
-		}
-		catch (IllegalAccessException exception)
-		{
-			log.severe(errorBase + exception.getMessage());
-		}
+		pendingWrites.put(environment.getSql().updateAsync(query, configuration.banSynchronizationValueBanned, userID), errorBase);
 	}
 
 	private void unbanPlayerWebUser(String userID)
 	{
 		String errorBase = "Error during unbanPlayerWebUser: ";
-		String query = "UPDATE `" + configuration.banSynchronizationTableName + "` "
-						     + "SET `" + configuration.banSynchronizationBanColumn + "` = '" + configuration.banSynchronizationValueNotBanned + "' "
-								 + "WHERE `" + configuration.banSynchronizationUserIDColumn + "` = '" + userID + "'";
+		String query = "/* cb:ban-user-update */ UPDATE `" + configuration.banSynchronizationTableName + "` "
+						     + "SET `" + configuration.banSynchronizationBanColumn + "` = ? "
+								 + "WHERE `" + configuration.banSynchronizationUserIDColumn + "` = ?";
 
-		try
-		{
-			environment.getSql().updateQuery(query);
-		}
-		catch (MalformedURLException exception)
-		{
-			log.severe(errorBase + exception.getMessage());
-		}
-		catch (InstantiationException exception)
-		{
-			log.severe(errorBase + exception.getMessage());
-		}
-		catch (IllegalAccessException exception)
-		{
-			log.severe(errorBase + exception.getMessage());
-		}
+		pendingWrites.put(environment.getSql().updateAsync(query, configuration.banSynchronizationValueNotBanned, userID), errorBase);
 	}
 
 	private void banPlayerWebTable(String userID)
 	{
 		String errorBase = "Error during banPlayerWebTable: ";
 		String columns = "`" + configuration.banSynchronizationUserIDColumn + "`, ";
-		String values = userID + ", ";
+		String values = "?, ";
+		List<Object> parameters = new ArrayList<Object>();
+		parameters.add(userID);
 
 		if (!configuration.banSynchronizationReasonColumn.isEmpty())
 		{
 			columns = columns + "`" + configuration.banSynchronizationReasonColumn + "`, ";
-			values = values + "'banned via minecraft server', ";
+			values = values + "?, ";
+			parameters.add("banned via minecraft server");
 		}
 		if (!configuration.banSynchronizationStartTimeColumn.isEmpty())
 		{
 			columns = columns + "`" + configuration.banSynchronizationStartTimeColumn + "`, ";
-			values = values + (System.currentTimeMillis() / 1000) + ", ";
+			values = values + "?, ";
+			parameters.add(System.currentTimeMillis() / 1000);
 		}
 		if (!configuration.banSynchronizationEndTimeColumn.isEmpty())
 		{
 			columns = columns + "`" + configuration.banSynchronizationEndTimeColumn + "`, ";
-			values = values + "2147483647, ";
+			values = values + "?, ";
+			parameters.add(2147483647);
 		}
 		if (!configuration.banSynchronizationBanGroupIDColumn.isEmpty() && !configuration.banSynchronizationBanGroupID.isEmpty())
 		{
 			columns = columns + "`" + configuration.banSynchronizationBanGroupIDColumn + "`, ";
-			values = values + "'" + configuration.banSynchronizationBanGroupID + "', ";
+			values = values + "?, ";
+			parameters.add(configuration.banSynchronizationBanGroupID);
 		}
 
 		columns = columns.substring(0, columns.length() - 2);
 		values = values.substring(0, values.length() - 2);
-		String query = "INSERT INTO `" + configuration.banSynchronizationTableName + "` (" + columns + ") " + "VALUES (" + values + ")";
+		String query = "/* cb:ban-insert */ INSERT INTO `" + configuration.banSynchronizationTableName + "` (" + columns + ") " + "VALUES (" + values + ")";
 
-		try
-		{
-			environment.getSql().insertQuery(query);
-		}
-		catch (MalformedURLException exception)
-		{
-			log.severe(errorBase + exception.getMessage());
-		}
-		catch (InstantiationException exception)
-		{
-			log.severe(errorBase + exception.getMessage());
-		}
-		catch (IllegalAccessException exception)
-		{
-			log.severe(errorBase + exception.getMessage());
-		}
-		catch (SQLException exception)
-		{
-			log.severe(errorBase + exception.getMessage());
-		}
+		pendingWrites.put(environment.getSql().updateAsync(query, parameters.toArray()), errorBase);
 	}
 
 	private void unbanPlayerWebTable(String userID)
 	{
 		String errorBase = "Error during unbanPlayerWebTable: ";
-		String query = "DELETE FROM `" + configuration.banSynchronizationTableName
-							+ "`  WHERE `" + configuration.banSynchronizationUserIDColumn	+ "` = '" + userID + "'";
+		String query = "/* cb:ban-delete */ DELETE FROM `" + configuration.banSynchronizationTableName
+							+ "`  WHERE `" + configuration.banSynchronizationUserIDColumn	+ "` = ?";
 
-		try
-		{
-			environment.getSql().deleteQuery(query);
-		}
-		catch (MalformedURLException exception)
-		{
-			log.severe(errorBase + exception.getMessage());
-		}
-		catch (InstantiationException exception)
-		{
-			log.severe(errorBase + exception.getMessage());
-		}
-		catch (IllegalAccessException exception)
-		{
-			log.severe(errorBase + exception.getMessage());
-		}
+		pendingWrites.put(environment.getSql().updateAsync(query, userID), errorBase);
 	}
 
 	private void synchronizeWebToGame(BanState previous, BanState current)
@@ -1,9 +1,10 @@
 package org.communitybridge.synchronization.dao;
 
-import java.net.MalformedURLException;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 
 import org.communitybridge.main.Environment;
@@ -12,73 +13,83 @@ public class JunctionWebGroupDao extends WebGroupDao
 {
 	public static final String EXCEPTION_MESSAGE_GETSECONDARY = "Error during WebApplication.getUserGroupIDsJunction(): ";
 
+	protected String addQuery;
+	protected String removeQuery;
+	protected String secondaryGroupIDsQuery;
+	protected String secondaryGroupUserIDsQuery;
+	private List<Object> additionalValues = new ArrayList<Object>();
+
+	@SuppressWarnings("rawtypes")
 	public JunctionWebGroupDao(Environment environment)
 	{
 		super(environment);
-	}
 
-	@SuppressWarnings("rawtypes")
-	@Override
-	public void addUserToGroup(String userID, String groupID, int currentGroupCount) throws IllegalAccessException, InstantiationException, MalformedURLException, SQLException
-	{
 		String columns = "(`" + configuration.webappSecondaryGroupUserIDColumn + "`, `" + configuration.webappSecondaryGroupGroupIDColumn;
-		String values = "VALUES ('" + userID + "', '" + groupID;
+		String values = "VALUES (?, ?";
 
 		for (Entry entry : configuration.webappSecondaryAdditionalColumns.entrySet())
 		{
 			columns = columns + "`, `" + entry.getKey();
-			values = values + "', '" + entry.getValue();
+			values = values + ", ?";
+			additionalValues.add(String.valueOf(entry.getValue()));
 		}
 
-		columns = columns + "`) ";
-		values = values + "')";
+		addQuery = "/* cb:secondary-group-add */ INSERT INTO `" + configuration.webappSecondaryGroupTable + "` " + columns + "`) " + values + ")";
+		removeQuery = "/* cb:secondary-group-remove */ DELETE FROM `" + configuration.webappSecondaryGroupTable + "` "
+								+ "WHERE `" + configuration.webappSecondaryGroupUserIDColumn + "` = ? "
+								+ "AND `" + configuration.webappSecondaryGroupGroupIDColumn + "` = ?";
+		secondaryGroupIDsQuery = "/* cb:secondary-group-read */ SELECT `" + configuration.webappSecondaryGroupGroupIDColumn + "` "
+													 + "FROM `" + configuration.webappSecondaryGroupTable + "` "
+													 + "WHERE `" + configuration.webappSecondaryGroupUserIDColumn + "` = ?";
+		secondaryGroupUserIDsQuery = "/* cb:secondary-group-members */ SELECT `" + configuration.webappSecondaryGroupUserIDColumn + "` "
+															 + "FROM `" + configuration.webappSecondaryGroupTable + "` "
+															 + "WHERE `" + configuration.webappSecondaryGroupGroupIDColumn + "` = ?";
+	}
 
-		String query = "INSERT INTO `" + configuration.webappSecondaryGroupTable + "` " + columns + values;
-		sql.insertQuery(query);
+	@Override
+	public void addUserToGroup(String userID, String groupID, int currentGroupCount) throws SQLException
+	{
+		List<Object> parameters = new ArrayList<Object>();
+		parameters.add(userID);
+		parameters.add(groupID);
+		parameters.addAll(additionalValues);
+		sql.write(userID, "secondary-add:" + userID + ":" + groupID, addQuery, parameters.toArray());
 	}
 
 	@Override
-	public void removeUserFromGroup(String userID, String groupID) throws IllegalAccessException, InstantiationException, MalformedURLException, SQLException
+	public void removeUserFromGroup(String userID, String groupID) throws SQLException
 	{
-		String query = "DELETE FROM `" + configuration.webappSecondaryGroupTable + "` "
-								 + "WHERE `" + configuration.webappSecondaryGroupUserIDColumn + "` = '" + userID + "' "
-								 + "AND `" + configuration.webappSecondaryGroupGroupIDColumn + "` = '" + groupID + "' ";
-		sql.deleteQuery(query);
+		sql.write(userID, "secondary-remove:" + userID + ":" + groupID, removeQuery, userID, groupID);
 	}
 
 	@Override
-	public List<String> getSecondaryGroupIDs(String userID) throws MalformedURLException, InstantiationException, IllegalAccessException, SQLException
+	public List<String> getSecondaryGroupIDs(String userID) throws SQLException
 	{
 		List<String> groupIDs = new ArrayList<String>();
-		String query = "SELECT `" + configuration.webappSecondaryGroupGroupIDColumn + "` "
-					+ "FROM `" + configuration.webappSecondaryGroupTable + "` "
-					+ "WHERE `" + configuration.webappSecondaryGroupUserIDColumn + "` = '" + userID + "' ";
 
-		result = sql.sqlQuery(query);
-
-		while (result.next())
+		sql.flushWrites(userID);
+		for (String groupID : sql.queryPrimary(secondaryGroupIDsQuery, secondaryGroupIDsMapper, userID))
 		{
-			addCleanID(result.getString(configuration.webappSecondaryGroupGroupIDColumn), groupIDs);
+			addCleanID(groupID, groupIDs);
 		}
 		return groupIDs;
 	}
 
 	@Override
-	public List<String> getSecondaryGroupUserIDs(String groupID) throws MalformedURLException, InstantiationException, IllegalAccessException, SQLException
+	public Map<String, List<String>> getSecondaryGroupIDs(Collection<String> userIDs) throws SQLException
 	{
-		List<String> userIDs = new ArrayList<String>();
-
-		String query =
-						"SELECT `" + configuration.webappSecondaryGroupUserIDColumn + "` "
-					+ "FROM `" + configuration.webappSecondaryGroupTable + "` "
-					+ "WHERE `" + configuration.webappSecondaryGroupGroupIDColumn + "` = '" + groupID + "' ";
+		return readSecondaryGroupIDs(userIDs, false, false);
+	}
 
-			result = sql.sqlQuery(query);
+	@Override
+	public List<String> getSecondaryGroupUserIDs(String groupID) throws SQLException
+	{
+		List<String> userIDs = new ArrayList<String>();
 
-			while (result.next())
-			{
-				addCleanID(result.getString(configuration.webappSecondaryGroupUserIDColumn), userIDs);
-			}
-			return userIDs;
+		for (String userID : sql.query(secondaryGroupUserIDsQuery, secondaryUserIDMapper, groupID))
+		{
+			addCleanID(userID, userIDs);
+		}
+		return userIDs;
 	}
 }
@@ -1,62 +1,83 @@
 package org.communitybridge.synchronization.dao;
 
-import java.net.MalformedURLException;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import org.communitybridge.main.Environment;
+import org.communitybridge.main.RowHandler;
 import org.communitybridge.utility.StringUtilities;
 
 public class KeyValueWebGroupDao extends WebGroupDao
 {
 	public static final String EXCEPTION_MESSAGE_GETSECONDARY = "Exception during KeyValueWebGroupDao.getSecondaryGroups(): ";
 
+	protected String secondaryGroupReadQuery;
+	protected String groupIDsUpdateQuery;
+	protected String groupIDInsertQuery;
+	protected String secondaryGroupUserIDsReadQuery;
+
 	public KeyValueWebGroupDao(Environment environment)
 	{
 		super(environment);
+
+		secondaryGroupReadQuery = "/* cb:secondary-group-read */ SELECT `" + configuration.webappSecondaryGroupGroupIDColumn + "` "
+														+ "FROM `" + configuration.webappSecondaryGroupTable + "` "
+														+ "WHERE `" + configuration.webappSecondaryGroupUserIDColumn + "` = ? "
+														+ "AND `" + configuration.webappSecondaryGroupKeyColumn + "` = ?";
+		groupIDsUpdateQuery = "/* cb:secondary-group-update */ UPDATE `" + configuration.webappSecondaryGroupTable + "` "
+												+ "SET `" + configuration.webappSecondaryGroupGroupIDColumn + "` = ? "
+												+ "WHERE `" + configuration.webappSecondaryGroupUserIDColumn + "` = ? "
+												+ "AND `" + configuration.webappSecondaryGroupKeyColumn + "` = ?";
+		groupIDInsertQuery = "/* cb:secondary-group-insert */ INSERT INTO `" + configuration.webappSecondaryGroupTable + "` "
+											 + "(`"
+											 + configuration.webappSecondaryGroupUserIDColumn + "`, `"
+											 + configuration.webappSecondaryGroupKeyColumn + "`, `"
+											 + configuration.webappSecondaryGroupGroupIDColumn + "`) "
+											 + "VALUES (?, ?, ?)";
+		secondaryGroupUserIDsReadQuery = "/* cb:secondary-group-members */ SELECT `" + configuration.webappSecondaryGroupUserIDColumn + "`, `" + configuration.webappSecondaryGroupGroupIDColumn + "` "
+																	 + "FROM `" + configuration.webappSecondaryGroupTable + "` "
+																	 + "WHERE `" + configuration.webappSecondaryGroupKeyColumn + "` = ?";
 	}
 
 	@Override
-	public void addUserToGroup(String userID, String groupID, int currentGroupCount) throws IllegalAccessException, InstantiationException, MalformedURLException, SQLException
+	public void addUserToGroup(String userID, String groupID, int currentGroupCount) throws SQLException
 	{
-		result = sql.sqlQuery(getSecondaryGroupReadQuery(userID));
+		sql.flushWrites(userID);
+		String groupIDString = sql.querySinglePrimary(secondaryGroupReadQuery, secondaryGroupIDsMapper, userID, configuration.webappSecondaryGroupKeyName);
 
-		if (result.next())
+		if (groupIDString != null)
 		{
-			List<String> groupIDs = getGroupIDsFromResult();
+			List<String> groupIDs = splitGroupIDs(groupIDString);
 			groupIDs.add(groupID);
-			sql.updateQuery(getGroupIDsUpdateQuery(groupIDs, userID));
+			updateGroupIDs(groupIDs, userID);
 		}
 		else
 		{
-			sql.insertQuery(getGroupIDInsertQuery(userID, groupID));
+			sql.write(userID, null, groupIDInsertQuery, userID, configuration.webappSecondaryGroupKeyName, groupID);
 		}
 	}
 
 	@Override
-	public void removeUserFromGroup(String userID, String groupID) throws IllegalAccessException, InstantiationException, MalformedURLException, SQLException
+	public void removeUserFromGroup(String userID, String groupID) throws SQLException
 	{
-		result = sql.sqlQuery(getSecondaryGroupReadQuery(userID));
+		sql.flushWrites(userID);
+		String groupIDString = sql.querySinglePrimary(secondaryGroupReadQuery, secondaryGroupIDsMapper, userID, configuration.webappSecondaryGroupKeyName);
 
-		if (result.next())
+		if (groupIDString != null)
 		{
-			List<String> groupIDs  = getGroupIDsFromResult();
+			List<String> groupIDs  = splitGroupIDs(groupIDString);
 			groupIDs.remove(groupID);
-			sql.updateQuery(getGroupIDsUpdateQuery(groupIDs, userID));
+			updateGroupIDs(groupIDs, userID);
 		}
 	}
 
-	protected List<String> getGroupIDsFromResult() throws SQLException
+	protected List<String> splitGroupIDs(String groupIDString)
 	{
 		List<String> groupIDs = new ArrayList<String>();
-		String groupIDString = result.getString(configuration.webappSecondaryGroupGroupIDColumn);
-
-		if (groupIDString == null)
-		{
-			return groupIDs;
-		}
-
 		groupIDString = groupIDString.trim();
 
 		if (groupIDString.isEmpty())
@@ -68,72 +89,50 @@ public class KeyValueWebGroupDao extends WebGroupDao
 		return groupIDs;
 	}
 
-	protected String getSecondaryGroupReadQuery(String userID)
-	{
-		return "SELECT `" + configuration.webappSecondaryGroupGroupIDColumn + "` "
-				 + "FROM `" + configuration.webappSecondaryGroupTable + "` "
-				 + "WHERE `" + configuration.webappSecondaryGroupUserIDColumn + "` = '" + userID + "' "
-				 + "AND `" + configuration.webappSecondaryGroupKeyColumn + "` = '" + configuration.webappSecondaryGroupKeyName + "' ";
-	}
-
-	protected String getGroupIDsUpdateQuery(List<String> groupIDs, String userID)
+	private void updateGroupIDs(List<String> groupIDs, String userID) throws SQLException
 	{
 		String groupIDString = StringUtilities.joinStrings(groupIDs, configuration.webappSecondaryGroupGroupIDDelimiter);
-		return "UPDATE `" + configuration.webappSecondaryGroupTable + "` "
-				 + "SET `" + configuration.webappSecondaryGroupGroupIDColumn + "` = '" + groupIDString + "' "
-				 + "WHERE `" + configuration.webappSecondaryGroupUserIDColumn + "` = '" + userID + "' "
-				 + "AND `" + configuration.webappSecondaryGroupKeyColumn + "` = '" + configuration.webappSecondaryGroupKeyName + "'";
-	}
-
-	protected String getGroupIDInsertQuery(String userID, String groupID)
-	{
-		String query = "INSERT INTO `" + configuration.webappSecondaryGroupTable + "` "
-								 + "(`"
-								 + configuration.webappSecondaryGroupUserIDColumn + "`, `"
-								 + configuration.webappSecondaryGroupKeyColumn + "`, `"
-								 + configuration.webappSecondaryGroupGroupIDColumn + "`) "
-								 + "VALUES ('"
-								 + userID + "', '"
-								 + configuration.webappSecondaryGroupKeyName + "', '"
-								 + groupID + "')";
-		return query;
+		sql.write(userID, "secondary-ids:" + userID, groupIDsUpdateQuery, groupIDString, userID, configuration.webappSecondaryGroupKeyName);
 	}
 
 	@Override
-	public List<String> getSecondaryGroupIDs(String userID) throws MalformedURLException, InstantiationException, IllegalAccessException, SQLException
+	public List<String> getSecondaryGroupIDs(String userID) throws SQLException
 	{
-		List<String> groupIDs = new ArrayList<String>();
-
-		result = sql.sqlQuery(getSecondaryGroupReadQuery(userID));
+		sql.flushWrites(userID);
+		String groupIDString = sql.querySinglePrimary(secondaryGroupReadQuery, secondaryGroupIDsMapper, userID, configuration.webappSecondaryGroupKeyName);
 
-		if (result.next())
+		if (groupIDString != null)
 		{
-			return convertDelimitedIDString(result.getString(configuration.webappSecondaryGroupGroupIDColumn));
+			return convertDelimitedIDString(groupIDString);
 		}
-		return groupIDs;
+		return new ArrayList<String>();
+	}
+
+	@Override
+	public Map<String, List<String>> getSecondaryGroupIDs(Collection<String> userIDs) throws SQLException
+	{
+		return readSecondaryGroupIDs(userIDs, true, true);
 	}
 
 	@Override
-	public List<String> getSecondaryGroupUserIDs(String groupID) throws MalformedURLException, InstantiationException, IllegalAccessException, SQLException
+	public List<String> getSecondaryGroupUserIDs(final String groupID) throws SQLException
 	{
-		List<String> userIDs = new ArrayList<String>();
-		result = sql.sqlQuery(getSecondaryGroupUserIDsReadQuery());
-		while(result.next())
+		// Every user's group list has to be read, so the rows are streamed and
+		// only the matching user IDs are kept.
+		final List<String> userIDs = new ArrayList<String>();
+		sql.stream(secondaryGroupUserIDsReadQuery, new RowHandler()
 		{
-			List<String> groupIDs = convertDelimitedIDString(result.getString(configuration.webappSecondaryGroupGroupIDColumn));
-			if (groupIDs.contains(groupID))
+			@Override
+			public void handleRow(ResultSet result) throws SQLException
 			{
-				userIDs.add(result.getString(configuration.webappSecondaryGroupUserIDColumn));
+				List<String> groupIDs = convertDelimitedIDString(result.getString(configuration.webappSecondaryGroupGroupIDColumn));
+				if (groupIDs.contains(groupID))
+				{
+					userIDs.add(result.getString(configuration.webappSecondaryGroupUserIDColumn));
+				}
 			}
-		}
+		}, configuration.webappSecondaryGroupKeyName);
 
 		return userIDs;
 	}
-
-	protected String getSecondaryGroupUserIDsReadQuery()
-	{
-		return "SELECT `" + configuration.webappSecondaryGroupUserIDColumn + "`, `" + configuration.webappSecondaryGroupGroupIDColumn + "` "
-				 + "FROM `" + configuration.webappSecondaryGroupTable + "` "
-				 + "WHERE `" + configuration.webappSecondaryGroupKeyColumn + "` = '" + configuration.webappSecondaryGroupKeyName + "' ";
-	}
 }
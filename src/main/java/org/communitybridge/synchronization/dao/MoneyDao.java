@@ -1,63 +1,164 @@
 package org.communitybridge.synchronization.dao;
 
-import java.net.MalformedURLException;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import org.communitybridge.main.Configuration;
 import org.communitybridge.main.Environment;
+import org.communitybridge.main.RowMapper;
+import org.communitybridge.utility.UserIDChunks;
 
 public class MoneyDao
 {
-	public Double getBalance(Environment environment, String userId) throws IllegalAccessException, InstantiationException, MalformedURLException, SQLException
+	// MoneyDao instances are created along with the synchronizers, which are
+	// rebuilt on every configuration load, so the queries are built on first
+	// use and kept. Players are synchronized on several threads at once, so
+	// the queries are built under the lock and balanceQuery, which every call
+	// checks first, is assigned last.
+	private volatile String balanceQuery;
+	private String balanceUpdateQuery;
+	private String balanceColumn;
+	private RowMapper<Double> balanceMapper = new RowMapper<Double>()
+	{
+		@Override
+		public Double mapRow(ResultSet result) throws SQLException
+		{
+			return result.getDouble(balanceColumn);
+		}
+	};
+
+	public Double getBalance(Environment environment, String userId) throws SQLException
 	{
-		String query;
-		String column;
-		ResultSet result;
 		Configuration configuration = environment.getConfiguration();
+		buildQueries(configuration);
+
+		// The balance read here is compared against the last one we wrote, so
+		// it has to come from the primary.
+		Double balance;
 		if (configuration.walletUsesKey)
 		{
-			query = "SELECT `" + configuration.walletValueColumn + "` "
-						+ "FROM `" + configuration.walletTableName + "` "
-						+ "WHERE `" + configuration.walletUserIDColumn + "` = '" + userId + "' "
-						+ "AND " + configuration.walletKeyColumn + "` = '" + configuration.walletColumnOrKey + "'";
-			result = environment.getSql().sqlQuery(query);
-			column = configuration.walletValueColumn;
+			balance = environment.getSql().querySinglePrimary(balanceQuery, balanceMapper, userId, configuration.walletColumnOrKey);
 		}
 		else
 		{
-			query = "SELECT `" + configuration.walletColumnOrKey + "` "
-						+ "FROM `" + configuration.walletTableName + "` "
-						+ "WHERE `" + configuration.walletUserIDColumn + "` = '" + userId + "'";
-			result = environment.getSql().sqlQuery(query);
-			column = configuration.walletColumnOrKey;
+			balance = environment.getSql().querySinglePrimary(balanceQuery, balanceMapper, userId);
 		}
-		if (result.next())
+
+		if (balance == null)
 		{
-			return result.getDouble(column);
+			return new Double(0.0);
 		}
-		else
+		return balance;
+	}
+
+	/**
+	 * Reads the balances of several users at once, with one query per chunk of
+	 * up to 100 users. Every user asked about is in the map, with 0.0 if they
+	 * have no balance.
+	 */
+	public Map<String, Double> getBalances(Environment environment, Collection<String> userIds) throws SQLException
+	{
+		final Configuration configuration = environment.getConfiguration();
+		buildQueries(configuration);
+
+		Map<String, Double> balances = new HashMap<String, Double>();
+		for (String userId : userIds)
 		{
-			return new Double(0.0);
+			balances.put(userId, new Double(0.0));
 		}
+
+		RowMapper<Object[]> rowMapper = new RowMapper<Object[]>()
+		{
+			@Override
+			public Object[] mapRow(ResultSet result) throws SQLException
+			{
+				return new Object[] { result.getString(configuration.walletUserIDColumn), result.getDouble(balanceColumn) };
+			}
+		};
+		Set<String> read = new HashSet<String>();
+		for (List<String> chunk : UserIDChunks.split(userIds))
+		{
+			String query = "/* cb:wallets-read */ SELECT `" + configuration.walletUserIDColumn + "`, `" + balanceColumn + "` "
+									 + "FROM `" + configuration.walletTableName + "` "
+									 + "WHERE `" + configuration.walletUserIDColumn + "` IN (" + UserIDChunks.placeholders(chunk.size()) + ")";
+			List<Object> parameters = new ArrayList<Object>(chunk);
+			if (configuration.walletUsesKey)
+			{
+				query = query + " AND `" + configuration.walletKeyColumn + "` = ?";
+				parameters.add(configuration.walletColumnOrKey);
+			}
+			// getBalance takes a user's first row, and so does this.
+			for (Object[] row : environment.getSql().queryPrimary(query, rowMapper, parameters.toArray()))
+			{
+				String userId = (String) row[0];
+				if (balances.containsKey(userId) && read.add(userId))
+				{
+					balances.put(userId, (Double) row[1]);
+				}
+			}
+		}
+		return balances;
 	}
 
-	public void setBalance(Environment environment, String userId, Double balance) throws IllegalAccessException, InstantiationException, MalformedURLException
+	public void setBalance(Environment environment, String userId, Double balance) throws SQLException
 	{
-		String query;
 		Configuration configuration = environment.getConfiguration();
+		buildQueries(configuration);
+
 		if (configuration.walletUsesKey)
 		{
-			query = "UPDATE `" + configuration.walletTableName + "` "
-			      + "SET `" + configuration.walletValueColumn + "` = '" + balance.toString() + "' "
-			  		+ "WHERE `" + configuration.walletUserIDColumn + "` = '" + userId + "'"
-						+ "AND " + configuration.walletKeyColumn + "` = '" + configuration.walletColumnOrKey + "'";
+			environment.getSql().write(userId, "wallet:" + userId, balanceUpdateQuery, balance.toString(), userId, configuration.walletColumnOrKey);
 		}
 		else
 		{
-			query = "UPDATE `" + configuration.walletTableName + "` "
-						+ "SET `" + configuration.walletColumnOrKey + "` = '" + balance.toString() + "' "
-						+ "WHERE `" + configuration.walletUserIDColumn + "` = '" + userId + "'";
+			environment.getSql().write(userId, "wallet:" + userId, balanceUpdateQuery, balance.toString(), userId);
+		}
+	}
+
+	private void buildQueries(Configuration configuration)
+	{
+		if (balanceQuery != null)
+		{
+			return;
+		}
+
+		synchronized (this)
+		{
+			if (balanceQuery != null)
+			{
+				return;
+			}
+
+			String balanceQuery;
+			if (configuration.walletUsesKey)
+			{
+				balanceColumn = configuration.walletValueColumn;
+				balanceQuery = "/* cb:wallet-read */ SELECT `" + configuration.walletValueColumn + "` "
+										 + "FROM `" + configuration.walletTableName + "` "
+										 + "WHERE `" + configuration.walletUserIDColumn + "` = ? "
+										 + "AND `" + configuration.walletKeyColumn + "` = ?";
+				balanceUpdateQuery = "/* cb:wallet-update */ UPDATE `" + configuration.walletTableName + "` "
+													 + "SET `" + configuration.walletValueColumn + "` = ? "
+													 + "WHERE `" + configuration.walletUserIDColumn + "` = ? "
+													 + "AND `" + configuration.walletKeyColumn + "` = ?";
+			}
+			else
+			{
+				balanceColumn = configuration.walletColumnOrKey;
+				balanceQuery = "/* cb:wallet-read */ SELECT `" + configuration.walletColumnOrKey + "` "
+										 + "FROM `" + configuration.walletTableName + "` "
+										 + "WHERE `" + configuration.walletUserIDColumn + "` = ?";
+				balanceUpdateQuery = "/* cb:wallet-update */ UPDATE `" + configuration.walletTableName + "` "
+													 + "SET `" + configuration.walletColumnOrKey + "` = ? "
+													 + "WHERE `" + configuration.walletUserIDColumn + "` = ?";
+			}
+			this.balanceQuery = balanceQuery;
 		}
-		environment.getSql().updateQuery(query);
 	}
 }
@@ -1,75 +1,82 @@
 package org.communitybridge.synchronization.dao;
 
-import java.net.MalformedURLException;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import org.communitybridge.main.Environment;
 
 public class MultipleKeyValueWebGroupDao extends WebGroupDao
 {
 	public static final String EXCEPTION_MESSAGE_GETSECONDARY = "Exception during MultipleKeyValueWebGroupDao.getSecondaryGroups(): ";
 
+	protected String addQuery;
+	protected String removeQuery;
+	protected String secondaryGroupIDsQuery;
+	protected String secondaryGroupUserIDsQuery;
+
 	public MultipleKeyValueWebGroupDao(Environment environment)
 	{
 		super(environment);
+
+		addQuery = "/* cb:secondary-group-add */ INSERT INTO `" + configuration.webappSecondaryGroupTable + "` "
+						 + "(`" + configuration.webappSecondaryGroupUserIDColumn + "`, `" + configuration.webappSecondaryGroupKeyColumn + "`, `" + configuration.webappSecondaryGroupGroupIDColumn + "`) "
+						 + "VALUES (?, ?, ?)";
+		removeQuery = "/* cb:secondary-group-remove */ DELETE FROM `" + configuration.webappSecondaryGroupTable + "` "
+								+ "WHERE `" + configuration.webappSecondaryGroupUserIDColumn + "` = ? "
+								+ "AND `" + configuration.webappSecondaryGroupKeyColumn + "` = ? "
+								+ "AND `" + configuration.webappSecondaryGroupGroupIDColumn + "` = ?";
+		secondaryGroupIDsQuery = "/* cb:secondary-group-read */ SELECT `" + configuration.webappSecondaryGroupGroupIDColumn + "` "
+													 + "FROM `" + configuration.webappSecondaryGroupTable + "` "
+													 + "WHERE `" + configuration.webappSecondaryGroupUserIDColumn + "` = ? "
+													 + "AND `" + configuration.webappSecondaryGroupKeyColumn + "` = ?";
+		secondaryGroupUserIDsQuery = "/* cb:secondary-group-members */ SELECT `" + configuration.webappSecondaryGroupUserIDColumn + "` "
+															 + "FROM `" + configuration.webappSecondaryGroupTable + "` "
+															 + "WHERE `" + configuration.webappSecondaryGroupGroupIDColumn + "` = ? "
+															 + "AND `" + configuration.webappSecondaryGroupKeyColumn + "` = ?";
 	}
 
 	@Override
-	public void addUserToGroup(String userID, String groupID, int currentGroupCount) throws IllegalAccessException, InstantiationException, MalformedURLException, SQLException
+	public void addUserToGroup(String userID, String groupID, int currentGroupCount) throws SQLException
 	{
-		String query = "INSERT INTO `" + configuration.webappSecondaryGroupTable + "` "
-								 + "(`" + configuration.webappSecondaryGroupUserIDColumn + "`, `" + configuration.webappSecondaryGroupKeyColumn + "`, `" + configuration.webappSecondaryGroupGroupIDColumn + "`) "
-								 + "VALUES ('" + userID + "', '" + configuration.webappSecondaryGroupKeyName + "', '" + groupID + "')";
-		sql.insertQuery(query);
+		sql.write(userID, "secondary-add:" + userID + ":" + groupID, addQuery, userID, configuration.webappSecondaryGroupKeyName, groupID);
 	}
 
 	@Override
-	public void removeUserFromGroup(String userID, String groupID) throws IllegalAccessException, InstantiationException, MalformedURLException, SQLException
+	public void removeUserFromGroup(String userID, String groupID) throws SQLException
 	{
-		String query = "DELETE FROM `" + configuration.webappSecondaryGroupTable + "` "
-								 + "WHERE `" + configuration.webappSecondaryGroupKeyColumn + "` = '" + configuration.webappSecondaryGroupKeyName + "' "
-								 + "AND `" + configuration.webappSecondaryGroupGroupIDColumn + "` = '" + groupID + "' ";
-		sql.deleteQuery(query);
+		sql.write(userID, "secondary-remove:" + userID + ":" + groupID, removeQuery, userID, configuration.webappSecondaryGroupKeyName, groupID);
 	}
 
 	@Override
-	public List<String> getSecondaryGroupIDs(String userID) throws MalformedURLException, InstantiationException, IllegalAccessException, SQLException
+	public List<String> getSecondaryGroupIDs(String userID) throws SQLException
 	{
 		List<String> groupIDs = new ArrayList<String>();
 
-		String query =
-						"SELECT `" + configuration.webappSecondaryGroupGroupIDColumn + "` "
-					+ "FROM `" + configuration.webappSecondaryGroupTable + "` "
-					+ "WHERE `" + configuration.webappSecondaryGroupUserIDColumn + "` = '" + userID + "' "
-					+ "AND `" + configuration.webappSecondaryGroupKeyColumn + "` = '" + configuration.webappSecondaryGroupKeyName + "' ";
-
-			result = sql.sqlQuery(query);
+		sql.flushWrites(userID);
+		for (String groupID : sql.queryPrimary(secondaryGroupIDsQuery, secondaryGroupIDsMapper, userID, configuration.webappSecondaryGroupKeyName))
+		{
+			addCleanID(groupID, groupIDs);
+		}
+		return groupIDs;
+	}
 
-			while (result.next())
-			{
-				addCleanID(result.getString(configuration.webappSecondaryGroupGroupIDColumn), groupIDs);
-			}
-			return groupIDs;
+	@Override
+	public Map<String, List<String>> getSecondaryGroupIDs(Collection<String> userIDs) throws SQLException
+	{
+		return readSecondaryGroupIDs(userIDs, true, false);
 	}
 
 	@Override
-	public List<String> getSecondaryGroupUserIDs(String groupID) throws MalformedURLException, InstantiationException, IllegalAccessException, SQLException
+	public List<String> getSecondaryGroupUserIDs(String groupID) throws SQLException
 	{
 		List<String> userIDs = new ArrayList<String>();
 
-		String query =
-						"SELECT `" + configuration.webappSecondaryGroupUserIDColumn + "` "
-					+ "FROM `" + configuration.webappSecondaryGroupTable + "` "
-					+ "WHERE `" + configuration.webappSecondaryGroupGroupIDColumn + "` = '" + groupID + "' "
-					+ "AND `" + configuration.webappSecondaryGroupKeyColumn + "` = '" + configuration.webappSecondaryGroupKeyName + "' ";
-
-			result = sql.sqlQuery(query);
-
-			while (result.next())
-			{
-				addCleanID(result.getString(configuration.webappSecondaryGroupUserIDColumn), userIDs);
-			}
-			return userIDs;
+		for (String userID : sql.query(secondaryGroupUserIDsQuery, secondaryUserIDMapper, groupID, configuration.webappSecondaryGroupKeyName))
+		{
+			addCleanID(userID, userIDs);
+		}
+		return userIDs;
 	}
 }
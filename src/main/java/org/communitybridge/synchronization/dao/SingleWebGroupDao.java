@@ -1,12 +1,16 @@
 package org.communitybridge.synchronization.dao;
 
-import java.net.MalformedURLException;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.communitybridge.main.Environment;
+import org.communitybridge.main.RowHandler;
 import org.communitybridge.utility.StringUtilities;
 
 public class SingleWebGroupDao extends WebGroupDao
@@ -14,98 +18,122 @@ public class SingleWebGroupDao extends WebGroupDao
 	public static final String EXCEPTION_MESSAGE_GETSECONDARY = "Exception during SingleMethodWebGroupDao.getSecondaryGroups(): ";
 	public static final String EXCEPTION_MESSAGE_GET_USERIDS = "Exception during SingleMethodWebGroupDao.getGroupUserIDs(): ";
 	public static final String EXCEPTION_MESSAGE_GETSECONDARY_USERIDS = "Exception during SingleMethodWebGroupDao.getSecondaryGroupUserIDs(): ";
+
+	protected String addQuery;
+	protected String secondaryGroupIDsQuery;
+	protected String groupIDsUpdateQuery;
+	protected String secondaryGroupUserIDsQuery;
+
 	public SingleWebGroupDao(Environment environment)
 	{
 		super(environment);
+
+		addQuery = "/* cb:secondary-group-add */ UPDATE `" + configuration.webappSecondaryGroupTable + "` "
+						 + "SET `" + configuration.webappSecondaryGroupGroupIDColumn + "` = CONCAT(`" + configuration.webappSecondaryGroupGroupIDColumn + "`, ?) "
+						 + "WHERE `" + configuration.webappSecondaryGroupUserIDColumn + "` = ?";
+		secondaryGroupIDsQuery = "/* cb:secondary-group-read */ SELECT `" + configuration.webappSecondaryGroupGroupIDColumn + "` "
+													 + "FROM `" + configuration.webappSecondaryGroupTable + "` "
+													 + "WHERE `" + configuration.webappSecondaryGroupUserIDColumn + "` = ?";
+		groupIDsUpdateQuery = "/* cb:secondary-group-update */ UPDATE `" + configuration.webappSecondaryGroupTable + "` "
+												+ "SET `" + configuration.webappSecondaryGroupGroupIDColumn + "` = ? "
+												+ "WHERE `" + configuration.webappSecondaryGroupUserIDColumn + "` = ?";
+		secondaryGroupUserIDsQuery = "/* cb:secondary-group-members */ SELECT `" + configuration.webappSecondaryGroupUserIDColumn + "`, `" + configuration.webappSecondaryGroupGroupIDColumn + "` "
+															 + "FROM `" + configuration.webappSecondaryGroupTable + "`";
 	}
 
 	@Override
-	public void addUserToGroup(String userID, String groupID, int currentGroupCount) throws IllegalAccessException, InstantiationException, MalformedURLException, SQLException
+	public void addUserToGroup(String userID, String groupID, int currentGroupCount) throws SQLException
 	{
 		if (currentGroupCount >= 1)
 		{
 			groupID = configuration.webappSecondaryGroupGroupIDDelimiter + groupID;
 		}
-		String query = "UPDATE `" + configuration.webappSecondaryGroupTable + "` "
-								 + "SET `" + configuration.webappSecondaryGroupGroupIDColumn + "` = CONCAT(`" + configuration.webappSecondaryGroupGroupIDColumn + "`, '" + groupID + "') "
-								 + "WHERE `" + configuration.webappSecondaryGroupUserIDColumn + "` = '" + userID + "'";
-		sql.updateQuery(query);
+		// CONCAT is not idempotent, so these writes are never merged.
+		sql.write(userID, null, addQuery, groupID, userID);
 	}
 
 	@Override
-	public void removeUserFromGroup(String userID, String groupID) throws IllegalAccessException, InstantiationException, MalformedURLException, SQLException
+	public void removeUserFromGroup(String userID, String groupID) throws SQLException
 	{
-		String query = "SELECT `" + configuration.webappSecondaryGroupGroupIDColumn + "` "
-								 + "FROM `" + configuration.webappSecondaryGroupTable + "` "
-								 + "WHERE `" + configuration.webappSecondaryGroupUserIDColumn + "` = '" + userID + "'";
-		result = sql.sqlQuery(query);
+		sql.flushWrites(userID);
+		String groupIDs = sql.querySinglePrimary(secondaryGroupIDsQuery, secondaryGroupIDsMapper, userID);
 
-		if (result.next())
+		if (groupIDs != null)
 		{
-			String groupIDs = result.getString(configuration.webappSecondaryGroupGroupIDColumn);
 			List<String> groupIDsAsList = new ArrayList<String>(Arrays.asList(groupIDs.split(configuration.webappSecondaryGroupGroupIDDelimiter)));
 			groupIDsAsList.remove(groupID);
 			groupIDs = StringUtilities.joinStrings(groupIDsAsList, configuration.webappSecondaryGroupGroupIDDelimiter);
-			query = "UPDATE `" + configuration.webappSecondaryGroupTable + "` "
-						+ "SET `" + configuration.webappSecondaryGroupGroupIDColumn + "` = '" + groupIDs + "' "
-						+ "WHERE `" + configuration.webappSecondaryGroupUserIDColumn + "` = '" + userID + "'";
-			sql.updateQuery(query);
+			sql.write(userID, "secondary-ids:" + userID, groupIDsUpdateQuery, groupIDs, userID);
 		}
 	}
 
 	@Override
-	public List<String> getSecondaryGroupIDs(String userID) throws IllegalAccessException, InstantiationException,MalformedURLException, SQLException
+	public List<String> getSecondaryGroupIDs(String userID) throws SQLException
 	{
 		if (!configuration.webappSecondaryGroupEnabled)
 		{
 			return EMPTY_LIST;
 		}
-		String query =
-						"SELECT `" + configuration.webappSecondaryGroupGroupIDColumn + "` "
-					+ "FROM `" + configuration.webappSecondaryGroupTable + "` "
-					+ "WHERE `" + configuration.webappSecondaryGroupUserIDColumn + "` = '" + userID + "' ";
 
-			result = sql.sqlQuery(query);
+		sql.flushWrites(userID);
+		String groupIDs = sql.querySinglePrimary(secondaryGroupIDsQuery, secondaryGroupIDsMapper, userID);
+
+		if (groupIDs != null)
+		{
+			return convertDelimitedIDString(groupIDs);
+		}
+		return EMPTY_LIST;
+	}
 
-			if (result.next())
+	@Override
+	public Map<String, List<String>> getSecondaryGroupIDs(Collection<String> userIDs) throws SQLException
+	{
+		if (!configuration.webappSecondaryGroupEnabled)
+		{
+			Map<String, List<String>> groupIDs = new HashMap<String, List<String>>();
+			for (String userID : userIDs)
 			{
-				return convertDelimitedIDString(result.getString(configuration.webappSecondaryGroupGroupIDColumn));
+				groupIDs.put(userID, EMPTY_LIST);
 			}
-			return EMPTY_LIST;
+			return groupIDs;
+		}
+		return readSecondaryGroupIDs(userIDs, false, true);
 	}
 
 	@Override
-	public List<String> getSecondaryGroupUserIDs(String groupID) throws MalformedURLException, InstantiationException, IllegalAccessException, SQLException
+	public List<String> getSecondaryGroupUserIDs(final String groupID) throws SQLException
 	{
-		List<String> userIDs = new ArrayList<String>();
+		final List<String> userIDs = new ArrayList<String>();
 
 		if (!configuration.webappSecondaryGroupEnabled)
 		{
 			return userIDs;
 		}
 
-		String query =
-						"SELECT `" + configuration.webappSecondaryGroupUserIDColumn + "`, `" + configuration.webappSecondaryGroupGroupIDColumn + "` "
-						+ "FROM `" + configuration.webappSecondaryGroupTable + "` ";
-		result = sql.sqlQuery(query);
-		while(result.next())
+		// This reads the whole secondary group table, so the rows are streamed
+		// and only the matching user IDs are kept.
+		sql.stream(secondaryGroupUserIDsQuery, new RowHandler()
 		{
-			String groupIDs = result.getString(configuration.webappSecondaryGroupGroupIDColumn);
-			if (groupIDs != null)
+			@Override
+			public void handleRow(ResultSet result) throws SQLException
 			{
-				groupIDs = groupIDs.trim();
-				if (!groupIDs.isEmpty())
+				String groupIDs = result.getString(configuration.webappSecondaryGroupGroupIDColumn);
+				if (groupIDs != null)
 				{
-					for (String id : groupIDs.split(configuration.webappSecondaryGroupGroupIDDelimiter))
+					groupIDs = groupIDs.trim();
+					if (!groupIDs.isEmpty())
 					{
-						if (id.equals(groupID))
+						for (String id : groupIDs.split(configuration.webappSecondaryGroupGroupIDDelimiter))
 						{
-							userIDs.add(result.getString(configuration.webappSecondaryGroupUserIDColumn));
+							if (id.equals(groupID))
+							{
+								userIDs.add(result.getString(configuration.webappSecondaryGroupUserIDColumn));
+							}
 						}
 					}
 				}
 			}
-		}
+		});
 		return userIDs;
 	}
 }
@@ -1,15 +1,22 @@
 package org.communitybridge.synchronization.dao;
 
-import java.net.MalformedURLException;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import static org.communitybridge.synchronization.dao.SingleWebGroupDao.EXCEPTION_MESSAGE_GET_USERIDS;
 import org.communitybridge.main.Configuration;
 import org.communitybridge.main.Environment;
+import org.communitybridge.main.RowMapper;
 import org.communitybridge.main.SQL;
+import org.communitybridge.main.StringColumnMapper;
 import org.communitybridge.utility.Log;
+import org.communitybridge.utility.UserIDChunks;
 
 public abstract class WebGroupDao
 {
@@ -18,57 +25,199 @@ public abstract class WebGroupDao
 	protected Configuration configuration;
 	protected SQL sql;
 	protected Log log;
-	protected ResultSet result;
+	private String primaryGroupQuery;
+	private String primaryGroupUserIDsQuery;
+	private RowMapper<String> primaryGroupMapper;
+	private RowMapper<String> primaryGroupUserIDMapper;
+	private RowMapper<String[]> primaryGroupRowMapper;
+
+	// Secondary group column mappers shared by the storage methods. The group
+	// IDs mapper turns a NULL column into an empty string so that a row with
+	// no groups can be told apart from a missing row.
+	protected RowMapper<String> secondaryGroupIDsMapper;
+	protected RowMapper<String> secondaryUserIDMapper;
+	protected RowMapper<String[]> secondaryGroupRowMapper;
 
 	WebGroupDao(Environment environment)
 	{
 		this.configuration = environment.getConfiguration();
 		this.sql = environment.getSql();
 		this.log = environment.getLog();
+
+		primaryGroupQuery = "/* cb:primary-group-read */ SELECT `" + configuration.webappPrimaryGroupGroupIDColumn + "` "
+											+ "FROM `" + configuration.webappPrimaryGroupTable + "` "
+											+ "WHERE `" + configuration.webappPrimaryGroupUserIDColumn + "` = ?";
+		if (configuration.webappPrimaryGroupUsesKey)
+		{
+			primaryGroupQuery = primaryGroupQuery + " AND `" + configuration.webappPrimaryGroupKeyColumn + "` = ?";
+		}
+		primaryGroupUserIDsQuery = "/* cb:primary-group-members */ SELECT `" + configuration.webappPrimaryGroupUserIDColumn + "` "
+														 + "FROM `" + configuration.webappPrimaryGroupTable + "` "
+														 + "WHERE `" + configuration.webappPrimaryGroupGroupIDColumn + "` = ?";
+		primaryGroupMapper = new StringColumnMapper(configuration.webappPrimaryGroupGroupIDColumn);
+		primaryGroupUserIDMapper = new StringColumnMapper(configuration.webappPrimaryGroupUserIDColumn);
+		primaryGroupRowMapper = new RowMapper<String[]>()
+		{
+			@Override
+			public String[] mapRow(ResultSet result) throws SQLException
+			{
+				return new String[] { result.getString(configuration.webappPrimaryGroupUserIDColumn), result.getString(configuration.webappPrimaryGroupGroupIDColumn) };
+			}
+		};
+
+		secondaryGroupIDsMapper = new RowMapper<String>()
+		{
+			@Override
+			public String mapRow(ResultSet result) throws SQLException
+			{
+				String groupIDs = result.getString(configuration.webappSecondaryGroupGroupIDColumn);
+				return groupIDs == null ? "" : groupIDs;
+			}
+		};
+		secondaryUserIDMapper = new StringColumnMapper(configuration.webappSecondaryGroupUserIDColumn);
+		secondaryGroupRowMapper = new RowMapper<String[]>()
+		{
+			@Override
+			public String[] mapRow(ResultSet result) throws SQLException
+			{
+				return new String[] { result.getString(configuration.webappSecondaryGroupUserIDColumn), result.getString(configuration.webappSecondaryGroupGroupIDColumn) };
+			}
+		};
 	}
 
-	abstract public void addUserToGroup(String userID, String groupID, int currentGroupCount) throws IllegalAccessException, InstantiationException, MalformedURLException, SQLException;
+	abstract public void addUserToGroup(String userID, String groupID, int currentGroupCount) throws SQLException;
 
-	abstract public void removeUserFromGroup(String userID, String groupID) throws IllegalAccessException, InstantiationException, MalformedURLException, SQLException;
+	abstract public void removeUserFromGroup(String userID, String groupID) throws SQLException;
 
-	abstract public List<String> getSecondaryGroupIDs(String userID) throws IllegalAccessException, InstantiationException,MalformedURLException, SQLException;
-	abstract public List<String> getSecondaryGroupUserIDs(String groupID) throws MalformedURLException, InstantiationException, IllegalAccessException, SQLException;
+	// A user's group IDs are compared against what the last synchronization
+	// wrote, so implementations read them from the primary database.
+	abstract public List<String> getSecondaryGroupIDs(String userID) throws SQLException;
+	abstract public List<String> getSecondaryGroupUserIDs(String groupID) throws SQLException;
 
-	public String getPrimaryGroupID(String userID) throws IllegalAccessException, InstantiationException, MalformedURLException, SQLException
+	public String getPrimaryGroupID(String userID) throws SQLException
 	{
 		if (!configuration.webappPrimaryGroupEnabled)
 		{
 			return "";
 		}
-		String query = determinePrimaryGroupQuery(userID);
-
-		result = sql.sqlQuery(query);
-
-		if (result.next())
+		sql.flushWrites(userID);
+		String groupID;
+		if (configuration.webappPrimaryGroupUsesKey)
 		{
-			return result.getString(configuration.webappPrimaryGroupGroupIDColumn);
+			groupID = sql.querySinglePrimary(primaryGroupQuery, primaryGroupMapper, userID, configuration.webappPrimaryGroupKeyName);
 		}
 		else
+		{
+			groupID = sql.querySinglePrimary(primaryGroupQuery, primaryGroupMapper, userID);
+		}
+
+		if (groupID == null)
 		{
 			return "";
 		}
+		return groupID;
 	}
 
-	private String determinePrimaryGroupQuery(String userID)
+	/**
+	 * Reads the primary group IDs of several users at once, with one query per
+	 * chunk of up to 100 users. Every user asked about is in the map, with an
+	 * empty string if they have no primary group.
+	 */
+	public Map<String, String> getPrimaryGroupIDs(Collection<String> userIDs) throws SQLException
 	{
-		if (configuration.webappPrimaryGroupUsesKey)
+		Map<String, String> groupIDs = new HashMap<String, String>();
+		for (String userID : userIDs)
 		{
-			return "SELECT `" + configuration.webappPrimaryGroupGroupIDColumn + "` "
-						+ "FROM `" + configuration.webappPrimaryGroupTable + "` "
-						+ "WHERE `" + configuration.webappPrimaryGroupUserIDColumn + "` = '" + userID + "' "
-						+ "AND `" + configuration.webappPrimaryGroupKeyColumn + "` = '" + configuration.webappPrimaryGroupKeyName + "' ";
+			groupIDs.put(userID, "");
 		}
-		else
+		if (!configuration.webappPrimaryGroupEnabled)
+		{
+			return groupIDs;
+		}
+
+		Set<String> read = new HashSet<String>();
+		for (List<String> chunk : UserIDChunks.split(userIDs))
 		{
-			return "SELECT `" + configuration.webappPrimaryGroupGroupIDColumn + "` "
-						+ "FROM `" + configuration.webappPrimaryGroupTable + "` "
-						+ "WHERE `" + configuration.webappPrimaryGroupUserIDColumn + "` = '" + userID + "'";
+			String query = "/* cb:primary-groups-read */ SELECT `" + configuration.webappPrimaryGroupUserIDColumn + "`, `" + configuration.webappPrimaryGroupGroupIDColumn + "` "
+									 + "FROM `" + configuration.webappPrimaryGroupTable + "` "
+									 + "WHERE `" + configuration.webappPrimaryGroupUserIDColumn + "` IN (" + UserIDChunks.placeholders(chunk.size()) + ")";
+			List<Object> parameters = new ArrayList<Object>(chunk);
+			if (configuration.webappPrimaryGroupUsesKey)
+			{
+				query = query + " AND `" + configuration.webappPrimaryGroupKeyColumn + "` = ?";
+				parameters.add(configuration.webappPrimaryGroupKeyName);
+			}
+			for (String[] row : sql.queryPrimary(query, primaryGroupRowMapper, parameters.toArray()))
+			{
+				// getPrimaryGroupID takes a user's first row, and so does this.
+				if (groupIDs.containsKey(row[0]) && read.add(row[0]))
+				{
+					groupIDs.put(row[0], row[1] == null ? "" : row[1]);
+				}
+			}
 		}
+		return groupIDs;
+	}
+
+	/**
+	 * Reads the secondary group IDs of several users at once. Every user asked
+	 * about is in the map. Storage methods override this to read many users
+	 * per query; by default each user is read on their own.
+	 */
+	public Map<String, List<String>> getSecondaryGroupIDs(Collection<String> userIDs) throws SQLException
+	{
+		Map<String, List<String>> groupIDs = new HashMap<String, List<String>>();
+		for (String userID : userIDs)
+		{
+			groupIDs.put(userID, getSecondaryGroupIDs(userID));
+		}
+		return groupIDs;
+	}
+
+	/**
+	 * Reads the secondary group table for several users, with one query per
+	 * chunk of up to 100 users. A delimited group ID list is read from the
+	 * user's first row, the way a single user's is; otherwise each row holds
+	 * one group ID.
+	 */
+	protected Map<String, List<String>> readSecondaryGroupIDs(Collection<String> userIDs, boolean usesKey, boolean delimited) throws SQLException
+	{
+		Map<String, List<String>> groupIDs = new HashMap<String, List<String>>();
+		for (String userID : userIDs)
+		{
+			groupIDs.put(userID, new ArrayList<String>());
+		}
+
+		Set<String> read = new HashSet<String>();
+		for (List<String> chunk : UserIDChunks.split(userIDs))
+		{
+			String query = "/* cb:secondary-groups-read */ SELECT `" + configuration.webappSecondaryGroupUserIDColumn + "`, `" + configuration.webappSecondaryGroupGroupIDColumn + "` "
+									 + "FROM `" + configuration.webappSecondaryGroupTable + "` "
+									 + "WHERE `" + configuration.webappSecondaryGroupUserIDColumn + "` IN (" + UserIDChunks.placeholders(chunk.size()) + ")";
+			List<Object> parameters = new ArrayList<Object>(chunk);
+			if (usesKey)
+			{
+				query = query + " AND `" + configuration.webappSecondaryGroupKeyColumn + "` = ?";
+				parameters.add(configuration.webappSecondaryGroupKeyName);
+			}
+			for (String[] row : sql.queryPrimary(query, secondaryGroupRowMapper, parameters.toArray()))
+			{
+				List<String> userGroupIDs = groupIDs.get(row[0]);
+				if (userGroupIDs == null)
+				{
+					continue;
+				}
+				if (!delimited)
+				{
+					addCleanID(row[1], userGroupIDs);
+				}
+				else if (read.add(row[0]))
+				{
+					userGroupIDs.addAll(convertDelimitedIDString(row[1]));
+				}
+			}
+		}
+		return groupIDs;
 	}
 
 	protected void addCleanID(String id, List<String> idList)
@@ -99,6 +248,9 @@ public abstract class WebGroupDao
 	public List<String> getGroupUserIDs(String groupID)
 	{
 		List<String> userIDs = new ArrayList<String>();
+		// Membership is read for every user, so all queued group changes have to
+		// land first.
+		sql.flushWrites();
 		try
 		{
 			userIDs.addAll(getUserIDsFromPrimaryGroup(groupID));
@@ -106,21 +258,6 @@ public abstract class WebGroupDao
 
 			return userIDs;
 		}
-		catch (IllegalAccessException exception)
-		{
-			log.severe(EXCEPTION_MESSAGE_GET_USERIDS + exception.getMessage());
-			return userIDs;
-		}
-		catch (InstantiationException exception)
-		{
-			log.severe(EXCEPTION_MESSAGE_GET_USERIDS + exception.getMessage());
-			return userIDs;
-		}
-		catch (MalformedURLException exception)
-		{
-			log.severe(EXCEPTION_MESSAGE_GET_USERIDS + exception.getMessage());
-			return userIDs;
-		}
 		catch (SQLException exception)
 		{
 			log.severe(EXCEPTION_MESSAGE_GET_USERIDS + exception.getMessage());
@@ -128,24 +265,13 @@ public abstract class WebGroupDao
 		}
 	}
 
-	protected List<String> getUserIDsFromPrimaryGroup(String groupID) throws IllegalAccessException, InstantiationException, MalformedURLException, SQLException
+	protected List<String> getUserIDsFromPrimaryGroup(String groupID) throws SQLException
 	{
-		List<String> userIDs = new ArrayList<String>();
-
 		if (!configuration.webappPrimaryGroupEnabled)
 		{
-			return userIDs;
+			return new ArrayList<String>();
 		}
 
-		String query =
-						"SELECT `" + configuration.webappPrimaryGroupUserIDColumn + "` "
-						+ "FROM `" + configuration.webappPrimaryGroupTable + "` "
-						+ "WHERE `" + configuration.webappPrimaryGroupGroupIDColumn + "` = '" + groupID + "' ";
-		result = sql.sqlQuery(query);
-		while(result.next())
-		{
-			userIDs.add(result.getString(configuration.webappPrimaryGroupUserIDColumn));
-		}
-		return userIDs;
+		return sql.query(primaryGroupUserIDsQuery, primaryGroupUserIDMapper, groupID);
 	}
 }
@@ -0,0 +1,60 @@
+package org.communitybridge.utility;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * Splits user IDs, or other identifiers, into chunks for reading many users
+ * with IN (...) lists. Each chunk is padded up to one of a few sizes by
+ * repeating its last entry, so only a handful of different statements are
+ * ever prepared.
+ */
+public final class UserIDChunks
+{
+	public static final int[] SIZES = { 10, 25, 50, 100 };
+
+	private UserIDChunks() {}
+
+	public static List<List<String>> split(Collection<String> userIDs)
+	{
+		List<String> distinct = new ArrayList<String>(new LinkedHashSet<String>(userIDs));
+		List<List<String>> chunks = new ArrayList<List<String>>();
+		int maximum = SIZES[SIZES.length - 1];
+		for (int start = 0; start < distinct.size(); start += maximum)
+		{
+			List<String> chunk = new ArrayList<String>(distinct.subList(start, Math.min(start + maximum, distinct.size())));
+			int size = getSize(chunk.size());
+			String last = chunk.get(chunk.size() - 1);
+			while (chunk.size() < size)
+			{
+				chunk.add(last);
+			}
+			chunks.add(chunk);
+		}
+		return chunks;
+	}
+
+	public static String placeholders(int size)
+	{
+		StringBuilder placeholders = new StringBuilder();
+		for (int index = 0; index < size; index++)
+		{
+			placeholders.append(index == 0 ? "?" : ", ?");
+		}
+		return placeholders.toString();
+	}
+
+	private static int getSize(int count)
+	{
+		for (int size : SIZES)
+		{
+			if (count <= size)
+			{
+				return size;
+			}
+		}
+		return count;
+	}
+}
@@ -0,0 +1,117 @@
+package org.communitybridge.linker;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+public class LinkCacheFileTest
+{
+	private static final String FINGERPRINT = "localhost:3306/forum|xf_user_field_value|user_id|minecraft_uuid";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void loadRestoresSavedEntries() throws IOException
+	{
+		File file = new File(folder.getRoot(), "link-cache.dat");
+		LinkCache saved = new LinkCache(10, 60000L, 60000L, 0L);
+		saved.put("uuid-1", "1");
+		saved.put("Player2", "2");
+		saved.put("uuid-3", "");
+		assertEquals(3, new LinkCacheFile(file, FINGERPRINT).save(saved));
+
+		LinkCache loaded = new LinkCache(10, 60000L, 60000L, 0L);
+		List<String> identifiers = new LinkCacheFile(file, FINGERPRINT).load(loaded);
+
+		assertEquals(Arrays.asList("uuid-1", "Player2", "uuid-3"), identifiers);
+		assertEquals("1", loaded.get("uuid-1"));
+		assertEquals("2", loaded.get("Player2"));
+		assertEquals("", loaded.get("uuid-3"));
+		assertEquals("Player2", loaded.findIdentifier("2"));
+	}
+
+	@Test
+	public void loadKeepsExpiryTimes() throws IOException
+	{
+		File file = new File(folder.getRoot(), "link-cache.dat");
+		LinkCache saved = new LinkCache(10, 60000L, 60000L, 0L);
+		saved.restore(new LinkCache.Link("uuid-1", "1", System.currentTimeMillis() - 1000L));
+		new LinkCacheFile(file, FINGERPRINT).save(saved);
+
+		LinkCache loaded = new LinkCache(10, 60000L, 60000L, 0L);
+		new LinkCacheFile(file, FINGERPRINT).load(loaded);
+
+		assertNull(loaded.get("uuid-1"));
+		assertEquals("1", loaded.getStale("uuid-1"));
+	}
+
+	@Test
+	public void loadIgnoresFileSavedForOtherSettings() throws IOException
+	{
+		File file = new File(folder.getRoot(), "link-cache.dat");
+		LinkCache saved = new LinkCache(10, 60000L, 60000L, 0L);
+		saved.put("uuid-1", "1");
+		new LinkCacheFile(file, FINGERPRINT).save(saved);
+
+		LinkCache loaded = new LinkCache(10, 60000L, 60000L, 0L);
+		assertTrue(new LinkCacheFile(file, FINGERPRINT + "2").load(loaded).isEmpty());
+		assertEquals(0, loaded.size());
+	}
+
+	@Test
+	public void loadWithoutFileLoadsNothing() throws IOException
+	{
+		LinkCache loaded = new LinkCache(10, 60000L, 60000L, 0L);
+		assertTrue(new LinkCacheFile(new File(folder.getRoot(), "missing.dat"), FINGERPRINT).load(loaded).isEmpty());
+	}
+
+	@Test
+	public void loadOfDamagedFileRestoresNothing() throws IOException
+	{
+		File file = new File(folder.getRoot(), "link-cache.dat");
+		LinkCache saved = new LinkCache(10, 60000L, 60000L, 0L);
+		saved.put("uuid-1", "1");
+		new LinkCacheFile(file, FINGERPRINT).save(saved);
+		truncate(file, file.length() - 4);
+
+		LinkCache loaded = new LinkCache(10, 60000L, 60000L, 0L);
+		try
+		{
+			new LinkCacheFile(file, FINGERPRINT).load(loaded);
+			fail("Expected an IOException");
+		}
+		catch (IOException exception)
+		{
+			assertEquals(0, loaded.size());
+		}
+	}
+
+	@Test
+	public void restoreDoesNotReplaceNewerEntry()
+	{
+		LinkCache cache = new LinkCache(10, 60000L, 60000L, 0L);
+		cache.put("uuid-1", "5");
+		cache.restore(new LinkCache.Link("uuid-1", "1", 0L));
+		assertEquals("5", cache.get("uuid-1"));
+	}
+
+	private void truncate(File file, long length) throws IOException
+	{
+		RandomAccessFile randomAccess = new RandomAccessFile(file, "rw");
+		try
+		{
+			randomAccess.setLength(length);
+		}
+		finally
+		{
+			randomAccess.close();
+		}
+	}
+}
@@ -0,0 +1,147 @@
+package org.communitybridge.linker;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class LinkCacheTest
+{
+	@Test
+	public void getReturnsPutValue()
+	{
+		LinkCache cache = new LinkCache(2, 0L, 0L, 0L);
+		cache.put("a", "1");
+		assertEquals("1", cache.get("a"));
+		assertNull(cache.get("b"));
+	}
+
+	@Test
+	public void fullCacheEvictsLeastRecentlyUsed()
+	{
+		LinkCache cache = new LinkCache(2, 0L, 0L, 0L);
+		cache.put("a", "1");
+		cache.put("b", "2");
+		cache.get("a");
+		cache.put("c", "3");
+		assertEquals(2, cache.size());
+		assertTrue(cache.containsKey("a"));
+		assertFalse(cache.containsKey("b"));
+		assertTrue(cache.containsKey("c"));
+	}
+
+	@Test
+	public void expiredEntryIsMissButStaysAvailableAsStale() throws InterruptedException
+	{
+		LinkCache cache = new LinkCache(2, 20L, 20L, 0L);
+		cache.put("a", "1");
+		Thread.sleep(40L);
+		assertNull(cache.get("a"));
+		assertEquals("1", cache.getStale("a"));
+	}
+
+	@Test
+	public void unlinkedEntryUsesItsOwnTimeToLive() throws InterruptedException
+	{
+		LinkCache cache = new LinkCache(2, 1000L, 20L, 0L);
+		cache.put("a", "1");
+		cache.put("b", "");
+		Thread.sleep(40L);
+		assertEquals("1", cache.get("a"));
+		assertNull(cache.get("b"));
+	}
+
+	@Test
+	public void unlinkedEntryIsNeverRefreshed() throws InterruptedException
+	{
+		LinkCache cache = new LinkCache(2, 200L, 200L, 150L);
+		cache.put("a", "");
+		Thread.sleep(80L);
+		assertFalse(cache.startRefresh("a"));
+	}
+
+	@Test
+	public void startRefreshOnlyOnceEntryIsDue() throws InterruptedException
+	{
+		LinkCache cache = new LinkCache(2, 200L, 200L, 150L);
+		cache.put("a", "1");
+		assertFalse(cache.startRefresh("a"));
+		Thread.sleep(80L);
+		assertTrue(cache.startRefresh("a"));
+		assertFalse(cache.startRefresh("a"));
+		cache.endRefresh("a");
+		assertTrue(cache.startRefresh("a"));
+	}
+
+	@Test
+	public void putClearsRefresh() throws InterruptedException
+	{
+		LinkCache cache = new LinkCache(2, 200L, 200L, 150L);
+		cache.put("a", "1");
+		Thread.sleep(80L);
+		assertTrue(cache.startRefresh("a"));
+		cache.put("a", "2");
+		assertFalse(cache.startRefresh("a"));
+		assertEquals("2", cache.get("a"));
+	}
+
+	@Test
+	public void findIdentifierReturnsCachedIdentifier()
+	{
+		LinkCache cache = new LinkCache(2, 0L, 0L, 0L);
+		cache.put("a", "1");
+		assertEquals("a", cache.findIdentifier("1"));
+		assertNull(cache.findIdentifier("2"));
+	}
+
+	@Test
+	public void findIdentifierFollowsChangedLink()
+	{
+		LinkCache cache = new LinkCache(2, 0L, 0L, 0L);
+		cache.put("a", "1");
+		cache.put("a", "2");
+		assertNull(cache.findIdentifier("1"));
+		assertEquals("a", cache.findIdentifier("2"));
+	}
+
+	@Test
+	public void findIdentifierForgetsRemovedAndEvictedEntries()
+	{
+		LinkCache cache = new LinkCache(1, 0L, 0L, 0L);
+		cache.put("a", "1");
+		cache.put("b", "2");
+		assertNull(cache.findIdentifier("1"));
+		cache.remove("b");
+		assertNull(cache.findIdentifier("2"));
+	}
+
+	@Test
+	public void findIdentifierFindsSecondIdentifierForSameUser()
+	{
+		LinkCache cache = new LinkCache(2, 0L, 0L, 0L);
+		cache.put("uuid", "1");
+		cache.put("name", "1");
+		cache.remove("uuid");
+		assertEquals("name", cache.findIdentifier("1"));
+	}
+
+	@Test
+	public void findIdentifierIgnoresUnlinkedPlayers()
+	{
+		LinkCache cache = new LinkCache(2, 0L, 0L, 0L);
+		cache.put("a", "");
+		assertNull(cache.findIdentifier(""));
+	}
+
+	@Test
+	public void statisticsCountHitsMissesAndEvictions()
+	{
+		LinkCache cache = new LinkCache(1, 0L, 0L, 0L);
+		cache.put("a", "1");
+		cache.get("a");
+		cache.get("b");
+		cache.put("b", "2");
+		String statistics = cache.getStatistics();
+		assertTrue(statistics, statistics.contains("hits=1"));
+		assertTrue(statistics, statistics.contains("misses=1"));
+		assertTrue(statistics, statistics.contains("evictions=1"));
+	}
+}
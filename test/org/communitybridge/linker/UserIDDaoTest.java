@@ -3,10 +3,14 @@ package org.communitybridge.linker;
 import java.net.MalformedURLException;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Map;
 import org.apache.commons.lang.RandomStringUtils;
 import org.communitybridge.main.Configuration;
 import org.communitybridge.main.Environment;
+import org.communitybridge.main.RowMapper;
 import org.communitybridge.main.SQL;
+import org.communitybridge.synchronization.dao.DaoTestsHelper;
 import org.communitybridge.utility.Log;
 import org.junit.Test;
 import static org.junit.Assert.*;
@@ -33,13 +37,13 @@ public class UserIDDaoTest
 		environment.setConfiguration(configuration);
 		environment.setLog(log);
 		environment.setSql(sql);
-		userIDDao = new UserIDDao(environment);
 		configuration.linkingTableName = RandomStringUtils.randomAlphabetic(6);
 		configuration.linkingUserIDColumn = RandomStringUtils.randomAlphabetic(9);
 		configuration.linkingIdentifierColumn = RandomStringUtils.randomAlphabetic(4);
 		configuration.linkingKeyColumn = RandomStringUtils.randomAlphabetic(7);
 		configuration.linkingValueColumn = RandomStringUtils.randomAlphabetic(5);
 		configuration.linkingKeyName = RandomStringUtils.randomAlphabetic(8);
+		userIDDao = new UserIDDao(environment);
 	}
 
 	@Test
@@ -52,33 +56,66 @@ public class UserIDDaoTest
 	public void getUserIDUsesCorrectKeyedQuery() throws MalformedURLException, InstantiationException, IllegalAccessException, SQLException
 	{
 		configuration.linkingUsesKey = true;
+		userIDDao = new UserIDDao(environment);
 
-		String query = "SELECT `" + configuration.linkingTableName + "`.`" + configuration.linkingUserIDColumn + "` "
+		String query = "/* cb:link-user-id */ SELECT `" + configuration.linkingTableName + "`.`" + configuration.linkingUserIDColumn + "` "
 								 + "FROM `" + configuration.linkingTableName + "` "
-								 + "WHERE `" + configuration.linkingKeyColumn + "` = '" + configuration.linkingKeyName + "' "
-								 + "AND `" + configuration.linkingValueColumn + "` = '" + IDENTIFIER + "' "
+								 + "WHERE `" + configuration.linkingKeyColumn + "` = ? "
+								 + "AND `" + configuration.linkingValueColumn + "` = ? "
 								 + "ORDER BY `" + configuration.linkingUserIDColumn + "` DESC";
 		userIDDao.getUserID(IDENTIFIER);
-		verify(sql).sqlQuery(query);
+		verify(sql).querySingle(eq(query), any(RowMapper.class), eq(configuration.linkingKeyName), eq(IDENTIFIER));
 	}
 
 	@Test
 	public void getUserIDUsesCorrectKeylessQuery() throws MalformedURLException, InstantiationException, IllegalAccessException, SQLException
 	{
 		configuration.linkingUsesKey = false;
+		userIDDao = new UserIDDao(environment);
+
+		String query = "/* cb:link-user-id */ SELECT `" + configuration.linkingTableName + "`.`" + configuration.linkingUserIDColumn + "` "
+								 + "FROM `" + configuration.linkingTableName + "` "
+								 + "WHERE LOWER(`" + configuration.linkingIdentifierColumn + "`) = LOWER(?) "
+								 + "ORDER BY `" + configuration.linkingUserIDColumn + "` DESC";
+		userIDDao.getUserID(IDENTIFIER);
+		verify(sql).querySingle(eq(query), any(RowMapper.class), eq(IDENTIFIER));
+	}
+
+	@Test
+	public void getUserIDWithCaseInsensitiveCollationComparesExactly() throws SQLException
+	{
+		configuration.linkingUsesKey = false;
+		configuration.linkingIdentifierCaseInsensitive = true;
+		userIDDao = new UserIDDao(environment);
 
-		String query = "SELECT `" + configuration.linkingTableName + "`.`" + configuration.linkingUserIDColumn + "` "
+		String query = "/* cb:link-user-id */ SELECT `" + configuration.linkingTableName + "`.`" + configuration.linkingUserIDColumn + "` "
 								 + "FROM `" + configuration.linkingTableName + "` "
-								 + "WHERE LOWER(`" + configuration.linkingIdentifierColumn + "`) = LOWER('" + IDENTIFIER + "') "
+								 + "WHERE `" + configuration.linkingIdentifierColumn + "` = ? "
 								 + "ORDER BY `" + configuration.linkingUserIDColumn + "` DESC";
 		userIDDao.getUserID(IDENTIFIER);
-		verify(sql).sqlQuery(query);
+		verify(sql).querySingle(eq(query), any(RowMapper.class), eq(IDENTIFIER));
+	}
+
+	@Test
+	public void getUserIDWithExactUUIDsComparesOnlyUUIDsExactly() throws SQLException
+	{
+		configuration.linkingUsesKey = false;
+		configuration.linkingIdentifierExactUUIDs = true;
+		userIDDao = new UserIDDao(environment);
+		String uuid = java.util.UUID.randomUUID().toString();
+
+		String query = "/* cb:link-user-id */ SELECT `" + configuration.linkingTableName + "`.`" + configuration.linkingUserIDColumn + "` "
+								 + "FROM `" + configuration.linkingTableName + "` ";
+		userIDDao.getUserID(uuid);
+		userIDDao.getUserID(IDENTIFIER);
+		verify(sql).querySingle(eq(query + "WHERE `" + configuration.linkingIdentifierColumn + "` = ? ORDER BY `" + configuration.linkingUserIDColumn + "` DESC"), any(RowMapper.class), eq(uuid));
+		verify(sql).querySingle(eq(query + "WHERE LOWER(`" + configuration.linkingIdentifierColumn + "`) = LOWER(?) ORDER BY `" + configuration.linkingUserIDColumn + "` DESC"), any(RowMapper.class), eq(IDENTIFIER));
 	}
 
 	@Test
 	public void getUserIDWithNullResultReturnsEmptyString() throws MalformedURLException, InstantiationException, IllegalAccessException, SQLException
 	{
-		when(sql.sqlQuery(anyString())).thenReturn(null);
+		when(sql.querySingle(anyString(), any(RowMapper.class), anyVararg())).thenReturn(null);
 		String userID = userIDDao.getUserID(IDENTIFIER);
 		assertEquals("", userID);
 	}
@@ -86,7 +123,7 @@ public class UserIDDaoTest
 	@Test
 	public void getUserIDWithEmptyResultReturnsEmptyString() throws MalformedURLException, InstantiationException, IllegalAccessException, SQLException
 	{
-		when(sql.sqlQuery(anyString())).thenReturn(result);
+		DaoTestsHelper.stubQueries(sql, result);
 		when(result.next()).thenReturn(false);
 		String userID = userIDDao.getUserID(IDENTIFIER);
 		assertEquals("", userID);
@@ -95,7 +132,7 @@ public class UserIDDaoTest
 	@Test
 	public void getUserIDReturnsUserID() throws MalformedURLException, InstantiationException, IllegalAccessException, SQLException
 	{
-		when(sql.sqlQuery(anyString())).thenReturn(result);
+		DaoTestsHelper.stubQueries(sql, result);
 		when(result.getString(configuration.linkingUserIDColumn)).thenReturn(USER_ID);
 		when(result.next()).thenReturn(true);
 		assertEquals(USER_ID, userIDDao.getUserID(IDENTIFIER));
@@ -108,32 +145,80 @@ public class UserIDDaoTest
 		testGetUserIDFromDatabaseException(exception);
 	}
 
+	private void testGetUserIDFromDatabaseException(SQLException exception) throws SQLException
+	{
+		DaoTestsHelper.stubQueriesThrow(sql, exception);
+		assertEquals("", userIDDao.getUserID(IDENTIFIER));
+		verify(log).severe(UserIDDao.EXCEPTION_MESSAGE_GETUSERID + exception.getMessage());
+	}
+
 	@Test
-	public void getUserIDHandlesMalformedURLException() throws MalformedURLException, InstantiationException, IllegalAccessException, SQLException
+	public void getUserIDsUsesCorrectKeyedQuery() throws SQLException
 	{
-		MalformedURLException exception = new MalformedURLException(EXCEPTION_MESSAGE);
-		testGetUserIDFromDatabaseException(exception);
+		configuration.linkingUsesKey = true;
+		userIDDao = new UserIDDao(environment);
+
+		String query = "/* cb:link-user-ids */ SELECT `" + configuration.linkingUserIDColumn + "`, `" + configuration.linkingValueColumn + "` "
+								 + "FROM `" + configuration.linkingTableName + "` "
+								 + "WHERE `" + configuration.linkingKeyColumn + "` = ? "
+								 + "AND `" + configuration.linkingValueColumn + "` IN (?, ?, ?, ?, ?, ?, ?, ?, ?, ?) "
+								 + "ORDER BY `" + configuration.linkingUserIDColumn + "` DESC";
+		userIDDao.getUserIDs(Arrays.asList(IDENTIFIER, UUID));
+		verify(sql).query(eq(query), any(RowMapper.class), eq(configuration.linkingKeyName), eq(IDENTIFIER), eq(UUID),
+											eq(UUID), eq(UUID), eq(UUID), eq(UUID), eq(UUID), eq(UUID), eq(UUID), eq(UUID));
 	}
 
 	@Test
-	public void getUserIDHandlesInstantiationException() throws MalformedURLException, InstantiationException, IllegalAccessException, SQLException
+	public void getUserIDsUsesCorrectKeylessQuery() throws SQLException
 	{
-		InstantiationException exception = new InstantiationException(EXCEPTION_MESSAGE);
-		testGetUserIDFromDatabaseException(exception);
+		configuration.linkingUsesKey = false;
+		userIDDao = new UserIDDao(environment);
+
+		String query = "/* cb:link-user-ids */ SELECT `" + configuration.linkingUserIDColumn + "`, `" + configuration.linkingIdentifierColumn + "` "
+								 + "FROM `" + configuration.linkingTableName + "` "
+								 + "WHERE LOWER(`" + configuration.linkingIdentifierColumn + "`) IN (?, ?, ?, ?, ?, ?, ?, ?, ?, ?) "
+								 + "ORDER BY `" + configuration.linkingUserIDColumn + "` DESC";
+		String lowerCase = IDENTIFIER.toLowerCase();
+		userIDDao.getUserIDs(Arrays.asList(IDENTIFIER));
+		verify(sql).query(eq(query), any(RowMapper.class), eq(lowerCase), eq(lowerCase), eq(lowerCase), eq(lowerCase), eq(lowerCase),
+											eq(lowerCase), eq(lowerCase), eq(lowerCase), eq(lowerCase), eq(lowerCase));
 	}
 
 	@Test
-	public void getUserIDHandlesIllegalAccessException() throws MalformedURLException, InstantiationException, IllegalAccessException, SQLException
+	public void getUserIDsSplitsLargeLookupsIntoChunks() throws SQLException
 	{
-		IllegalAccessException exception = new IllegalAccessException(EXCEPTION_MESSAGE);
-		testGetUserIDFromDatabaseException(exception);
+		String[] identifiers = new String[150];
+		for (int index = 0; index < identifiers.length; index++)
+		{
+			identifiers[index] = IDENTIFIER + index;
+		}
+		userIDDao.getUserIDs(Arrays.asList(identifiers));
+		verify(sql, times(2)).query(anyString(), any(RowMapper.class), anyVararg());
 	}
 
-	private void testGetUserIDFromDatabaseException(Exception exception) throws SQLException, InstantiationException, IllegalAccessException, MalformedURLException
+	@Test
+	public void getUserIDsReturnsUserIDsOfLinkedIdentifiers() throws SQLException
 	{
-		when(sql.sqlQuery(anyString())).thenThrow(exception);
-		assertEquals("", userIDDao.getUserID(IDENTIFIER));
-		verify(log).severe(UserIDDao.EXCEPTION_MESSAGE_GETUSERID + exception.getMessage());
+		configuration.linkingUsesKey = false;
+		userIDDao = new UserIDDao(environment);
+		DaoTestsHelper.stubQueries(sql, result);
+		when(result.next()).thenReturn(true, true, false);
+		when(result.getString(configuration.linkingUserIDColumn)).thenReturn(USER_ID, "1");
+		when(result.getString(configuration.linkingIdentifierColumn)).thenReturn(IDENTIFIER.toLowerCase(), IDENTIFIER);
+
+		Map<String, String> userIDs = userIDDao.getUserIDs(Arrays.asList(IDENTIFIER, UUID));
+
+		assertEquals(1, userIDs.size());
+		assertEquals(USER_ID, userIDs.get(IDENTIFIER));
+	}
+
+	@Test
+	public void getUserIDsHandlesSQLException() throws SQLException
+	{
+		SQLException exception = new SQLException(EXCEPTION_MESSAGE);
+		DaoTestsHelper.stubQueriesThrow(sql, exception);
+		assertNull(userIDDao.getUserIDs(Arrays.asList(IDENTIFIER)));
+		verify(log).severe(UserIDDao.EXCEPTION_MESSAGE_GETUSERIDS + exception.getMessage());
 	}
 
 	@Test
@@ -146,38 +231,40 @@ public class UserIDDaoTest
 	public void getUUIDUsesCorrectKeyedQuery() throws MalformedURLException, InstantiationException, IllegalAccessException, SQLException
 	{
 		configuration.linkingUsesKey = true;
+		userIDDao = new UserIDDao(environment);
 
-		String query = "SELECT `" + configuration.linkingValueColumn + "` "
+		String query = "/* cb:link-identifier */ SELECT `" + configuration.linkingValueColumn + "` "
 						+ "FROM `" + configuration.linkingTableName + "` "
-						+ "WHERE `" + configuration.linkingKeyColumn + "` = '" + configuration.linkingKeyName + "' "
-						+ "AND `" + configuration.linkingUserIDColumn + "` = '" + USER_ID + "'";
+						+ "WHERE `" + configuration.linkingKeyColumn + "` = ? "
+						+ "AND `" + configuration.linkingUserIDColumn + "` = ?";
 		userIDDao.getUUID(USER_ID);
-		verify(sql).sqlQuery(query);
+		verify(sql).querySingle(eq(query), any(RowMapper.class), eq(configuration.linkingKeyName), eq(USER_ID));
 	}
 
 	@Test
 	public void getUUIDUsesCorrectKeylessQuery() throws MalformedURLException, InstantiationException, IllegalAccessException, SQLException
 	{
 		configuration.linkingUsesKey = false;
+		userIDDao = new UserIDDao(environment);
 
-		String query = "SELECT `" + configuration.linkingIdentifierColumn + "` "
+		String query = "/* cb:link-identifier */ SELECT `" + configuration.linkingIdentifierColumn + "` "
 						+ "FROM `" + configuration.linkingTableName + "` "
-						+ "WHERE `" + configuration.linkingUserIDColumn + "` = '" + USER_ID + "'";
+						+ "WHERE `" + configuration.linkingUserIDColumn + "` = ?";
 		userIDDao.getUUID(USER_ID);
-		verify(sql).sqlQuery(query);
+		verify(sql).querySingle(eq(query), any(RowMapper.class), eq(USER_ID));
 	}
 
 	@Test
 	public void getUUIDWithNullResultReturnsEmptyString() throws MalformedURLException, InstantiationException, IllegalAccessException, SQLException
 	{
-		when(sql.sqlQuery(anyString())).thenReturn(null);
+		when(sql.querySingle(anyString(), any(RowMapper.class), anyVararg())).thenReturn(null);
 		assertEquals("", userIDDao.getUUID(USER_ID));
 	}
 
 	@Test
 	public void getUUIDWithEmptyResultReturnsEmptyString() throws MalformedURLException, InstantiationException, IllegalAccessException, SQLException
 	{
-		when(sql.sqlQuery(anyString())).thenReturn(result);
+		DaoTestsHelper.stubQueries(sql, result);
 		when(result.next()).thenReturn(false);
 		assertEquals("", userIDDao.getUUID(USER_ID));
 	}
@@ -186,7 +273,8 @@ public class UserIDDaoTest
 	public void getUUIDKeylessReturnsUUID() throws MalformedURLException, InstantiationException, IllegalAccessException, SQLException
 	{
 		configuration.linkingUsesKey = false;
-		when(sql.sqlQuery(anyString())).thenReturn(result);
+		userIDDao = new UserIDDao(environment);
+		DaoTestsHelper.stubQueries(sql, result);
 		when(result.getString(configuration.linkingIdentifierColumn)).thenReturn(UUID);
 		when(result.next()).thenReturn(true);
 		assertEquals(UUID, userIDDao.getUUID(USER_ID));
@@ -196,7 +284,8 @@ public class UserIDDaoTest
 	public void getUUIDKeyedReturnsUUID() throws MalformedURLException, InstantiationException, IllegalAccessException, SQLException
 	{
 		configuration.linkingUsesKey = true;
-		when(sql.sqlQuery(anyString())).thenReturn(result);
+		userIDDao = new UserIDDao(environment);
+		DaoTestsHelper.stubQueries(sql, result);
 		when(result.getString(configuration.linkingValueColumn)).thenReturn(UUID);
 		when(result.next()).thenReturn(true);
 		assertEquals(UUID, userIDDao.getUUID(USER_ID));
@@ -209,30 +298,9 @@ public class UserIDDaoTest
 		testGetUUIDFromDatabaseException(exception);
 	}
 
-	@Test
-	public void getUUIDHandlesMalformedURLException() throws MalformedURLException, InstantiationException, IllegalAccessException, SQLException
-	{
-		MalformedURLException exception = new MalformedURLException(EXCEPTION_MESSAGE);
-		testGetUUIDFromDatabaseException(exception);
-	}
-
-	@Test
-	public void getUUIDHandlesInstantiationException() throws MalformedURLException, InstantiationException, IllegalAccessException, SQLException
-	{
-		InstantiationException exception = new InstantiationException(EXCEPTION_MESSAGE);
-		testGetUUIDFromDatabaseException(exception);
-	}
-
-	@Test
-	public void getUUIDHandlesIllegalAccessException() throws MalformedURLException, InstantiationException, IllegalAccessException, SQLException
-	{
-		IllegalAccessException exception = new IllegalAccessException(EXCEPTION_MESSAGE);
-		testGetUUIDFromDatabaseException(exception);
-	}
-
-	private void testGetUUIDFromDatabaseException(Exception exception) throws SQLException, InstantiationException, IllegalAccessException, MalformedURLException
+	private void testGetUUIDFromDatabaseException(SQLException exception) throws SQLException
 	{
-		when(sql.sqlQuery(anyString())).thenThrow(exception);
+		DaoTestsHelper.stubQueriesThrow(sql, exception);
 		assertEquals("", userIDDao.getUUID(IDENTIFIER));
 		verify(log).severe(UserIDDao.EXCEPTION_MESSAGE_GETUUID + exception.getMessage());
 	}
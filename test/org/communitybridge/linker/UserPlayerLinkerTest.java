@@ -1,18 +1,31 @@
 package org.communitybridge.linker;
 
 import org.communitybridge.main.BukkitWrapper;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
 import org.apache.commons.lang.RandomStringUtils;
 import org.bukkit.entity.Player;
 import org.communitybridge.main.Configuration;
 import org.communitybridge.main.Environment;
+import org.communitybridge.main.SQL;
 import org.junit.Test;
 import static org.junit.Assert.*;
 import org.junit.Before;
 import org.junit.runner.RunWith;
 import org.mockito.InjectMocks;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import org.mockito.runners.MockitoJUnitRunner;
 
@@ -29,6 +42,7 @@ public class UserPlayerLinkerTest
 	private Environment environment = new Environment();
 	private Configuration configuration = mock(Configuration.class);
 	private BukkitWrapper bukkit = mock(BukkitWrapper.class);
+	private SQL sql = mock(SQL.class);
 
 	@InjectMocks
 	UserPlayerLinker userPlayerLinker = new UserPlayerLinker(environment, 1);
@@ -37,6 +51,8 @@ public class UserPlayerLinkerTest
 	public void setup()
 	{
 			environment.setConfiguration(configuration);
+			environment.setSql(sql);
+			when(sql.isAvailable()).thenReturn(true);
 	}
 
 	@Test
@@ -280,4 +296,103 @@ public class UserPlayerLinkerTest
 		when(bukkit.getPlayer(uuid)).thenReturn(player);
 		assertEquals(PLAYER_NAME, userPlayerLinker.getPlayerName(UUID_USER_ID));
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void getUserIDWhileDatabaseUnavailableUsesCachedLink()
+	{
+		configuration.linkingMethod = "uuid";
+		when(userIDDao.getUserID(uuid.toString())).thenReturn(UUID_USER_ID);
+		userPlayerLinker.getUserID(uuid.toString());
+		when(sql.isAvailable()).thenReturn(false);
+		assertEquals(UUID_USER_ID, userPlayerLinker.getUserID(uuid.toString()));
+		verify(userIDDao).getUserID(uuid.toString());
+	}
+
+	@Test
+	public void getUserIDWhileDatabaseUnavailableSkipsLookup()
+	{
+		configuration.linkingMethod = "uuid";
+		when(sql.isAvailable()).thenReturn(false);
+		assertEquals("", userPlayerLinker.getUserID(uuid.toString()));
+		verify(userIDDao, never()).getUserID(anyString());
+	}
+
+	@Test
+	public void getUserIDDoesNotCacheLookupFailedByOutage()
+	{
+		configuration.linkingMethod = "uuid";
+		when(sql.isAvailable()).thenReturn(true, false, true);
+		when(userIDDao.getUserID(uuid.toString())).thenReturn("", UUID_USER_ID);
+		assertEquals("", userPlayerLinker.getUserID(uuid.toString()));
+		assertEquals(UUID_USER_ID, userPlayerLinker.getUserID(uuid.toString()));
+	}
+
+	@Test
+	public void getUserIDsLoadsUncachedLinksInBulk()
+	{
+		configuration.linkingMethod = "uuid";
+		when(player.getUniqueId()).thenReturn(uuid);
+		List<String> uuids = Arrays.asList(uuid.toString());
+		when(userIDDao.getUserIDs(uuids)).thenReturn(Collections.singletonMap(uuid.toString(), UUID_USER_ID));
+
+		assertEquals(UUID_USER_ID, userPlayerLinker.getUserIDs(Arrays.asList(player)).get(player));
+		verify(userIDDao, never()).getUserID(anyString());
+	}
+
+	@Test
+	public void getUserIDsWhenBulkLookupFailsLooksUpEachPlayer()
+	{
+		configuration.linkingMethod = "uuid";
+		when(player.getUniqueId()).thenReturn(uuid);
+		when(userIDDao.getUserIDs(Arrays.asList(uuid.toString()))).thenReturn(null);
+		when(userIDDao.getUserID(uuid.toString())).thenReturn(UUID_USER_ID);
+
+		assertEquals(UUID_USER_ID, userPlayerLinker.getUserIDs(Arrays.asList(player)).get(player));
+	}
+
+	@Test
+	public void concurrentLookupsShareOneQuery() throws Exception
+	{
+		configuration.linkingMethod = "uuid";
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		when(userIDDao.getUserID(uuid.toString())).thenAnswer(new Answer<String>()
+		{
+			@Override
+			public String answer(InvocationOnMock invocation) throws Throwable
+			{
+				started.countDown();
+				release.await(5, TimeUnit.SECONDS);
+				return UUID_USER_ID;
+			}
+		});
+
+		FutureTask<String> first = lookUpInBackground();
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		FutureTask<String> second = lookUpInBackground();
+		long deadline = System.currentTimeMillis() + 5000;
+		while (!userPlayerLinker.getCacheStatistics().contains("shared-lookups=1") && System.currentTimeMillis() < deadline)
+		{
+			Thread.sleep(5);
+		}
+		release.countDown();
+
+		assertEquals(UUID_USER_ID, first.get(5, TimeUnit.SECONDS));
+		assertEquals(UUID_USER_ID, second.get(5, TimeUnit.SECONDS));
+		verify(userIDDao, times(1)).getUserID(uuid.toString());
+	}
+
+	private FutureTask<String> lookUpInBackground()
+	{
+		FutureTask<String> task = new FutureTask<String>(new Callable<String>()
+		{
+			@Override
+			public String call()
+			{
+				return userPlayerLinker.getUserID(uuid.toString());
+			}
+		});
+		new Thread(task).start();
+		return task;
+	}
+}
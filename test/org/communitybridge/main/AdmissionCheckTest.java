@@ -0,0 +1,133 @@
+package org.communitybridge.main;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.UUID;
+import org.apache.commons.lang.RandomStringUtils;
+import org.communitybridge.linker.UserPlayerLinker;
+import org.communitybridge.synchronization.dao.DaoTestsHelper;
+import org.communitybridge.utility.Log;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class AdmissionCheckTest
+{
+	private static final String EXCEPTION_MESSAGE = "test message";
+	private static final String NAME = RandomStringUtils.randomAlphabetic(8);
+	private static final String USER_ID = RandomStringUtils.randomNumeric(3);
+	private static final String UUID_STRING = UUID.randomUUID().toString();
+
+	private Environment environment = new Environment();
+	private Configuration configuration = mock(Configuration.class);
+	private Log log = mock(Log.class);
+	private SQL sql = mock(SQL.class);
+	private UserPlayerLinker linker = mock(UserPlayerLinker.class);
+	private ResultSet result = mock(ResultSet.class);
+	private AdmissionCheck admissionCheck;
+
+	@Before
+	public void setup()
+	{
+		environment.setConfiguration(configuration);
+		environment.setLog(log);
+		environment.setSql(sql);
+		environment.setUserPlayerLinker(linker);
+		configuration.linkingMethod = "both";
+		configuration.linkingTableName = RandomStringUtils.randomAlphabetic(6);
+		configuration.linkingUserIDColumn = RandomStringUtils.randomAlphabetic(9);
+		configuration.linkingIdentifierColumn = RandomStringUtils.randomAlphabetic(4);
+		configuration.avatarTableName = RandomStringUtils.randomAlphabetic(7);
+		configuration.avatarUserIDColumn = RandomStringUtils.randomAlphabetic(5);
+		configuration.avatarAvatarColumn = RandomStringUtils.randomAlphabetic(6);
+		admissionCheck = new AdmissionCheck(environment);
+	}
+
+	@Test
+	public void checkUsesOneQuery() throws SQLException
+	{
+		configuration.avatarEnabled = true;
+		admissionCheck = new AdmissionCheck(environment);
+		String match = "LOWER(`" + configuration.linkingIdentifierColumn + "`) = LOWER(?)";
+		String query = "/* cb:admission-check */ SELECT `link`.`user_id`, `link`.`identifier`, "
+								 + "(SELECT `" + configuration.avatarAvatarColumn + "` FROM `" + configuration.avatarTableName + "` "
+								 + "WHERE `" + configuration.avatarUserIDColumn + "` = `link`.`user_id` LIMIT 1) AS `avatar` "
+								 + "FROM (SELECT `" + configuration.linkingUserIDColumn + "` AS `user_id`, `" + configuration.linkingIdentifierColumn + "` AS `identifier` "
+								 + "FROM `" + configuration.linkingTableName + "` "
+								 + "WHERE (" + match + " OR " + match + ") ORDER BY " + match + " DESC, "
+								 + "`" + configuration.linkingUserIDColumn + "` DESC LIMIT 1) AS `link`";
+		admissionCheck.check(UUID_STRING, NAME);
+		verify(sql).querySingle(eq(query), any(RowMapper.class), eq(UUID_STRING), eq(NAME), eq(UUID_STRING));
+	}
+
+	@Test
+	public void checkReturnsAdmission() throws SQLException
+	{
+		configuration.avatarEnabled = true;
+		configuration.postCountEnabled = true;
+		admissionCheck = new AdmissionCheck(environment);
+		DaoTestsHelper.stubQueries(sql, result);
+		when(result.next()).thenReturn(true);
+		when(result.getString("user_id")).thenReturn(USER_ID);
+		when(result.getString("identifier")).thenReturn(UUID_STRING);
+		when(result.getString("avatar")).thenReturn("avatar.png");
+		when(result.getInt("post_count")).thenReturn(12);
+
+		Admission admission = admissionCheck.check(UUID_STRING, NAME);
+
+		assertEquals(USER_ID, admission.getUserID());
+		assertTrue(admission.hasAvatar());
+		assertEquals(Integer.valueOf(12), admission.getPostCount());
+		verify(linker).cacheUserID(UUID_STRING, USER_ID);
+		verify(linker, never()).cacheUserID(eq(NAME), anyString());
+	}
+
+	@Test
+	public void checkWithLinkByNameCachesUUIDAsUnlinked() throws SQLException
+	{
+		DaoTestsHelper.stubQueries(sql, result);
+		when(result.next()).thenReturn(true);
+		when(result.getString("user_id")).thenReturn(USER_ID);
+		when(result.getString("identifier")).thenReturn(NAME);
+
+		admissionCheck.check(UUID_STRING, NAME);
+
+		verify(linker).cacheUserID(UUID_STRING, "");
+		verify(linker).cacheUserID(NAME, USER_ID);
+	}
+
+	@Test
+	public void checkWithoutLinkReturnsEmptyUserID() throws SQLException
+	{
+		DaoTestsHelper.stubQueries(sql, result);
+		when(result.next()).thenReturn(false);
+
+		assertEquals("", admissionCheck.check(UUID_STRING, NAME).getUserID());
+		verify(linker).cacheUserID(UUID_STRING, "");
+		verify(linker).cacheUserID(NAME, "");
+	}
+
+	@Test
+	public void checkHandlesSQLException() throws SQLException
+	{
+		SQLException exception = new SQLException(EXCEPTION_MESSAGE);
+		DaoTestsHelper.stubQueriesThrow(sql, exception);
+
+		assertNull(admissionCheck.check(UUID_STRING, NAME));
+		verify(log).severe(AdmissionCheck.EXCEPTION_MESSAGE_CHECK + exception.getMessage());
+		verify(linker, never()).cacheUserID(anyString(), anyString());
+	}
+
+	@Test
+	public void keptSnapshotIsReturnedUntilForgotten()
+	{
+		UUID uuid = UUID.fromString(UUID_STRING);
+		Admission admission = new Admission(USER_ID, UUID_STRING, null, null);
+		admissionCheck.keep(uuid, admission);
+		assertSame(admission, admissionCheck.getSnapshot(uuid));
+
+		admissionCheck.forget(uuid);
+		assertNull(admissionCheck.getSnapshot(uuid));
+	}
+}
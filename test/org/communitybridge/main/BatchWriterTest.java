@@ -0,0 +1,256 @@
+package org.communitybridge.main;
+
+import java.sql.SQLException;
+import java.util.List;
+import org.apache.commons.lang.RandomStringUtils;
+import org.communitybridge.utility.Log;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import static org.mockito.Mockito.*;
+
+public class BatchWriterTest
+{
+	private static final String EXCEPTION_MESSAGE = "test message";
+	private static final String USER_ID = RandomStringUtils.randomNumeric(2);
+	private static final String OTHER_USER_ID = RandomStringUtils.randomNumeric(3);
+	private static final String QUERY = RandomStringUtils.randomAlphabetic(10);
+	private static final String KEY = RandomStringUtils.randomAlphabetic(6);
+
+	private Log log = mock(Log.class);
+	private DatabaseHandler database = mock(DatabaseHandler.class);
+	private BatchWriter writer;
+
+	@Before
+	public void setup()
+	{
+		when(database.isAvailable()).thenReturn(true);
+		writer = new BatchWriter(log, database, 100, 1000, 1000L);
+	}
+
+	@Test
+	public void flushWithNothingPendingDoesNothing() throws SQLException
+	{
+		writer.flush();
+		verifyZeroInteractions(database);
+	}
+
+	@Test
+	public void flushSendsWritesInOrder() throws SQLException
+	{
+		writer.write(USER_ID, null, QUERY, "a");
+		writer.write(USER_ID, null, QUERY, "b");
+		List<BatchWriter.PendingWrite> writes = flushAndCapture();
+		assertEquals(2, writes.size());
+		assertEquals("a", writes.get(0).getParameters()[0]);
+		assertEquals("b", writes.get(1).getParameters()[0]);
+	}
+
+	@Test
+	public void writesWithSameKeyAreCoalesced() throws SQLException
+	{
+		writer.write(USER_ID, KEY, QUERY, "a");
+		writer.write(USER_ID, null, QUERY, "b");
+		writer.write(USER_ID, KEY, QUERY, "c");
+		List<BatchWriter.PendingWrite> writes = flushAndCapture();
+		assertEquals(2, writes.size());
+		assertEquals("b", writes.get(0).getParameters()[0]);
+		assertEquals("c", writes.get(1).getParameters()[0]);
+	}
+
+	@Test
+	public void flushEmptiesPendingWrites() throws SQLException
+	{
+		writer.write(USER_ID, KEY, QUERY, "a");
+		writer.flush();
+		writer.flush();
+		verify(database, times(1)).batch(anyListOf(BatchWriter.PendingWrite.class));
+	}
+
+	@Test
+	public void flushOwnerWithoutPendingWritesDoesNothing() throws SQLException
+	{
+		writer.write(OTHER_USER_ID, KEY, QUERY, "a");
+		writer.flush(USER_ID);
+		verifyZeroInteractions(database);
+	}
+
+	@Test
+	public void flushOwnerWithPendingWritesFlushesAll() throws SQLException
+	{
+		writer.write(OTHER_USER_ID, KEY, QUERY, "a");
+		writer.write(USER_ID, null, QUERY, "b");
+		writer.flush(USER_ID);
+		assertEquals(2, capturedWrites().size());
+	}
+
+	@Test
+	public void writeAfterCloseIsSentImmediately() throws SQLException
+	{
+		when(database.isAvailable()).thenReturn(false);
+		writer.close();
+		writer.write(USER_ID, KEY, QUERY, "a");
+		verify(database).batch(anyListOf(BatchWriter.PendingWrite.class));
+	}
+
+	@Test
+	public void flushKeepsWritesWhileDatabaseUnavailable() throws SQLException
+	{
+		when(database.isAvailable()).thenReturn(false);
+		writer.write(USER_ID, KEY, QUERY, "a");
+		writer.flush();
+		verify(database, never()).batch(anyListOf(BatchWriter.PendingWrite.class));
+
+		when(database.isAvailable()).thenReturn(true);
+		assertEquals(1, flushAndCapture().size());
+	}
+
+	@Test
+	public void flushHandlesSQLException() throws SQLException
+	{
+		SQLException exception = new SQLException(EXCEPTION_MESSAGE);
+		doThrow(exception).when(database).batch(anyListOf(BatchWriter.PendingWrite.class));
+		writer.write(USER_ID, KEY, QUERY, "a");
+		writer.flush();
+		verify(log).severe("Exception while writing 1 batched updates: " + EXCEPTION_MESSAGE);
+	}
+
+	@Test
+	public void flushReplaysWritesOneByOneAfterBatchFails() throws SQLException
+	{
+		doAnswer(new Answer<Void>()
+		{
+			@Override
+			public Void answer(InvocationOnMock invocation) throws SQLException
+			{
+				List<?> writes = (List<?>) invocation.getArguments()[0];
+				BatchWriter.PendingWrite first = (BatchWriter.PendingWrite) writes.get(0);
+				if (writes.size() > 1 || "b".equals(first.getParameters()[0]))
+				{
+					throw new SQLException(EXCEPTION_MESSAGE, "23000");
+				}
+				return null;
+			}
+		}).when(database).batch(anyListOf(BatchWriter.PendingWrite.class));
+		writer.write(USER_ID, null, QUERY, "a");
+		writer.write(OTHER_USER_ID, null, QUERY, "b");
+		writer.write(USER_ID, null, QUERY, "c");
+
+		writer.flush();
+
+		verify(database, times(4)).batch(anyListOf(BatchWriter.PendingWrite.class));
+		verify(log).severe("Exception while writing batched update for " + OTHER_USER_ID + " (" + QUERY + "): " + EXCEPTION_MESSAGE);
+		assertTrue(writer.getStatistics().contains(" flushed=2 failed=1"));
+	}
+
+	@Test
+	public void flushRequeuesWritesAfterConnectionFailure() throws SQLException
+	{
+		doThrow(new SQLException(EXCEPTION_MESSAGE, "08S01")).doNothing().when(database).batch(anyListOf(BatchWriter.PendingWrite.class));
+		writer.write(USER_ID, null, QUERY, "a");
+		writer.write(USER_ID, null, QUERY, "b");
+		writer.flush();
+		writer.write(OTHER_USER_ID, null, QUERY, "c");
+
+		List<BatchWriter.PendingWrite> writes = flushAndCaptureLast(2);
+		assertEquals(3, writes.size());
+		assertEquals("a", writes.get(0).getParameters()[0]);
+		assertEquals("b", writes.get(1).getParameters()[0]);
+		assertEquals("c", writes.get(2).getParameters()[0]);
+		assertTrue(writer.getStatistics().contains(" failed=0 requeued=2"));
+	}
+
+	@Test
+	public void requeuedWriteIsReplacedByNewerWriteWithSameKey() throws SQLException
+	{
+		doThrow(new SQLException(EXCEPTION_MESSAGE, "08S01")).doNothing().when(database).batch(anyListOf(BatchWriter.PendingWrite.class));
+		writer.write(USER_ID, KEY, QUERY, "a");
+		writer.write(USER_ID, null, QUERY, "b");
+		writer.flush();
+		writer.write(USER_ID, KEY, QUERY, "c");
+
+		List<BatchWriter.PendingWrite> writes = flushAndCaptureLast(2);
+		assertEquals(2, writes.size());
+		assertEquals("b", writes.get(0).getParameters()[0]);
+		assertEquals("c", writes.get(1).getParameters()[0]);
+	}
+
+	@Test
+	public void flushOwnerFindsRequeuedWrites() throws SQLException
+	{
+		doThrow(new SQLException(EXCEPTION_MESSAGE, "08S01")).doNothing().when(database).batch(anyListOf(BatchWriter.PendingWrite.class));
+		writer.write(USER_ID, KEY, QUERY, "a");
+		writer.flush();
+
+		writer.flush(USER_ID);
+
+		verify(database, times(2)).batch(anyListOf(BatchWriter.PendingWrite.class));
+	}
+
+	@Test
+	public void writesAreGivenUpOnConnectionFailureOnceClosed() throws SQLException
+	{
+		doThrow(new SQLException(EXCEPTION_MESSAGE, "08S01")).when(database).batch(anyListOf(BatchWriter.PendingWrite.class));
+		writer.write(USER_ID, null, QUERY, "a");
+		writer.write(USER_ID, null, QUERY, "b");
+
+		writer.close();
+
+		verify(log).severe("Exception while writing 2 batched updates: " + EXCEPTION_MESSAGE);
+		assertTrue(writer.getStatistics().startsWith("pending=0 "));
+	}
+
+	@Test
+	public void writeDropsOldestWritesBeyondLimitWhileDatabaseUnavailable() throws SQLException
+	{
+		writer = new BatchWriter(log, database, 1, 2, 1000L);
+		when(database.isAvailable()).thenReturn(false);
+		writer.write(USER_ID, null, QUERY, "a");
+		writer.write(USER_ID, null, QUERY, "b");
+		writer.write(OTHER_USER_ID, null, QUERY, "c");
+
+		when(database.isAvailable()).thenReturn(true);
+		List<BatchWriter.PendingWrite> writes = flushAndCapture();
+		assertEquals(2, writes.size());
+		assertEquals("b", writes.get(0).getParameters()[0]);
+		assertEquals("c", writes.get(1).getParameters()[0]);
+		assertTrue(writer.getStatistics().endsWith(" dropped=1"));
+	}
+
+	@Test
+	public void writeKeepsWritesBeyondLimitWhileDatabaseAvailable() throws SQLException
+	{
+		writer = new BatchWriter(log, database, 1, 2, 1000L);
+		writer.write(USER_ID, null, QUERY, "a");
+		writer.write(USER_ID, null, QUERY, "b");
+		writer.write(USER_ID, null, QUERY, "c");
+
+		assertEquals(3, flushAndCapture().size());
+	}
+
+	private List<BatchWriter.PendingWrite> flushAndCapture() throws SQLException
+	{
+		writer.flush();
+		return capturedWrites();
+	}
+
+	@SuppressWarnings("unchecked")
+	private List<BatchWriter.PendingWrite> flushAndCaptureLast(int calls) throws SQLException
+	{
+		writer.flush();
+		ArgumentCaptor<List> captor = ArgumentCaptor.forClass(List.class);
+		verify(database, times(calls)).batch(captor.capture());
+		return captor.getValue();
+	}
+
+	@SuppressWarnings("unchecked")
+	private List<BatchWriter.PendingWrite> capturedWrites() throws SQLException
+	{
+		ArgumentCaptor<List> captor = ArgumentCaptor.forClass(List.class);
+		verify(database).batch(captor.capture());
+		return captor.getValue();
+	}
+}
@@ -0,0 +1,126 @@
+package org.communitybridge.main;
+
+import java.sql.SQLException;
+import org.communitybridge.utility.Log;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class CircuitBreakerTest
+{
+	private Log log = mock(Log.class);
+	private CircuitBreaker breaker = new CircuitBreaker(log, "test", 2, 50L, 100L);
+
+	@Test
+	public void breakerStartsClosed() throws SQLException
+	{
+		breaker.acquire();
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		assertTrue(breaker.isAvailable());
+	}
+
+	@Test
+	public void breakerOpensAfterThresholdFailures()
+	{
+		breaker.recordFailure();
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		breaker.recordFailure();
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		assertFalse(breaker.isAvailable());
+	}
+
+	@Test
+	public void successResetsFailureCount()
+	{
+		breaker.recordFailure();
+		breaker.recordSuccess();
+		breaker.recordFailure();
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+	}
+
+	@Test
+	public void openBreakerRejectsCalls()
+	{
+		open();
+		try
+		{
+			breaker.acquire();
+			fail("Expected the open breaker to reject the call.");
+		}
+		catch (SQLException exception)
+		{
+			assertEquals(CircuitBreaker.UNAVAILABLE_STATE, exception.getSQLState());
+		}
+	}
+
+	@Test
+	public void breakerLetsOneProbeThroughAfterBackoff() throws SQLException, InterruptedException
+	{
+		open();
+		Thread.sleep(60);
+		assertTrue(breaker.isAvailable());
+		breaker.acquire();
+		assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+		assertFalse(breaker.isAvailable());
+	}
+
+	@Test
+	public void successfulProbeClosesBreaker() throws SQLException, InterruptedException
+	{
+		open();
+		Thread.sleep(60);
+		breaker.acquire();
+		breaker.recordSuccess();
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		verify(log).info("Connection to the test database has been restored.");
+	}
+
+	@Test
+	public void failedProbeReopensWithLongerBackoff() throws SQLException, InterruptedException
+	{
+		open();
+		Thread.sleep(60);
+		breaker.acquire();
+		breaker.recordFailure();
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		verify(log).warning("Lost connection to the test database; suspending database calls for 100ms.");
+	}
+
+	@Test
+	public void cancelledProbeLetsNextCallProbe() throws SQLException, InterruptedException
+	{
+		open();
+		Thread.sleep(60);
+		breaker.acquire();
+		breaker.cancel();
+		assertTrue(breaker.isAvailable());
+		breaker.acquire();
+		assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+	}
+
+	@Test
+	public void cancelDoesNotCountAsFailure()
+	{
+		breaker.recordFailure();
+		breaker.cancel();
+		breaker.cancel();
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+	}
+
+	@Test
+	public void zeroThresholdNeverOpens()
+	{
+		breaker = new CircuitBreaker(log, "test", 0, 50L, 100L);
+		for (int count = 0; count < 10; count++)
+		{
+			breaker.recordFailure();
+		}
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+	}
+
+	private void open()
+	{
+		breaker.recordFailure();
+		breaker.recordFailure();
+	}
+}
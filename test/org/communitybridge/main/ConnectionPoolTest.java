@@ -0,0 +1,131 @@
+package org.communitybridge.main;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Properties;
+import org.communitybridge.utility.Log;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class ConnectionPoolTest
+{
+	private static final String URL = "jdbc:mysql://" + TestDriver.LOCATION + "/pool";
+
+	private Log log = mock(Log.class);
+	private ConnectionPool pool;
+
+	@BeforeClass
+	public static void registerDriver() throws SQLException
+	{
+		TestDriver.register();
+	}
+
+	@Before
+	public void setup()
+	{
+		TestDriver.reset();
+	}
+
+	@After
+	public void teardown()
+	{
+		if (pool != null)
+		{
+			pool.close();
+		}
+	}
+
+	@Test
+	public void borrowTimesOutWhenPoolIsExhausted() throws SQLException
+	{
+		pool = createPool(0, 1, 60000L, 0L);
+		pool.borrow();
+		try
+		{
+			pool.borrow();
+			fail("Expected an SQLException");
+		}
+		catch (SQLException exception)
+		{
+			assertEquals(1, pool.getTimeoutCount());
+		}
+	}
+
+	@Test
+	public void idleConnectionAboveMinimumIsEvicted() throws SQLException, InterruptedException
+	{
+		pool = createPool(1, 2, 1L, 0L);
+		PooledConnection first = pool.borrow();
+		PooledConnection second = pool.borrow();
+		pool.release(first, false);
+		pool.release(second, false);
+		Thread.sleep(20);
+
+		pool.evictIdleConnections();
+
+		assertEquals(1, pool.getOpenConnections());
+		assertEquals(1, pool.getEvictedCount());
+	}
+
+	@Test
+	public void idleConnectionAtMinimumIsKeptOnBorrow() throws SQLException, InterruptedException
+	{
+		pool = createPool(1, 2, 1L, 0L);
+		PooledConnection pooled = pool.borrow();
+		pool.release(pooled, false);
+		Thread.sleep(20);
+
+		assertSame(pooled, pool.borrow());
+		assertEquals(1, pool.getOpenConnections());
+		assertEquals(0, pool.getEvictedCount());
+	}
+
+	@Test
+	public void housekeepRefillsMinimum() throws SQLException
+	{
+		pool = createPool(2, 4, 60000L, 0L);
+		pool.release(pool.borrow(), true);
+		assertEquals(0, pool.getOpenConnections());
+
+		pool.housekeep();
+
+		assertEquals(2, pool.getOpenConnections());
+	}
+
+	@Test
+	public void housekeepDropsConnectionThatFailsKeepalive() throws SQLException, InterruptedException
+	{
+		pool = createPool(1, 2, 60000L, 1L);
+		pool.release(pool.borrow(), false);
+		Connection connection = TestDriver.connections.get(0);
+		TestDriver.valid = false;
+		Thread.sleep(20);
+
+		pool.housekeep();
+
+		verify(connection).close();
+		assertEquals(1, pool.getValidationFailureCount());
+	}
+
+	@Test
+	public void brokenConnectionIsClosedOnRelease() throws SQLException
+	{
+		pool = createPool(0, 2, 60000L, 0L);
+		PooledConnection pooled = pool.borrow();
+
+		pool.release(pooled, true);
+
+		verify(pooled.getConnection()).close();
+		assertEquals(0, pool.getOpenConnections());
+		assertNotSame(pooled, pool.borrow());
+	}
+
+	private ConnectionPool createPool(int minimumSize, int maximumSize, long idleTimeout, long keepaliveInterval)
+	{
+		return new ConnectionPool(log, URL, new Properties(), minimumSize, maximumSize, idleTimeout, 0L, 50L, 60000L, keepaliveInterval, 10);
+	}
+}
@@ -0,0 +1,71 @@
+package org.communitybridge.main;
+
+import java.sql.SQLException;
+import org.communitybridge.utility.Log;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class DatabaseHandlerTest
+{
+	private static final String QUERY = "UPDATE test SET value = ?";
+
+	private Log log = mock(Log.class);
+	private CircuitBreaker breaker = new CircuitBreaker(log, "test", 1, 60000L, 60000L);
+	private DatabaseHandler database;
+
+	@BeforeClass
+	public static void registerDriver() throws SQLException
+	{
+		TestDriver.register();
+	}
+
+	@Before
+	public void setup()
+	{
+		TestDriver.reset();
+		database = new DatabaseHandler(log, TestDriver.LOCATION, "test", "user", "password", "", 0, 1, 60000L, 0L, 50L, 60000L, 0L, 10, breaker, new QueryMetrics("test"), mock(SlowQueryLog.class));
+	}
+
+	@After
+	public void teardown()
+	{
+		database.closeConnection();
+	}
+
+	@Test
+	public void borrowTimeoutLeavesBreakerClosed() throws SQLException
+	{
+		database.getPool().borrow();
+		try
+		{
+			database.update(QUERY, "a");
+			fail("Expected an SQLException");
+		}
+		catch (SQLException exception)
+		{
+			assertEquals(1, database.getPool().getTimeoutCount());
+		}
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		assertTrue(database.isAvailable());
+	}
+
+	@Test
+	public void connectionFailureOpensBreaker()
+	{
+		TestDriver.failure = new SQLException("Communications link failure", "08S01");
+		try
+		{
+			database.update(QUERY, "a");
+			fail("Expected an SQLException");
+		}
+		catch (SQLException exception)
+		{
+			assertEquals("08S01", exception.getSQLState());
+		}
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+	}
+}
@@ -0,0 +1,94 @@
+package org.communitybridge.main;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class DatabaseSchemaTest
+{
+	private DatabaseSchema schema = new DatabaseSchema();
+
+	@Before
+	public void setup()
+	{
+		schema.addColumn("xf_user", "user_id", "INT");
+		schema.addColumn("xf_user", "Username", "varchar", "utf8_general_ci");
+		schema.addColumn("Links", "uuid", "text", "utf8_bin");
+		schema.addIndex("xf_user", "user_id");
+	}
+
+	@Test
+	public void hasTableFindsLoadedTables()
+	{
+		assertTrue(schema.hasTable("xf_user"));
+		assertTrue(schema.hasTable("Links"));
+		assertEquals(2, schema.getTableCount());
+	}
+
+	@Test
+	public void hasTableDoesNotTreatUnderscoreAsWildcard()
+	{
+		assertFalse(schema.hasTable("xfXuser"));
+	}
+
+	@Test
+	public void hasTableIsCaseSensitiveByDefault()
+	{
+		assertFalse(schema.hasTable("links"));
+	}
+
+	@Test
+	public void hasTableIgnoresCaseWhenServerDoes()
+	{
+		schema.setCaseInsensitiveTables(true);
+		assertTrue(schema.hasTable("links"));
+		assertTrue(schema.hasColumn("LINKS", "uuid"));
+	}
+
+	@Test
+	public void hasColumnIgnoresCase()
+	{
+		assertTrue(schema.hasColumn("xf_user", "USER_ID"));
+		assertTrue(schema.hasColumn("xf_user", "username"));
+	}
+
+	@Test
+	public void hasColumnIsFalseForMissingColumnOrTable()
+	{
+		assertFalse(schema.hasColumn("xf_user", "uuid"));
+		assertFalse(schema.hasColumn("missing", "user_id"));
+		assertFalse(schema.hasColumn("xf_user", null));
+	}
+
+	@Test
+	public void getColumnTypeReturnsLowerCaseType()
+	{
+		assertEquals("int", schema.getColumnType("xf_user", "USER_ID"));
+		assertNull(schema.getColumnType("xf_user", "uuid"));
+	}
+
+	@Test
+	public void isCaseInsensitiveFollowsCollation()
+	{
+		assertTrue(schema.isCaseInsensitive("xf_user", "username"));
+		assertFalse(schema.isCaseInsensitive("Links", "uuid"));
+		assertFalse(schema.isCaseInsensitive("xf_user", "user_id"));
+		assertFalse(schema.isCaseInsensitive("missing", "user_id"));
+	}
+
+	@Test
+	public void hasIndexStartingWithFindsLeadingColumn()
+	{
+		assertTrue(schema.hasIndexStartingWith("xf_user", "User_ID"));
+		assertFalse(schema.hasIndexStartingWith("xf_user", "username"));
+		assertFalse(schema.hasIndexStartingWith("Links", "uuid"));
+	}
+
+	@Test
+	public void hasIndexStartingWithIgnoresTableCaseWhenServerDoes()
+	{
+		assertFalse(schema.hasIndexStartingWith("XF_USER", "user_id"));
+		schema.setCaseInsensitiveTables(true);
+		assertTrue(schema.hasIndexStartingWith("XF_USER", "user_id"));
+	}
+}
@@ -0,0 +1,55 @@
+package org.communitybridge.main;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class PooledConnectionTest
+{
+	private Connection connection = mock(Connection.class);
+
+	@Test
+	public void prepareStatementReusesCachedStatement() throws SQLException
+	{
+		PreparedStatement statement = mock(PreparedStatement.class);
+		when(connection.prepareStatement("SELECT 1")).thenReturn(statement);
+		PooledConnection pooled = new PooledConnection(connection, 4);
+
+		assertSame(statement, pooled.prepareStatement("SELECT 1"));
+		assertSame(statement, pooled.prepareStatement("SELECT 1"));
+		verify(connection, times(1)).prepareStatement("SELECT 1");
+	}
+
+	@Test
+	public void prepareStatementClosesLeastRecentlyUsedStatement() throws SQLException
+	{
+		PreparedStatement first = mock(PreparedStatement.class);
+		PreparedStatement second = mock(PreparedStatement.class);
+		when(connection.prepareStatement("SELECT 1")).thenReturn(first);
+		when(connection.prepareStatement("SELECT 2")).thenReturn(second);
+		PooledConnection pooled = new PooledConnection(connection, 1);
+
+		pooled.prepareStatement("SELECT 1");
+		pooled.prepareStatement("SELECT 2");
+
+		verify(first).close();
+		verify(second, never()).close();
+		assertEquals(1, pooled.getCachedStatementCount());
+	}
+
+	@Test
+	public void prepareStatementWithNoCacheSizeLeavesStatementOpen() throws SQLException
+	{
+		PreparedStatement statement = mock(PreparedStatement.class);
+		when(connection.prepareStatement("SELECT 1")).thenReturn(statement);
+		PooledConnection pooled = new PooledConnection(connection, 0);
+
+		assertSame(statement, pooled.prepareStatement("SELECT 1"));
+
+		verify(statement, never()).close();
+		assertEquals(1, pooled.getCachedStatementCount());
+	}
+}
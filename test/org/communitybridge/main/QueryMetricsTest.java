@@ -0,0 +1,95 @@
+package org.communitybridge.main;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class QueryMetricsTest
+{
+	private static final String QUERY = "/* cb:wallet-read */ SELECT `balance` FROM `wallets` WHERE `user_id` = ?";
+
+	private QueryMetrics metrics = new QueryMetrics("primary");
+
+	@Test
+	public void getOperationNameReadsTag()
+	{
+		assertEquals("wallet-read", QueryMetrics.getOperationName(QUERY));
+	}
+
+	@Test
+	public void getOperationNameWithoutTagUsesKeyword()
+	{
+		assertEquals("untagged-select", QueryMetrics.getOperationName("SELECT * FROM `users`"));
+	}
+
+	@Test
+	public void timerRecordsCall()
+	{
+		QueryMetrics.Timer timer = metrics.start(QUERY);
+		timer.connected();
+		timer.addRows(3);
+		timer.stop();
+
+		List<QueryMetrics.Operation> operations = metrics.getOperations();
+		assertEquals(1, operations.size());
+		assertEquals("wallet-read", operations.get(0).getName());
+		assertEquals(1, operations.get(0).getCount());
+		assertEquals(0, operations.get(0).getErrors());
+		assertEquals(3, operations.get(0).getRows());
+	}
+
+	@Test
+	public void timerRecordsFailure()
+	{
+		QueryMetrics.Timer timer = metrics.start(QUERY);
+		timer.fail();
+		timer.stop();
+		assertEquals(1, metrics.getOperations().get(0).getErrors());
+	}
+
+	@Test
+	public void queriesWithSameTagShareOperation()
+	{
+		metrics.start(QUERY).stop();
+		metrics.start("/* cb:wallet-read */ SELECT `other` FROM `wallets`").stop();
+		assertEquals(1, metrics.getOperations().size());
+		assertEquals(2, metrics.getOperations().get(0).getCount());
+	}
+
+	@Test
+	public void percentileOfFastCallsIsFirstBucket()
+	{
+		metrics.start(QUERY).stop();
+		assertEquals(QueryMetrics.BUCKET_BOUNDS[0], metrics.getOperations().get(0).getPercentile(0.95), 0.0);
+	}
+
+	@Test
+	public void callsOnBucketBoundCountInThatBucket()
+	{
+		assertEquals(0, QueryMetrics.Operation.bucketFor(0));
+		assertEquals(0, QueryMetrics.Operation.bucketFor(QueryMetrics.BUCKET_BOUNDS[0]));
+		assertEquals(1, QueryMetrics.Operation.bucketFor(QueryMetrics.BUCKET_BOUNDS[0] + 1));
+		assertEquals(QueryMetrics.BUCKET_BOUNDS.length, QueryMetrics.Operation.bucketFor(QueryMetrics.BUCKET_BOUNDS[QueryMetrics.BUCKET_BOUNDS.length - 1] + 1));
+	}
+
+	@Test
+	public void resetClearsOperations()
+	{
+		metrics.start(QUERY).stop();
+		metrics.reset();
+		assertTrue(metrics.getOperations().isEmpty());
+	}
+
+	@Test
+	public void exportWritesOneLinePerOperation()
+	{
+		metrics.start(QUERY).stop();
+		StringWriter output = new StringWriter();
+		metrics.export(new PrintWriter(output, true));
+		String line = output.toString().trim();
+		assertTrue(line.startsWith("primary,wallet-read,1,0,0,"));
+		assertEquals(12 + QueryMetrics.BUCKET_BOUNDS.length + 1, line.split(",").length);
+	}
+}
@@ -0,0 +1,98 @@
+package org.communitybridge.main;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.sql.SQLException;
+import java.util.Arrays;
+import org.communitybridge.utility.Log;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class SlowQueryLogTest
+{
+	private static final String QUERY = "/* cb:wallet-read */ SELECT `balance` FROM `wallets` WHERE `user_id` = ?";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Log log = mock(Log.class);
+	private DatabaseHandler database = mock(DatabaseHandler.class);
+	private File file;
+
+	@Before
+	public void setup() throws IOException
+	{
+		file = new File(folder.getRoot(), "slow-queries.log");
+		when(database.getMetrics()).thenReturn(new QueryMetrics("primary"));
+	}
+
+	@Test
+	public void isSlowComparesWithThreshold()
+	{
+		SlowQueryLog slowQueryLog = new SlowQueryLog(log, file, 100, 1024, 1, false);
+		slowQueryLog.start();
+		assertFalse(slowQueryLog.isSlow(99 * 1000000L));
+		assertTrue(slowQueryLog.isSlow(100 * 1000000L));
+		slowQueryLog.close();
+	}
+
+	@Test
+	public void isSlowIsFalseWhenNotStarted()
+	{
+		SlowQueryLog slowQueryLog = new SlowQueryLog(log, file, 100, 1024, 1, false);
+		assertFalse(slowQueryLog.isSlow(Long.MAX_VALUE));
+	}
+
+	@Test
+	public void recordWritesEntryWithParametersAndCaller() throws IOException
+	{
+		SlowQueryLog slowQueryLog = new SlowQueryLog(log, file, 100, 1024, 1, false);
+		slowQueryLog.start();
+		slowQueryLog.record(database, QUERY, new Object[] { "42" }, 250 * 1000000L, 0, 1);
+		slowQueryLog.close();
+
+		String contents = readLog();
+		assertTrue(contents.contains("primary wallet-read 250.0ms"));
+		assertTrue(contents.contains("parameters: [42]"));
+		assertTrue(contents.contains(SlowQueryLogTest.class.getName() + ".recordWritesEntryWithParametersAndCaller"));
+	}
+
+	@Test
+	public void recordAfterCloseIsDropped() throws IOException
+	{
+		SlowQueryLog slowQueryLog = new SlowQueryLog(log, file, 100, 1024, 1, false);
+		slowQueryLog.start();
+		slowQueryLog.close();
+		slowQueryLog.record(database, QUERY, new Object[] { "42" }, 250 * 1000000L, 0, 1);
+
+		assertFalse(slowQueryLog.isSlow(Long.MAX_VALUE));
+		assertTrue(slowQueryLog.getStatistics().contains("dropped=1"));
+		assertFalse(readLog().contains("wallet-read"));
+	}
+
+	@Test
+	public void recordExplainsEachStatementOnce() throws IOException, SQLException
+	{
+		when(database.explain(eq(QUERY), any(RowMapper.class), anyVararg())).thenReturn(Arrays.asList("table=wallets type=ALL key=null"));
+		SlowQueryLog slowQueryLog = new SlowQueryLog(log, file, 100, 1024, 1, true);
+		slowQueryLog.start();
+		slowQueryLog.record(database, QUERY, new Object[] { "42" }, 250 * 1000000L, 0, 1);
+		slowQueryLog.record(database, QUERY, new Object[] { "43" }, 250 * 1000000L, 0, 1);
+		slowQueryLog.close();
+
+		verify(database, times(1)).explain(eq(QUERY), any(RowMapper.class), anyVararg());
+		assertTrue(readLog().contains("table=wallets type=ALL key=null"));
+	}
+
+	private String readLog() throws IOException
+	{
+		File written = file.exists() ? file : new File(file.getPath() + ".0");
+		return new String(Files.readAllBytes(written.toPath()), Charset.defaultCharset());
+	}
+}
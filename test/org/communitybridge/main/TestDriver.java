@@ -0,0 +1,105 @@
+package org.communitybridge.main;
+
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Logger;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import static org.mockito.Mockito.*;
+
+/**
+ * A JDBC driver for the database host LOCATION that hands out mock
+ * connections, so the pool can be tested without a database.
+ */
+public class TestDriver implements Driver
+{
+	public static final String LOCATION = "communitybridge-test";
+
+	static final List<Connection> connections = new CopyOnWriteArrayList<Connection>();
+	static volatile boolean valid;
+	static volatile SQLException failure;
+	private static boolean registered;
+
+	public static synchronized void register() throws SQLException
+	{
+		if (!registered)
+		{
+			DriverManager.registerDriver(new TestDriver());
+			registered = true;
+		}
+	}
+
+	public static void reset()
+	{
+		connections.clear();
+		valid = true;
+		failure = null;
+	}
+
+	@Override
+	public Connection connect(String url, Properties info) throws SQLException
+	{
+		if (!acceptsURL(url))
+		{
+			return null;
+		}
+		if (failure != null)
+		{
+			throw failure;
+		}
+		Connection connection = mock(Connection.class);
+		when(connection.isValid(anyInt())).thenAnswer(new Answer<Boolean>()
+		{
+			@Override
+			public Boolean answer(InvocationOnMock invocation)
+			{
+				return valid;
+			}
+		});
+		connections.add(connection);
+		return connection;
+	}
+
+	@Override
+	public boolean acceptsURL(String url)
+	{
+		return url.startsWith("jdbc:mysql://" + LOCATION + "/");
+	}
+
+	@Override
+	public DriverPropertyInfo[] getPropertyInfo(String url, Properties info)
+	{
+		return new DriverPropertyInfo[0];
+	}
+
+	@Override
+	public int getMajorVersion()
+	{
+		return 1;
+	}
+
+	@Override
+	public int getMinorVersion()
+	{
+		return 0;
+	}
+
+	@Override
+	public boolean jdbcCompliant()
+	{
+		return false;
+	}
+
+	@Override
+	public Logger getParentLogger() throws SQLFeatureNotSupportedException
+	{
+		throw new SQLFeatureNotSupportedException();
+	}
+}
@@ -2,6 +2,7 @@ package org.communitybridge.main;
 
 import java.net.MalformedURLException;
 import java.sql.SQLException;
+import java.util.UUID;
 import org.apache.commons.lang.RandomStringUtils;
 import org.communitybridge.synchronization.dao.WebGroupDao;
 import org.communitybridge.utility.Log;
@@ -50,27 +51,6 @@ public class WebApplicationTest
 		testAddGroupException(exception);
 	}
 
-	@Test
-	public void addGroupHandlesMalformedURLException() throws MalformedURLException, InstantiationException, IllegalAccessException, SQLException
-	{
-		MalformedURLException exception = new MalformedURLException(EXCEPTION_MESSAGE);
-		testAddGroupException(exception);
-	}
-
-	@Test
-	public void addGroupHandlesInstantiationException() throws MalformedURLException, InstantiationException, IllegalAccessException, SQLException
-	{
-		InstantiationException exception = new InstantiationException(EXCEPTION_MESSAGE);
-		testAddGroupException(exception);
-	}
-
-	@Test
-	public void addGroupHandlesIllegalAccessException() throws MalformedURLException, InstantiationException, IllegalAccessException, SQLException
-	{
-		IllegalAccessException exception = new IllegalAccessException(EXCEPTION_MESSAGE);
-		testAddGroupException(exception);
-	}
-
 	private void testAddGroupException(Exception exception) throws SQLException, InstantiationException, IllegalAccessException, MalformedURLException
 	{
 		doThrow(exception).when(webGroupDao).addUserToGroup(USER_ID, GROUP_NAME, COUNT);
@@ -92,27 +72,6 @@ public class WebApplicationTest
 		testRemoveGroupException(exception);
 	}
 
-	@Test
-	public void removeGroupHandlesMalformedURLException() throws MalformedURLException, InstantiationException, IllegalAccessException, SQLException
-	{
-		MalformedURLException exception = new MalformedURLException(EXCEPTION_MESSAGE);
-		testRemoveGroupException(exception);
-	}
-
-	@Test
-	public void removeGroupHandlesInstantiationException() throws MalformedURLException, InstantiationException, IllegalAccessException, SQLException
-	{
-		InstantiationException exception = new InstantiationException(EXCEPTION_MESSAGE);
-		testRemoveGroupException(exception);
-	}
-
-	@Test
-	public void removeGroupHandlesIllegalAccessException() throws MalformedURLException, InstantiationException, IllegalAccessException, SQLException
-	{
-		IllegalAccessException exception = new IllegalAccessException(EXCEPTION_MESSAGE);
-		testRemoveGroupException(exception);
-	}
-
 	private void testRemoveGroupException(Exception exception) throws SQLException, InstantiationException, IllegalAccessException, MalformedURLException
 	{
 		when(configuration.getWebappGroupIDbyGroupName(GROUP_NAME)).thenReturn(GROUP_ID);
@@ -135,27 +94,6 @@ public class WebApplicationTest
 		testUserPrimaryGroupIDGroupsException(exception);
 	}
 
-	@Test
-	public void getUserPrimaryGroupIDHandlesMalformedURLException() throws MalformedURLException, InstantiationException, IllegalAccessException, SQLException
-	{
-		MalformedURLException exception = new MalformedURLException(EXCEPTION_MESSAGE);
-		testUserPrimaryGroupIDGroupsException(exception);
-	}
-
-	@Test
-	public void getUserPrimaryGroupIDHandlesInstantiationException() throws MalformedURLException, InstantiationException, IllegalAccessException, SQLException
-	{
-		InstantiationException exception = new InstantiationException(EXCEPTION_MESSAGE);
-		testUserPrimaryGroupIDGroupsException(exception);
-	}
-
-	@Test
-	public void getUserPrimaryGroupIDHandlesIllegalAccessException() throws MalformedURLException, InstantiationException, IllegalAccessException, SQLException
-	{
-		IllegalAccessException exception = new IllegalAccessException(EXCEPTION_MESSAGE);
-		testUserPrimaryGroupIDGroupsException(exception);
-	}
-
 	private void testUserPrimaryGroupIDGroupsException(Exception exception) throws SQLException, InstantiationException, IllegalAccessException, MalformedURLException
 	{
 		when(webGroupDao.getPrimaryGroupID(anyString())).thenThrow(exception);
@@ -177,31 +115,39 @@ public class WebApplicationTest
 		testSecondaryGroupUserIDsGroupsException(exception);
 	}
 
-	@Test
-	public void getUserSecondaryGroupIDsHandlesMalformedURLException() throws MalformedURLException, InstantiationException, IllegalAccessException, SQLException
+	private void testSecondaryGroupUserIDsGroupsException(Exception exception) throws SQLException, InstantiationException, IllegalAccessException, MalformedURLException
 	{
-		MalformedURLException exception = new MalformedURLException(EXCEPTION_MESSAGE);
-		testSecondaryGroupUserIDsGroupsException(exception);
+		when(webGroupDao.getSecondaryGroupIDs(anyString())).thenThrow(exception);
+		assertEquals(0, webApplication.getUserSecondaryGroupIDs("").size());
+		verify(log).severe(WebApplication.EXCEPTION_MESSAGE_GETSECONDARY + exception.getMessage());
 	}
 
 	@Test
-	public void getUserSecondaryGroupIDsHandlesInstantiationException() throws MalformedURLException, InstantiationException, IllegalAccessException, SQLException
+	public void getSlotSpreadsPlayersOverAllSlots()
 	{
-		InstantiationException exception = new InstantiationException(EXCEPTION_MESSAGE);
-		testSecondaryGroupUserIDsGroupsException(exception);
+		int[] counts = new int[4];
+		for (int player = 0; player < 1000; player++)
+		{
+			counts[WebApplication.getSlot(UUID.randomUUID(), counts.length)]++;
+		}
+		for (int count : counts)
+		{
+			assertTrue(count > 0);
+		}
 	}
 
 	@Test
-	public void getUserSecondaryGroupIDsHandlesIllegalAccessException() throws MalformedURLException, InstantiationException, IllegalAccessException, SQLException
+	public void getSlotIsTheSameForTheSamePlayer()
 	{
-		IllegalAccessException exception = new IllegalAccessException(EXCEPTION_MESSAGE);
-		testSecondaryGroupUserIDsGroupsException(exception);
+		UUID uuid = UUID.randomUUID();
+		assertEquals(WebApplication.getSlot(uuid, 7), WebApplication.getSlot(UUID.fromString(uuid.toString()), 7));
 	}
 
-	private void testSecondaryGroupUserIDsGroupsException(Exception exception) throws SQLException, InstantiationException, IllegalAccessException, MalformedURLException
+	@Test
+	public void synchronizeSlotSkipsWhileDatabaseUnavailable()
 	{
-		when(webGroupDao.getSecondaryGroupIDs(anyString())).thenThrow(exception);
-		assertEquals(0, webApplication.getUserSecondaryGroupIDs("").size());
-		verify(log).severe(WebApplication.EXCEPTION_MESSAGE_GETSECONDARY + exception.getMessage());
+		when(sql.isAvailable()).thenReturn(false);
+		webApplication.synchronizeSlot(1, 4);
+		verify(log).fine("Skipping synchronization while the database is unavailable.");
 	}
 }
@@ -1,6 +1,7 @@
 package org.communitybridge.synchronization;
 
 import java.net.MalformedURLException;
+import java.sql.SQLException;
 import net.milkbowl.vault.economy.Economy;
 import org.apache.commons.lang.RandomStringUtils;
 import org.apache.commons.lang.math.RandomUtils;
@@ -153,7 +154,7 @@ public class MoneySynchronizerTest
 	}
 
 	@Test
-	public void synchronizeWithPositiveGameChangeShouldUpdateWeb() throws IllegalAccessException, InstantiationException, MalformedURLException
+	public void synchronizeWithPositiveGameChangeShouldUpdateWeb() throws IllegalAccessException, InstantiationException, MalformedURLException, SQLException
 	{
 		double mcPrevious = RandomUtils.nextDouble();
 		double mcCurrent = mcPrevious * 2;
@@ -171,7 +172,7 @@ public class MoneySynchronizerTest
 	}
 
 	@Test
-	public void synchronizeWithNegativeGameChangeShouldUpdateWeb() throws IllegalAccessException, InstantiationException, MalformedURLException
+	public void synchronizeWithNegativeGameChangeShouldUpdateWeb() throws IllegalAccessException, InstantiationException, MalformedURLException, SQLException
 	{
 		double mcCurrent = RandomUtils.nextDouble();
 		double mcPrevious = mcCurrent * 2;
@@ -8,6 +8,9 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import net.milkbowl.vault.economy.Economy;
 import org.apache.commons.lang.RandomStringUtils;
 import org.apache.commons.lang.math.RandomUtils;
@@ -16,6 +19,7 @@ import org.bukkit.entity.Player;
 import org.communitybridge.main.CommunityBridge;
 import org.communitybridge.main.Configuration;
 import org.communitybridge.main.Environment;
+import org.communitybridge.main.SQL;
 import org.communitybridge.main.WebApplication;
 import org.communitybridge.permissionhandlers.PermissionHandler;
 import org.communitybridge.synchronization.dao.MoneyDao;
@@ -25,6 +29,8 @@ import org.junit.Before;
 import static org.junit.Assert.*;
 import org.junit.runner.RunWith;
 import org.mockito.InjectMocks;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import static org.mockito.Mockito.*;
 import org.powermock.api.mockito.PowerMockito;
 import org.powermock.core.classloader.annotations.PrepareForTest;
@@ -52,6 +58,7 @@ public class PlayerStateTest
 	private Player player = mock(Player.class);
 	private MoneyDao money = mock(MoneyDao.class);
 	private WebApplication webApplication = mock(WebApplication.class);
+	private SQL sql = mock(SQL.class);
 
 	private YamlConfiguration playerData = mock(YamlConfiguration.class);
 	private File playerFile = mock(File.class);
@@ -68,6 +75,17 @@ public class PlayerStateTest
 		environment.setPermissionHandler(permissionHandler);
 		environment.setPlugin(plugin);
 		environment.setWebApplication(webApplication);
+		environment.setSql(sql);
+		when(sql.submit(any(Callable.class))).thenAnswer(new Answer<Future<Object>>()
+		{
+			@Override
+			public Future<Object> answer(InvocationOnMock invocation)
+			{
+				FutureTask<Object> task = new FutureTask<Object>((Callable<Object>) invocation.getArguments()[0]);
+				task.run();
+				return task;
+			}
+		});
 		configuration.simpleSynchronizationGroupsTreatedAsPrimary = new ArrayList<String>();
 		configuration.simpleSynchronizationGroupsTreatedAsPrimary.add(PRIMARY_GROUP_NAME);
 		configuration.groupSynchronizationActive = true;
@@ -342,7 +360,7 @@ public class PlayerStateTest
 	{
 		when(playerFile.exists()).thenReturn(false);
 		when(oldPlayerFile.exists()).thenReturn(false);
-		state.load(playerFile);
+		state.load(playerFile, 0);
 		assertEquals(true, state.isIsNewFile());
 		assertEquals("", state.getWebappPrimaryGroupID());
 		assertTrue("Group name list should be empty", state.getPermissionsSystemGroupNames().isEmpty());
@@ -366,7 +384,7 @@ public class PlayerStateTest
 		when(playerData.getString("permissions-system.primary-group-name", "")).thenReturn(PRIMARY_GROUP_NAME);
 		when(playerData.getStringList("webapp.group-ids")).thenReturn(GROUP_IDS);
 		when(playerData.getString("webapp.primary-group-id", "")).thenReturn(PRIMARY_GROUP_ID);
-		state.load(playerFile);
+		state.load(playerFile, 0);
 
 		assertEquals(false, state.isIsNewFile());
 		assertEquals(mcWallet, state.getMinecraftWallet(), 0);
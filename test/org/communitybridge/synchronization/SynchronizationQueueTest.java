@@ -0,0 +1,123 @@
+package org.communitybridge.synchronization;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.bukkit.entity.Player;
+import org.communitybridge.utility.Log;
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class SynchronizationQueueTest
+{
+	private Log log = mock(Log.class);
+	private CountDownLatch started = new CountDownLatch(1);
+	private CountDownLatch release = new CountDownLatch(1);
+	private final List<String> synchronizations = Collections.synchronizedList(new ArrayList<String>());
+	private SynchronizationQueue queue = new SynchronizationQueue(log, 1, new SynchronizationQueue.Task()
+	{
+		@Override
+		public void synchronize(Player player, String userID, boolean online)
+		{
+			started.countDown();
+			try
+			{
+				release.await(5, TimeUnit.SECONDS);
+			}
+			catch (InterruptedException exception)
+			{
+				Thread.currentThread().interrupt();
+			}
+			synchronizations.add(player.getName() + ":" + online);
+		}
+	});
+
+	@After
+	public void teardown()
+	{
+		release.countDown();
+		queue.shutdown(5000L);
+	}
+
+	@Test
+	public void requestsForQueuedPlayerAreMerged() throws InterruptedException
+	{
+		Player blocker = mockPlayer("blocker");
+		Player player = mockPlayer("player");
+		queue.request(blocker, null, true, SynchronizationQueue.PRIORITY_BACKGROUND);
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+
+		queue.request(player, null, true, SynchronizationQueue.PRIORITY_BACKGROUND);
+		CountDownLatch done = queue.request(player, null, false, SynchronizationQueue.PRIORITY_BACKGROUND);
+		assertEquals(1, queue.getDepth());
+		assertEquals(1, queue.getCoalescedCount());
+
+		release.countDown();
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertEquals(2, synchronizations.size());
+		assertEquals("player:false", synchronizations.get(1));
+	}
+
+	@Test
+	public void requestForRunningPlayerRunsOnceMore() throws InterruptedException
+	{
+		Player player = mockPlayer("player");
+		queue.request(player, null, true, SynchronizationQueue.PRIORITY_BACKGROUND);
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+
+		queue.request(player, null, false, SynchronizationQueue.PRIORITY_PLAYER);
+		CountDownLatch done = queue.request(player, null, false, SynchronizationQueue.PRIORITY_PLAYER);
+		assertEquals(0, queue.getDepth());
+
+		release.countDown();
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertEquals(2, synchronizations.size());
+		assertEquals("player:true", synchronizations.get(0));
+		assertEquals("player:false", synchronizations.get(1));
+	}
+
+	@Test
+	public void playerRequestsRunBeforeBackgroundRequests() throws InterruptedException
+	{
+		queue.request(mockPlayer("blocker"), null, true, SynchronizationQueue.PRIORITY_BACKGROUND);
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+
+		CountDownLatch background = queue.request(mockPlayer("background"), null, true, SynchronizationQueue.PRIORITY_BACKGROUND);
+		queue.request(mockPlayer("player"), null, true, SynchronizationQueue.PRIORITY_PLAYER);
+
+		release.countDown();
+		assertTrue(background.await(5, TimeUnit.SECONDS));
+		assertEquals("player:true", synchronizations.get(1));
+		assertEquals("background:true", synchronizations.get(2));
+	}
+
+	@Test
+	public void mergedPlayerRequestMovesAheadOfBackgroundRequests() throws InterruptedException
+	{
+		queue.request(mockPlayer("blocker"), null, true, SynchronizationQueue.PRIORITY_BACKGROUND);
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+
+		Player player = mockPlayer("player");
+		queue.request(player, null, true, SynchronizationQueue.PRIORITY_BACKGROUND);
+		CountDownLatch background = queue.request(mockPlayer("background"), null, true, SynchronizationQueue.PRIORITY_BACKGROUND);
+		queue.request(player, null, true, SynchronizationQueue.PRIORITY_PLAYER);
+
+		release.countDown();
+		assertTrue(background.await(5, TimeUnit.SECONDS));
+		assertEquals("player:true", synchronizations.get(1));
+		assertEquals("background:true", synchronizations.get(2));
+	}
+
+	private Player mockPlayer(String name)
+	{
+		Player player = mock(Player.class);
+		when(player.getName()).thenReturn(name);
+		when(player.getUniqueId()).thenReturn(UUID.randomUUID());
+		return player;
+	}
+}
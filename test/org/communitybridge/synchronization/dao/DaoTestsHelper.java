@@ -1,7 +1,17 @@
 package org.communitybridge.synchronization.dao;
 
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
+import java.util.List;
 import org.communitybridge.main.Configuration;
+import org.communitybridge.main.RowHandler;
+import org.communitybridge.main.RowMapper;
+import org.communitybridge.main.SQL;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import static org.mockito.Mockito.*;
 
 public class DaoTestsHelper
 {
@@ -24,4 +34,76 @@ public class DaoTestsHelper
 		configuration.webappSecondaryGroupStorageMethod = "single";
 		configuration.webappSecondaryAdditionalColumns = new LinkedHashMap<String, Object>();
 	}
+
+	public static void stubQueries(SQL sql, ResultSet result) throws SQLException
+	{
+		when(sql.query(anyString(), any(RowMapper.class), anyVararg())).thenAnswer(rowsFrom(result));
+		when(sql.querySingle(anyString(), any(RowMapper.class), anyVararg())).thenAnswer(firstRowFrom(result));
+		when(sql.queryPrimary(anyString(), any(RowMapper.class), anyVararg())).thenAnswer(rowsFrom(result));
+		when(sql.querySinglePrimary(anyString(), any(RowMapper.class), anyVararg())).thenAnswer(firstRowFrom(result));
+		when(sql.stream(anyString(), any(RowHandler.class), anyVararg())).thenAnswer(streamFrom(result));
+	}
+
+	public static void stubQueriesThrow(SQL sql, SQLException exception) throws SQLException
+	{
+		when(sql.query(anyString(), any(RowMapper.class), anyVararg())).thenThrow(exception);
+		when(sql.querySingle(anyString(), any(RowMapper.class), anyVararg())).thenThrow(exception);
+		when(sql.queryPrimary(anyString(), any(RowMapper.class), anyVararg())).thenThrow(exception);
+		when(sql.querySinglePrimary(anyString(), any(RowMapper.class), anyVararg())).thenThrow(exception);
+		when(sql.stream(anyString(), any(RowHandler.class), anyVararg())).thenThrow(exception);
+	}
+
+	public static Answer<List<Object>> rowsFrom(final ResultSet result)
+	{
+		return new Answer<List<Object>>()
+		{
+			@Override
+			public List<Object> answer(InvocationOnMock invocation) throws Throwable
+			{
+				RowMapper<?> mapper = (RowMapper<?>) invocation.getArguments()[1];
+				List<Object> rows = new ArrayList<Object>();
+				while (result.next())
+				{
+					rows.add(mapper.mapRow(result));
+				}
+				return rows;
+			}
+		};
+	}
+
+	public static Answer<Integer> streamFrom(final ResultSet result)
+	{
+		return new Answer<Integer>()
+		{
+			@Override
+			public Integer answer(InvocationOnMock invocation) throws Throwable
+			{
+				RowHandler handler = (RowHandler) invocation.getArguments()[1];
+				int rows = 0;
+				while (result.next())
+				{
+					handler.handleRow(result);
+					rows++;
+				}
+				return rows;
+			}
+		};
+	}
+
+	public static Answer<Object> firstRowFrom(final ResultSet result)
+	{
+		return new Answer<Object>()
+		{
+			@Override
+			public Object answer(InvocationOnMock invocation) throws Throwable
+			{
+				RowMapper<?> mapper = (RowMapper<?>) invocation.getArguments()[1];
+				if (result.next())
+				{
+					return mapper.mapRow(result);
+				}
+				return null;
+			}
+		};
+	}
 }
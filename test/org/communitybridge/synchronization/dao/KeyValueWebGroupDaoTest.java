@@ -4,15 +4,20 @@ import java.net.MalformedURLException;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import org.apache.commons.lang.RandomStringUtils;
 import org.communitybridge.main.Configuration;
 import org.communitybridge.main.Environment;
+import org.communitybridge.main.RowMapper;
 import org.communitybridge.main.SQL;
 import org.communitybridge.utility.Log;
+import org.communitybridge.utility.StringUtilities;
 import org.junit.Test;
 import static org.junit.Assert.*;
 import org.junit.Before;
+import org.mockito.InOrder;
 import static org.mockito.Mockito.*;
 
 public class KeyValueWebGroupDaoTest
@@ -38,7 +43,7 @@ public class KeyValueWebGroupDaoTest
 		DaoTestsHelper.setupConfiguration(configuration);
 		webGroupDao = new KeyValueWebGroupDao(environment);
 
-		when(sql.sqlQuery(anyString())).thenReturn(result);
+		DaoTestsHelper.stubQueries(sql, result);
 		when(result.next()).thenReturn(true, false);
 		when(result.getString(configuration.webappPrimaryGroupUserIDColumn)).thenReturn(USER_ID);
 	}
@@ -46,24 +51,21 @@ public class KeyValueWebGroupDaoTest
 	@Test
 	public void addGroupUsesCorrectReadQuery() throws MalformedURLException, InstantiationException, IllegalAccessException, SQLException
 	{
-		String query = webGroupDao.getSecondaryGroupReadQuery(USER_ID);
-		when(sql.sqlQuery(query)).thenReturn(result);
+		String query = webGroupDao.secondaryGroupReadQuery;
+		doAnswer(DaoTestsHelper.firstRowFrom(result)).when(sql).querySingle(eq(query), any(RowMapper.class), eq(USER_ID), eq(configuration.webappSecondaryGroupKeyName));
 		when(result.next()).thenReturn(false);
-		doNothing().when(sql).updateQuery(webGroupDao.getGroupIDInsertQuery(USER_ID, group1));
 		webGroupDao.addUserToGroup(USER_ID, group1, 0);
-		verify(sql).sqlQuery(query);
+		verify(sql).querySinglePrimary(eq(query), any(RowMapper.class), eq(USER_ID), eq(configuration.webappSecondaryGroupKeyName));
 	}
 
 	@Test
 	public void addGroupUsesCorrectUpdateQueryWhenRowDoesNotExist() throws MalformedURLException, InstantiationException, IllegalAccessException, SQLException
 	{
-		String query = webGroupDao.getSecondaryGroupReadQuery(USER_ID);
-		when(sql.sqlQuery(query)).thenReturn(result);
+		String query = webGroupDao.secondaryGroupReadQuery;
+		doAnswer(DaoTestsHelper.firstRowFrom(result)).when(sql).querySingle(eq(query), any(RowMapper.class), eq(USER_ID), eq(configuration.webappSecondaryGroupKeyName));
 		when(result.next()).thenReturn(false);
-		query = webGroupDao.getGroupIDInsertQuery(USER_ID, group1);
-		doNothing().when(sql).insertQuery(query);
 		webGroupDao.addUserToGroup(USER_ID, group1, 0);
-		verify(sql).insertQuery(query);
+		verify(sql).write(eq(USER_ID), anyString(), eq(webGroupDao.groupIDInsertQuery), eq(USER_ID), eq(configuration.webappSecondaryGroupKeyName), eq(group1));
 	}
 
 	@Test
@@ -72,14 +74,12 @@ public class KeyValueWebGroupDaoTest
 		groups = group1;
 		List<String> groupsAsList = new ArrayList<String>();
 		groupsAsList.add(group1);
-		String query = webGroupDao.getSecondaryGroupReadQuery(USER_ID);
-		when(sql.sqlQuery(query)).thenReturn(result);
+		String query = webGroupDao.secondaryGroupReadQuery;
+		doAnswer(DaoTestsHelper.firstRowFrom(result)).when(sql).querySingle(eq(query), any(RowMapper.class), eq(USER_ID), eq(configuration.webappSecondaryGroupKeyName));
 		when(result.next()).thenReturn(true);
 		when(result.getString(configuration.webappSecondaryGroupGroupIDColumn)).thenReturn(null);
-		query = webGroupDao.getGroupIDsUpdateQuery(groupsAsList, USER_ID);
-		doNothing().when(sql).updateQuery(query);
 		webGroupDao.addUserToGroup(USER_ID, group1, 0);
-		verify(sql).updateQuery(query);
+		verify(sql).write(eq(USER_ID), anyString(), eq(webGroupDao.groupIDsUpdateQuery), eq(StringUtilities.joinStrings(groupsAsList, configuration.webappSecondaryGroupGroupIDDelimiter)), eq(USER_ID), eq(configuration.webappSecondaryGroupKeyName));
 	}
 
 	@Test
@@ -88,14 +88,12 @@ public class KeyValueWebGroupDaoTest
 		groups = group1;
 		List<String> groupsAsList = new ArrayList<String>();
 		groupsAsList.add(group1);
-		String query = webGroupDao.getSecondaryGroupReadQuery(USER_ID);
-		when(sql.sqlQuery(query)).thenReturn(result);
+		String query = webGroupDao.secondaryGroupReadQuery;
+		doAnswer(DaoTestsHelper.firstRowFrom(result)).when(sql).querySingle(eq(query), any(RowMapper.class), eq(USER_ID), eq(configuration.webappSecondaryGroupKeyName));
 		when(result.next()).thenReturn(true);
 		when(result.getString(configuration.webappSecondaryGroupGroupIDColumn)).thenReturn("");
-		query = webGroupDao.getGroupIDsUpdateQuery(groupsAsList, USER_ID);
-		doNothing().when(sql).updateQuery(query);
 		webGroupDao.addUserToGroup(USER_ID, group1, 0);
-		verify(sql).updateQuery(query);
+		verify(sql).write(eq(USER_ID), anyString(), eq(webGroupDao.groupIDsUpdateQuery), eq(StringUtilities.joinStrings(groupsAsList, configuration.webappSecondaryGroupGroupIDDelimiter)), eq(USER_ID), eq(configuration.webappSecondaryGroupKeyName));
 	}
 
 	@Test
@@ -104,14 +102,12 @@ public class KeyValueWebGroupDaoTest
 		groups = group1;
 		List<String> groupsAsList = new ArrayList<String>();
 		groupsAsList.add(group1);
-		String query = webGroupDao.getSecondaryGroupReadQuery(USER_ID);
-		when(sql.sqlQuery(query)).thenReturn(result);
+		String query = webGroupDao.secondaryGroupReadQuery;
+		doAnswer(DaoTestsHelper.firstRowFrom(result)).when(sql).querySingle(eq(query), any(RowMapper.class), eq(USER_ID), eq(configuration.webappSecondaryGroupKeyName));
 		when(result.next()).thenReturn(true);
 		when(result.getString(configuration.webappSecondaryGroupGroupIDColumn)).thenReturn("      ");
-		query = webGroupDao.getGroupIDsUpdateQuery(groupsAsList, USER_ID);
-		doNothing().when(sql).updateQuery(query);
 		webGroupDao.addUserToGroup(USER_ID, group1, 0);
-		verify(sql).updateQuery(query);
+		verify(sql).write(eq(USER_ID), anyString(), eq(webGroupDao.groupIDsUpdateQuery), eq(StringUtilities.joinStrings(groupsAsList, configuration.webappSecondaryGroupGroupIDDelimiter)), eq(USER_ID), eq(configuration.webappSecondaryGroupKeyName));
 	}
 
 	@Test
@@ -121,34 +117,33 @@ public class KeyValueWebGroupDaoTest
 		List<String> groupsAsList = new ArrayList<String>();
 		groupsAsList.add(group2);
 		groupsAsList.add(group1);
-		String query = webGroupDao.getSecondaryGroupReadQuery(USER_ID);
-		when(sql.sqlQuery(query)).thenReturn(result);
+		String query = webGroupDao.secondaryGroupReadQuery;
+		doAnswer(DaoTestsHelper.firstRowFrom(result)).when(sql).querySingle(eq(query), any(RowMapper.class), eq(USER_ID), eq(configuration.webappSecondaryGroupKeyName));
 		when(result.next()).thenReturn(true);
 		when(result.getString(configuration.webappSecondaryGroupGroupIDColumn)).thenReturn(group2);
-		query = webGroupDao.getGroupIDsUpdateQuery(groupsAsList, USER_ID);
-		doNothing().when(sql).updateQuery(query);
 		webGroupDao.addUserToGroup(USER_ID, group1, 0);
-		verify(sql).updateQuery(query);
+		verify(sql).write(eq(USER_ID), anyString(), eq(webGroupDao.groupIDsUpdateQuery), eq(StringUtilities.joinStrings(groupsAsList, configuration.webappSecondaryGroupGroupIDDelimiter)), eq(USER_ID), eq(configuration.webappSecondaryGroupKeyName));
 	}
 
 	@Test
 	public void removeGroupUsesCorrectReadQuery() throws MalformedURLException, InstantiationException, IllegalAccessException, SQLException
 	{
-		String query = webGroupDao.getSecondaryGroupReadQuery(USER_ID);
-		when(sql.sqlQuery(query)).thenReturn(result);
+		String query = webGroupDao.secondaryGroupReadQuery;
+		doAnswer(DaoTestsHelper.firstRowFrom(result)).when(sql).querySingle(eq(query), any(RowMapper.class), eq(USER_ID), eq(configuration.webappSecondaryGroupKeyName));
 		when(result.next()).thenReturn(false);
 		webGroupDao.removeUserFromGroup(USER_ID, group1);
-		verify(sql).sqlQuery(query);
+		verify(sql).querySinglePrimary(eq(query), any(RowMapper.class), eq(USER_ID), eq(configuration.webappSecondaryGroupKeyName));
 	}
 
 	@Test
 	public void removeGroupHandlesNoResultOnRead() throws MalformedURLException, InstantiationException, IllegalAccessException, SQLException
 	{
-		String query = webGroupDao.getSecondaryGroupReadQuery(USER_ID);
-		when(sql.sqlQuery(query)).thenReturn(result);
+		String query = webGroupDao.secondaryGroupReadQuery;
+		doAnswer(DaoTestsHelper.firstRowFrom(result)).when(sql).querySingle(eq(query), any(RowMapper.class), eq(USER_ID), eq(configuration.webappSecondaryGroupKeyName));
 		when(result.next()).thenReturn(false);
 		webGroupDao.removeUserFromGroup(USER_ID, group1);
-		verify(sql).sqlQuery(query);
+		verify(sql).flushWrites(USER_ID);
+		verify(sql).querySinglePrimary(eq(query), any(RowMapper.class), eq(USER_ID), eq(configuration.webappSecondaryGroupKeyName));
 		verifyNoMoreInteractions(sql);
 	}
 
@@ -178,21 +173,19 @@ public class KeyValueWebGroupDaoTest
 
 	private void testRemoveGroupUpdateQuery(String before, String after) throws SQLException, IllegalAccessException, MalformedURLException, InstantiationException
 	{
-		when(sql.sqlQuery(webGroupDao.getSecondaryGroupReadQuery(USER_ID))).thenReturn(result);
+		doAnswer(DaoTestsHelper.firstRowFrom(result)).when(sql).querySingle(eq(webGroupDao.secondaryGroupReadQuery), any(RowMapper.class), eq(USER_ID), eq(configuration.webappSecondaryGroupKeyName));
 		when(result.next()).thenReturn(true);
 		when(result.getString(configuration.webappSecondaryGroupGroupIDColumn)).thenReturn(before);
-		String query = getRemoveGroupUpdateQuery(after);
-		doNothing().when(sql).updateQuery(query);
 		webGroupDao.removeUserFromGroup(USER_ID, group1);
-		verify(sql).updateQuery(query);
+		verify(sql).write(eq(USER_ID), anyString(), eq(getRemoveGroupUpdateQuery()), eq(after), eq(USER_ID), eq(configuration.webappSecondaryGroupKeyName));
 	}
 
-	private String getRemoveGroupUpdateQuery(String after)
+	private String getRemoveGroupUpdateQuery()
 	{
-		return "UPDATE `" + configuration.webappSecondaryGroupTable + "` "
-				 + "SET `" + configuration.webappSecondaryGroupGroupIDColumn + "` = '" + after + "' "
-				 + "WHERE `" + configuration.webappSecondaryGroupUserIDColumn + "` = '" + USER_ID + "' "
-				 + "AND `" + configuration.webappSecondaryGroupKeyColumn + "` = '" + configuration.webappSecondaryGroupKeyName + "'";
+		return "/* cb:secondary-group-update */ UPDATE `" + configuration.webappSecondaryGroupTable + "` "
+				 + "SET `" + configuration.webappSecondaryGroupGroupIDColumn + "` = ? "
+				 + "WHERE `" + configuration.webappSecondaryGroupUserIDColumn + "` = ? "
+				 + "AND `" + configuration.webappSecondaryGroupKeyColumn + "` = ?";
 	}
 
 	@Test
@@ -242,6 +235,15 @@ public class KeyValueWebGroupDaoTest
 		assertEquals(0, secondaryGroups.size());
 	}
 
+	@Test
+	public void getSecondaryGroupsFlushesUsersWritesBeforeReading() throws SQLException
+	{
+		webGroupDao.getSecondaryGroupIDs(USER_ID);
+		InOrder inOrder = inOrder(sql);
+		inOrder.verify(sql).flushWrites(USER_ID);
+		inOrder.verify(sql).querySinglePrimary(eq(webGroupDao.secondaryGroupReadQuery), any(RowMapper.class), eq(USER_ID), eq(configuration.webappSecondaryGroupKeyName));
+	}
+
 	@Test
 	public void getSecondaryGroupsReturnsOneGroupID() throws IllegalAccessException, InstantiationException,MalformedURLException, SQLException
 	{
@@ -346,4 +348,18 @@ public class KeyValueWebGroupDaoTest
 		assertTrue(secondaryGroups.contains(USER_ID));
 		assertTrue(secondaryGroups.contains(userID2));
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void getSecondaryGroupsForUsersUsesOneQuery() throws SQLException
+	{
+		String query = "/* cb:secondary-groups-read */ SELECT `" + configuration.webappSecondaryGroupUserIDColumn + "`, `" + configuration.webappSecondaryGroupGroupIDColumn + "` "
+								 + "FROM `" + configuration.webappSecondaryGroupTable + "` "
+								 + "WHERE `" + configuration.webappSecondaryGroupUserIDColumn + "` IN (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)" + " AND `" + configuration.webappSecondaryGroupKeyColumn + "` = ?";
+		groups = group1 + "," + group2;
+		when(result.getString(configuration.webappSecondaryGroupUserIDColumn)).thenReturn(USER_ID);
+		when(result.getString(configuration.webappSecondaryGroupGroupIDColumn)).thenReturn(groups);
+		Map<String, List<String>> secondaryGroups = webGroupDao.getSecondaryGroupIDs(Arrays.asList(USER_ID));
+		verify(sql).queryPrimary(eq(query), any(RowMapper.class), anyVararg());
+		assertEquals(Arrays.asList(group1, group2), secondaryGroups.get(USER_ID));
+	}
+}
@@ -3,15 +3,23 @@ package org.communitybridge.synchronization.dao;
 import java.net.MalformedURLException;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Map;
 import org.apache.commons.lang.math.RandomUtils;
 import org.apache.commons.lang3.RandomStringUtils;
 import org.communitybridge.main.Configuration;
 import org.communitybridge.main.Environment;
+import org.communitybridge.main.RowMapper;
 import org.communitybridge.main.SQL;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mockito;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.anyVararg;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -39,16 +47,16 @@ public class MoneyDaoTest
 
 		environment.setConfiguration(configuration);
 		environment.setSql(sql);
-		KEYED_QUERY = "SELECT `" + configuration.walletValueColumn + "` "
+		KEYED_QUERY = "/* cb:wallet-read */ SELECT `" + configuration.walletValueColumn + "` "
 								 + "FROM `" + configuration.walletTableName + "` "
-								 + "WHERE `" + configuration.walletUserIDColumn + "` = '" + USER_ID + "' "
-								 + "AND " + configuration.walletKeyColumn + "` = '" + configuration.walletColumnOrKey + "'";
-		KEYLESS_QUERY = "SELECT `" + configuration.walletColumnOrKey + "` "
+								 + "WHERE `" + configuration.walletUserIDColumn + "` = ? "
+								 + "AND `" + configuration.walletKeyColumn + "` = ?";
+		KEYLESS_QUERY = "/* cb:wallet-read */ SELECT `" + configuration.walletColumnOrKey + "` "
 									+ "FROM `" + configuration.walletTableName + "` "
-									+ "WHERE `" + configuration.walletUserIDColumn + "` = '" + USER_ID + "'";
+									+ "WHERE `" + configuration.walletUserIDColumn + "` = ?";
 
-		when(sql.sqlQuery(KEYED_QUERY)).thenReturn(result);
-		when(sql.sqlQuery(KEYLESS_QUERY)).thenReturn(result);
+		doAnswer(DaoTestsHelper.firstRowFrom(result)).when(sql).querySinglePrimary(eq(KEYED_QUERY), any(RowMapper.class), eq(USER_ID), eq(configuration.walletColumnOrKey));
+		doAnswer(DaoTestsHelper.firstRowFrom(result)).when(sql).querySinglePrimary(eq(KEYLESS_QUERY), any(RowMapper.class), eq(USER_ID));
 		when(result.next()).thenReturn(true);
 		when(result.getDouble(configuration.walletValueColumn)).thenReturn(KEYED_BALANCE);
 		when(result.getDouble(configuration.walletColumnOrKey)).thenReturn(KEYLESS_BALANCE);
@@ -101,24 +109,44 @@ public class MoneyDaoTest
 	public void setBalanceKeylessSetsBalance() throws IllegalAccessException, InstantiationException, MalformedURLException, SQLException
 	{
 		Double balance = RandomUtils.nextDouble();
-		String query = "UPDATE `" + configuration.walletTableName + "` "
-						     + "SET `" + configuration.walletColumnOrKey + "` = '" + balance.toString() + "' "
-								 + "WHERE `" + configuration.walletUserIDColumn + "` = '" + USER_ID + "'";
+		String query = "/* cb:wallet-update */ UPDATE `" + configuration.walletTableName + "` "
+						     + "SET `" + configuration.walletColumnOrKey + "` = ? "
+								 + "WHERE `" + configuration.walletUserIDColumn + "` = ?";
 		configuration.walletUsesKey = false;
 		dao.setBalance(environment, USER_ID, balance);
-		Mockito.verify(sql).updateQuery(query);
+		Mockito.verify(sql).write(eq(USER_ID), anyString(), eq(query), eq(balance.toString()), eq(USER_ID));
 	}
 
 	@Test
 	public void setBalanceKeyedSetsBalance() throws IllegalAccessException, InstantiationException, MalformedURLException, SQLException
 	{
 		Double balance = RandomUtils.nextDouble();
-		String query = "UPDATE `" + configuration.walletTableName + "` "
-						     + "SET `" + configuration.walletValueColumn + "` = '" + balance.toString() + "' "
-								 + "WHERE `" + configuration.walletUserIDColumn + "` = '" + USER_ID + "'"
-								 + "AND " + configuration.walletKeyColumn + "` = '" + configuration.walletColumnOrKey + "'";
+		String query = "/* cb:wallet-update */ UPDATE `" + configuration.walletTableName + "` "
+						     + "SET `" + configuration.walletValueColumn + "` = ? "
+								 + "WHERE `" + configuration.walletUserIDColumn + "` = ? "
+								 + "AND `" + configuration.walletKeyColumn + "` = ?";
 		configuration.walletUsesKey = true;
 		dao.setBalance(environment, USER_ID, balance);
-		Mockito.verify(sql).updateQuery(query);
+		Mockito.verify(sql).write(eq(USER_ID), anyString(), eq(query), eq(balance.toString()), eq(USER_ID), eq(configuration.walletColumnOrKey));
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void getBalancesKeyedUsesOneQuery() throws SQLException
+	{
+		String query = "/* cb:wallets-read */ SELECT `" + configuration.walletUserIDColumn + "`, `" + configuration.walletValueColumn + "` "
+								 + "FROM `" + configuration.walletTableName + "` "
+								 + "WHERE `" + configuration.walletUserIDColumn + "` IN (?, ?, ?, ?, ?, ?, ?, ?, ?, ?) "
+								 + "AND `" + configuration.walletKeyColumn + "` = ?";
+		String otherUserID = USER_ID + "x";
+		configuration.walletUsesKey = true;
+		when(sql.queryPrimary(anyString(), any(RowMapper.class), anyVararg())).thenAnswer(DaoTestsHelper.rowsFrom(result));
+		when(result.next()).thenReturn(true, false);
+		when(result.getString(configuration.walletUserIDColumn)).thenReturn(USER_ID);
+
+		Map<String, Double> balances = dao.getBalances(environment, Arrays.asList(USER_ID, otherUserID));
+
+		Mockito.verify(sql).queryPrimary(eq(query), any(RowMapper.class), anyVararg());
+		Assert.assertEquals(KEYED_BALANCE, balances.get(USER_ID), 0.0);
+		Assert.assertEquals(0.0, balances.get(otherUserID), 0.0);
+	}
+}
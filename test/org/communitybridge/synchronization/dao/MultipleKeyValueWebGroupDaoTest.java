@@ -3,10 +3,13 @@ package org.communitybridge.synchronization.dao;
 import java.net.MalformedURLException;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import org.apache.commons.lang.RandomStringUtils;
 import org.communitybridge.main.Configuration;
 import org.communitybridge.main.Environment;
+import org.communitybridge.main.RowMapper;
 import org.communitybridge.main.SQL;
 import org.communitybridge.utility.Log;
 import org.junit.Test;
@@ -36,7 +39,7 @@ public class MultipleKeyValueWebGroupDaoTest
 		DaoTestsHelper.setupConfiguration(configuration);
 		webGroupDao = new MultipleKeyValueWebGroupDao(environment);
 
-		when(sql.sqlQuery(anyString())).thenReturn(result);
+		DaoTestsHelper.stubQueries(sql, result);
 		when(result.next()).thenReturn(true, false);
 		when(result.getString(configuration.webappPrimaryGroupUserIDColumn)).thenReturn(USER_ID);
 	}
@@ -44,24 +47,23 @@ public class MultipleKeyValueWebGroupDaoTest
 	@Test
 	public void addGroupUsesCorrectQuery() throws MalformedURLException, InstantiationException, IllegalAccessException, SQLException
 	{
-		String query = "INSERT INTO `" + configuration.webappSecondaryGroupTable + "` "
+		String query = "/* cb:secondary-group-add */ INSERT INTO `" + configuration.webappSecondaryGroupTable + "` "
 								 + "(`" + configuration.webappSecondaryGroupUserIDColumn + "`, `" + configuration.webappSecondaryGroupKeyColumn + "`, `" + configuration.webappSecondaryGroupGroupIDColumn + "`) "
-								 + "VALUES ('" + USER_ID + "', '" + configuration.webappSecondaryGroupKeyName + "', '" + group1 + "')";
-		doNothing().when(sql).insertQuery(query);
+								 + "VALUES (?, ?, ?)";
 		webGroupDao.addUserToGroup(USER_ID, group1, 0);
-		verify(sql).insertQuery(query);
+		verify(sql).write(eq(USER_ID), anyString(), eq(query), eq(USER_ID), eq(configuration.webappSecondaryGroupKeyName), eq(group1));
 	}
 
 	@Test
 	public void removeGroupUsesCorrectQuery() throws MalformedURLException, InstantiationException, IllegalAccessException, SQLException
 	{
-		String query = "DELETE FROM `" + configuration.webappSecondaryGroupTable + "` "
-								 + "WHERE `" + configuration.webappSecondaryGroupKeyColumn + "` = '" + configuration.webappSecondaryGroupKeyName + "' "
-								 + "AND `" + configuration.webappSecondaryGroupGroupIDColumn + "` = '" + group1 + "' ";
+		String query = "/* cb:secondary-group-remove */ DELETE FROM `" + configuration.webappSecondaryGroupTable + "` "
+								 + "WHERE `" + configuration.webappSecondaryGroupUserIDColumn + "` = ? "
+								 + "AND `" + configuration.webappSecondaryGroupKeyColumn + "` = ? "
+								 + "AND `" + configuration.webappSecondaryGroupGroupIDColumn + "` = ?";
 
-		doNothing().when(sql).deleteQuery(query);
 		webGroupDao.removeUserFromGroup(USER_ID, group1);
-		verify(sql).deleteQuery(query);
+		verify(sql).write(eq(USER_ID), anyString(), eq(query), eq(USER_ID), eq(configuration.webappSecondaryGroupKeyName), eq(group1));
 	}
 
 	@Test
@@ -215,4 +217,18 @@ public class MultipleKeyValueWebGroupDaoTest
 		assertTrue(secondaryGroups.contains(USER_ID));
 		assertTrue(secondaryGroups.contains(userID2));
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void getSecondaryGroupsForUsersUsesOneQuery() throws SQLException
+	{
+		String query = "/* cb:secondary-groups-read */ SELECT `" + configuration.webappSecondaryGroupUserIDColumn + "`, `" + configuration.webappSecondaryGroupGroupIDColumn + "` "
+								 + "FROM `" + configuration.webappSecondaryGroupTable + "` "
+								 + "WHERE `" + configuration.webappSecondaryGroupUserIDColumn + "` IN (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)" + " AND `" + configuration.webappSecondaryGroupKeyColumn + "` = ?";
+		when(result.next()).thenReturn(true, true, false);
+		when(result.getString(configuration.webappSecondaryGroupUserIDColumn)).thenReturn(USER_ID);
+		when(result.getString(configuration.webappSecondaryGroupGroupIDColumn)).thenReturn(group1, group2);
+		Map<String, List<String>> secondaryGroups = webGroupDao.getSecondaryGroupIDs(Arrays.asList(USER_ID));
+		verify(sql).queryPrimary(eq(query), any(RowMapper.class), anyVararg());
+		assertEquals(Arrays.asList(group1, group2), secondaryGroups.get(USER_ID));
+	}
+}
@@ -3,10 +3,13 @@ package org.communitybridge.synchronization.dao;
 import java.net.MalformedURLException;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import org.apache.commons.lang.RandomStringUtils;
 import org.communitybridge.main.Configuration;
 import org.communitybridge.main.Environment;
+import org.communitybridge.main.RowMapper;
 import org.communitybridge.main.SQL;
 import org.communitybridge.utility.Log;
 import org.junit.Test;
@@ -38,63 +41,58 @@ public class SingleWebGroupDaoTest
 
 		webGroupDao = new SingleWebGroupDao(environment);
 
-		when(sql.sqlQuery(anyString())).thenReturn(result);
+		DaoTestsHelper.stubQueries(sql, result);
 		when(result.next()).thenReturn(true, false);
 	}
 
 	@Test
 	public void addGroupWithZeroCountUsesCorrectQuery() throws MalformedURLException, InstantiationException, IllegalAccessException, SQLException
 	{
-		String query = getAddGroupUpdateQuery("");
-		doNothing().when(sql).updateQuery(query);
 		webGroupDao.addUserToGroup(USER_ID, GROUP_ID, 0);
-		verify(sql).updateQuery(query);
+		verify(sql).write(eq(USER_ID), anyString(), eq(getAddGroupUpdateQuery()), eq(GROUP_ID), eq(USER_ID));
 	}
 
 	@Test
 	public void addGroupWithOneCountUsesCorrectQuery() throws MalformedURLException, InstantiationException, IllegalAccessException, SQLException
 	{
-		String query = getAddGroupUpdateQuery(",");
-		doNothing().when(sql).updateQuery(query);
 		webGroupDao.addUserToGroup(USER_ID, GROUP_ID, 1);
-		verify(sql).updateQuery(query);
+		verify(sql).write(eq(USER_ID), anyString(), eq(getAddGroupUpdateQuery()), eq("," + GROUP_ID), eq(USER_ID));
 	}
 
 	@Test
 	public void addGroupWithTwoCountUsesCorrectQuery() throws MalformedURLException, InstantiationException, IllegalAccessException, SQLException
 	{
-		String query = getAddGroupUpdateQuery(",");
-		doNothing().when(sql).updateQuery(query);
 		webGroupDao.addUserToGroup(USER_ID, GROUP_ID, 2);
-		verify(sql).updateQuery(query);
+		verify(sql).write(eq(USER_ID), anyString(), eq(getAddGroupUpdateQuery()), eq("," + GROUP_ID), eq(USER_ID));
 	}
 
 
-	private String getAddGroupUpdateQuery(String comma)
+	private String getAddGroupUpdateQuery()
 	{
-		return "UPDATE `" + configuration.webappSecondaryGroupTable + "` "
-				 + "SET `" + configuration.webappSecondaryGroupGroupIDColumn + "` = CONCAT(`" + configuration.webappSecondaryGroupGroupIDColumn + "`, '"+ comma + GROUP_ID + "') "
-				 + "WHERE `" + configuration.webappSecondaryGroupUserIDColumn + "` = '" + USER_ID + "'";
+		return "/* cb:secondary-group-add */ UPDATE `" + configuration.webappSecondaryGroupTable + "` "
+				 + "SET `" + configuration.webappSecondaryGroupGroupIDColumn + "` = CONCAT(`" + configuration.webappSecondaryGroupGroupIDColumn + "`, ?) "
+				 + "WHERE `" + configuration.webappSecondaryGroupUserIDColumn + "` = ?";
 	}
 
 	@Test
 	public void removeGroupUsesCorrectReadQuery() throws MalformedURLException, InstantiationException, IllegalAccessException, SQLException
 	{
 		String query = getRemoveGroupReadQuery();
-		when(sql.sqlQuery(query)).thenReturn(result);
+		doAnswer(DaoTestsHelper.firstRowFrom(result)).when(sql).querySingle(eq(query), any(RowMapper.class), eq(USER_ID));
 		when(result.next()).thenReturn(false);
 		webGroupDao.removeUserFromGroup(USER_ID, GROUP_ID);
-		verify(sql).sqlQuery(query);
+		verify(sql).querySinglePrimary(eq(query), any(RowMapper.class), eq(USER_ID));
 	}
 
 	@Test
 	public void removeGroupHandlesNoResultOnRead() throws MalformedURLException, InstantiationException, IllegalAccessException, SQLException
 	{
 		String query = getRemoveGroupReadQuery();
-		when(sql.sqlQuery(query)).thenReturn(result);
+		doAnswer(DaoTestsHelper.firstRowFrom(result)).when(sql).querySingle(eq(query), any(RowMapper.class), eq(USER_ID));
 		when(result.next()).thenReturn(false);
 		webGroupDao.removeUserFromGroup(USER_ID, GROUP_ID);
-		verify(sql).sqlQuery(query);
+		verify(sql).flushWrites(USER_ID);
+		verify(sql).querySinglePrimary(eq(query), any(RowMapper.class), eq(USER_ID));
 		verifyNoMoreInteractions(sql);
 	}
 
@@ -124,27 +122,25 @@ public class SingleWebGroupDaoTest
 
 	private void testRemoveGroupUpdateQuery(String before, String after) throws SQLException, IllegalAccessException, MalformedURLException, InstantiationException
 	{
-		when(sql.sqlQuery(getRemoveGroupReadQuery())).thenReturn(result);
+		doAnswer(DaoTestsHelper.firstRowFrom(result)).when(sql).querySingle(eq(getRemoveGroupReadQuery()), any(RowMapper.class), eq(USER_ID));
 		when(result.next()).thenReturn(true);
 		when(result.getString(configuration.webappSecondaryGroupGroupIDColumn)).thenReturn(before);
-		String query = getRemoveGroupUpdateQuery(after);
-		doNothing().when(sql).updateQuery(query);
 		webGroupDao.removeUserFromGroup(USER_ID, group1);
-		verify(sql).updateQuery(query);
+		verify(sql).write(eq(USER_ID), anyString(), eq(getRemoveGroupUpdateQuery()), eq(after), eq(USER_ID));
 	}
 
 	private String getRemoveGroupReadQuery()
 	{
-		return "SELECT `" + configuration.webappSecondaryGroupGroupIDColumn + "` "
+		return "/* cb:secondary-group-read */ SELECT `" + configuration.webappSecondaryGroupGroupIDColumn + "` "
 					+ "FROM `" + configuration.webappSecondaryGroupTable + "` "
-					+ "WHERE `" + configuration.webappSecondaryGroupUserIDColumn + "` = '" + USER_ID + "'";
+					+ "WHERE `" + configuration.webappSecondaryGroupUserIDColumn + "` = ?";
 	}
 
-	private String getRemoveGroupUpdateQuery(String after)
+	private String getRemoveGroupUpdateQuery()
 	{
-		return "UPDATE `" + configuration.webappSecondaryGroupTable + "` "
-				 + "SET `" + configuration.webappSecondaryGroupGroupIDColumn + "` = '" + after + "' "
-				 + "WHERE `" + configuration.webappSecondaryGroupUserIDColumn + "` = '" + USER_ID + "'";
+		return "/* cb:secondary-group-update */ UPDATE `" + configuration.webappSecondaryGroupTable + "` "
+				 + "SET `" + configuration.webappSecondaryGroupGroupIDColumn + "` = ? "
+				 + "WHERE `" + configuration.webappSecondaryGroupUserIDColumn + "` = ?";
 	}
 
 	@Test
@@ -292,4 +288,26 @@ public class SingleWebGroupDaoTest
 		assertTrue(secondaryGroups.contains(USER_ID));
 		assertTrue(secondaryGroups.contains(userID2));
 	}
+
+	@Test
+	public void getSecondaryGroupsForUsersUsesOneQuery() throws SQLException
+	{
+		String query = "/* cb:secondary-groups-read */ SELECT `" + configuration.webappSecondaryGroupUserIDColumn + "`, `" + configuration.webappSecondaryGroupGroupIDColumn + "` "
+								 + "FROM `" + configuration.webappSecondaryGroupTable + "` "
+								 + "WHERE `" + configuration.webappSecondaryGroupUserIDColumn + "` IN (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+		groups = group1 + "," + group2;
+		when(result.getString(configuration.webappSecondaryGroupUserIDColumn)).thenReturn(USER_ID);
+		when(result.getString(configuration.webappSecondaryGroupGroupIDColumn)).thenReturn(groups);
+		Map<String, List<String>> secondaryGroups = webGroupDao.getSecondaryGroupIDs(Arrays.asList(USER_ID));
+		verify(sql).queryPrimary(eq(query), any(RowMapper.class), anyVararg());
+		assertEquals(Arrays.asList(group1, group2), secondaryGroups.get(USER_ID));
+	}
+
+	@Test
+	public void getSecondaryGroupsForUsersWithNoRowReturnsEmptyList() throws SQLException
+	{
+		when(result.next()).thenReturn(false);
+		Map<String, List<String>> secondaryGroups = webGroupDao.getSecondaryGroupIDs(Arrays.asList(USER_ID));
+		assertTrue(secondaryGroups.get(USER_ID).isEmpty());
+	}
 }
@@ -6,14 +6,17 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import org.apache.commons.lang.RandomStringUtils;
 import org.communitybridge.main.Configuration;
 import org.communitybridge.main.Environment;
+import org.communitybridge.main.RowMapper;
 import org.communitybridge.main.SQL;
 import org.communitybridge.utility.Log;
 import org.junit.Test;
 import static org.junit.Assert.*;
 import org.junit.Before;
+import org.mockito.InOrder;
 import static org.mockito.Mockito.*;
 
 public class WebGroupDaoTest
@@ -57,7 +60,7 @@ public class WebGroupDaoTest
 	@Test
 	public void getPrimaryGroupKeyedWithUnknownIDReturnsBlank() throws MalformedURLException, InstantiationException, IllegalAccessException, SQLException
 	{
-		when(sql.sqlQuery(anyString())).thenReturn(result);
+		DaoTestsHelper.stubQueries(sql, result);
 		assertEquals("", webGroupDao.getPrimaryGroupID(user_id1));
 	}
 
@@ -65,24 +68,35 @@ public class WebGroupDaoTest
 	public void getPrimaryGroupKeylessWithUnknownIDReturnsBlank() throws MalformedURLException, InstantiationException, IllegalAccessException, SQLException
 	{
 		configuration.webappPrimaryGroupUsesKey = false;
-		when(sql.sqlQuery(anyString())).thenReturn(result);
+		webGroupDao = new TestableWebGroupDao(environment);
+		DaoTestsHelper.stubQueries(sql, result);
 		assertEquals("", webGroupDao.getPrimaryGroupID(user_id1));
 	}
 
 	@Test
 	public void getPrimaryGroupKeyedWithValidIDReturnsGroup() throws MalformedURLException, InstantiationException, IllegalAccessException, SQLException
 	{
-		when(sql.sqlQuery(anyString())).thenReturn(result);
+		DaoTestsHelper.stubQueries(sql, result);
 		when(result.next()).thenReturn(Boolean.TRUE);
 		when(result.getString(configuration.webappPrimaryGroupGroupIDColumn)).thenReturn(group1);
 		assertEquals(group1, webGroupDao.getPrimaryGroupID(user_id1));
 	}
 
+	@Test
+	public void getPrimaryGroupFlushesUsersWritesBeforeReading() throws SQLException
+	{
+		webGroupDao.getPrimaryGroupID(user_id1);
+		InOrder inOrder = inOrder(sql);
+		inOrder.verify(sql).flushWrites(user_id1);
+		inOrder.verify(sql).querySinglePrimary(anyString(), any(RowMapper.class), eq(user_id1), eq(configuration.webappPrimaryGroupKeyName));
+	}
+
 	@Test
 	public void getPrimaryGroupKeylessWithValidIDReturnsGroup() throws MalformedURLException, InstantiationException, IllegalAccessException, SQLException
 	{
 		configuration.webappPrimaryGroupUsesKey = false;
-		when(sql.sqlQuery(anyString())).thenReturn(result);
+		webGroupDao = new TestableWebGroupDao(environment);
+		DaoTestsHelper.stubQueries(sql, result);
 		when(result.next()).thenReturn(Boolean.TRUE);
 		when(result.getString(configuration.webappPrimaryGroupGroupIDColumn)).thenReturn(group1);
 		assertEquals(group1, webGroupDao.getPrimaryGroupID(user_id1));
@@ -193,7 +207,7 @@ public class WebGroupDaoTest
 	@Test
 	public void getPrimaryGroupUserIDsWhenNoMembersReturnsEmptyList() throws IllegalAccessException, InstantiationException, MalformedURLException, SQLException
 	{
-		when(sql.sqlQuery(anyString())).thenReturn(result);
+		DaoTestsHelper.stubQueries(sql, result);
 		when(result.next()).thenReturn(false);
 		assertEquals(0, webGroupDao.getUserIDsFromPrimaryGroup(group1).size());
 	}
@@ -201,7 +215,7 @@ public class WebGroupDaoTest
 	@Test
 	public void getPrimaryGroupUserIDsReturnsUserID() throws IllegalAccessException, InstantiationException, MalformedURLException, SQLException
 	{
-		when(sql.sqlQuery(anyString())).thenReturn(result);
+		DaoTestsHelper.stubQueries(sql, result);
 		when(result.next()).thenReturn(true, false);
 		when(result.getString(configuration.webappPrimaryGroupUserIDColumn)).thenReturn(user_id1);
 		List<String> groupMembers = webGroupDao.getUserIDsFromPrimaryGroup(group1);
@@ -213,7 +227,7 @@ public class WebGroupDaoTest
 	public void getPrimaryGroupUserIDsWithMultipleUserIDsReturnUserIDs() throws IllegalAccessException, InstantiationException, MalformedURLException, SQLException
 	{
 		String userID2 = RandomStringUtils.randomNumeric(2);
-		when(sql.sqlQuery(anyString())).thenReturn(result);
+		DaoTestsHelper.stubQueries(sql, result);
 		when(result.next()).thenReturn(true, true, false);
 		when(result.getString(configuration.webappPrimaryGroupUserIDColumn)).thenReturn(user_id1, userID2);
 
@@ -230,30 +244,9 @@ public class WebGroupDaoTest
 		testGroupUserIDsGroupsException(exception);
 	}
 
-	@Test
-	public void getGroupUserIDsHandlesMalformedURLException() throws MalformedURLException, InstantiationException, IllegalAccessException, SQLException
-	{
-		MalformedURLException exception = new MalformedURLException(EXCEPTION_MESSAGE);
-		testGroupUserIDsGroupsException(exception);
-	}
-
-	@Test
-	public void getGroupUserIDsHandlesInstantiationException() throws MalformedURLException, InstantiationException, IllegalAccessException, SQLException
+	private void testGroupUserIDsGroupsException(SQLException exception) throws SQLException
 	{
-		InstantiationException exception = new InstantiationException(EXCEPTION_MESSAGE);
-		testGroupUserIDsGroupsException(exception);
-	}
-
-	@Test
-	public void getGroupUserIDsHandlesIllegalAccessException() throws MalformedURLException, InstantiationException, IllegalAccessException, SQLException
-	{
-		IllegalAccessException exception = new IllegalAccessException(EXCEPTION_MESSAGE);
-		testGroupUserIDsGroupsException(exception);
-	}
-
-	private void testGroupUserIDsGroupsException(Exception exception) throws SQLException, InstantiationException, IllegalAccessException, MalformedURLException
-	{
-		when(sql.sqlQuery(anyString())).thenThrow(exception);
+		DaoTestsHelper.stubQueriesThrow(sql, exception);
 		assertEquals(0, webGroupDao.getGroupUserIDs(group1).size());
 		verify(log).severe(SingleWebGroupDao.EXCEPTION_MESSAGE_GET_USERIDS + exception.getMessage());
 	}
@@ -263,7 +256,7 @@ public class WebGroupDaoTest
 	{
 		String primaryID1 = RandomStringUtils.randomNumeric(2);
 		String primaryID2 = RandomStringUtils.randomNumeric(2);
-		when(sql.sqlQuery(anyString())).thenReturn(result);
+		DaoTestsHelper.stubQueries(sql, result);
 		when(result.next()).thenReturn(true, true, false);
 		when(result.getString(configuration.webappPrimaryGroupUserIDColumn)).thenReturn(primaryID1, primaryID2);
 
@@ -295,11 +288,40 @@ public class WebGroupDaoTest
 		}
 
 		@Override
-		public void addUserToGroup(String userID, String groupID, int currentGroupCount) throws IllegalAccessException, InstantiationException, MalformedURLException, SQLException
+		public void addUserToGroup(String userID, String groupID, int currentGroupCount) throws SQLException
 		{}
 
 		@Override
-		public void removeUserFromGroup(String userID, String groupName) throws IllegalAccessException, InstantiationException, MalformedURLException, SQLException
+		public void removeUserFromGroup(String userID, String groupName) throws SQLException
 		{}
 	}
+
+	@Test
+	public void getPrimaryGroupsForUsersUsesOneQuery() throws SQLException
+	{
+		String query = "/* cb:primary-groups-read */ SELECT `" + configuration.webappPrimaryGroupUserIDColumn + "`, `" + configuration.webappPrimaryGroupGroupIDColumn + "` "
+								 + "FROM `" + configuration.webappPrimaryGroupTable + "` "
+								 + "WHERE `" + configuration.webappPrimaryGroupUserIDColumn + "` IN (?, ?, ?, ?, ?, ?, ?, ?, ?, ?) "
+								 + "AND `" + configuration.webappPrimaryGroupKeyColumn + "` = ?";
+		DaoTestsHelper.stubQueries(sql, result);
+		when(result.next()).thenReturn(true, false);
+		when(result.getString(configuration.webappPrimaryGroupUserIDColumn)).thenReturn(user_id1);
+		when(result.getString(configuration.webappPrimaryGroupGroupIDColumn)).thenReturn(group1);
+
+		String otherUserID = user_id1 + "0";
+		Map<String, String> groupIDs = webGroupDao.getPrimaryGroupIDs(Arrays.asList(user_id1, otherUserID));
+
+		verify(sql).queryPrimary(eq(query), any(RowMapper.class), anyVararg());
+		assertEquals(group1, groupIDs.get(user_id1));
+		assertEquals("", groupIDs.get(otherUserID));
+	}
+
+	@Test
+	public void getPrimaryGroupsForUsersWithPrimaryDisabledReturnsBlanks() throws SQLException
+	{
+		configuration.webappPrimaryGroupEnabled = false;
+		Map<String, String> groupIDs = webGroupDao.getPrimaryGroupIDs(Arrays.asList(user_id1));
+		assertEquals("", groupIDs.get(user_id1));
+		verifyZeroInteractions(sql);
+	}
 }
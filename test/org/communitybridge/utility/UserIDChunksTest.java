@@ -0,0 +1,41 @@
+package org.communitybridge.utility;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class UserIDChunksTest
+{
+	@Test
+	public void splitDropsDuplicatesAndPadsWithLastUserID()
+	{
+		List<List<String>> chunks = UserIDChunks.split(Arrays.asList("1", "2", "1", "3"));
+		assertEquals(1, chunks.size());
+		assertEquals(10, chunks.get(0).size());
+		assertEquals(Arrays.asList("1", "2", "3", "3"), chunks.get(0).subList(0, 4));
+		assertEquals("3", chunks.get(0).get(9));
+	}
+
+	@Test
+	public void splitLimitsChunksToOneHundred()
+	{
+		List<String> userIDs = new ArrayList<String>();
+		for (int userID = 0; userID < 101; userID++)
+		{
+			userIDs.add(String.valueOf(userID));
+		}
+		List<List<String>> chunks = UserIDChunks.split(userIDs);
+		assertEquals(2, chunks.size());
+		assertEquals(100, chunks.get(0).size());
+		assertEquals(10, chunks.get(1).size());
+		assertEquals("100", chunks.get(1).get(0));
+	}
+
+	@Test
+	public void placeholdersMatchSize()
+	{
+		assertEquals("?, ?, ?", UserIDChunks.placeholders(3));
+	}
+}